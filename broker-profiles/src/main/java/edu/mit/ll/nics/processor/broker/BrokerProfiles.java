@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.broker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.camel.component.properties.PropertiesFunction;
+import org.apache.log4j.Logger;
+
+/**
+ * Named RabbitMQ consumer profiles, referenced from endpoint URIs as a Camel property placeholder function.
+ *
+ * <p>Registered on a route's propertyPlaceholder as a propertiesFunction, a rabbitmq URI in the properties file
+ * ends with &amp;{{rabbitProfile:feed}}, which is replaced with the prefetch, concurrency and channel pool options
+ * of the 'feed' profile. The shared profiles are defined in broker-profiles.properties on the classpath, and
+ * can be tuned, or new ones added, per component with rabbitProfile.&lt;name&gt;.&lt;option&gt; entries in the
+ * 'profilesFile'. Options a profile doesn't set are inherited from the 'default' profile. Last of all, rabbitProfile.*
+ * system properties are applied, so a host running several components can override the profiles of all of them,
+ * e.g., pointing them at its shared connection.</p>
+ */
+public class BrokerProfiles implements PropertiesFunction {
+
+    private static final Logger LOG = Logger.getLogger(BrokerProfiles.class);
+
+    /**
+     * Name of the placeholder function
+     */
+    public static final String FUNCTION_NAME = "rabbitProfile";
+
+    /**
+     * Prefix of profile options in the properties files
+     */
+    public static final String PREFIX = FUNCTION_NAME + ".";
+
+    public static final String DEFAULT_PROFILE = "default";
+
+    private static final String DEFAULTS_RESOURCE = "/broker-profiles.properties";
+
+    private Map<String, ConsumerProfile> profiles = Collections.emptyMap();
+
+    // Properties
+
+    /**
+     * Properties file with rabbitProfile.* entries overriding or adding to the shared profiles, e.g., the
+     * component's own properties file. Optional
+     */
+    private String profilesFile;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public BrokerProfiles() {
+    }
+
+    /**
+     * Loads the shared profiles, then those in the profilesFile, then rabbitProfile.* system properties. Called by
+     * Spring once properties have been set
+     *
+     * @throws IOException when a profiles file can't be read
+     */
+    public void init() throws IOException {
+        Properties properties = new Properties();
+        try(InputStream in = BrokerProfiles.class.getResourceAsStream(DEFAULTS_RESOURCE)) {
+            if(in != null) {
+                properties.load(in);
+            } else {
+                LOG.warn("No " + DEFAULTS_RESOURCE + " on the classpath, only profiles in " + profilesFile
+                        + " are defined");
+            }
+        }
+        if(profilesFile != null && !profilesFile.trim().isEmpty()) {
+            try(InputStream in = new FileInputStream(new File(profilesFile.trim()))) {
+                properties.load(in);
+            }
+        }
+        for(String key : System.getProperties().stringPropertyNames()) {
+            if(key.startsWith(PREFIX)) {
+                properties.setProperty(key, System.getProperty(key));
+            }
+        }
+        load(properties);
+    }
+
+    /**
+     * Replaces the profiles with those defined in the properties
+     *
+     * @param properties the rabbitProfile.&lt;name&gt;.&lt;option&gt; entries
+     * @throws IllegalArgumentException when an option is invalid
+     */
+    public void load(Properties properties) {
+        Map<String, ConsumerProfile> loaded = new LinkedHashMap<>();
+
+        ConsumerProfile defaults = new ConsumerProfile(DEFAULT_PROFILE);
+        defaults.apply(properties, PREFIX + DEFAULT_PROFILE + ".");
+        loaded.put(DEFAULT_PROFILE, defaults);
+
+        for(String key : properties.stringPropertyNames()) {
+            if(!key.startsWith(PREFIX)) {
+                continue;
+            }
+            int dot = key.indexOf('.', PREFIX.length());
+            if(dot < 0) {
+                throw new IllegalArgumentException("Broker profile option " + key + " has no option name");
+            }
+            String name = key.substring(PREFIX.length(), dot);
+            if(!loaded.containsKey(name)) {
+                ConsumerProfile profile = new ConsumerProfile(name, defaults);
+                profile.apply(properties, PREFIX + name + ".");
+                loaded.put(name, profile);
+            }
+        }
+
+        profiles = Collections.unmodifiableMap(loaded);
+        for(ConsumerProfile profile : loaded.values()) {
+            LOG.info("Broker profile " + profile);
+        }
+    }
+
+    /**
+     * Gets a profile by name
+     *
+     * @param name the profile name
+     * @return the profile
+     * @throws IllegalArgumentException when there's no profile with the name
+     */
+    public ConsumerProfile getProfile(String name) {
+        ConsumerProfile profile = profiles.get(name == null ? DEFAULT_PROFILE : name.trim());
+        if(profile == null) {
+            throw new IllegalArgumentException("No broker profile named '" + name + "', defined profiles are "
+                    + profiles.keySet());
+        }
+        return profile;
+    }
+
+    @Override
+    public String getName() {
+        return FUNCTION_NAME;
+    }
+
+    /**
+     * Resolves {{rabbitProfile:name}} to the endpoint options of the named profile
+     *
+     * @param remainder the profile name
+     * @return the endpoint options
+     */
+    @Override
+    public String apply(String remainder) {
+        return getProfile(remainder).toUriOptions();
+    }
+
+    // Getters and Setters
+
+    public Map<String, ConsumerProfile> getProfiles() {
+        return profiles;
+    }
+
+    public String getProfilesFile() {
+        return profilesFile;
+    }
+
+    public void setProfilesFile(String profilesFile) {
+        this.profilesFile = profilesFile;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.broker;
+
+import java.util.Properties;
+
+/**
+ * A named set of RabbitMQ consumer and producer tuning options, rendered as camel-rabbitmq endpoint options.
+ *
+ * <p>Options not set for a profile are inherited from the profile it's created from, normally 'default'.</p>
+ */
+public class ConsumerProfile {
+
+    public static final String PREFETCH_COUNT = "prefetchCount";
+    public static final String CONCURRENT_CONSUMERS = "concurrentConsumers";
+    public static final String THREAD_POOL_SIZE = "threadPoolSize";
+    public static final String CHANNEL_POOL_MAX_SIZE = "channelPoolMaxSize";
+    public static final String CHANNEL_POOL_MAX_WAIT = "channelPoolMaxWait";
+    public static final String CONNECTION_FACTORY = "connectionFactory";
+
+    private final String name;
+
+    /**
+     * Maximum unacknowledged messages delivered to each consumer, 0 for no limit
+     */
+    private int prefetchCount = 0;
+
+    /**
+     * Number of consumers, each with its own channel
+     */
+    private int concurrentConsumers = 1;
+
+    /**
+     * Threads the consumers process messages on, at least concurrentConsumers
+     */
+    private int threadPoolSize = 1;
+
+    /**
+     * Maximum channels pooled for producers on the endpoint
+     */
+    private int channelPoolMaxSize = 10;
+
+    /**
+     * Milliseconds a producer waits for a pooled channel
+     */
+    private long channelPoolMaxWait = 1000;
+
+    /**
+     * Registry reference, e.g., #hostAmqpConnectionFactory, of the ConnectionFactory the endpoint connects with.
+     * Empty for the endpoint to connect with its own URI options
+     */
+    private String connectionFactory = "";
+
+    public ConsumerProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a profile with the options of another
+     *
+     * @param name the name of the new profile
+     * @param base the profile to copy the options of
+     */
+    public ConsumerProfile(String name, ConsumerProfile base) {
+        this(name);
+        prefetchCount = base.prefetchCount;
+        concurrentConsumers = base.concurrentConsumers;
+        threadPoolSize = base.threadPoolSize;
+        channelPoolMaxSize = base.channelPoolMaxSize;
+        channelPoolMaxWait = base.channelPoolMaxWait;
+        connectionFactory = base.connectionFactory;
+    }
+
+    /**
+     * Sets the options found under 'prefix' in the properties, e.g., rabbitProfile.feed.prefetchCount
+     *
+     * @param properties the properties to read
+     * @param prefix     the prefix of this profile's options, including the trailing '.'
+     * @throws IllegalArgumentException when an option isn't a number, or is out of range
+     */
+    public void apply(Properties properties, String prefix) {
+        prefetchCount = intOption(properties, prefix + PREFETCH_COUNT, prefetchCount, 0);
+        concurrentConsumers = intOption(properties, prefix + CONCURRENT_CONSUMERS, concurrentConsumers, 1);
+        threadPoolSize = intOption(properties, prefix + THREAD_POOL_SIZE, threadPoolSize, 1);
+        channelPoolMaxSize = intOption(properties, prefix + CHANNEL_POOL_MAX_SIZE, channelPoolMaxSize, 1);
+        channelPoolMaxWait = longOption(properties, prefix + CHANNEL_POOL_MAX_WAIT, channelPoolMaxWait, 0);
+        connectionFactory = properties.getProperty(prefix + CONNECTION_FACTORY, connectionFactory).trim();
+    }
+
+    private static int intOption(Properties properties, String key, int current, int min) {
+        return (int) Math.min(Integer.MAX_VALUE, longOption(properties, key, current, min));
+    }
+
+    private static long longOption(Properties properties, String key, long current, long min) {
+        String value = properties.getProperty(key);
+        if(value == null || value.trim().isEmpty()) {
+            return current;
+        }
+        long parsed;
+        try {
+            parsed = Long.parseLong(value.trim());
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Broker profile option " + key + " is not a number: " + value, e);
+        }
+        if(parsed < min) {
+            throw new IllegalArgumentException("Broker profile option " + key + " must be at least " + min
+                    + ", was " + parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Renders the profile as camel-rabbitmq endpoint options, to be appended to a rabbitmq:// URI after a '&amp;'
+     *
+     * @return the endpoint options
+     */
+    public String toUriOptions() {
+        StringBuilder options = new StringBuilder();
+        if(prefetchCount > 0) {
+            options.append("prefetchEnabled=true&prefetchCount=").append(prefetchCount)
+                    .append("&prefetchSize=0&prefetchGlobal=false&");
+        }
+        options.append("concurrentConsumers=").append(concurrentConsumers)
+                .append("&threadPoolSize=").append(getThreadPoolSize())
+                .append("&channelPoolMaxSize=").append(channelPoolMaxSize)
+                .append("&channelPoolMaxWait=").append(channelPoolMaxWait);
+        if(!connectionFactory.isEmpty()) {
+            options.append("&connectionFactory=").append(connectionFactory);
+        }
+        return options.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + PREFETCH_COUNT + "=" + prefetchCount + ", " + CONCURRENT_CONSUMERS + "="
+                + concurrentConsumers + ", " + THREAD_POOL_SIZE + "=" + getThreadPoolSize() + ", "
+                + CHANNEL_POOL_MAX_SIZE + "=" + channelPoolMaxSize + ", "
+                + CHANNEL_POOL_MAX_WAIT + "=" + channelPoolMaxWait
+                + (connectionFactory.isEmpty() ? "" : ", " + CONNECTION_FACTORY + "=" + connectionFactory) + "]";
+    }
+
+    // Getters and Setters
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    public int getConcurrentConsumers() {
+        return concurrentConsumers;
+    }
+
+    public void setConcurrentConsumers(int concurrentConsumers) {
+        this.concurrentConsumers = concurrentConsumers;
+    }
+
+    public int getThreadPoolSize() {
+        return Math.max(threadPoolSize, concurrentConsumers);
+    }
+
+    public void setThreadPoolSize(int threadPoolSize) {
+        this.threadPoolSize = threadPoolSize;
+    }
+
+    public int getChannelPoolMaxSize() {
+        return channelPoolMaxSize;
+    }
+
+    public void setChannelPoolMaxSize(int channelPoolMaxSize) {
+        this.channelPoolMaxSize = channelPoolMaxSize;
+    }
+
+    public long getChannelPoolMaxWait() {
+        return channelPoolMaxWait;
+    }
+
+    public void setChannelPoolMaxWait(long channelPoolMaxWait) {
+        this.channelPoolMaxWait = channelPoolMaxWait;
+    }
+
+    public String getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public void setConnectionFactory(String connectionFactory) {
+        this.connectionFactory = connectionFactory == null ? "" : connectionFactory.trim();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.broker;
+
+import edu.mit.ll.nics.processor.broker.BrokerProfiles;
+import edu.mit.ll.nics.processor.broker.ConsumerProfile;
+import java.util.Properties;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link BrokerProfiles}, and runs consumer profiles against the {@link BrokerStandIn}
+ */
+public class BrokerProfilesTest {
+
+    private static final Logger LOG = Logger.getLogger(BrokerProfilesTest.class);
+
+    @Test(testName = "TestSharedProfiles")
+    public void testSharedProfiles() throws Exception {
+        BrokerProfiles profiles = new BrokerProfiles();
+        profiles.init();
+
+        Assert.assertEquals(profiles.getName(), "rabbitProfile");
+        for(String name : new String[]{"default", "ordered", "feed", "work"}) {
+            Assert.assertNotNull(profiles.getProfile(name), name);
+        }
+        Assert.assertEquals(profiles.apply("feed"), "prefetchEnabled=true&prefetchCount=250&prefetchSize=0"
+                + "&prefetchGlobal=false&concurrentConsumers=4&threadPoolSize=4&channelPoolMaxSize=10"
+                + "&channelPoolMaxWait=1000");
+        Assert.assertEquals(profiles.getProfile("ordered").getConcurrentConsumers(), 1);
+        Assert.assertEquals(profiles.getProfile("work").getConcurrentConsumers(), 5);
+    }
+
+    @Test(testName = "TestOverridesAndInheritance")
+    public void testOverridesAndInheritance() {
+        Properties properties = new Properties();
+        properties.setProperty("rabbitProfile.default.prefetchCount", "20");
+        properties.setProperty("rabbitProfile.default.channelPoolMaxWait", "500");
+        properties.setProperty("rabbitProfile.bulk.concurrentConsumers", "8");
+        properties.setProperty("rabbitProfile.bulk.threadPoolSize", "2");
+        properties.setProperty("rabbitProfile.unbounded.prefetchCount", "0");
+        properties.setProperty("unrelated.key", "ignored");
+
+        BrokerProfiles profiles = new BrokerProfiles();
+        profiles.load(properties);
+
+        ConsumerProfile bulk = profiles.getProfile("bulk");
+        Assert.assertEquals(bulk.getPrefetchCount(), 20);
+        Assert.assertEquals(bulk.getConcurrentConsumers(), 8);
+        Assert.assertEquals(bulk.getThreadPoolSize(), 8);
+        Assert.assertEquals(bulk.getChannelPoolMaxWait(), 500);
+        Assert.assertFalse(profiles.apply("unbounded").contains("prefetch"), profiles.apply("unbounded"));
+        Assert.assertFalse(profiles.apply("bulk").contains("connectionFactory"), profiles.apply("bulk"));
+
+        // A host's shared connection is inherited by every profile
+        properties.setProperty("rabbitProfile.default.connectionFactory", "#hostAmqpConnectionFactory");
+        profiles.load(properties);
+        Assert.assertTrue(profiles.apply("bulk").endsWith("&connectionFactory=#hostAmqpConnectionFactory"),
+                profiles.apply("bulk"));
+
+        try {
+            profiles.apply("missing");
+            Assert.fail("Expected an unknown profile to be rejected");
+        } catch(IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("missing"), e.getMessage());
+        }
+
+        properties.setProperty("rabbitProfile.bad.prefetchCount", "-1");
+        try {
+            profiles.load(properties);
+            Assert.fail("Expected a negative prefetchCount to be rejected");
+        } catch(IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("rabbitProfile.bad.prefetchCount"), e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the consumer profiles over a link with a 500us round trip, and 20us of work per message. Every message is
+     * acked on its own, and no channel ever has more deliveries unacknowledged than its prefetch count. Throughput is
+     * logged for comparison rather than asserted
+     */
+    @Test(testName = "TestProfilePrefetchWindows")
+    public void testProfilePrefetchWindows() throws Exception {
+        BrokerStandIn broker = new BrokerStandIn(500, 20);
+        int messages = 2000;
+
+        ConsumerProfile single = new ConsumerProfile("single");
+        single.setPrefetchCount(1);
+
+        BrokerProfiles profiles = new BrokerProfiles();
+        profiles.init();
+
+        for(ConsumerProfile profile : new ConsumerProfile[]{single, profiles.getProfile("default"),
+                profiles.getProfile("ordered"), profiles.getProfile("feed")}) {
+            BrokerStandIn.Result result = broker.consume(profile, messages);
+            LOG.info(result);
+            Assert.assertEquals(result.getAcks(), (long) messages, result.toString());
+            Assert.assertTrue(result.getMaxUnacked() <= profile.getPrefetchCount(), result.toString());
+        }
+    }
+}
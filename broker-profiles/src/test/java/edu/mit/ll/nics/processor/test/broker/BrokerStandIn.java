@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.broker;
+
+import edu.mit.ll.nics.processor.broker.ConsumerProfile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * In-JVM stand-in for a RabbitMQ queue and its consumers' channels, for benchmarking consumer profiles.
+ *
+ * <p>Models what a profile tunes rather than the AMQP wire protocol: each channel is sent deliveries no further
+ * ahead of its acks than the prefetch count, deliveries and acks each take half the network round trip, and
+ * consumers ack each message once processed, as camel-rabbitmq does. Each channel has its own consumer thread.</p>
+ */
+public class BrokerStandIn {
+
+    private final long oneWayNanos;
+    private final long processNanos;
+
+    /**
+     * @param roundTripMicros network round trip between broker and consumer
+     * @param processMicros   time a consumer spends on each message
+     */
+    public BrokerStandIn(long roundTripMicros, long processMicros) {
+        this.oneWayNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros) / 2;
+        this.processNanos = TimeUnit.MICROSECONDS.toNanos(processMicros);
+    }
+
+    /**
+     * Consumes the messages with the profile's consumers, returning once all have been acknowledged
+     *
+     * @param profile  the consumer profile
+     * @param messages the number of messages on the queue
+     * @return the result
+     * @throws InterruptedException when interrupted
+     */
+    public Result consume(ConsumerProfile profile, int messages) throws InterruptedException {
+        // One thread, so deliveries and acks arrive in the order they were sent
+        ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger queue = new AtomicInteger(messages);
+        CountDownLatch acknowledged = new CountDownLatch(messages);
+        AtomicLong acks = new AtomicLong();
+        AtomicInteger maxUnacked = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        List<Channel> channels = new ArrayList<>();
+        for(int i = 0; i < profile.getConcurrentConsumers(); i++) {
+            Channel channel = new Channel(profile, network, queue, acknowledged, acks, maxUnacked);
+            channels.add(channel);
+            threads.add(new Thread(channel::dispatch, "standin-dispatch-" + i));
+            threads.add(new Thread(channel::consume, "standin-consume-" + i));
+        }
+
+        long start = System.nanoTime();
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        boolean done = acknowledged.await(5, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        for(Channel channel : channels) {
+            channel.stop();
+        }
+        for(Thread thread : threads) {
+            thread.interrupt();
+            thread.join();
+        }
+        network.shutdownNow();
+
+        if(!done) {
+            throw new IllegalStateException("Timed out with " + acknowledged.getCount() + " messages unacknowledged");
+        }
+        return new Result(profile, messages, elapsed, acks.get(), maxUnacked.get());
+    }
+
+    /**
+     * A consumer's channel: delivers within the prefetch window, and reopens it as acks arrive
+     */
+    private final class Channel {
+        private final ScheduledExecutorService network;
+        private final AtomicInteger queue;
+        private final CountDownLatch acknowledged;
+        private final AtomicLong acks;
+        private final AtomicInteger maxUnacked;
+        private final Semaphore window;
+        private final BlockingQueue<Long> deliveries = new LinkedBlockingQueue<>();
+        private final AtomicInteger unacked = new AtomicInteger();
+
+        private long nextTag = 0;
+        private volatile boolean running = true;
+
+        private Channel(ConsumerProfile profile, ScheduledExecutorService network, AtomicInteger queue,
+                        CountDownLatch acknowledged, AtomicLong acks, AtomicInteger maxUnacked) {
+            this.network = network;
+            this.queue = queue;
+            this.acknowledged = acknowledged;
+            this.acks = acks;
+            this.maxUnacked = maxUnacked;
+            this.window = new Semaphore(profile.getPrefetchCount() > 0 ? profile.getPrefetchCount()
+                    : Integer.MAX_VALUE);
+        }
+
+        private void dispatch() {
+            try {
+                while(running && queue.getAndDecrement() > 0) {
+                    window.acquire();
+                    maxUnacked.accumulateAndGet(unacked.incrementAndGet(), Math::max);
+                    long tag = ++nextTag;
+                    network.schedule(() -> deliveries.add(tag), oneWayNanos, TimeUnit.NANOSECONDS);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void consume() {
+            try {
+                while(running) {
+                    Long tag = deliveries.poll(1, TimeUnit.MILLISECONDS);
+                    if(tag == null) {
+                        continue;
+                    }
+                    long until = System.nanoTime() + processNanos;
+                    while(System.nanoTime() < until) {
+                        // busy, as a consumer transforming or parsing would be
+                    }
+                    ack(tag);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void ack(long tag) {
+            acks.incrementAndGet();
+            network.schedule(() -> {
+                unacked.decrementAndGet();
+                window.release();
+                acknowledged.countDown();
+            }, oneWayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void stop() {
+            running = false;
+        }
+    }
+
+    /**
+     * Throughput of a run
+     */
+    public static final class Result {
+        private final ConsumerProfile profile;
+        private final int messages;
+        private final long elapsedNanos;
+        private final long acks;
+        private final int maxUnacked;
+
+        private Result(ConsumerProfile profile, int messages, long elapsedNanos, long acks, int maxUnacked) {
+            this.profile = profile;
+            this.messages = messages;
+            this.elapsedNanos = elapsedNanos;
+            this.acks = acks;
+            this.maxUnacked = maxUnacked;
+        }
+
+        public double getMessagesPerSecond() {
+            return messages / (elapsedNanos / 1e9);
+        }
+
+        public long getAcks() {
+            return acks;
+        }
+
+        /**
+         * @return the most deliveries any one channel had unacknowledged at once
+         */
+        public int getMaxUnacked() {
+            return maxUnacked;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s prefetch=%4d consumers=%d: %8.0f msg/s, %5d acks, %4d max unacked",
+                    profile.getName(), profile.getPrefetchCount(), profile.getConcurrentConsumers(),
+                    getMessagesPerSecond(), acks, maxUnacked);
+        }
+    }
+}
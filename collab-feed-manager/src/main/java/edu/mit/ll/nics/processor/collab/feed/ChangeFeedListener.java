@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Change feed from postgres LISTEN/NOTIFY. Listens on the collab_feed channel, notified by the triggers in
+ * scripts/sql/collab-feed-notify.sql when a room or incident is inserted or updated, or a room gets a feature, and
+ * hands the changed ids to {@link CollabFeedSync} in batches.
+ *
+ * <p>Notifications sent while disconnected are lost, so after reconnecting the listener runs the periodic sync once
+ * to catch up. With the feed enabled, syncInterval only needs to be short enough to cover what the feed can't, e.g.,
+ * a database without the triggers.</p>
+ */
+public class ChangeFeedListener implements Runnable {
+
+    private static final Logger log = Logger.getLogger(ChangeFeedListener.class.getSimpleName());
+
+    //Channel notified by the triggers
+    private static final String CHANNEL = "collab_feed";
+
+    private CollabFeedSync collabFeedSync;
+
+    //Whether or not to listen at all
+    private boolean enabled = false;
+
+    //DB connection parameters
+    private String dbuser;
+    private String dbpass;
+    private String dbname;
+    private String dbhost;
+    private String dbport;
+
+    //Milliseconds between checks for notifications, the 9.1 driver can't wait on them
+    private long pollMillis = 500;
+
+    //Milliseconds to wait before reconnecting after losing the connection
+    private long reconnectMillis = 5000;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public void start() {
+        if(!enabled) {
+            log.info("Change feed disabled, relying on messages and the periodic sync");
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "collab-feed-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if(thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean reconnecting = false;
+        while(running) {
+            try(Connection connection = connect()) {
+                log.info("Listening for changes on " + CHANNEL);
+                if(reconnecting) {
+                    // Catch up on changes notified while disconnected
+                    collabFeedSync.run();
+                }
+                listen(connection);
+            } catch(SQLException e) {
+                if(running) {
+                    log.error("Change feed connection failed, reconnecting in " + reconnectMillis + "ms: "
+                            + e.getMessage());
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reconnecting = true;
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch(InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(
+                "jdbc:postgresql://" + dbhost + ":" + dbport + "/" + dbname, dbuser, dbpass);
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        return connection;
+    }
+
+    /**
+     * Polls for notifications until stopped, syncing the ids in each batch once
+     */
+    private void listen(Connection connection) throws SQLException, InterruptedException {
+        PGConnection pgConnection = (PGConnection) connection;
+        while(running) {
+            // Any round trip delivers the notifications received since the last one
+            try(Statement statement = connection.createStatement()) {
+                statement.execute("SELECT 1");
+            }
+            PGNotification[] notifications = pgConnection.getNotifications();
+            if(notifications != null && notifications.length > 0) {
+                dispatch(notifications);
+            }
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    private void dispatch(PGNotification[] notifications) {
+        Set<Integer> collabroomIds = new HashSet<Integer>();
+        Set<Integer> incidentIds = new HashSet<Integer>();
+        for(PGNotification notification : notifications) {
+            String payload = notification.getParameter();
+            int separator = payload == null ? -1 : payload.indexOf(':');
+            try {
+                if(separator > 0) {
+                    String table = payload.substring(0, separator);
+                    int id = Integer.parseInt(payload.substring(separator + 1));
+                    if("collabroom".equals(table)) {
+                        collabroomIds.add(id);
+                        continue;
+                    } else if("incident".equals(table)) {
+                        incidentIds.add(id);
+                        continue;
+                    }
+                }
+            } catch(NumberFormatException e) {
+                // Falls through to the warning
+            }
+            log.warn("Ignoring unexpected change notification: " + payload);
+        }
+        log.debug("Change feed: " + collabroomIds.size() + " rooms and " + incidentIds.size() + " incidents changed");
+        collabFeedSync.syncChanges(collabroomIds, incidentIds);
+    }
+
+    //getters and setters
+
+    public CollabFeedSync getCollabFeedSync() {
+        return collabFeedSync;
+    }
+
+    public void setCollabFeedSync(CollabFeedSync collabFeedSync) {
+        this.collabFeedSync = collabFeedSync;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDbuser() {
+        return dbuser;
+    }
+
+    public void setDbuser(String dbuser) {
+        this.dbuser = dbuser;
+    }
+
+    public String getDbpass() {
+        return dbpass;
+    }
+
+    public void setDbpass(String dbpass) {
+        this.dbpass = dbpass;
+    }
+
+    public String getDbname() {
+        return dbname;
+    }
+
+    public void setDbname(String dbname) {
+        this.dbname = dbname;
+    }
+
+    public String getDbhost() {
+        return dbhost;
+    }
+
+    public void setDbhost(String dbhost) {
+        this.dbhost = dbhost;
+    }
+
+    public String getDbport() {
+        return dbport;
+    }
+
+    public void setDbport(String dbport) {
+        this.dbport = dbport;
+    }
+
+    public long getPollMillis() {
+        return pollMillis;
+    }
+
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    public long getReconnectMillis() {
+        return reconnectMillis;
+    }
+
+    public void setReconnectMillis(long reconnectMillis) {
+        this.reconnectMillis = reconnectMillis;
+    }
+}
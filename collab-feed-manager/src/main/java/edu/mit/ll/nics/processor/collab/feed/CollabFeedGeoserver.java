@@ -39,6 +39,8 @@ import edu.mit.ll.nics.common.entity.CollabRoom;
 import edu.mit.ll.nics.common.entity.Incident;
 import edu.mit.ll.nics.common.geoserver.api.GeoServer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -54,10 +56,17 @@ public class CollabFeedGeoserver extends GeoServer {
     public static int SRID = 3857;
     public static String SRS_STRING = "EPSG:3857";
     //Initialize the max extent of the projection {minx maxx miny maxy}
-    //Layer extents are hard coded to the extents of the USA so the bounds don't need be repeatedly updated
+    //Layers start out with the extents of the USA, CollabFeedSync tightens them to their data once they have some
     public Envelope maxExtent = new Envelope(-14084454.868, -6624200.909, 1593579.354, 6338790.069);
     public Envelope maxExtentLatLon = new Envelope(-126.523, -59.506, 14.169, 49.375);
 
+    //Names of the parameterized SQL views shared by all rooms, incidents and MyMaps
+    public static final String ROOM_VIEW = "CollabRooms";
+    public static final String INCIDENT_VIEW = "Incidents";
+    public static final String MY_MAP_VIEW = "MyMaps";
+    //Ids are the only values substituted into the parameterized views
+    private static final String ID_VALIDATOR = "^-?[0-9]+$";
+
     /**
      * Constructor for CollabFeedGeoserver
      *
@@ -95,7 +104,7 @@ public class CollabFeedGeoserver extends GeoServer {
     public boolean addIncidentView(String incidentName, int incidentId) {
         String layerName = "I" + String.valueOf(incidentId);
         if(this.addFeatureTypeSQL(workspaceName, dataStoreName, layerName, SRS_STRING,
-                "SELECT * FROM collabroom where incidentid=" + incidentId, "bounds", "Geometry", SRID)) {
+                incidentLayer(incidentName, incidentId).getSql(), "bounds", "Geometry", SRID)) {
             this.updateLayerStyle(layerName, workspaceName, "incidentOverviewStyle");
             this.updateFeatureTypeTitle(layerName, workspaceName, dataStoreName, incidentName);
             this.updateFeatureTypeBounds(workspaceName, dataStoreName, layerName, maxExtent, maxExtentLatLon,
@@ -115,8 +124,7 @@ public class CollabFeedGeoserver extends GeoServer {
      * @return success of adding layer to geoserver
      */
     public boolean addCollabRoomView(CollabRoom room) {
-        return this
-                .addCollabRoomView(room.getIncident().getIncidentname() + "-" + room.getName(), room.getCollabRoomId());
+        return this.addCollabRoomView(collabRoomTitle(room), room.getCollabRoomId());
     }
 
     /**
@@ -129,9 +137,7 @@ public class CollabFeedGeoserver extends GeoServer {
     public boolean addCollabRoomView(String title, int roomId) {
         String layerName = "R" + String.valueOf(roomId);
         if(this.addFeatureTypeSQL(workspaceName, dataStoreName, layerName, SRS_STRING,
-                "SELECT f.* from Feature f, CollabroomFeature cf WHERE cf.featureid=f.featureid and cf.collabroomid=" +
-                        roomId + " and deleted='f'",
-                "the_geom", "Geometry", SRID)) {
+                collabRoomLayer(title, roomId).getSql(), "the_geom", "Geometry", SRID)) {
             this.updateLayerStyle(layerName, workspaceName, "collabRoomStyle");
             this.updateFeatureTypeTitle(layerName, workspaceName, dataStoreName, title);
             this.updateFeatureTypeBounds(workspaceName, dataStoreName, layerName, maxExtent, maxExtentLatLon,
@@ -144,6 +150,79 @@ public class CollabFeedGeoserver extends GeoServer {
         }
     }
 
+    /**
+     * Defines the SQL view layer of an incident view, for publishing with {@link GeoServerPublisher}
+     *
+     * @param incidentName name of the incident
+     * @param incidentId   id of the incident
+     * @return the layer's definition
+     */
+    public LayerDefinition incidentLayer(String incidentName, int incidentId) {
+        return new LayerDefinition("I" + incidentId, incidentName,
+                "SELECT * FROM collabroom where incidentid=" + incidentId, "bounds", "Geometry", SRID, SRS_STRING,
+                maxExtent, maxExtentLatLon, "incidentOverviewStyle");
+    }
+
+    /**
+     * Defines the SQL view layer of a collaboration room, for publishing with {@link GeoServerPublisher}
+     *
+     * @param room Room entity for the room
+     * @return the layer's definition
+     */
+    public LayerDefinition collabRoomLayer(CollabRoom room) {
+        return this.collabRoomLayer(collabRoomTitle(room), room.getCollabRoomId());
+    }
+
+    /**
+     * The title of a room's layer, its incident's name and its own, or just its own when it has no incident
+     */
+    private static String collabRoomTitle(CollabRoom room) {
+        return room.getIncident() == null ? room.getName()
+                : room.getIncident().getIncidentname() + "-" + room.getName();
+    }
+
+    /**
+     * Defines the SQL view layer of a collaboration room with the "collabRoomStyle"
+     *
+     * @param title  title of the layer
+     * @param roomId Id of the room
+     * @return the layer's definition
+     */
+    public LayerDefinition collabRoomLayer(String title, int roomId) {
+        return new LayerDefinition("R" + roomId, title,
+                "SELECT f.* from Feature f, CollabroomFeature cf WHERE cf.featureid=f.featureid and cf.collabroomid=" +
+                        roomId + " and deleted='f'",
+                "the_geom", "Geometry", SRID, SRS_STRING, maxExtent, maxExtentLatLon, "collabRoomStyle");
+    }
+
+    /**
+     * Defines the parameterized SQL views that serve every room, incident and MyMaps user, in place of a layer each.
+     * Clients pick the room, incident or user with viewparams, e.g., viewparams=collabroomid:12. The defaults match
+     * nothing
+     *
+     * @return the definitions of the shared views
+     */
+    public List<LayerDefinition> parameterizedLayers() {
+        return Arrays.asList(
+                new LayerDefinition(ROOM_VIEW, ROOM_VIEW,
+                        "SELECT f.* from Feature f, CollabroomFeature cf WHERE cf.featureid=f.featureid and " +
+                                "cf.collabroomid=%collabroomid% and deleted='f'",
+                        "the_geom", "Geometry", SRID, SRS_STRING, maxExtent, maxExtentLatLon, "collabRoomStyle",
+                        Collections.singletonList(
+                                new LayerDefinition.ViewParameter("collabroomid", "-1", ID_VALIDATOR))),
+                new LayerDefinition(INCIDENT_VIEW, INCIDENT_VIEW,
+                        "SELECT * FROM collabroom where incidentid=%incidentid%",
+                        "bounds", "Geometry", SRID, SRS_STRING, maxExtent, maxExtentLatLon, "incidentOverviewStyle",
+                        Collections.singletonList(
+                                new LayerDefinition.ViewParameter("incidentid", "-1", ID_VALIDATOR))),
+                new LayerDefinition(MY_MAP_VIEW, MY_MAP_VIEW,
+                        "SELECT f.* from Feature f, UserFeature uf WHERE uf.featureid=f.featureid and " +
+                                "uf.userid=%userid% and deleted='f'",
+                        "the_geom", "Geometry", SRID, SRS_STRING, maxExtent, maxExtentLatLon, "collabRoomStyle",
+                        Collections.singletonList(
+                                new LayerDefinition.ViewParameter("userid", "-1", ID_VALIDATOR))));
+    }
+
     /**
      * Returns the list of current layers in the workspace and datastore
      *
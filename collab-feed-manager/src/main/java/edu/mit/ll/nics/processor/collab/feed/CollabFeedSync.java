@@ -35,18 +35,28 @@
 package edu.mit.ll.nics.processor.collab.feed;
 
 
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
+import com.vividsolutions.jts.geom.Envelope;
 import edu.mit.ll.nics.common.entity.CollabRoom;
-import edu.mit.ll.nics.common.entity.HibernateFeature;
 import edu.mit.ll.nics.common.entity.Incident;
+import edu.mit.ll.nics.processor.collab.feed.LayerRegistry.LayerType;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimerTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
 import javax.persistence.Persistence;
 import javax.persistence.Query;
 import org.apache.camel.Exchange;
@@ -54,6 +64,7 @@ import org.apache.camel.Processor;
 import org.apache.camel.component.rabbitmq.RabbitMQConstants;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
+import org.hibernate.Session;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -66,10 +77,15 @@ import org.json.JSONObject;
 public class CollabFeedSync extends TimerTask implements Processor {
 
     private static final Logger log = Logger.getLogger(CollabFeedSync.class.getSimpleName());
+
+    //Most room ids in one query for rooms with features
+    private static final int ROOM_ID_BATCH = 1000;
     //Database Entity Manager
     private EntityManagerFactory emf;
     //Geoserver API instance
     private CollabFeedGeoserver geoserver;
+    //Publishes new layers to geoserver in parallel
+    private GeoServerPublisher publisher;
 
     private String log4jPropertyFile;
 
@@ -88,8 +104,54 @@ public class CollabFeedSync extends TimerTask implements Processor {
     private String workspaceName;
     private String dataStoreName;
 
-    //List of collabrooms
-    private static List<String> geoserverList; //geoserver
+    //Connection pool, see the db.pool properties
+    private int poolMinSize = 2;
+    private int poolMaxSize = 10;
+    private int poolIdleTimeoutSeconds = 1800;
+    private int poolIdleTestPeriodSeconds = 300;
+    private int poolMaxStatements = 100;
+    //Log the pool's metrics every this many syncs, 0 to disable
+    private int poolMetricsLogInterval = 10;
+    private int syncCount;
+
+    //Whether or not to cache incidents across syncs in hibernate's second-level cache
+    private boolean cacheIncidents = true;
+
+    //File the sync high-water mark is persisted to
+    private String highWaterMarkFile;
+
+    //Whether rooms and incidents are served by shared parameterized views instead of a layer each
+    private boolean parameterizedViews = false;
+    private volatile boolean sharedViewsPublished;
+
+    //Whether or not to tighten layers' bounds to their data, and how far it moves before they're pushed again
+    private boolean updateBounds = true;
+    private double boundsThreshold = 0.1;
+    private LayerBoundsCache boundsCache;
+
+    //Layer publishing, see GeoServerPublisher
+    private int publishThreads = 8;
+    private double publishRequestsPerSecond = 20;
+    private int publishMaxRetries = 3;
+    private long publishRetryBackoffMillis = 500;
+    private int publishConnectTimeoutMillis = 10000;
+    private int publishReadTimeoutMillis = 60000;
+
+    //Highest ids covered by the periodic sync
+    private SyncHighWaterMark highWaterMark;
+
+    //Layers on geoserver
+    private final LayerRegistry layers = new LayerRegistry();
+
+    //Keeps timer and message triggered syncs from overlapping
+    private final SingleFlight syncFlight = new SingleFlight();
+
+    //Collects message triggered room syncs, null to sync on the consumer thread
+    private SyncDebouncer debouncer;
+    //Milliseconds triggers are collected before syncing them, 0 to sync each on the consumer thread
+    private long syncDebounceMillis = 500;
+    //Log the debouncer's metrics every this many syncs, 0 to disable
+    private int syncDebounceMetricsLogInterval = 100;
     //private static List<String> dbList; //database
 
 
@@ -108,6 +170,17 @@ public class CollabFeedSync extends TimerTask implements Processor {
         this.geoserver = new CollabFeedGeoserver(geoserverUrl, geoserverUsername, geoserverPassword,
                 workspaceName, dataStoreName);
 
+        this.publisher = new GeoServerPublisher(geoserverUrl, geoserverUsername, geoserverPassword,
+                workspaceName, dataStoreName);
+        this.publisher.setThreads(publishThreads);
+        this.publisher.setRequestsPerSecond(publishRequestsPerSecond);
+        this.publisher.setMaxRetries(publishMaxRetries);
+        this.publisher.setRetryBackoffMillis(publishRetryBackoffMillis);
+        this.publisher.setConnectTimeoutMillis(publishConnectTimeoutMillis);
+        this.publisher.setReadTimeoutMillis(publishReadTimeoutMillis);
+        this.publisher.start();
+        this.boundsCache = new LayerBoundsCache(boundsThreshold);
+
         log.info("Connected to geoserver");
 
         //setup db connection
@@ -118,7 +191,40 @@ public class CollabFeedSync extends TimerTask implements Processor {
         config1.put("hibernate.connection.password", dbpass);
         config1.put("hibernate.connection.url", dbUrl);
         config1.put("hibernate.dialect", "org.hibernate.spatial.dialect.postgis.PostgisDialect");
+        config1.put("hibernate.connection.provider_class",
+                "org.hibernate.service.jdbc.connections.internal.C3P0ConnectionProvider");
+        config1.put("hibernate.c3p0.min_size", String.valueOf(poolMinSize));
+        config1.put("hibernate.c3p0.max_size", String.valueOf(poolMaxSize));
+        config1.put("hibernate.c3p0.timeout", String.valueOf(poolIdleTimeoutSeconds));
+        config1.put("hibernate.c3p0.idle_test_period", String.valueOf(poolIdleTestPeriodSeconds));
+        config1.put("hibernate.c3p0.max_statements", String.valueOf(poolMaxStatements));
+        if(cacheIncidents) {
+            //Incidents only change outside of this process, so expire from the cache, see ehcache.xml
+            config1.put("hibernate.cache.use_second_level_cache", "true");
+            config1.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+            config1.put("hibernate.ejb.classcache." + Incident.class.getName(), "read-only");
+        }
         this.emf = Persistence.createEntityManagerFactory("manager1", config1);
+
+        this.highWaterMark = new SyncHighWaterMark(highWaterMarkFile);
+        this.highWaterMark.load();
+
+        if(syncDebounceMillis > 0) {
+            this.debouncer = new SyncDebouncer(syncDebounceMillis, this::syncChanges);
+            this.debouncer.setMetricsLogInterval(syncDebounceMetricsLogInterval);
+        }
+    }
+
+    /**
+     * Stops publishing to geoserver
+     */
+    public void stop() {
+        if(debouncer != null) {
+            debouncer.stop();
+        }
+        if(publisher != null) {
+            publisher.stop();
+        }
     }
 
     /**
@@ -126,62 +232,35 @@ public class CollabFeedSync extends TimerTask implements Processor {
      */
     @Override
     public void process(Exchange e) {
-        String message = e.getIn().getBody(String.class);
         String topic = (String) e.getIn().getHeader(RabbitMQConstants.ROUTING_KEY);
+        //classify the routing key once, feature messages are routed on it alone
+        CollabFeedTopic route = CollabFeedTopic.parse(topic);
 
-        log.debug("Recieved message: " + message);
+        if(log.isDebugEnabled()) {
+            log.debug("Recieved message: " + e.getIn().getBody(String.class));
+        }
         try {
-            //log.info("Recieved message: " + message);
-            //get the JSON message from the exchange
-            JSONObject msg = new JSONObject(message);
-
-            if(topic.indexOf("feature") != -1) { //feature message
-                log.info("processing feature message");
-
-                Pattern p = Pattern.compile("collabroom.([0-9]*)");
-                Matcher m = p.matcher(topic);
-
-                String collabroomId = null;
-                while(m.find()) {
-                    collabroomId = m.group(1);
-                    break;
-                }
-
-                if(collabroomId != null) {
-                    boolean isaLayer = false;
-
-                    String layername = "R" + collabroomId;
-                    if(geoserverList != null) {
-                        isaLayer = geoserverList.contains(layername);
-                    } else {
-                        geoserverList = new ArrayList<String>();
-                    }
-
-                    //Create a new Room layer by calling run if its not in either the geoserver list or kml file
-                    // directory
-                    if(!isaLayer) {
-                        log.info("Running full sync, found new feature with room id: " + layername);
-                        run();
-                    }
+            if(route.getType() == CollabFeedTopic.Type.FEATURE) { //feature message
+                log.debug("processing feature message");
+                int collabroomId = route.getCollabroomId();
+
+                //Create a new Room layer for just this room if it's not in the geoserver list
+                if(collabroomId >= 0 && !hasLayer(LayerType.ROOM, collabroomId)) {
+                    log.info("Syncing room, found new feature with room id: R" + collabroomId);
+                    requestRoomSync(collabroomId);
                 }
 
-                //TODO: add in check for collab room in geoserverList. if it's not there, get the collabroom
-                // (probably from the db) and run syncRooms on that room
-
-            } else if(topic.endsWith("newcollabroom")) { //new room message
-                String layername = "R" + String.valueOf(msg.getInt("collabRoomId"));
-                boolean isaLayer = geoserverList.contains(layername);
+            } else if(route.getType() == CollabFeedTopic.Type.NEW_ROOM) { //new room message
+                //get the JSON message from the exchange, only new room messages need their body
+                JSONObject msg = new JSONObject(e.getIn().getBody(String.class));
+                int collabroomId = msg.getInt("collabRoomId");
 
-                //Create a new Room layer by calling run if its not in either the geoserver list or kml file directory
-                if(!isaLayer) {
-                    log.info("Running full sync, found new room id: " + layername);
-                    run();
+                //Create a new Room layer from the message if it's not in the geoserver list
+                if(!hasLayer(LayerType.ROOM, collabroomId)) {
+                    log.info("Syncing new room id: R" + collabroomId);
+                    syncNewRoom(msg, collabroomId);
                 }
 
-                //TODO: add in check for collab room in geoserverList (this may not be necessary here
-                //since its new?). if it's not there, get the collabroom (probably from the db) and run syncRooms on 
-                //that room
-
             } /*else if (topic.endsWith("createIncident")) { //new incident message
                 JSONObject msgData = msg.getJSONObject("messageData");
                 String layername = "I" + String.valueOf(msgData.getString("incidentId"));
@@ -223,28 +302,44 @@ public class CollabFeedSync extends TimerTask implements Processor {
 
 
     /**
-     * The timer event. Synchronize the DB, geoserver, and kml docs
+     * The timer event. Synchronize the rooms and incidents added, and the rooms that gained features, since the
+     * high-water mark with geoserver. If a sync is already running, it runs once more instead
      */
     @Override
     public void run() {
-        log.info("Starting Timertask");
+        if(!syncFlight.run(this::sync)) {
+            log.info("Sync already running, it will run again once done");
+        }
+    }
+
+    private void sync() {
+        log.info("Starting Timertask, syncing changes since " + highWaterMark);
         EntityManager em = null;
         try {
 
             log.debug("emf" + emf);
             // Connect to the DB
-            em = emf.createEntityManager();
-
-            // query for collabrooms
-            Query q = em.createQuery("FROM CollabRoom");
+            em = openReadOnly();
+
+            // Upper bounds first, so rows added while syncing are picked up by the next run
+            long maxFeatureId = ((Number) em.createNativeQuery(
+                    "SELECT COALESCE(MAX(featureid), 0) FROM CollabroomFeature").getSingleResult()).longValue();
+
+            // query for rooms added, or with features added, since the high-water mark
+            Query q = em.createNativeQuery("SELECT * FROM CollabRoom WHERE collabroomid > :collabroomid"
+                    + " OR collabroomid IN (SELECT cf.collabroomid FROM CollabroomFeature cf"
+                    + " WHERE cf.featureid > :featureid AND cf.featureid <= :maxfeatureid)", CollabRoom.class);
+            q.setParameter("collabroomid", highWaterMark.getCollabroomId());
+            q.setParameter("featureid", highWaterMark.getFeatureId());
+            q.setParameter("maxfeatureid", maxFeatureId);
             List<CollabRoom> collabRooms = q.getResultList();
 
-            // query for all incidents
-            q = em.createQuery("FROM Incident");
+            // query for incidents added since the high-water mark
+            q = em.createNativeQuery("SELECT * FROM Incident WHERE incidentid > :incidentid", Incident.class);
+            q.setParameter("incidentid", highWaterMark.getIncidentId());
             List<Incident> incidents = q.getResultList();
 
-            //close DB connection
-            em.close();
+            log.info("Found " + collabRooms.size() + " changed rooms and " + incidents.size() + " new incidents");
 
             //update list of db layers
             //dbList = (List<String>) CollectionUtils.collect(collabRooms, new BeanToPropertyValueTransformer
@@ -260,87 +355,485 @@ public class CollabFeedSync extends TimerTask implements Processor {
 
             //log.debug(dbList);
 
-            //update list of geoserver layers
-            geoserverList = geoserver.getFeatureTypeList();
-
-            if(geoserverList == null) {
-                geoserverList = new ArrayList<String>();
+            //update list of geoserver layers, in parameterized mode the registry only holds registrations
+            if(parameterizedViews) {
+                publishSharedViews();
+                layers.ensureLoaded(this::fetchLayers);
+            } else {
+                layers.refresh(this::fetchLayers);
             }
 
-            log.debug(geoserverList);
+            log.debug("geoserver has " + layers.size() + " layers");
 
 
-            //sync collabrooms and incidents
-            syncRooms(collabRooms);
-            syncIncidents(incidents);
+            //sync collabrooms and incidents, only moving the high-water mark past them once they're all on geoserver,
+            //so the next sync finds the rooms and incidents whose layers failed again
+            boolean roomsSynced = syncRooms(em, collabRooms);
+            boolean incidentsSynced = syncIncidents(incidents);
+            if(!roomsSynced || !incidentsSynced) {
+                log.warn("Not all layers were added, keeping the sync high-water mark at " + highWaterMark
+                        + " to retry them next sync");
+                updateLayerBounds(em, collabRooms, incidents);
+                return;
+            }
+
+            long maxCollabroomId = highWaterMark.getCollabroomId();
+            for(CollabRoom room : collabRooms) {
+                maxCollabroomId = Math.max(maxCollabroomId, room.getCollabRoomId());
+            }
+            long maxIncidentId = highWaterMark.getIncidentId();
+            for(Incident incident : incidents) {
+                maxIncidentId = Math.max(maxIncidentId, incident.getIncidentid());
+            }
+            highWaterMark.advance(maxCollabroomId, maxIncidentId, maxFeatureId);
+
+            updateLayerBounds(em, collabRooms, incidents);
 
         } catch(Exception ex) {
             ex.printStackTrace();
             log.error("Error accessing DB " + ex);
         } finally {
             //make sure DB connection is closed
-            if(em.isOpen()) {
+            close(em);
+            if(poolMetricsLogInterval > 0 && ++syncCount % poolMetricsLogInterval == 0) {
+                logPoolMetrics();
+            }
+        }
+
+    }
+
+    /**
+     * Opens an EntityManager for a unit of sync work, in a transaction postgres knows is read only. Entities are
+     * loaded read only, so hibernate keeps no snapshots of them and never flushes
+     */
+    private EntityManager openReadOnly() {
+        EntityManager em = emf.createEntityManager();
+        Session session = em.unwrap(Session.class);
+        session.setDefaultReadOnly(true);
+        em.setFlushMode(FlushModeType.COMMIT);
+        em.getTransaction().begin();
+        // Through JDBC, as a native update through hibernate would clear the second-level cache
+        session.doWork(connection -> {
+            try(Statement statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION READ ONLY");
+            }
+        });
+        return em;
+    }
+
+    /**
+     * Ends the read only transaction and closes the EntityManager, returning its connection to the pool
+     */
+    private static void close(EntityManager em) {
+        if(em != null && em.isOpen()) {
+            try {
+                if(em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+            } finally {
                 em.close();
             }
         }
+    }
+
+    /**
+     * Logs the connection pool's metrics. c3p0 also registers the pool with the platform MBean server as
+     * com.mchange.v2.c3p0:type=PooledDataSource[...], with the same metrics as attributes, see start.sh for reaching
+     * it remotely
+     */
+    private void logPoolMetrics() {
+        for(Object dataSource : C3P0Registry.getPooledDataSources()) {
+            PooledDataSource pool = (PooledDataSource) dataSource;
+            try {
+                log.info("DB pool: " + pool.getNumConnectionsDefaultUser() + " connections, "
+                        + pool.getNumBusyConnectionsDefaultUser() + " busy, "
+                        + pool.getNumIdleConnectionsDefaultUser() + " idle, "
+                        + pool.getNumThreadsAwaitingCheckoutDefaultUser() + " threads waiting");
+            } catch(SQLException e) {
+                log.warn("Failed to read the DB pool's metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Whether or not geoserver has a layer, fetching geoserver's layer list if a sync hasn't yet
+     */
+    private boolean hasLayer(LayerType type, int id) {
+        layers.ensureLoaded(this::fetchLayers);
+        return layers.contains(type, id);
+    }
+
+    /**
+     * Geoserver's layers, or none in parameterized mode, where rooms and incidents are registered rather than given
+     * layers of their own
+     */
+    private List<String> fetchLayers() {
+        return parameterizedViews ? Collections.<String>emptyList() : geoserver.getFeatureTypeList();
+    }
+
+    /**
+     * Publishes whichever of the shared parameterized views geoserver doesn't have yet, until they've all been
+     * published
+     */
+    private void publishSharedViews() {
+        if(sharedViewsPublished) {
+            return;
+        }
+        List<String> existing = geoserver.getFeatureTypeList();
+        List<LayerDefinition> missing = new ArrayList<LayerDefinition>();
+        for(LayerDefinition view : geoserver.parameterizedLayers()) {
+            if(!existing.contains(view.getName())) {
+                missing.add(view);
+            }
+        }
+        try {
+            GeoServerPublisher.Report report = publisher.publish(missing);
+            if(report.getFailed().isEmpty()) {
+                sharedViewsPublished = true;
+            } else {
+                log.warn("Failed to add parameterized views " + report.getFailed() + ", retrying next sync");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted adding the parameterized views to geoserver");
+        }
+    }
+
+    /**
+     * Has a room synced along with the others triggered within the debounce window, or straight away when not
+     * debouncing
+     */
+    private void requestRoomSync(int collabroomId) {
+        if(debouncer != null) {
+            debouncer.triggerRoom(collabroomId);
+        } else {
+            syncRoom(collabroomId);
+        }
+    }
 
+    /**
+     * Syncs a single room, looked up by id, with geoserver
+     */
+    private void syncRoom(int collabroomId) {
+        EntityManager em = null;
+        try {
+            em = openReadOnly();
+            Query q = em.createNativeQuery("SELECT * FROM CollabRoom WHERE collabroomid = :collabroomid",
+                    CollabRoom.class);
+            q.setParameter("collabroomid", collabroomId);
+            List<CollabRoom> collabRooms = q.getResultList();
+            if(collabRooms.isEmpty()) {
+                log.warn("Room R" + collabroomId + " isn't in the DB, not syncing it");
+                return;
+            }
+            syncRooms(em, collabRooms);
+        } catch(Exception ex) {
+            log.error("Error accessing DB syncing room R" + collabroomId, ex);
+        } finally {
+            close(em);
+        }
     }
 
-    private void syncRooms(List<CollabRoom> collabRooms) {
+    /**
+     * Syncs rooms and incidents reported by the change feed, see {@link ChangeFeedListener}. The rooms of a changed
+     * incident are synced too, as it may have just been made active
+     *
+     * @param collabroomIds rooms inserted, updated or given features
+     * @param incidentIds   incidents inserted or updated
+     */
+    public void syncChanges(Set<Integer> collabroomIds, Set<Integer> incidentIds) {
         EntityManager em = null;
         try {
-            em = emf.createEntityManager();
+            em = openReadOnly();
+            layers.ensureLoaded(this::fetchLayers);
+
+            Map<Integer, CollabRoom> collabRooms = new LinkedHashMap<Integer, CollabRoom>();
+            for(CollabRoom room : findByIds(em, "SELECT * FROM CollabRoom WHERE collabroomid IN (:ids)",
+                    collabroomIds, CollabRoom.class)) {
+                collabRooms.put(room.getCollabRoomId(), room);
+            }
+            for(CollabRoom room : findByIds(em, "SELECT * FROM CollabRoom WHERE incidentid IN (:ids)",
+                    incidentIds, CollabRoom.class)) {
+                collabRooms.put(room.getCollabRoomId(), room);
+            }
+            List<Incident> incidents = findByIds(em,
+                    "SELECT * FROM Incident WHERE incidentid IN (:ids)", incidentIds, Incident.class);
+
+            syncRooms(em, new ArrayList<CollabRoom>(collabRooms.values()));
+            syncIncidents(incidents);
+            updateLayerBounds(em, collabRooms.values(), incidents);
+        } catch(Exception ex) {
+            log.error("Error accessing DB syncing changed rooms and incidents", ex);
+        } finally {
+            close(em);
+        }
+    }
+
+    /**
+     * Runs a native query with an IN (:ids) list, ROOM_ID_BATCH ids at a time
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> findByIds(EntityManager em, String sql, Set<Integer> ids, Class<T> type) {
+        List<T> results = new ArrayList<T>();
+        List<Integer> idList = new ArrayList<Integer>(ids);
+        for(int start = 0; start < idList.size(); start += ROOM_ID_BATCH) {
+            Query q = em.createNativeQuery(sql, type);
+            q.setParameter("ids", idList.subList(start, Math.min(start + ROOM_ID_BATCH, idList.size())));
+            results.addAll(q.getResultList());
+        }
+        return results;
+    }
+
+    /**
+     * Syncs a room from its newcollabroom message. A room without an incident gets its layer straight away, a room
+     * in an incident only once it has features, so waits for its first feature message. Looks the room up in the DB
+     * when the message doesn't say which it is
+     */
+    private void syncNewRoom(JSONObject msg, int collabroomId) {
+        if(!msg.has("incidentid") || !msg.has("name")) {
+            requestRoomSync(collabroomId);
+        } else if(msg.optInt("incidentid", -1) == 0) { //0 means no incident
+            LayerDefinition layer = geoserver.collabRoomLayer(msg.optString("name"), collabroomId);
+            if(layers.claim(LayerType.ROOM, collabroomId)) {
+                log.info("Adding layer: " + msg.optString("name") + " to geoserver");
+                publish(LayerType.ROOM, Collections.singletonMap(collabroomId, layer));
+            }
+        } else {
+            log.debug("Room R" + collabroomId + " has no features yet, adding its layer with its first feature");
+        }
+    }
+
+    /**
+     * Adds the layers of the rooms that need one and geoserver doesn't have
+     *
+     * @return false when a layer failed to be added, or the rooms couldn't be looked up
+     */
+    private boolean syncRooms(EntityManager em, List<CollabRoom> collabRooms) {
+        Map<Integer, LayerDefinition> claimed = new LinkedHashMap<Integer, LayerDefinition>();
+        boolean publishing = false;
+        try {
+            preloadIncidents(em, collabRooms);
+            Set<Integer> roomsWithFeatures = findRoomsWithFeatures(em, collabRooms);
             for(CollabRoom room : collabRooms) {
-                String layername = "R" + String.valueOf(room.getCollabRoomId());
-                String query1 =
-                        "SELECT f.* FROM Feature f, CollabroomFeature cf WHERE cf.featureid=f.featureid AND cf" +
-                                ".collabroomid = " +
-                                room.getCollabRoomId() + " and deleted='f'";
-                boolean hasFeatures = !em.createNativeQuery(query1, HibernateFeature.class).getResultList().isEmpty();
+                int collabroomId = room.getCollabRoomId();
+                boolean hasFeatures = roomsWithFeatures.contains(collabroomId);
                 boolean roomActive = room.getIncident() != null && room.getIncident().getActive();
                 boolean noIncident = room.getIncidentid() == 0; //0 means no incident
 
-                if(noIncident || (hasFeatures && roomActive)) {
-                    boolean isaLayer = false;
-                    if(geoserverList != null) {
-                        isaLayer = geoserverList.contains(layername);
-                    } else {
-                        geoserverList = new ArrayList<String>();
-                    }
-
-                    if(!isaLayer) {
+                if((noIncident || (hasFeatures && roomActive)) && !layers.contains(LayerType.ROOM, collabroomId)) {
+                    LayerDefinition layer = geoserver.collabRoomLayer(room);
+                    if(layers.claim(LayerType.ROOM, collabroomId)) {
                         log.info("Adding layer: " + room.getName() + " to geoserver");
-                        geoserver.addCollabRoomView(room);
-                        geoserverList.add(layername);
+                        claimed.put(collabroomId, layer);
                     }
                 }
             }
+            publishing = true;
+            return publish(LayerType.ROOM, claimed);
         } catch(Exception ex) {
             ex.printStackTrace();
             log.error("Error accessing DB " + ex);
+            return false;
         } finally {
-            //make sure DB connection is closed
-            em.close();
+            //publish releases what it doesn't add, anything claimed before a failure is released here
+            if(!publishing) {
+                for(Integer collabroomId : claimed.keySet()) {
+                    layers.complete(LayerType.ROOM, collabroomId, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the rooms' incidents with one query per ROOM_ID_BATCH incidents, so room.getIncident() finds them loaded
+     * instead of querying for each room. The query always goes to the DB, so incidents already in the second-level
+     * cache are left out of it, room.getIncident() loading those from the cache
+     */
+    private void preloadIncidents(EntityManager em, List<CollabRoom> collabRooms) {
+        Cache cache = cacheIncidents ? emf.getCache() : null;
+        Set<Integer> incidentIds = new HashSet<Integer>();
+        for(CollabRoom room : collabRooms) {
+            int incidentId = room.getIncidentid();
+            if(incidentId != 0 //0 means no incident
+                    && (cache == null || !cache.contains(Incident.class, incidentId))) {
+                incidentIds.add(incidentId);
+            }
+        }
+        List<Integer> ids = new ArrayList<Integer>(incidentIds);
+        for(int start = 0; start < ids.size(); start += ROOM_ID_BATCH) {
+            Query q = em.createQuery("SELECT i FROM Incident i WHERE i.incidentid IN (:incidentids)");
+            q.setParameter("incidentids", ids.subList(start, Math.min(start + ROOM_ID_BATCH, ids.size())));
+            q.getResultList();
         }
     }
 
-    private void syncIncidents(List<Incident> incidents) {
+    /**
+     * Finds which of the rooms that would need a layer for their features have any that aren't deleted, with one
+     * query per ROOM_ID_BATCH rooms rather than one per room, returning only the room ids
+     */
+    private Set<Integer> findRoomsWithFeatures(EntityManager em, List<CollabRoom> collabRooms) {
+        List<Integer> candidates = new ArrayList<Integer>();
+        for(CollabRoom room : collabRooms) {
+            boolean roomActive = room.getIncident() != null && room.getIncident().getActive();
+            if(roomActive && !layers.contains(LayerType.ROOM, room.getCollabRoomId())) {
+                candidates.add(room.getCollabRoomId());
+            }
+        }
+
+        Set<Integer> roomsWithFeatures = new HashSet<Integer>();
+        for(int start = 0; start < candidates.size(); start += ROOM_ID_BATCH) {
+            List<Integer> batch = candidates.subList(start, Math.min(start + ROOM_ID_BATCH, candidates.size()));
+            Query q = em.createNativeQuery("SELECT DISTINCT cf.collabroomid FROM CollabroomFeature cf"
+                    + " JOIN Feature f ON f.featureid = cf.featureid"
+                    + " WHERE cf.collabroomid IN (:collabroomids) AND f.deleted = 'f'");
+            q.setParameter("collabroomids", batch);
+            for(Object collabroomId : q.getResultList()) {
+                roomsWithFeatures.add(((Number) collabroomId).intValue());
+            }
+        }
+        return roomsWithFeatures;
+    }
+
+    /**
+     * Adds the layers of the active incidents geoserver doesn't have
+     *
+     * @return false when a layer failed to be added
+     */
+    private boolean syncIncidents(List<Incident> incidents) {
+        Map<Integer, LayerDefinition> claimed = new LinkedHashMap<Integer, LayerDefinition>();
         for(Incident incident : incidents) {
 
-            if(incident.getActive()) {
-                String layername = "I" + String.valueOf(incident.getIncidentid());
-                boolean isaLayer = geoserverList.contains(layername);
+            //Update geoserver
+            if(incident.getActive() && layers.claim(LayerType.INCIDENT, incident.getIncidentid())) {
+                log.info("Adding layer: " + incident.getIncidentname() + " to geoserver");
+                claimed.put(incident.getIncidentid(),
+                        geoserver.incidentLayer(incident.getIncidentname(), incident.getIncidentid()));
+            }
+        }
+        return publish(LayerType.INCIDENT, claimed);
+    }
+
+    /**
+     * Tightens the bounds of the layers of the rooms, their incidents and the incidents to the extent of their data,
+     * computed with one ST_Extent query per ROOM_ID_BATCH rooms or incidents. Only bounds that have moved past the
+     * threshold are pushed to geoserver, see {@link LayerBoundsCache}. Layers without data keep the default bounds
+     */
+    private void updateLayerBounds(EntityManager em, Collection<CollabRoom> collabRooms, List<Incident> incidents) {
+        if(!updateBounds || parameterizedViews) {
+            return;
+        }
+        Set<Integer> collabroomIds = new HashSet<Integer>();
+        Set<Integer> incidentIds = new HashSet<Integer>();
+        for(CollabRoom room : collabRooms) {
+            if(layers.contains(LayerType.ROOM, room.getCollabRoomId())) {
+                collabroomIds.add(room.getCollabRoomId());
+            }
+            if(room.getIncidentid() != 0 && layers.contains(LayerType.INCIDENT, room.getIncidentid())) {
+                incidentIds.add(room.getIncidentid());
+            }
+        }
+        for(Incident incident : incidents) {
+            if(layers.contains(LayerType.INCIDENT, incident.getIncidentid())) {
+                incidentIds.add(incident.getIncidentid());
+            }
+        }
+        try {
+            Map<String, LayerBounds> changed = new LinkedHashMap<String, LayerBounds>();
+            findBounds(em, LayerType.ROOM, "SELECT cf.collabroomid AS id, ST_Extent(f.the_geom) AS box,"
+                    + " ST_Extent(ST_Transform(f.the_geom, 4326)) AS latlon FROM CollabroomFeature cf"
+                    + " JOIN Feature f ON f.featureid = cf.featureid"
+                    + " WHERE cf.collabroomid IN (:ids) AND f.deleted = 'f' AND f.the_geom IS NOT NULL"
+                    + " GROUP BY cf.collabroomid",
+                    collabroomIds, changed);
+            findBounds(em, LayerType.INCIDENT, "SELECT incidentid AS id, ST_Extent(bounds) AS box,"
+                    + " ST_Extent(ST_Transform(bounds, 4326)) AS latlon FROM CollabRoom"
+                    + " WHERE incidentid IN (:ids) AND bounds IS NOT NULL GROUP BY incidentid",
+                    incidentIds, changed);
+            if(changed.isEmpty()) {
+                return;
+            }
+            GeoServerPublisher.Report report = publisher.updateBounds(new ArrayList<LayerBounds>(changed.values()));
+            for(String name : report.getPublished()) {
+                boundsCache.pushed(changed.get(name));
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted updating layer bounds on geoserver");
+        } catch(Exception ex) {
+            log.warn("Failed to update layer bounds, keeping the current bounds: " + ex);
+        }
+    }
 
-                //Update geoserver
-                if(!isaLayer) {
-                    log.info("Adding layer: " + incident.getIncidentname() + " to geoserver");
-                    geoserver.addIncidentView(incident);
-                    geoserverList.add(layername);
+    /**
+     * Runs an extent query, its rows id, box and latlon, ROOM_ID_BATCH ids at a time, collecting the bounds that
+     * need pushing. A layer whose extent is null, e.g., all its geometries are empty, keeps its current bounds
+     */
+    private void findBounds(EntityManager em, LayerType type, String extents, Set<Integer> ids,
+                            Map<String, LayerBounds> changed) {
+        List<Integer> idList = new ArrayList<Integer>(ids);
+        for(int start = 0; start < idList.size(); start += ROOM_ID_BATCH) {
+            Query q = em.createNativeQuery("SELECT e.id, ST_XMin(e.box), ST_XMax(e.box), ST_YMin(e.box),"
+                    + " ST_YMax(e.box), ST_XMin(e.latlon), ST_XMax(e.latlon), ST_YMin(e.latlon), ST_YMax(e.latlon)"
+                    + " FROM (" + extents + ") e");
+            q.setParameter("ids", idList.subList(start, Math.min(start + ROOM_ID_BATCH, idList.size())));
+            for(Object result : q.getResultList()) {
+                Object[] row = (Object[]) result;
+                String name = type.layerName(((Number) row[0]).intValue());
+                if(row[1] == null || row[5] == null) {
+                    continue;
+                }
+                LayerBounds bounds = boundsCache.check(name,
+                        new Envelope(number(row[1]), number(row[2]), number(row[3]), number(row[4])),
+                        new Envelope(number(row[5]), number(row[6]), number(row[7]), number(row[8])));
+                if(bounds != null) {
+                    changed.put(name, bounds);
                 }
             }
         }
     }
 
+    private static double number(Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * Publishes the claimed layers to geoserver as one batch, then records those published in the registry. In
+     * parameterized mode they're only recorded. A layer that failed to publish, or wasn't published as the publish
+     * was interrupted, is released rather than recorded, so it's added again by the next sync, which finds it as
+     * the high-water mark was held back, or by the next message for it
+     *
+     * @return whether or not every claimed layer was published
+     */
+    private boolean publish(LayerType type, Map<Integer, LayerDefinition> claimed) {
+        if(claimed.isEmpty()) {
+            return true;
+        }
+        if(parameterizedViews) {
+            //Served by the shared views, so only registered
+            for(Integer id : claimed.keySet()) {
+                log.debug("Registered " + type.layerName(id) + " with the parameterized views");
+                layers.complete(type, id, true);
+            }
+            return true;
+        }
+        Set<String> published = Collections.emptySet();
+        try {
+            GeoServerPublisher.Report report = publisher.publish(new ArrayList<LayerDefinition>(claimed.values()));
+            for(String name : report.getFailed()) {
+                log.warn("Failed to add layer " + name + " to geoserver, retrying it");
+            }
+            published = new HashSet<String>(report.getPublished());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted adding " + claimed.size() + " layers to geoserver");
+        } finally {
+            for(Map.Entry<Integer, LayerDefinition> layer : claimed.entrySet()) {
+                layers.complete(type, layer.getKey(), published.contains(layer.getValue().getName()));
+            }
+        }
+        return published.size() == claimed.size();
+    }
+
     //getters and setters
 
     public String getLog4jPropertyFile() {
@@ -430,4 +923,163 @@ public class CollabFeedSync extends TimerTask implements Processor {
     public void setDataStoreName(String dataStoreName) {
         this.dataStoreName = dataStoreName;
     }
+
+    public String getHighWaterMarkFile() {
+        return highWaterMarkFile;
+    }
+
+    public void setHighWaterMarkFile(String highWaterMarkFile) {
+        this.highWaterMarkFile = highWaterMarkFile;
+    }
+
+    public boolean isParameterizedViews() {
+        return parameterizedViews;
+    }
+
+    public void setParameterizedViews(boolean parameterizedViews) {
+        this.parameterizedViews = parameterizedViews;
+    }
+
+    public long getSyncDebounceMillis() {
+        return syncDebounceMillis;
+    }
+
+    public void setSyncDebounceMillis(long syncDebounceMillis) {
+        this.syncDebounceMillis = syncDebounceMillis;
+    }
+
+    public int getSyncDebounceMetricsLogInterval() {
+        return syncDebounceMetricsLogInterval;
+    }
+
+    public void setSyncDebounceMetricsLogInterval(int syncDebounceMetricsLogInterval) {
+        this.syncDebounceMetricsLogInterval = syncDebounceMetricsLogInterval;
+    }
+
+    /**
+     * @return the debouncer collecting message triggered syncs, null when not debouncing
+     */
+    public SyncDebouncer getDebouncer() {
+        return debouncer;
+    }
+
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    public void setPoolMinSize(int poolMinSize) {
+        this.poolMinSize = poolMinSize;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public void setPoolMaxSize(int poolMaxSize) {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    public int getPoolIdleTimeoutSeconds() {
+        return poolIdleTimeoutSeconds;
+    }
+
+    public void setPoolIdleTimeoutSeconds(int poolIdleTimeoutSeconds) {
+        this.poolIdleTimeoutSeconds = poolIdleTimeoutSeconds;
+    }
+
+    public int getPoolIdleTestPeriodSeconds() {
+        return poolIdleTestPeriodSeconds;
+    }
+
+    public void setPoolIdleTestPeriodSeconds(int poolIdleTestPeriodSeconds) {
+        this.poolIdleTestPeriodSeconds = poolIdleTestPeriodSeconds;
+    }
+
+    public int getPoolMaxStatements() {
+        return poolMaxStatements;
+    }
+
+    public void setPoolMaxStatements(int poolMaxStatements) {
+        this.poolMaxStatements = poolMaxStatements;
+    }
+
+    public int getPoolMetricsLogInterval() {
+        return poolMetricsLogInterval;
+    }
+
+    public void setPoolMetricsLogInterval(int poolMetricsLogInterval) {
+        this.poolMetricsLogInterval = poolMetricsLogInterval;
+    }
+
+    public boolean isCacheIncidents() {
+        return cacheIncidents;
+    }
+
+    public void setCacheIncidents(boolean cacheIncidents) {
+        this.cacheIncidents = cacheIncidents;
+    }
+
+    public boolean isUpdateBounds() {
+        return updateBounds;
+    }
+
+    public void setUpdateBounds(boolean updateBounds) {
+        this.updateBounds = updateBounds;
+    }
+
+    public double getBoundsThreshold() {
+        return boundsThreshold;
+    }
+
+    public void setBoundsThreshold(double boundsThreshold) {
+        this.boundsThreshold = boundsThreshold;
+    }
+
+    public int getPublishThreads() {
+        return publishThreads;
+    }
+
+    public void setPublishThreads(int publishThreads) {
+        this.publishThreads = publishThreads;
+    }
+
+    public double getPublishRequestsPerSecond() {
+        return publishRequestsPerSecond;
+    }
+
+    public void setPublishRequestsPerSecond(double publishRequestsPerSecond) {
+        this.publishRequestsPerSecond = publishRequestsPerSecond;
+    }
+
+    public int getPublishMaxRetries() {
+        return publishMaxRetries;
+    }
+
+    public void setPublishMaxRetries(int publishMaxRetries) {
+        this.publishMaxRetries = publishMaxRetries;
+    }
+
+    public long getPublishRetryBackoffMillis() {
+        return publishRetryBackoffMillis;
+    }
+
+    public void setPublishRetryBackoffMillis(long publishRetryBackoffMillis) {
+        this.publishRetryBackoffMillis = publishRetryBackoffMillis;
+    }
+
+    public int getPublishConnectTimeoutMillis() {
+        return publishConnectTimeoutMillis;
+    }
+
+    public void setPublishConnectTimeoutMillis(int publishConnectTimeoutMillis) {
+        this.publishConnectTimeoutMillis = publishConnectTimeoutMillis;
+    }
+
+    public int getPublishReadTimeoutMillis() {
+        return publishReadTimeoutMillis;
+    }
+
+    public void setPublishReadTimeoutMillis(int publishReadTimeoutMillis) {
+        this.publishReadTimeoutMillis = publishReadTimeoutMillis;
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+/**
+ * A routing key classified for {@link CollabFeedSync}, in one pass over the key with no regular expressions.
+ *
+ * <p>Feature messages, the bulk of the traffic, are routed on the key alone: their room id comes from the
+ * "collabroom.&lt;id&gt;" part of the key, so their bodies needn't be parsed.</p>
+ */
+public final class CollabFeedTopic {
+
+    /**
+     * The messages CollabFeedSync acts on
+     */
+    public enum Type {
+        //A feature was added to, changed or removed from a room
+        FEATURE,
+        //A room was created
+        NEW_ROOM,
+        //Anything else, ignored
+        OTHER
+    }
+
+    private static final String FEATURE = "feature";
+    private static final String NEW_ROOM = "newcollabroom";
+    private static final String COLLABROOM = "collabroom";
+
+    private static final CollabFeedTopic OTHER = new CollabFeedTopic(Type.OTHER, -1);
+    private static final CollabFeedTopic NEW_ROOM_TOPIC = new CollabFeedTopic(Type.NEW_ROOM, -1);
+
+    private final Type type;
+    private final int collabroomId;
+
+    private CollabFeedTopic(Type type, int collabroomId) {
+        this.type = type;
+        this.collabroomId = collabroomId;
+    }
+
+    /**
+     * Classifies a routing key. A key mentioning a feature is a feature message, even if it also ends with
+     * newcollabroom
+     *
+     * @param topic the message's routing key, may be null
+     * @return the key's type, and its room id for a feature message
+     */
+    public static CollabFeedTopic parse(String topic) {
+        if(topic == null) {
+            return OTHER;
+        }
+        if(topic.contains(FEATURE)) {
+            return new CollabFeedTopic(Type.FEATURE, collabroomId(topic));
+        }
+        return topic.endsWith(NEW_ROOM) ? NEW_ROOM_TOPIC : OTHER;
+    }
+
+    /**
+     * The digits following the first "collabroom" and one separator, e.g., 12 in iweb.NICS.collabroom.12.feature
+     *
+     * @return the room id, or -1 when there isn't one or it's too long for an int
+     */
+    private static int collabroomId(String topic) {
+        int start = topic.indexOf(COLLABROOM);
+        if(start < 0) {
+            return -1;
+        }
+        int index = start + COLLABROOM.length() + 1;
+        long id = 0;
+        int digits = 0;
+        while(index < topic.length() && digits < 10) {
+            char c = topic.charAt(index);
+            if(c < '0' || c > '9') {
+                break;
+            }
+            id = id * 10 + (c - '0');
+            index++;
+            digits++;
+        }
+        boolean tooLong = index < topic.length() && topic.charAt(index) >= '0' && topic.charAt(index) <= '9';
+        return digits == 0 || tooLong || id > Integer.MAX_VALUE ? -1 : (int) id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the room id of a feature message, -1 when the key doesn't have one
+     */
+    public int getCollabroomId() {
+        return collabroomId;
+    }
+
+    @Override
+    public String toString() {
+        return type + (collabroomId >= 0 ? " R" + collabroomId : "");
+    }
+}
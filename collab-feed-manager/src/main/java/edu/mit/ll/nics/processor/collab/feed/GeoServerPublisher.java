@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import com.vividsolutions.jts.geom.Envelope;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Publishes SQL view layers to geoserver in parallel.
+ *
+ * <p>Each layer takes two REST calls instead of six. The first creates the feature type with its SQL view, title,
+ * bounds and enabled flag. The second sets the layer's default style. The calls run on a bounded pool, are rate
+ * limited per geoserver host, and are retried with backoff on connection failures and 5xx or 429 responses. A
+ * feature type that already exists isn't an error, its layer is still styled.</p>
+ *
+ * <p>Layers' bounds are updated the same way, with one call each.</p>
+ */
+public class GeoServerPublisher {
+
+    private static final Logger log = Logger.getLogger(GeoServerPublisher.class.getSimpleName());
+
+    private static final String CONTENT_TYPE = "application/xml";
+
+    //Rate limiters by geoserver host, shared by publishers of the same host
+    private static final Map<String, RateLimiter> RATE_LIMITERS = new ConcurrentHashMap<String, RateLimiter>();
+
+    private final String restUrl;
+    private final String authorization;
+    private final String workspaceName;
+    private final String dataStoreName;
+
+    private ExecutorService executor;
+    private RateLimiter rateLimiter;
+
+    //Number of layers published in parallel
+    private int threads = 8;
+
+    //Most REST requests per second to the geoserver host, 0 for no limit
+    private double requestsPerSecond = 20;
+
+    //Retries of a failed REST request
+    private int maxRetries = 3;
+
+    //Wait before the first retry, doubled for each one after
+    private long retryBackoffMillis = 500;
+
+    private int connectTimeoutMillis = 10000;
+    private int readTimeoutMillis = 60000;
+
+    /**
+     * @param restUrl       geoserver's REST url, e.g., http://host:8080/geoserver/rest
+     * @param username      for the REST interface
+     * @param password      for the REST interface
+     * @param workspaceName workspace the layers are published in
+     * @param dataStoreName datastore the SQL views query
+     */
+    public GeoServerPublisher(String restUrl, String username, String password, String workspaceName,
+                              String dataStoreName) {
+        this.restUrl = restUrl.endsWith("/") ? restUrl.substring(0, restUrl.length() - 1) : restUrl;
+        this.authorization = username == null || username.isEmpty() ? null : "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + (password == null ? "" : password))
+                        .getBytes(StandardCharsets.UTF_8));
+        this.workspaceName = workspaceName;
+        this.dataStoreName = dataStoreName;
+    }
+
+    /**
+     * Starts the publishing pool, once properties have been set
+     */
+    public void start() throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "geoserver-publisher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        String host = new URL(restUrl).getAuthority();
+        rateLimiter = RATE_LIMITERS.computeIfAbsent(host, key -> new RateLimiter(requestsPerSecond));
+        log.info("Publishing to geoserver " + host + " on " + threads + " threads, at most " + requestsPerSecond
+                + " requests per second");
+    }
+
+    /**
+     * Stops the publishing pool
+     */
+    public void stop() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Publishes the layers, waiting for all of them
+     *
+     * @param layers the layers to publish
+     * @return which layers were published and which failed
+     * @throws InterruptedException when interrupted waiting
+     */
+    public Report publish(List<LayerDefinition> layers) throws InterruptedException {
+        List<String> names = new ArrayList<String>(layers.size());
+        for(LayerDefinition layer : layers) {
+            names.add(layer.getName());
+        }
+        return run("Published", names, layers, this::publish);
+    }
+
+    /**
+     * Updates the bounds of published layers, with one REST call each, waiting for all of them
+     *
+     * @param bounds the layers' new bounds
+     * @return which layers were updated and which failed
+     * @throws InterruptedException when interrupted waiting
+     */
+    public Report updateBounds(List<LayerBounds> bounds) throws InterruptedException {
+        List<String> names = new ArrayList<String>(bounds.size());
+        for(LayerBounds layer : bounds) {
+            names.add(layer.getName());
+        }
+        return run("Updated bounds of", names, bounds, this::updateBounds);
+    }
+
+    /**
+     * Runs a call per layer on the pool, waiting for all of them
+     */
+    private <T> Report run(String action, List<String> names, List<T> layers, Call<T> call)
+            throws InterruptedException {
+        Report report = new Report(action);
+        if(layers.isEmpty()) {
+            return report;
+        }
+        long start = System.nanoTime();
+        List<Future<?>> results = new ArrayList<Future<?>>(layers.size());
+        for(int i = 0; i < layers.size(); i++) {
+            final String name = names.get(i);
+            final T layer = layers.get(i);
+            results.add(executor.submit(() -> {
+                try {
+                    call.run(layer, report);
+                    report.published.add(name);
+                } catch(IOException e) {
+                    log.error(action + " layer " + name + " on geoserver failed: " + e.getMessage());
+                    report.failed.add(name);
+                }
+            }));
+        }
+        for(Future<?> result : results) {
+            try {
+                result.get();
+            } catch(ExecutionException e) {
+                log.error("Unexpected error calling geoserver", e.getCause());
+            }
+        }
+        report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info(report);
+        return report;
+    }
+
+    /**
+     * REST calls for one layer
+     */
+    private interface Call<T> {
+        void run(T layer, Report report) throws IOException;
+    }
+
+    private void publish(LayerDefinition layer, Report report) throws IOException {
+        String featureTypes = restUrl + "/workspaces/" + encode(workspaceName) + "/datastores/" + encode(dataStoreName)
+                + "/featuretypes";
+        Response created = send("POST", featureTypes, featureTypeXml(layer), report);
+        if(!created.isSuccess()) {
+            if(!created.body.contains("already exists")) {
+                throw new IOException("Creating feature type failed with " + created);
+            }
+            log.debug("Feature type " + layer.getName() + " already exists, styling its layer");
+        }
+        Response styled = send("PUT", restUrl + "/layers/" + encode(workspaceName + ":" + layer.getName()),
+                layerXml(layer), report);
+        if(!styled.isSuccess()) {
+            throw new IOException("Styling layer failed with " + styled);
+        }
+    }
+
+    private void updateBounds(LayerBounds bounds, Report report) throws IOException {
+        String featureType = restUrl + "/workspaces/" + encode(workspaceName) + "/datastores/" + encode(dataStoreName)
+                + "/featuretypes/" + encode(bounds.getName());
+        Response updated = send("PUT", featureType, boundsXml(bounds), report);
+        if(!updated.isSuccess()) {
+            throw new IOException("Updating bounds failed with " + updated);
+        }
+    }
+
+    /**
+     * Sends a request, retrying connection failures, 5xx and 429 responses
+     */
+    private Response send(String method, String url, String body, Report report) throws IOException {
+        long backoff = retryBackoffMillis;
+        for(int attempt = 0; ; attempt++) {
+            rateLimiter.acquire();
+            try {
+                Response response = request(method, url, body);
+                if(!response.isRetryable() || attempt >= maxRetries) {
+                    return response;
+                }
+                log.debug(method + " " + url + " failed with " + response + ", retrying");
+            } catch(IOException e) {
+                if(attempt >= maxRetries) {
+                    throw e;
+                }
+                log.debug(method + " " + url + " failed with " + e.getMessage() + ", retrying");
+            }
+            report.retries.incrementAndGet();
+            try {
+                Thread.sleep(backoff);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted retrying " + method + " " + url);
+            }
+            backoff *= 2;
+        }
+    }
+
+    private Response request(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            if(authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+            try(OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            return new Response(status, read(in));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if(in == null) {
+            return "";
+        }
+        try(InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The whole feature type, so it's created complete in one call
+     */
+    static String featureTypeXml(LayerDefinition layer) {
+        StringBuilder xml = new StringBuilder("<featureType>");
+        element(xml, "name", layer.getName());
+        element(xml, "nativeName", layer.getName());
+        element(xml, "title", layer.getTitle());
+        element(xml, "srs", layer.getSrs());
+        element(xml, "projectionPolicy", "FORCE_DECLARED");
+        bounds(xml, "nativeBoundingBox", layer.getNativeBounds(), layer.getSrs());
+        bounds(xml, "latLonBoundingBox", layer.getLatLonBounds(), "EPSG:4326");
+        element(xml, "enabled", "true");
+        xml.append("<metadata><entry key=\"JDBC_VIRTUAL_TABLE\"><virtualTable>");
+        element(xml, "name", layer.getName());
+        element(xml, "sql", layer.getSql());
+        element(xml, "escapeSql", "false");
+        xml.append("<geometry>");
+        element(xml, "name", layer.getGeometryName());
+        element(xml, "type", layer.getGeometryType());
+        element(xml, "srid", String.valueOf(layer.getSrid()));
+        xml.append("</geometry>");
+        for(LayerDefinition.ViewParameter parameter : layer.getParameters()) {
+            xml.append("<parameter>");
+            element(xml, "name", parameter.getName());
+            element(xml, "defaultValue", parameter.getDefaultValue());
+            element(xml, "regexpValidator", parameter.getRegexpValidator());
+            xml.append("</parameter>");
+        }
+        xml.append("</virtualTable></entry></metadata></featureType>");
+        return xml.toString();
+    }
+
+    static String boundsXml(LayerBounds bounds) {
+        StringBuilder xml = new StringBuilder("<featureType>");
+        bounds(xml, "nativeBoundingBox", bounds.getNativeBounds(), null);
+        bounds(xml, "latLonBoundingBox", bounds.getLatLonBounds(), "EPSG:4326");
+        return xml.append("</featureType>").toString();
+    }
+
+    static String layerXml(LayerDefinition layer) {
+        StringBuilder xml = new StringBuilder("<layer><defaultStyle>");
+        element(xml, "name", layer.getStyle());
+        xml.append("</defaultStyle>");
+        element(xml, "enabled", "true");
+        return xml.append("</layer>").toString();
+    }
+
+    private static void bounds(StringBuilder xml, String name, Envelope bounds, String crs) {
+        xml.append('<').append(name).append('>');
+        element(xml, "minx", String.valueOf(bounds.getMinX()));
+        element(xml, "maxx", String.valueOf(bounds.getMaxX()));
+        element(xml, "miny", String.valueOf(bounds.getMinY()));
+        element(xml, "maxy", String.valueOf(bounds.getMaxY()));
+        if(crs != null) {
+            element(xml, "crs", crs);
+        }
+        xml.append("</").append(name).append('>');
+    }
+
+    private static void element(StringBuilder xml, String name, String value) {
+        xml.append('<').append(name).append('>');
+        if(value != null) {
+            xml.append(value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+        }
+        xml.append("</").append(name).append('>');
+    }
+
+    private static String encode(String segment) throws IOException {
+        return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+    }
+
+    /**
+     * Status and body of a REST response
+     */
+    private static final class Response {
+
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        private boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+
+        private boolean isRetryable() {
+            // Creating an existing feature type is a 500 on some geoserver versions, retrying won't help
+            return (status >= 500 && !body.contains("already exists")) || status == 429;
+        }
+
+        @Override
+        public String toString() {
+            return status + (body.isEmpty() ? "" : ": " + (body.length() > 200 ? body.substring(0, 200) : body));
+        }
+    }
+
+    /**
+     * Spaces requests to a host evenly, at most requestsPerSecond
+     */
+    private static final class RateLimiter {
+
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        private RateLimiter(double requestsPerSecond) {
+            this.intervalNanos = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+        }
+
+        private void acquire() throws IOException {
+            if(intervalNanos == 0) {
+                return;
+            }
+            long wait;
+            synchronized(this) {
+                long now = System.nanoTime();
+                next = Math.max(next, now);
+                wait = next - now;
+                next += intervalNanos;
+            }
+            if(wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting to send to geoserver");
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcome of publishing, or updating, a batch of layers
+     */
+    public static final class Report {
+
+        private final String action;
+        private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger retries = new AtomicInteger();
+        private long elapsedMillis;
+
+        private Report(String action) {
+            this.action = action;
+        }
+
+        /**
+         * @return names of the layers published, or updated
+         */
+        public List<String> getPublished() {
+            return published;
+        }
+
+        /**
+         * @return names of the layers that failed after retries
+         */
+        public List<String> getFailed() {
+            return failed;
+        }
+
+        public int getRetries() {
+            return retries.get();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + published.size() + " layers on geoserver in " + elapsedMillis + "ms, "
+                    + failed.size() + " failed" + (failed.isEmpty() ? "" : " " + failed) + ", " + retries.get()
+                    + " retries";
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * The bounds of a layer's data, in the layer's declared SRS and in EPSG:4326.
+ */
+public class LayerBounds {
+
+    private final String name;
+    private final Envelope nativeBounds;
+    private final Envelope latLonBounds;
+
+    /**
+     * @param name         layer and feature type name, e.g., R12
+     * @param nativeBounds bounds in the declared SRS
+     * @param latLonBounds bounds in EPSG:4326
+     */
+    public LayerBounds(String name, Envelope nativeBounds, Envelope latLonBounds) {
+        this.name = name;
+        this.nativeBounds = nativeBounds;
+        this.latLonBounds = latLonBounds;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Envelope getNativeBounds() {
+        return nativeBounds;
+    }
+
+    public Envelope getLatLonBounds() {
+        return latLonBounds;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + nativeBounds;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import com.vividsolutions.jts.geom.Envelope;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bounds last pushed to geoserver for each layer, deciding when a layer's data has moved enough to push new ones.
+ *
+ * <p>Bounds are pushed padded by threshold times their larger side. New data extents that still fit in the pushed
+ * bounds, and haven't shrunk to well inside them, aren't pushed again, so small edits don't each cost a REST call.
+ * Data outside the pushed bounds is always pushed, so clients never have features clipped.</p>
+ */
+public class LayerBoundsCache {
+
+    //Least padding, for layers of a single point: meters in the native SRS, degrees in EPSG:4326
+    private static final double MIN_NATIVE_PADDING = 100;
+    private static final double MIN_LAT_LON_PADDING = 0.001;
+
+    private final double threshold;
+
+    private final Map<String, Envelope> pushed = new ConcurrentHashMap<String, Envelope>();
+
+    /**
+     * @param threshold padding, and how far the data may shrink inside it, as a fraction of the data's larger side
+     */
+    public LayerBoundsCache(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param name         layer name
+     * @param nativeExtent extent of the layer's data in its declared SRS
+     * @param latLonExtent extent of the layer's data in EPSG:4326
+     * @return the padded bounds to push, or null when the pushed bounds are still close enough
+     */
+    public LayerBounds check(String name, Envelope nativeExtent, Envelope latLonExtent) {
+        double padding = padding(nativeExtent, MIN_NATIVE_PADDING);
+        Envelope current = pushed.get(name);
+        if(current != null && current.contains(nativeExtent)
+                && expand(nativeExtent, 2 * padding).contains(current)) {
+            return null;
+        }
+        return new LayerBounds(name, expand(nativeExtent, padding),
+                expand(latLonExtent, padding(latLonExtent, MIN_LAT_LON_PADDING)));
+    }
+
+    /**
+     * Records bounds geoserver has accepted
+     */
+    public void pushed(LayerBounds bounds) {
+        pushed.put(bounds.getName(), bounds.getNativeBounds());
+    }
+
+    /**
+     * @return the number of layers with pushed bounds
+     */
+    public int size() {
+        return pushed.size();
+    }
+
+    private double padding(Envelope extent, double minimum) {
+        return Math.max(threshold * Math.max(extent.getWidth(), extent.getHeight()), minimum);
+    }
+
+    private static Envelope expand(Envelope extent, double padding) {
+        return new Envelope(extent.getMinX() - padding, extent.getMaxX() + padding, extent.getMinY() - padding,
+                extent.getMaxY() + padding);
+    }
+}
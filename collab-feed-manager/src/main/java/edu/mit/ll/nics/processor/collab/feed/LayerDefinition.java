@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import com.vividsolutions.jts.geom.Envelope;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything geoserver needs to publish a SQL view layer: the view, its title and bounds, and the layer's style.
+ * Built by {@link CollabFeedGeoserver} and published by {@link GeoServerPublisher}.
+ */
+public class LayerDefinition {
+
+    private final String name;
+    private final String title;
+    private final String sql;
+    private final String geometryName;
+    private final String geometryType;
+    private final int srid;
+    private final String srs;
+    private final Envelope nativeBounds;
+    private final Envelope latLonBounds;
+    private final String style;
+    private final List<ViewParameter> parameters;
+
+    /**
+     * @param name         layer and feature type name, e.g., R12
+     * @param title        feature type title
+     * @param sql          SQL of the view
+     * @param geometryName geometry column of the view
+     * @param geometryType geometry type, e.g., Geometry
+     * @param srid         SRID of the geometry column
+     * @param srs          declared SRS, e.g., EPSG:3857
+     * @param nativeBounds bounds in the declared SRS
+     * @param latLonBounds bounds in EPSG:4326
+     * @param style        default style of the layer
+     */
+    public LayerDefinition(String name, String title, String sql, String geometryName, String geometryType,
+                           int srid, String srs, Envelope nativeBounds, Envelope latLonBounds, String style) {
+        this(name, title, sql, geometryName, geometryType, srid, srs, nativeBounds, latLonBounds, style,
+                Collections.<ViewParameter>emptyList());
+    }
+
+    /**
+     * A parameterized SQL view, its sql referencing each parameter as %name%
+     *
+     * @param parameters parameters of the view, supplied by clients with the viewparams request parameter
+     */
+    public LayerDefinition(String name, String title, String sql, String geometryName, String geometryType,
+                           int srid, String srs, Envelope nativeBounds, Envelope latLonBounds, String style,
+                           List<ViewParameter> parameters) {
+        this.name = name;
+        this.title = title;
+        this.sql = sql;
+        this.geometryName = geometryName;
+        this.geometryType = geometryType;
+        this.srid = srid;
+        this.srs = srs;
+        this.nativeBounds = nativeBounds;
+        this.latLonBounds = latLonBounds;
+        this.style = style;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getGeometryName() {
+        return geometryName;
+    }
+
+    public String getGeometryType() {
+        return geometryType;
+    }
+
+    public int getSrid() {
+        return srid;
+    }
+
+    public String getSrs() {
+        return srs;
+    }
+
+    public Envelope getNativeBounds() {
+        return nativeBounds;
+    }
+
+    public Envelope getLatLonBounds() {
+        return latLonBounds;
+    }
+
+    public String getStyle() {
+        return style;
+    }
+
+    public List<ViewParameter> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * A parameter of a SQL view. Geoserver only substitutes values matching the validator, so a numeric validator
+     * keeps clients from injecting SQL through viewparams
+     */
+    public static class ViewParameter {
+
+        private final String name;
+        private final String defaultValue;
+        private final String regexpValidator;
+
+        /**
+         * @param name            parameter name, referenced in the sql as %name%
+         * @param defaultValue    used when a request doesn't supply the parameter
+         * @param regexpValidator regular expression values must match
+         */
+        public ViewParameter(String name, String defaultValue, String regexpValidator) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.regexpValidator = regexpValidator;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
+
+        public String getRegexpValidator() {
+            return regexpValidator;
+        }
+    }
+}
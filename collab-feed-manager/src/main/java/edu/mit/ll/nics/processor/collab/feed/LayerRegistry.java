@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The layers geoserver has in the collab feed workspace, shared by the message consumer and the sync timer.
+ *
+ * <p>Lookups are against a concurrent hash set. A refresh from geoserver builds a new snapshot and swaps it in, and
+ * layers added while the refresh was fetching are carried over so they aren't lost. Adding a layer is claimed first,
+ * so two threads seeing the same missing layer don't both create it.</p>
+ */
+public class LayerRegistry {
+
+    /**
+     * The kinds of layer the collab feed manager creates, and how each is named from its id
+     */
+    public enum LayerType {
+
+        ROOM {
+            @Override
+            public String layerName(int id) {
+                return "R" + id;
+            }
+        },
+        INCIDENT {
+            @Override
+            public String layerName(int id) {
+                return "I" + id;
+            }
+        },
+        MY_MAP {
+            @Override
+            public String layerName(int userId) {
+                return userId + "_MyMap";
+            }
+        };
+
+        /**
+         * @param id collabroom id, incident id or user id
+         * @return name of the layer
+         */
+        public abstract String layerName(int id);
+    }
+
+    private final Object refreshLock = new Object();
+
+    //null until first loaded from geoserver
+    private volatile Set<String> layers;
+
+    //Layers added while a refresh is fetching from geoserver, null when not refreshing
+    private volatile Set<String> addedDuringRefresh;
+
+    //Layers being added to geoserver
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Replaces the layers with those geoserver has now
+     *
+     * @param source fetches geoserver's layer names
+     */
+    public void refresh(Supplier<List<String>> source) {
+        synchronized(refreshLock) {
+            Set<String> added = ConcurrentHashMap.newKeySet();
+            addedDuringRefresh = added;
+            try {
+                List<String> fetched = source.get();
+                Set<String> snapshot = ConcurrentHashMap.newKeySet(Math.max(16, fetched.size() * 2));
+                snapshot.addAll(fetched);
+                snapshot.addAll(added);
+                layers = snapshot;
+                // Again, for layers added between the copy and the swap
+                snapshot.addAll(added);
+            } finally {
+                addedDuringRefresh = null;
+            }
+        }
+    }
+
+    /**
+     * Loads the layers from geoserver, unless they already have been
+     *
+     * @param source fetches geoserver's layer names
+     */
+    public void ensureLoaded(Supplier<List<String>> source) {
+        if(layers == null) {
+            synchronized(refreshLock) {
+                if(layers == null) {
+                    refresh(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether or not geoserver has the layer
+     */
+    public boolean contains(LayerType type, int id) {
+        Set<String> current = layers;
+        return current != null && current.contains(type.layerName(id));
+    }
+
+    /**
+     * Claims adding a layer, so no other thread adds it at the same time
+     *
+     * @return false when geoserver already has the layer or another thread is adding it
+     */
+    public boolean claim(LayerType type, int id) {
+        return !contains(type, id) && inFlight.add(type.layerName(id));
+    }
+
+    /**
+     * Releases a claim, recording the layer once geoserver has added it. A layer that wasn't added can be claimed
+     * again, to retry it
+     *
+     * @param added whether or not geoserver added the layer
+     */
+    public void complete(LayerType type, int id, boolean added) {
+        String name = type.layerName(id);
+        if(added) {
+            Set<String> refreshing = addedDuringRefresh;
+            if(refreshing != null) {
+                refreshing.add(name);
+            }
+            Set<String> current = layers;
+            if(current != null) {
+                current.add(name);
+            }
+        }
+        inFlight.remove(name);
+    }
+
+    /**
+     * @return the number of layers, 0 until loaded
+     */
+    public int size() {
+        Set<String> current = layers;
+        return current == null ? 0 : current.size();
+    }
+}
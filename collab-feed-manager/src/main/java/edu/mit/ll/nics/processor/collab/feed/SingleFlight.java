@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a task on one thread at a time. A call while it's running doesn't start an overlapping run, it has the
+ * running one go once more when it finishes, so changes made during a run are still picked up. Any number of calls
+ * during a run result in one more run.
+ */
+public class SingleFlight {
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean requested = new AtomicBoolean();
+
+    /**
+     * Runs the task now, or once more after the run in progress
+     *
+     * @param task the task
+     * @return true when the task ran on this thread, false when it was left to the run in progress
+     */
+    public boolean run(Runnable task) {
+        requested.set(true);
+        boolean ran = false;
+        // Checking requested after releasing running covers a call made just as the last run finished
+        while(requested.get() && running.compareAndSet(false, true)) {
+            try {
+                while(requested.getAndSet(false)) {
+                    task.run();
+                    ran = true;
+                }
+            } finally {
+                running.set(false);
+            }
+        }
+        return ran;
+    }
+
+    /**
+     * @return whether or not a run is in progress
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import org.apache.log4j.Logger;
+
+/**
+ * Collects sync triggers for rooms and incidents and syncs them together, off the caller's thread. The first trigger
+ * opens a window of windowMillis, and every trigger within it joins the one sync at its end, so a burst of feature
+ * messages for a new room costs one sync rather than one each. Syncs run one at a time on a single thread, triggers
+ * during a sync open the next window.
+ */
+public class SyncDebouncer {
+
+    private static final Logger log = Logger.getLogger(SyncDebouncer.class.getSimpleName());
+
+    private final long windowMillis;
+    private final BiConsumer<Set<Integer>, Set<Integer>> sync;
+    private final ScheduledExecutorService executor;
+
+    //Ids waiting for the sync at the end of the current window, guarded by this
+    private Set<Integer> collabroomIds = new HashSet<Integer>();
+    private Set<Integer> incidentIds = new HashSet<Integer>();
+    private boolean scheduled;
+
+    //Log the metrics every this many syncs, 0 to disable
+    private int metricsLogInterval;
+
+    private final AtomicLong triggers = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * @param windowMillis how long triggers are collected before syncing them
+     * @param sync         syncs the collected room and incident ids
+     */
+    public SyncDebouncer(long windowMillis, BiConsumer<Set<Integer>, Set<Integer>> sync) {
+        this.windowMillis = windowMillis;
+        this.sync = sync;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "collab-feed-sync-debouncer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Has a room synced at the end of the current window
+     */
+    public void triggerRoom(int collabroomId) {
+        trigger(collabroomId, true);
+    }
+
+    /**
+     * Has an incident synced at the end of the current window
+     */
+    public void triggerIncident(int incidentId) {
+        trigger(incidentId, false);
+    }
+
+    private void trigger(int id, boolean room) {
+        triggers.incrementAndGet();
+        synchronized(this) {
+            if(room) {
+                collabroomIds.add(id);
+            } else {
+                incidentIds.add(id);
+            }
+            if(scheduled) {
+                coalesced.incrementAndGet();
+            } else {
+                scheduled = true;
+                executor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        Set<Integer> rooms;
+        Set<Integer> incidents;
+        synchronized(this) {
+            rooms = collabroomIds;
+            incidents = incidentIds;
+            collabroomIds = new HashSet<Integer>();
+            incidentIds = new HashSet<Integer>();
+            scheduled = false;
+        }
+        log.debug("Syncing " + rooms.size() + " rooms and " + incidents.size() + " incidents");
+        try {
+            sync.accept(rooms, incidents);
+        } catch(RuntimeException e) {
+            log.error("Debounced sync failed", e);
+        }
+        long count = syncs.incrementAndGet();
+        if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+            log.info(summarize());
+        }
+    }
+
+    /**
+     * Stops syncing, dropping triggers still waiting
+     */
+    public void stop() {
+        executor.shutdownNow();
+        log.info(summarize());
+    }
+
+    /**
+     * @return the trigger, coalesced and sync counts
+     */
+    public String summarize() {
+        return "Sync debouncer: " + triggers.get() + " triggers, " + coalesced.get() + " coalesced into "
+                + syncs.get() + " syncs";
+    }
+
+    /**
+     * @return triggers received
+     */
+    public long getTriggers() {
+        return triggers.get();
+    }
+
+    /**
+     * @return triggers that joined a sync already scheduled by an earlier trigger
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return syncs run
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(int metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.collab.feed;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import org.apache.log4j.Logger;
+
+/**
+ * The highest collabroom, incident and collabroomfeature ids a sync has covered, persisted so the periodic sync
+ * only looks at rows added since, including after a restart.
+ *
+ * <p>Deleting the file, or starting without one, makes the next sync a full reconciliation.</p>
+ */
+public class SyncHighWaterMark {
+
+    private static final Logger log = Logger.getLogger(SyncHighWaterMark.class.getSimpleName());
+
+    private static final String COLLABROOM_ID = "collabroomid";
+    private static final String INCIDENT_ID = "incidentid";
+    private static final String FEATURE_ID = "featureid";
+
+    private final File file;
+
+    private long collabroomId;
+    private long incidentId;
+    private long featureId;
+
+    /**
+     * @param path file the marks are persisted to, null or empty to keep them in memory only
+     */
+    public SyncHighWaterMark(String path) {
+        this.file = path == null || path.trim().isEmpty() ? null : new File(path.trim());
+    }
+
+    /**
+     * Loads the marks, all 0 when there's no file yet
+     *
+     * @throws IOException when the file can't be read
+     */
+    public void load() throws IOException {
+        if(file == null || !file.isFile()) {
+            log.info("No sync high-water mark" + (file != null ? " in " + file.getAbsolutePath() : "")
+                    + ", the first sync is a full reconciliation");
+            return;
+        }
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        collabroomId = Long.parseLong(properties.getProperty(COLLABROOM_ID, "0"));
+        incidentId = Long.parseLong(properties.getProperty(INCIDENT_ID, "0"));
+        featureId = Long.parseLong(properties.getProperty(FEATURE_ID, "0"));
+        log.info("Loaded sync high-water mark " + this);
+    }
+
+    /**
+     * Moves the marks forward, never back, and persists them
+     *
+     * @param collabroomId highest collabroom id synced
+     * @param incidentId highest incident id synced
+     * @param featureId highest collabroomfeature featureid synced
+     * @throws IOException when the file can't be written
+     */
+    public void advance(long collabroomId, long incidentId, long featureId) throws IOException {
+        this.collabroomId = Math.max(this.collabroomId, collabroomId);
+        this.incidentId = Math.max(this.incidentId, incidentId);
+        this.featureId = Math.max(this.featureId, featureId);
+        if(file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(COLLABROOM_ID, String.valueOf(this.collabroomId));
+        properties.setProperty(INCIDENT_ID, String.valueOf(this.incidentId));
+        properties.setProperty(FEATURE_ID, String.valueOf(this.featureId));
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent.getAbsolutePath());
+        }
+        // Write then rename, so a crash mid write leaves the previous marks
+        File temp = new File(file.getPath() + ".tmp");
+        try(OutputStream out = new FileOutputStream(temp)) {
+            properties.store(out, "collab-feed-manager sync high-water mark");
+        }
+        if(!temp.renameTo(file)) {
+            file.delete();
+            if(!temp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    public long getCollabroomId() {
+        return collabroomId;
+    }
+
+    public long getIncidentId() {
+        return incidentId;
+    }
+
+    public long getFeatureId() {
+        return featureId;
+    }
+
+    @Override
+    public String toString() {
+        return COLLABROOM_ID + "=" + collabroomId + ", " + INCIDENT_ID + "=" + incidentId + ", " + FEATURE_ID + "="
+                + featureId;
+    }
+}
@@ -0,0 +1,59 @@
+--
+-- Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+-- All rights reserved.
+--
+-- Redistribution and use in source and binary forms, with or without
+-- modification, are permitted provided that the following conditions are met:
+--
+-- 1. Redistributions of source code must retain the above copyright notice, this
+-- list of conditions and the following disclaimer.
+--
+-- 2. Redistributions in binary form must reproduce the above copyright notice,
+-- this list of conditions and the following disclaimer in the documentation
+-- and/or other materials provided with the distribution.
+--
+-- 3. Neither the name of the copyright holder nor the names of its contributors
+-- may be used to endorse or promote products derived from this software without
+-- specific prior written permission.
+--
+-- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+-- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+-- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+-- DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+-- FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+-- DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+-- SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+-- CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+-- OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+-- OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+--
+
+-- Change feed for the collab feed manager's cdc.enabled mode. Notifies the collab_feed channel with
+-- <table>:<id> when a collabroom or incident is inserted or updated, and when a feature is added to a room. Run once
+-- against the NICS database, running it again is harmless.
+--
+--   psql -h HOST -U USER -d NAME -f collab-feed-notify.sql
+
+CREATE OR REPLACE FUNCTION collab_feed_notify() RETURNS trigger AS $$
+BEGIN
+    IF TG_TABLE_NAME = 'incident' THEN
+        PERFORM pg_notify('collab_feed', 'incident:' || NEW.incidentid);
+    ELSE
+        PERFORM pg_notify('collab_feed', 'collabroom:' || NEW.collabroomid);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS collab_feed_notify ON collabroom;
+CREATE TRIGGER collab_feed_notify AFTER INSERT OR UPDATE ON collabroom
+    FOR EACH ROW EXECUTE PROCEDURE collab_feed_notify();
+
+DROP TRIGGER IF EXISTS collab_feed_notify ON incident;
+CREATE TRIGGER collab_feed_notify AFTER INSERT OR UPDATE ON incident
+    FOR EACH ROW EXECUTE PROCEDURE collab_feed_notify();
+
+-- A room in an incident only gets a layer once it has features
+DROP TRIGGER IF EXISTS collab_feed_notify ON collabroomfeature;
+CREATE TRIGGER collab_feed_notify AFTER INSERT ON collabroomfeature
+    FOR EACH ROW EXECUTE PROCEDURE collab_feed_notify();
@@ -30,6 +30,14 @@
 
 NAME=${NAME:-"collab-feed-manager"}
 LIBDIR=${LIBDIR:-"./lib"}
+JAVA_OPTS=${JAVA_OPTS:-"-Xmx1024M -server"}
+
+# Expose the JVM's MBeans, the DB pool's among them, on JMX_PORT, unauthenticated, so only on a trusted network
+if [ -n "${JMX_PORT}" ]; then
+    JAVA_OPTS="${JAVA_OPTS} -Dcom.sun.management.jmxremote.port=${JMX_PORT}"
+    JAVA_OPTS="${JAVA_OPTS} -Dcom.sun.management.jmxremote.authenticate=false"
+    JAVA_OPTS="${JAVA_OPTS} -Dcom.sun.management.jmxremote.ssl=false"
+fi
 
 #echo "--------invoking camel spring app: ${NAME} on $(date)"
 echo "--------invoking non-spring app: ${NAME} on $(date)"
@@ -39,7 +47,7 @@ echo " $(pwd)"
 echo "-----------------------------------------------------------------"
 
 # Spring executor
-java -DappName=${NAME} -Xmx1024M -server -cp "$LIBDIR/*" org.apache.camel.spring.Main -fa config/spring/${NAME}.xml
+java -DappName=${NAME} ${JAVA_OPTS} -cp "$LIBDIR/*" org.apache.camel.spring.Main -fa config/spring/${NAME}.xml
 
 # Jar executor
 # java -DappName=${NAME} -Xms512m -Xmx1024m -server -cp "$LIBDIR/*" edu.mit.ll.nics.processor.collab.feed.CollabFeedManager
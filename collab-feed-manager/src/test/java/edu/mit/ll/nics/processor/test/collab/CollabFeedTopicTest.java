@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import edu.mit.ll.nics.processor.collab.feed.CollabFeedTopic;
+import edu.mit.ll.nics.processor.collab.feed.CollabFeedTopic.Type;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link CollabFeedTopic}
+ */
+public class CollabFeedTopicTest {
+
+    @Test(testName = "TestFeature")
+    public void testFeature() {
+        CollabFeedTopic topic = CollabFeedTopic.parse("iweb.NICS.collabroom.12.feature");
+        Assert.assertEquals(topic.getType(), Type.FEATURE);
+        Assert.assertEquals(topic.getCollabroomId(), 12);
+    }
+
+    @Test(testName = "TestNewRoom")
+    public void testNewRoom() {
+        CollabFeedTopic topic = CollabFeedTopic.parse("iweb.NICS.incident.3.newcollabroom");
+        Assert.assertEquals(topic.getType(), Type.NEW_ROOM);
+        Assert.assertEquals(topic.getCollabroomId(), -1);
+    }
+
+    @Test(testName = "TestFeatureBeforeNewRoom")
+    public void testFeatureBeforeNewRoom() {
+        CollabFeedTopic topic = CollabFeedTopic.parse("iweb.NICS.collabroom.7.feature.newcollabroom");
+        Assert.assertEquals(topic.getType(), Type.FEATURE);
+        Assert.assertEquals(topic.getCollabroomId(), 7);
+    }
+
+    @Test(testName = "TestOther")
+    public void testOther() {
+        Assert.assertEquals(CollabFeedTopic.parse("iweb.NICS.incident.3.update").getType(), Type.OTHER);
+    }
+
+    @Test(testName = "TestNull")
+    public void testNull() {
+        CollabFeedTopic topic = CollabFeedTopic.parse(null);
+        Assert.assertEquals(topic.getType(), Type.OTHER);
+        Assert.assertEquals(topic.getCollabroomId(), -1);
+    }
+
+    @Test(testName = "TestNoRoomId")
+    public void testNoRoomId() {
+        Assert.assertEquals(CollabFeedTopic.parse("iweb.NICS.collabroom.feature").getCollabroomId(), -1);
+        Assert.assertEquals(CollabFeedTopic.parse("iweb.NICS.collabroom.").getCollabroomId(), -1);
+        Assert.assertEquals(CollabFeedTopic.parse("iweb.NICS.collabroom").getCollabroomId(), -1);
+        Assert.assertEquals(CollabFeedTopic.parse("iweb.NICS.feature").getCollabroomId(), -1);
+    }
+
+    @Test(testName = "TestLargestRoomId")
+    public void testLargestRoomId() {
+        Assert.assertEquals(CollabFeedTopic.parse("collabroom.2147483647.feature").getCollabroomId(),
+                Integer.MAX_VALUE);
+    }
+
+    @Test(testName = "TestRoomIdOverflow")
+    public void testRoomIdOverflow() {
+        //10 digits past an int, and more than 10 digits, rather than the first 10 of them
+        Assert.assertEquals(CollabFeedTopic.parse("collabroom.2147483648.feature").getCollabroomId(), -1);
+        Assert.assertEquals(CollabFeedTopic.parse("collabroom.12345678901.feature").getCollabroomId(), -1);
+        Assert.assertEquals(CollabFeedTopic.parse("collabroom.00000000012.feature").getCollabroomId(), -1);
+    }
+}
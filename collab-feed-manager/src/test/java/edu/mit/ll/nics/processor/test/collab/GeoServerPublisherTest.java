@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vividsolutions.jts.geom.Envelope;
+import edu.mit.ll.nics.processor.collab.feed.GeoServerPublisher;
+import edu.mit.ll.nics.processor.collab.feed.LayerBounds;
+import edu.mit.ll.nics.processor.collab.feed.LayerDefinition;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link GeoServerPublisher} against a stub geoserver REST interface
+ */
+public class GeoServerPublisherTest {
+
+    private static final String FEATURE_TYPES = "/geoserver/rest/workspaces/nics/datastores/nics.collab/featuretypes";
+
+    private HttpServer server;
+    private GeoServerPublisher publisher;
+
+    //Requests received, as "METHOD path"
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, String> bodies = new ConcurrentHashMap<String, String>();
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+
+    //Statuses to answer each "METHOD path" with, in turn, 201 once used up
+    private final Map<String, ConcurrentLinkedQueue<Integer>> statuses =
+            new ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>>();
+    private final Map<String, String> errorBodies = new ConcurrentHashMap<String, String>();
+
+    @BeforeMethod
+    public void startServer() throws IOException {
+        requests.clear();
+        bodies.clear();
+        authorizations.clear();
+        statuses.clear();
+        errorBodies.clear();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/geoserver/rest", this::handle);
+        server.start();
+
+        publisher = new GeoServerPublisher("http://127.0.0.1:" + server.getAddress().getPort() + "/geoserver/rest/",
+                "admin", "secret", "nics", "nics.collab");
+        publisher.setThreads(2);
+        publisher.setRequestsPerSecond(0);
+        publisher.setRetryBackoffMillis(1);
+        publisher.setMaxRetries(2);
+        publisher.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        publisher.stop();
+        server.stop(0);
+    }
+
+    @Test(testName = "TestPublishCreatesAndStyles")
+    public void testPublishCreatesAndStyles() throws Exception {
+        GeoServerPublisher.Report report = publisher.publish(Collections.singletonList(room(12)));
+
+        Assert.assertEquals(report.getPublished(), Collections.singletonList("R12"));
+        Assert.assertTrue(report.getFailed().isEmpty());
+        Assert.assertEquals(report.getRetries(), 0);
+        Assert.assertEquals(requests, Arrays.asList("POST " + FEATURE_TYPES,
+                "PUT /geoserver/rest/layers/nics:R12"));
+        Assert.assertEquals(authorizations.get(0), "Basic YWRtaW46c2VjcmV0");
+
+        String featureType = bodies.get("POST " + FEATURE_TYPES);
+        Assert.assertTrue(featureType.startsWith("<featureType><name>R12</name><nativeName>R12</nativeName>"
+                + "<title>Room &lt;12&gt; &amp; co</title><srs>EPSG:3857</srs>"), featureType);
+        Assert.assertTrue(featureType.contains("<nativeBoundingBox><minx>1.0</minx><maxx>2.0</maxx><miny>3.0</miny>"
+                + "<maxy>4.0</maxy><crs>EPSG:3857</crs></nativeBoundingBox>"), featureType);
+        Assert.assertTrue(featureType.contains("<latLonBoundingBox><minx>-118.0</minx><maxx>-117.0</maxx>"
+                + "<miny>33.0</miny><maxy>34.0</maxy><crs>EPSG:4326</crs></latLonBoundingBox>"), featureType);
+        Assert.assertTrue(featureType.contains("<sql>SELECT * FROM collabroomfeature WHERE collabroomid = 12 "
+                + "AND seqnum &gt; 0</sql>"), featureType);
+        Assert.assertTrue(featureType.contains("<geometry><name>the_geom</name><type>Geometry</type>"
+                + "<srid>3857</srid></geometry>"), featureType);
+        Assert.assertTrue(featureType.endsWith("</virtualTable></entry></metadata></featureType>"), featureType);
+
+        Assert.assertEquals(bodies.get("PUT /geoserver/rest/layers/nics:R12"),
+                "<layer><defaultStyle><name>collabRoomStyle</name></defaultStyle><enabled>true</enabled></layer>");
+    }
+
+    @Test(testName = "TestViewParametersPublished")
+    public void testViewParametersPublished() throws Exception {
+        LayerDefinition view = new LayerDefinition("CollabRooms", "CollabRooms",
+                "SELECT * FROM collabroomfeature WHERE collabroomid = %collabroomid%", "the_geom", "Geometry", 3857,
+                "EPSG:3857", new Envelope(1, 2, 3, 4), new Envelope(-118, -117, 33, 34), "collabRoomStyle",
+                Collections.singletonList(new LayerDefinition.ViewParameter("collabroomid", "-1", "^\\d+$")));
+        publisher.publish(Collections.singletonList(view));
+
+        Assert.assertTrue(bodies.get("POST " + FEATURE_TYPES).contains("<parameter><name>collabroomid</name>"
+                + "<defaultValue>-1</defaultValue><regexpValidator>^\\d+$</regexpValidator></parameter>"));
+    }
+
+    @Test(testName = "TestExistingFeatureTypeStyled")
+    public void testExistingFeatureTypeStyled() throws Exception {
+        respond("POST " + FEATURE_TYPES, 500);
+        errorBodies.put("POST " + FEATURE_TYPES, "Resource named 'R12' already exists in store: 'nics.collab'");
+
+        GeoServerPublisher.Report report = publisher.publish(Collections.singletonList(room(12)));
+
+        Assert.assertEquals(report.getPublished(), Collections.singletonList("R12"));
+        Assert.assertEquals(report.getRetries(), 0, "Retried creating a feature type that exists");
+        Assert.assertEquals(requests, Arrays.asList("POST " + FEATURE_TYPES,
+                "PUT /geoserver/rest/layers/nics:R12"));
+    }
+
+    @Test(testName = "TestUnavailableRetried")
+    public void testUnavailableRetried() throws Exception {
+        respond("POST " + FEATURE_TYPES, 503, 429);
+
+        GeoServerPublisher.Report report = publisher.publish(Collections.singletonList(room(12)));
+
+        Assert.assertEquals(report.getPublished(), Collections.singletonList("R12"));
+        Assert.assertEquals(report.getRetries(), 2);
+        Assert.assertEquals(requests.size(), 4);
+    }
+
+    @Test(testName = "TestRejectedNotRetried")
+    public void testRejectedNotRetried() throws Exception {
+        respond("POST " + FEATURE_TYPES, 400);
+
+        GeoServerPublisher.Report report = publisher.publish(Collections.singletonList(room(12)));
+
+        Assert.assertEquals(report.getFailed(), Collections.singletonList("R12"));
+        Assert.assertEquals(report.getRetries(), 0);
+        Assert.assertEquals(requests, Collections.singletonList("POST " + FEATURE_TYPES));
+    }
+
+    @Test(testName = "TestFailedStylingReported")
+    public void testFailedStylingReported() throws Exception {
+        respond("PUT /geoserver/rest/layers/nics:R12", 503, 503, 503);
+
+        GeoServerPublisher.Report report = publisher.publish(Collections.singletonList(room(12)));
+
+        Assert.assertEquals(report.getFailed(), Collections.singletonList("R12"));
+        Assert.assertTrue(report.getPublished().isEmpty());
+        Assert.assertEquals(report.getRetries(), 2);
+    }
+
+    @Test(testName = "TestBoundsUpdated")
+    public void testBoundsUpdated() throws Exception {
+        GeoServerPublisher.Report report = publisher.updateBounds(Collections.singletonList(
+                new LayerBounds("R12", new Envelope(10, 20, 30, 40), new Envelope(-118, -117, 33, 34))));
+
+        Assert.assertEquals(report.getPublished(), Collections.singletonList("R12"));
+        Assert.assertEquals(requests, Collections.singletonList("PUT " + FEATURE_TYPES + "/R12"));
+        Assert.assertEquals(bodies.get("PUT " + FEATURE_TYPES + "/R12"), "<featureType><nativeBoundingBox>"
+                + "<minx>10.0</minx><maxx>20.0</maxx><miny>30.0</miny><maxy>40.0</maxy></nativeBoundingBox>"
+                + "<latLonBoundingBox><minx>-118.0</minx><maxx>-117.0</maxx><miny>33.0</miny><maxy>34.0</maxy>"
+                + "<crs>EPSG:4326</crs></latLonBoundingBox></featureType>");
+    }
+
+    @Test(testName = "TestNothingToPublish")
+    public void testNothingToPublish() throws Exception {
+        GeoServerPublisher.Report report = publisher.publish(Collections.<LayerDefinition>emptyList());
+        Assert.assertTrue(report.getPublished().isEmpty());
+        Assert.assertTrue(requests.isEmpty());
+    }
+
+    private LayerDefinition room(int id) {
+        return new LayerDefinition("R" + id, "Room <" + id + "> & co",
+                "SELECT * FROM collabroomfeature WHERE collabroomid = " + id + " AND seqnum > 0", "the_geom",
+                "Geometry", 3857, "EPSG:3857", new Envelope(1, 2, 3, 4), new Envelope(-118, -117, 33, 34),
+                "collabRoomStyle");
+    }
+
+    private void respond(String request, Integer... responses) {
+        statuses.put(request, new ConcurrentLinkedQueue<Integer>(Arrays.asList(responses)));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+        requests.add(request);
+        bodies.put(request, read(exchange.getRequestBody()));
+        authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+
+        ConcurrentLinkedQueue<Integer> queued = statuses.get(request);
+        Integer status = queued == null ? null : queued.poll();
+        byte[] body = (status == null || status < 400 ? "" : errorBodies.getOrDefault(request, "error"))
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status == null ? 201 : status, body.length == 0 ? -1 : body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import com.vividsolutions.jts.geom.Envelope;
+import edu.mit.ll.nics.processor.collab.feed.LayerBounds;
+import edu.mit.ll.nics.processor.collab.feed.LayerBoundsCache;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link LayerBoundsCache}
+ */
+public class LayerBoundsCacheTest {
+
+    private static final Envelope LAT_LON = new Envelope(-117.9, -117.8, 33.6, 33.7);
+
+    @Test(testName = "TestFirstBoundsPadded")
+    public void testFirstBoundsPadded() {
+        LayerBoundsCache cache = new LayerBoundsCache(0.1);
+        LayerBounds bounds = cache.check("R1", new Envelope(0, 10000, 0, 5000), LAT_LON);
+
+        Assert.assertNotNull(bounds);
+        Assert.assertEquals(bounds.getName(), "R1");
+        assertEnvelope(bounds.getNativeBounds(), -1000, 11000, -1000, 6000);
+        assertEnvelope(bounds.getLatLonBounds(), -117.91, -117.79, 33.59, 33.71);
+        Assert.assertEquals(cache.size(), 0, "Recorded bounds geoserver hasn't accepted");
+    }
+
+    @Test(testName = "TestSmallChangesNotPushed")
+    public void testSmallChangesNotPushed() {
+        LayerBoundsCache cache = new LayerBoundsCache(0.1);
+        cache.pushed(cache.check("R1", new Envelope(0, 10000, 0, 5000), LAT_LON));
+        Assert.assertEquals(cache.size(), 1);
+
+        Assert.assertNull(cache.check("R1", new Envelope(0, 10000, 0, 5000), LAT_LON));
+        Assert.assertNull(cache.check("R1", new Envelope(-500, 10500, 0, 5500), LAT_LON));
+        Assert.assertNull(cache.check("R1", new Envelope(500, 9500, 500, 4500), LAT_LON));
+    }
+
+    @Test(testName = "TestDataOutsidePushed")
+    public void testDataOutsidePushed() {
+        LayerBoundsCache cache = new LayerBoundsCache(0.1);
+        cache.pushed(cache.check("R1", new Envelope(0, 10000, 0, 5000), LAT_LON));
+
+        LayerBounds moved = cache.check("R1", new Envelope(0, 12000, 0, 5000), LAT_LON);
+        Assert.assertNotNull(moved, "Features outside the pushed bounds would be clipped");
+        assertEnvelope(moved.getNativeBounds(), -1200, 13200, -1200, 6200);
+
+        // Other layers have bounds of their own
+        Assert.assertNotNull(cache.check("R2", new Envelope(0, 10000, 0, 5000), LAT_LON));
+    }
+
+    @Test(testName = "TestShrunkDataPushed")
+    public void testShrunkDataPushed() {
+        LayerBoundsCache cache = new LayerBoundsCache(0.1);
+        cache.pushed(cache.check("R1", new Envelope(0, 10000, 0, 5000), LAT_LON));
+
+        Assert.assertNotNull(cache.check("R1", new Envelope(4000, 5000, 2000, 3000), LAT_LON));
+    }
+
+    @Test(testName = "TestSinglePointPaddedByMinimum")
+    public void testSinglePointPaddedByMinimum() {
+        LayerBoundsCache cache = new LayerBoundsCache(0.1);
+        LayerBounds bounds = cache.check("R1", new Envelope(500, 500, 700, 700),
+                new Envelope(-117.8, -117.8, 33.7, 33.7));
+        assertEnvelope(bounds.getNativeBounds(), 400, 600, 600, 800);
+        assertEnvelope(bounds.getLatLonBounds(), -117.801, -117.799, 33.699, 33.701);
+    }
+
+    private static void assertEnvelope(Envelope envelope, double minX, double maxX, double minY, double maxY) {
+        Assert.assertEquals(envelope.getMinX(), minX, 1e-9);
+        Assert.assertEquals(envelope.getMaxX(), maxX, 1e-9);
+        Assert.assertEquals(envelope.getMinY(), minY, 1e-9);
+        Assert.assertEquals(envelope.getMaxY(), maxY, 1e-9);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import edu.mit.ll.nics.processor.collab.feed.LayerRegistry;
+import edu.mit.ll.nics.processor.collab.feed.LayerRegistry.LayerType;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link LayerRegistry}
+ */
+public class LayerRegistryTest {
+
+    @Test(testName = "TestLayerNames")
+    public void testLayerNames() {
+        Assert.assertEquals(LayerType.ROOM.layerName(12), "R12");
+        Assert.assertEquals(LayerType.INCIDENT.layerName(3), "I3");
+        Assert.assertEquals(LayerType.MY_MAP.layerName(7), "7_MyMap");
+    }
+
+    @Test(testName = "TestLoadedOnce")
+    public void testLoadedOnce() {
+        LayerRegistry registry = new LayerRegistry();
+        Assert.assertFalse(registry.contains(LayerType.ROOM, 1));
+        Assert.assertEquals(registry.size(), 0);
+
+        AtomicInteger fetches = new AtomicInteger();
+        registry.ensureLoaded(() -> {
+            fetches.incrementAndGet();
+            return Arrays.asList("R1", "I2");
+        });
+        registry.ensureLoaded(() -> {
+            fetches.incrementAndGet();
+            return Arrays.asList("R1");
+        });
+
+        Assert.assertEquals(fetches.get(), 1);
+        Assert.assertTrue(registry.contains(LayerType.ROOM, 1));
+        Assert.assertTrue(registry.contains(LayerType.INCIDENT, 2));
+        Assert.assertFalse(registry.contains(LayerType.ROOM, 2));
+    }
+
+    @Test(testName = "TestClaimedOnce")
+    public void testClaimedOnce() {
+        LayerRegistry registry = new LayerRegistry();
+        registry.refresh(() -> Arrays.asList("R1"));
+
+        Assert.assertFalse(registry.claim(LayerType.ROOM, 1), "Claimed a layer geoserver has");
+        Assert.assertTrue(registry.claim(LayerType.ROOM, 2));
+        Assert.assertFalse(registry.claim(LayerType.ROOM, 2), "Claimed a layer being added");
+
+        registry.complete(LayerType.ROOM, 2, true);
+        Assert.assertTrue(registry.contains(LayerType.ROOM, 2));
+        Assert.assertFalse(registry.claim(LayerType.ROOM, 2));
+    }
+
+    @Test(testName = "TestUnattemptedClaimReleased")
+    public void testFailedAddReleased() {
+        LayerRegistry registry = new LayerRegistry();
+        registry.refresh(() -> Arrays.asList("R1"));
+
+        Assert.assertTrue(registry.claim(LayerType.ROOM, 2));
+        registry.complete(LayerType.ROOM, 2, false);
+        Assert.assertFalse(registry.contains(LayerType.ROOM, 2));
+        Assert.assertTrue(registry.claim(LayerType.ROOM, 2));
+    }
+
+    @Test(testName = "TestAddedDuringRefreshKept")
+    public void testAddedDuringRefreshKept() {
+        LayerRegistry registry = new LayerRegistry();
+        registry.refresh(() -> Arrays.asList("R1"));
+
+        // R2 is added while geoserver's list, which doesn't have it yet, is being fetched
+        registry.refresh(() -> {
+            Assert.assertTrue(registry.claim(LayerType.ROOM, 2));
+            registry.complete(LayerType.ROOM, 2, true);
+            return Arrays.asList("R1", "I1");
+        });
+
+        Assert.assertTrue(registry.contains(LayerType.ROOM, 2));
+        Assert.assertTrue(registry.contains(LayerType.INCIDENT, 1));
+        Assert.assertEquals(registry.size(), 3);
+    }
+
+    @Test(testName = "TestRefreshDropsRemovedLayers")
+    public void testRefreshDropsRemovedLayers() {
+        LayerRegistry registry = new LayerRegistry();
+        registry.refresh(() -> Arrays.asList("R1", "R2"));
+        registry.refresh(() -> Arrays.asList("R1"));
+        Assert.assertFalse(registry.contains(LayerType.ROOM, 2));
+        Assert.assertTrue(registry.claim(LayerType.ROOM, 2));
+    }
+}
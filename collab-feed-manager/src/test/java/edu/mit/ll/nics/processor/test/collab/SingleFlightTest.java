@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import edu.mit.ll.nics.processor.collab.feed.SingleFlight;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link SingleFlight}
+ */
+public class SingleFlightTest {
+
+    @Test(testName = "TestRunsOnCaller")
+    public void testRunsOnCaller() {
+        SingleFlight flight = new SingleFlight();
+        AtomicInteger runs = new AtomicInteger();
+
+        Assert.assertTrue(flight.run(runs::incrementAndGet));
+        Assert.assertTrue(flight.run(runs::incrementAndGet));
+        Assert.assertEquals(runs.get(), 2);
+        Assert.assertFalse(flight.isRunning());
+    }
+
+    @Test(testName = "TestCallsDuringRunRunOnceMore")
+    public void testCallsDuringRunRunOnceMore() throws Exception {
+        SingleFlight flight = new SingleFlight();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> first = executor.submit(() -> flight.run(() -> {
+                if(runs.incrementAndGet() == 1) {
+                    running.countDown();
+                    await(release);
+                }
+            }));
+            Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(flight.isRunning());
+
+            // Neither overlaps the run in progress, together they have it run once more
+            Assert.assertFalse(flight.run(runs::incrementAndGet));
+            Assert.assertFalse(flight.run(runs::incrementAndGet));
+            Assert.assertEquals(runs.get(), 1);
+
+            release.countDown();
+            Assert.assertTrue(first.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(runs.get(), 2);
+            Assert.assertFalse(flight.isRunning());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(testName = "TestFailedRunReleased")
+    public void testFailedRunReleased() {
+        SingleFlight flight = new SingleFlight();
+        try {
+            flight.run(() -> {
+                throw new IllegalStateException("sync failed");
+            });
+            Assert.fail("The task's exception wasn't thrown");
+        } catch(IllegalStateException e) {
+            // Expected
+        }
+        Assert.assertFalse(flight.isRunning());
+
+        AtomicInteger runs = new AtomicInteger();
+        Assert.assertTrue(flight.run(runs::incrementAndGet));
+        Assert.assertEquals(runs.get(), 1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
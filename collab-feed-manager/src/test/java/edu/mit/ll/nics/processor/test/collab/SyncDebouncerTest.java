@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import edu.mit.ll.nics.processor.collab.feed.SyncDebouncer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link SyncDebouncer}
+ */
+public class SyncDebouncerTest {
+
+    @Test(testName = "TestTriggersInWindowCoalesced")
+    public void testTriggersInWindowCoalesced() throws InterruptedException {
+        BlockingQueue<List<Set<Integer>>> syncs = new LinkedBlockingQueue<List<Set<Integer>>>();
+        SyncDebouncer debouncer = new SyncDebouncer(200, (rooms, incidents) -> syncs.add(Arrays.asList(rooms,
+                incidents)));
+        try {
+            debouncer.triggerRoom(1);
+            debouncer.triggerRoom(2);
+            debouncer.triggerRoom(1);
+            debouncer.triggerIncident(5);
+
+            List<Set<Integer>> sync = syncs.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(sync, "Didn't sync");
+            Assert.assertEquals(sync.get(0), new HashSet<Integer>(Arrays.asList(1, 2)));
+            Assert.assertEquals(sync.get(1), Collections.singleton(5));
+            Assert.assertNull(syncs.poll(300, TimeUnit.MILLISECONDS), "Synced more than once");
+
+            Assert.assertEquals(debouncer.getTriggers(), 4);
+            Assert.assertEquals(debouncer.getCoalesced(), 3);
+            Assert.assertEquals(debouncer.getSyncs(), 1);
+        } finally {
+            debouncer.stop();
+        }
+    }
+
+    @Test(testName = "TestTriggerAfterSyncOpensNextWindow")
+    public void testTriggerAfterSyncOpensNextWindow() throws InterruptedException {
+        BlockingQueue<Set<Integer>> syncs = new LinkedBlockingQueue<Set<Integer>>();
+        SyncDebouncer debouncer = new SyncDebouncer(50, (rooms, incidents) -> syncs.add(rooms));
+        try {
+            debouncer.triggerRoom(1);
+            Assert.assertEquals(syncs.poll(5, TimeUnit.SECONDS), Collections.singleton(1));
+            debouncer.triggerRoom(2);
+            Assert.assertEquals(syncs.poll(5, TimeUnit.SECONDS), Collections.singleton(2));
+            Assert.assertEquals(debouncer.getCoalesced(), 0);
+        } finally {
+            debouncer.stop();
+        }
+    }
+
+    @Test(testName = "TestFailedSyncDoesntStopDebouncer")
+    public void testFailedSyncDoesntStopDebouncer() throws InterruptedException {
+        List<Set<Integer>> attempts = Collections.synchronizedList(new ArrayList<Set<Integer>>());
+        BlockingQueue<Set<Integer>> syncs = new LinkedBlockingQueue<Set<Integer>>();
+        SyncDebouncer debouncer = new SyncDebouncer(50, (rooms, incidents) -> {
+            attempts.add(rooms);
+            if(rooms.contains(1)) {
+                throw new IllegalStateException("geoserver down");
+            }
+            syncs.add(rooms);
+        });
+        try {
+            debouncer.triggerRoom(1);
+            Thread.sleep(200);
+            debouncer.triggerRoom(2);
+            Assert.assertEquals(syncs.poll(5, TimeUnit.SECONDS), Collections.singleton(2));
+            Assert.assertEquals(attempts.size(), 2);
+        } finally {
+            debouncer.stop();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.collab;
+
+import edu.mit.ll.nics.processor.collab.feed.SyncHighWaterMark;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link SyncHighWaterMark}
+ */
+public class SyncHighWaterMarkTest {
+
+    private Path directory;
+    private String file;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("sync-hwm");
+        file = new File(directory.toFile(), "state/collab-feed-manager.hwm").getPath();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        File state = new File(directory.toFile(), "state");
+        File[] files = state.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                Files.delete(f.toPath());
+            }
+            Files.delete(state.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Test(testName = "TestFirstSyncIsFull")
+    public void testFirstSyncIsFull() throws IOException {
+        SyncHighWaterMark mark = new SyncHighWaterMark(file);
+        mark.load();
+        Assert.assertEquals(mark.getCollabroomId(), 0L);
+        Assert.assertEquals(mark.getIncidentId(), 0L);
+        Assert.assertEquals(mark.getFeatureId(), 0L);
+    }
+
+    @Test(testName = "TestAdvancesNeverBack")
+    public void testAdvancesNeverBack() throws IOException {
+        SyncHighWaterMark mark = new SyncHighWaterMark(file);
+        mark.advance(10, 5, 100);
+        mark.advance(8, 7, 90);
+        Assert.assertEquals(mark.getCollabroomId(), 10L);
+        Assert.assertEquals(mark.getIncidentId(), 7L);
+        Assert.assertEquals(mark.getFeatureId(), 100L);
+    }
+
+    @Test(testName = "TestReloadedAfterRestart")
+    public void testReloadedAfterRestart() throws IOException {
+        new SyncHighWaterMark(file).advance(10, 5, 100);
+        Assert.assertFalse(new File(file + ".tmp").exists());
+
+        SyncHighWaterMark restarted = new SyncHighWaterMark(file);
+        restarted.load();
+        Assert.assertEquals(restarted.getCollabroomId(), 10L);
+        Assert.assertEquals(restarted.getIncidentId(), 5L);
+        Assert.assertEquals(restarted.getFeatureId(), 100L);
+
+        restarted.advance(11, 5, 120);
+        SyncHighWaterMark again = new SyncHighWaterMark(file);
+        again.load();
+        Assert.assertEquals(again.getCollabroomId(), 11L);
+        Assert.assertEquals(again.getFeatureId(), 120L);
+    }
+
+    @Test(testName = "TestInMemoryWithoutPath")
+    public void testInMemoryWithoutPath() throws IOException {
+        SyncHighWaterMark mark = new SyncHighWaterMark(" ");
+        mark.load();
+        mark.advance(3, 2, 1);
+        Assert.assertEquals(mark.getCollabroomId(), 3L);
+        Assert.assertEquals(directory.toFile().list().length, 0);
+    }
+}
@@ -29,6 +29,7 @@
  */
 package edu.mit.ll.nics.processor.email;
 
+import edu.mit.ll.nics.processor.broker.BrokerProfiles;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -36,6 +37,7 @@ import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import org.apache.camel.CamelContext;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.properties.PropertiesComponent;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -113,6 +115,12 @@ public final class EmailConsumer {
         final CamelContext context = new DefaultCamelContext();
         System.out.println("DEBUG: context := " + context.getName());
 
+        // Resolves {{rabbitProfile:name}} in srcUrl
+        BrokerProfiles profiles = new BrokerProfiles();
+        profiles.setProfilesFile(kPropertiesFile);
+        profiles.init();
+        ((PropertiesComponent) context.getPropertiesComponent()).addFunction(profiles);
+
         //Create route from source to EmailSender batcher which will process 
         //incoming messages and send them out
         EmailSender batcher = new EmailSender(mailUrl);
@@ -53,7 +53,6 @@ import javax.mail.util.ByteArrayDataSource;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.log4j.PropertyConfigurator;
@@ -82,8 +81,10 @@ public class EmailConsumerSpring implements Processor {
      */
     private static final Logger LOG = LoggerFactory.getLogger(EmailConsumerSpring.class);
 
-    private Unmarshaller unmarsh = null;
-    private EmailType email = null;
+    /**
+     * Thread safe, unlike its unmarshallers, so one is created per message
+     */
+    private JAXBContext jaxbContext = null;
 
     // Properties
 
@@ -122,8 +123,7 @@ public class EmailConsumerSpring implements Processor {
 
 
         try { // create JAXB objects
-            JAXBContext jaxbContext = JAXBContext.newInstance(XmlEmail.class.getPackage().getName());
-            unmarsh = jaxbContext.createUnmarshaller(); // get an unmarshaller
+            jaxbContext = JAXBContext.newInstance(XmlEmail.class.getPackage().getName());
         } catch(JAXBException e) {
             LOG.warn("Exception getting JAXB unmarshaller: " + e.getMessage());
             throw e;
@@ -308,8 +308,8 @@ public class EmailConsumerSpring implements Processor {
         JAXBElement<EmailType> email_t;
         try {
             //Unmarshall the XML into Email object
-            email_t = (JAXBElement<EmailType>) unmarsh.unmarshal(sr);
-            email = email_t.getValue();
+            email_t = (JAXBElement<EmailType>) jaxbContext.createUnmarshaller().unmarshal(sr);
+            EmailType email = email_t.getValue();
 
             //Build MimeMessage from email object
             Session session = createSession(email.getHeader().getFrom());
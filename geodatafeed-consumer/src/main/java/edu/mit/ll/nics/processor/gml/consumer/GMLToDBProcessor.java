@@ -31,8 +31,10 @@ package edu.mit.ll.nics.processor.gml.consumer;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Point;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -47,6 +49,7 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.geotools.GML;
 import org.geotools.GML.Version;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
 import org.geotools.data.DefaultTransaction;
@@ -151,6 +154,12 @@ public class GMLToDBProcessor implements Processor {
      */
     private String gml_version;
 
+    /**
+     * Whether or not to accept FeatureCollections with more than one featureMember, e.g., from a batching gst2gml or
+     * json-pli-consumer. Each feature is validated and persisted on its own. Default: false
+     */
+    private boolean multiFeature = false;
+
 
     // !!! Local private use objects !!!
 
@@ -199,6 +208,12 @@ public class GMLToDBProcessor implements Processor {
      */
     private static final String gml_coord_comma = "<gml:coordinates>,</gml:coordinates>";
 
+    /**
+     * Opening and closing tags of a feature in a FeatureCollection
+     */
+    private static final String gml_member_start = "<gml:featureMember";
+    private static final String gml_member_end = "</gml:featureMember>";
+
     /**
      * Number of messages that have entered the process, used for debugging
      */
@@ -214,6 +229,16 @@ public class GMLToDBProcessor implements Processor {
      */
     private static int num_msg_h_ex = 0;
 
+    /**
+     * Number of features that have arrived in multi feature collections, used for debugging
+     */
+    private static int num_features = 0;
+
+    /**
+     * Number of features in multi feature collections that have had a handled exception, used for debugging
+     */
+    private static int num_feat_h_ex = 0;
+
     /**
      * Time threshold to throw away incoming features if they are older than
      */
@@ -413,24 +438,31 @@ public class GMLToDBProcessor implements Processor {
         num_msg_started++;
 
         SimpleFeatureIterator iterator = null;
-        SimpleFeatureCollection getfeatures = null;
         SimpleFeatureCollection featcollection = null;
         SimpleFeatureStore featStore = null;
 
-        String id = null;
-        int count;
-        Filter filter = null;
-
         // get the GML message from the exchange
         InputStream in = exchange.getIn().getBody(InputStream.class);
         String gml_str = exchange.getIn().getBody(String.class);
         //log.info("Processing Message In : " + gml_str);
 
-        // Test for the coordinates being ',' here...
+        // Test for the coordinates being ',' here, as they fail decoding of the whole collection. Only the bad
+        // features of a multi feature collection are dropped
         if(gml_str.contains(gml_coord_comma)) {
-            log.info("Dropping message:\n"
-                    + gml_str + "\n\nRejecting above message due to invalid coordinates");
-            return;
+            String valid_str = multiFeature ? removeCommaCoordinateMembers(gml_str) : null;
+            if(valid_str == null) {
+                log.info("Dropping message:\n"
+                        + gml_str + "\n\nRejecting above message due to invalid coordinates");
+                return;
+            }
+
+            try {
+                in.close();
+            } catch(IOException ex) {
+                log.error("could not close GML inputstream");
+            }
+            gml_str = valid_str;
+            in = new ByteArrayInputStream(gml_str.getBytes(StandardCharsets.UTF_8));
         }
 
         try {
@@ -444,83 +476,16 @@ public class GMLToDBProcessor implements Processor {
             //log.info("GML parsed");
 
             iterator = featcollection.features();
-            SimpleFeature feat = iterator.next();
-
-            // The below check of the attributes may be unnecessary? When it's decoded, it runs
-            // into syntax issues and dies, dropping the track. However, there may be parseable values
-            // that make it here, then other issues the validation below susses out. Except not sure if
-            // the decoding does validation at the same time already, though? - jp
-
-            //ERROR CHECK - Use geotools validation
-            for(AttributeDescriptor property : feat.getType().getAttributeDescriptors()) {
-                Object value = feat.getAttribute(property.getName());
-                try {
-                    Types.validate(property, value);
-                } catch(IllegalAttributeException ex) {
-                    throw new GdfcException("Failed geotools validation", ex);
-                }
+            if(!iterator.hasNext()) {
+                throw new GdfcException("No features in incoming GML");
             }
+            SimpleFeature feat = iterator.next();
 
             //ERROR CHECK - 1 FEATURE
-            if(iterator.hasNext()) {
+            if(!multiFeature && iterator.hasNext()) {
                 throw new GdfcException("More than one feature in incoming GML");
             }
 
-            //ERROR CHECK - ID
-            try {
-                id = feat.getAttribute(id_table_entry).toString();
-            } catch(NullPointerException ex) {
-                throw new GdfcException("NullPointerException getting " + id_table_entry + " attribute from feature",
-                        ex);
-            }
-
-            //ERROR CHECK - TIMESTAMP
-            // Don't persist a track with an invalid or old time
-            Timestamp tsNew = getTimestampFromFeature(feat);
-            if(tsNew == null) {
-                throw new GdfcException("Unparseable timestamp, dropping track");
-            }
-
-            long currentTimeMillis = System.currentTimeMillis();
-
-            if(tsNew.before(new Timestamp(currentTimeMillis - old_feature_threshold))) { //if it's older than threshold
-                throw new GdfcException("Timestamp is old and being ignored");
-            }
-
-            if(tsNew.after(new Timestamp(currentTimeMillis + new_feature_threshold))) { //if it's "newer" than threshold
-                throw new GdfcException("Timestamp is too far in the future and being ignored");
-            }
-
-
-            //ERROR CHECK - COORDINATES
-            Point point = (Point) feat.getDefaultGeometry();
-            if(!Pattern.matches("(\\(-?\\d+(\\.\\d+)?,\\s?-?\\d+(\\.\\d+)?(,\\s?-?\\d+(\\.\\d+)?|(,\\s?NaN))?\\))",
-                    point.getCoordinate().toString())) {
-                throw new GdfcException("failed coordinate regex check on: " + point.getCoordinate().toString());
-            }
-            if(point.getCoordinate().equals(new Coordinate(0, 0))) {
-                throw new GdfcException("Coordinates 0,0 in GML");
-            }
-
-            //ERROR CHECK - COORDINATE REFERENCE SYSTEM
-            String feat_crs_wkt = point.getUserData().toString();
-            CoordinateReferenceSystem pointcrs = CRS.parseWKT(feat_crs_wkt);
-            if(pointcrs == null) {
-                throw new GdfcException("pointcrs is null");
-            }
-
-            //transform coordinates to our preferred CRS
-            MathTransform transform = CRS.findMathTransform(pointcrs, tablecrs, false);
-            point = (Point) JTS.transform(point, transform);
-            point.setUserData(null);
-            feat.setDefaultGeometry(point);
-
-
-            //THIS FEATURE ISNT USED, DISABLE FOR NOW
-            // Log the track to the current table's log table
-            //logTrack(postgisTableName + "_log", featcollection);
-
-
             //connect to feature store
             final SimpleFeatureType schema_new = featcollection.getSchema();
             final String postgisTableName = schema_new.getName().getLocalPart();
@@ -528,65 +493,21 @@ public class GMLToDBProcessor implements Processor {
             featStore = (SimpleFeatureStore) datastore.getFeatureSource(postgisTableName);
             //log.info("connected to postgis table: " + postgisTableName);
 
-            //look for feature in table
-            filter = CQL.toFilter(id_table_entry + " = '" + id + "'");
-            getfeatures = featStore.getFeatures(filter);
-            count = getfeatures.size();
-
-            switch(count) {
-                case 0:    //if no feature exists then create feature for postgis database
-                    //log.info("adding feature: " + id + " to db: " + postgisTableName);
-
-                    //add feature to database
-                    Transaction addTransaction = new DefaultTransaction("add");
-                    featStore.setTransaction(addTransaction);
-                    try {
-                        featStore.addFeatures(featcollection);
-                        addTransaction.commit();
-                    } catch(Exception ex) {
-                        addTransaction.rollback();
-                        throw new GdfcException("Exception adding features: " + ex.getMessage(), ex);
-                    } finally {
-                        addTransaction.close();
-                    }
-
-                    //log.info("added feature: " + id + " to table: " + postgisTableName);
-                    break;
-
-                case 1://if feature is in table modify feature with updated info
-
-                    //log.info("found feature id: " + id + " in db: " + postgisTableName);
-
-                    // Get existing track's timestamp
-                    Timestamp tsCurrent = getTimestampFromFeatureCollection(getfeatures);
-
-                    if(tsCurrent == null) {
-                        throw new GdfcException("A feature exists in the DB with a null timestamp");
-                    } else if(tsNew.before(tsCurrent)) {
-                        throw new GdfcException("A feature exists in the DB with a newer timestamp");
-                    }
-
-                    Transaction removeAddTransaction = new DefaultTransaction("remove_add");
-                    featStore.setTransaction(removeAddTransaction);
+            if(!multiFeature) {
+                processFeature(featStore, feat);
+            } else {
+                // Each feature is persisted, or rejected, on its own so one bad track doesn't drop the batch
+                while(feat != null) {
+                    num_features++;
                     try {
-                        featStore.removeFeatures(filter);
-                        featStore.addFeatures(featcollection);
-                        removeAddTransaction.commit();
-                    } catch(Exception ex) {
-                        removeAddTransaction.rollback();
-                        throw new GdfcException("Exception during remove_add transaction: " + ex.getMessage(), ex);
-                    } finally {
-                        removeAddTransaction.close();
+                        processFeature(featStore, feat);
+                    } catch(GdfcException ex) {
+                        log.warn("Caught expected exception processing feature " + feat.getID() + " of a " +
+                                "multi feature collection, exception: " + ex.getMessage());
+                        num_feat_h_ex++;
                     }
-
-                    //log.info("modified feature: " + id + " in table: " + postgisTableName);
-
-                    break;
-
-                default:
-                    throw new GdfcException(
-                            "More than one feature with same " + id_table_entry + " in DB, " + id_table_entry + " : " +
-                                    id);
+                    feat = iterator.hasNext() ? iterator.next() : null;
+                }
             }
 
             if(!postgisTableName.equals(last_table)) {
@@ -607,12 +528,13 @@ public class GMLToDBProcessor implements Processor {
                 if(num_msg_started % 1000 == 0) {
                     log.info("number of messages started: " + num_msg_started +
                             "   number of messages with a handled exception: " + num_msg_h_ex +
-                            "   number of messages with an unhandled exception: " + num_msg_ex);
+                            "   number of messages with an unhandled exception: " + num_msg_ex +
+                            (multiFeature ? "   number of features in multi feature collections: " + num_features +
+                                    "   number of those with a handled exception: " + num_feat_h_ex : ""));
                 }
 
                 featStore = null;
                 featcollection = null;
-                getfeatures = null;
 
                 if(iterator != null) {
                     iterator.close();
@@ -628,6 +550,191 @@ public class GMLToDBProcessor implements Processor {
     }
 
 
+    /**
+     * Removes the featureMembers with coordinates of only a comma from a multi feature collection, so the rest of the
+     * collection can still be decoded
+     *
+     * @param gml_str the incoming collection
+     * @return the collection without the bad featureMembers, or null if there are none left
+     */
+    private String removeCommaCoordinateMembers(String gml_str) {
+        StringBuilder valid = new StringBuilder(gml_str.length());
+        int members = 0;
+        int pos = 0;
+        int start;
+        while((start = gml_str.indexOf(gml_member_start, pos)) != -1) {
+            int end = gml_str.indexOf(gml_member_end, start);
+            if(end == -1) {
+                // Malformed, leave it to the decoder to reject
+                break;
+            }
+            end += gml_member_end.length();
+
+            valid.append(gml_str, pos, start);
+            String member = gml_str.substring(start, end);
+            if(member.contains(gml_coord_comma)) {
+                log.warn("Dropping feature of a multi feature collection due to invalid coordinates:\n" + member);
+                num_features++;
+                num_feat_h_ex++;
+            } else {
+                valid.append(member);
+                members++;
+            }
+            pos = end;
+        }
+        valid.append(gml_str, pos, gml_str.length());
+
+        return members == 0 ? null : valid.toString();
+    }
+
+    /**
+     * Validates a feature, and adds it to the table, or replaces the feature already there with the same id
+     *
+     * @param featStore the feature store of the feature's table
+     * @param feat      the incoming feature
+     * @throws GdfcException when the feature fails validation, or is older than the one in the table
+     * @throws Exception     on unexpected errors
+     */
+    private void processFeature(SimpleFeatureStore featStore, SimpleFeature feat) throws Exception {
+        String id = null;
+        int count;
+        Filter filter = null;
+
+        // The below check of the attributes may be unnecessary? When it's decoded, it runs
+        // into syntax issues and dies, dropping the track. However, there may be parseable values
+        // that make it here, then other issues the validation below susses out. Except not sure if
+        // the decoding does validation at the same time already, though? - jp
+
+        //ERROR CHECK - Use geotools validation
+        for(AttributeDescriptor property : feat.getType().getAttributeDescriptors()) {
+            Object value = feat.getAttribute(property.getName());
+            try {
+                Types.validate(property, value);
+            } catch(IllegalAttributeException ex) {
+                throw new GdfcException("Failed geotools validation", ex);
+            }
+        }
+
+        //ERROR CHECK - ID
+        try {
+            id = feat.getAttribute(id_table_entry).toString();
+        } catch(NullPointerException ex) {
+            throw new GdfcException("NullPointerException getting " + id_table_entry + " attribute from feature",
+                    ex);
+        }
+
+        //ERROR CHECK - TIMESTAMP
+        // Don't persist a track with an invalid or old time
+        Timestamp tsNew = getTimestampFromFeature(feat);
+        if(tsNew == null) {
+            throw new GdfcException("Unparseable timestamp, dropping track");
+        }
+
+        long currentTimeMillis = System.currentTimeMillis();
+
+        if(tsNew.before(new Timestamp(currentTimeMillis - old_feature_threshold))) { //if it's older than threshold
+            throw new GdfcException("Timestamp is old and being ignored");
+        }
+
+        if(tsNew.after(new Timestamp(currentTimeMillis + new_feature_threshold))) { //if it's "newer" than threshold
+            throw new GdfcException("Timestamp is too far in the future and being ignored");
+        }
+
+
+        //ERROR CHECK - COORDINATES
+        Point point = (Point) feat.getDefaultGeometry();
+        if(!Pattern.matches("(\\(-?\\d+(\\.\\d+)?,\\s?-?\\d+(\\.\\d+)?(,\\s?-?\\d+(\\.\\d+)?|(,\\s?NaN))?\\))",
+                point.getCoordinate().toString())) {
+            throw new GdfcException("failed coordinate regex check on: " + point.getCoordinate().toString());
+        }
+        if(point.getCoordinate().equals(new Coordinate(0, 0))) {
+            throw new GdfcException("Coordinates 0,0 in GML");
+        }
+
+        //ERROR CHECK - COORDINATE REFERENCE SYSTEM
+        String feat_crs_wkt = point.getUserData().toString();
+        CoordinateReferenceSystem pointcrs = CRS.parseWKT(feat_crs_wkt);
+        if(pointcrs == null) {
+            throw new GdfcException("pointcrs is null");
+        }
+
+        //transform coordinates to our preferred CRS
+        MathTransform transform = CRS.findMathTransform(pointcrs, tablecrs, false);
+        point = (Point) JTS.transform(point, transform);
+        point.setUserData(null);
+        feat.setDefaultGeometry(point);
+
+
+        //THIS FEATURE ISNT USED, DISABLE FOR NOW
+        // Log the track to the current table's log table
+        //logTrack(postgisTableName + "_log", featcollection);
+
+        // Just this feature, the incoming collection may hold more than one
+        SimpleFeatureCollection featcollection = DataUtilities.collection(feat);
+
+        //look for feature in table
+        filter = CQL.toFilter(id_table_entry + " = '" + id + "'");
+        SimpleFeatureCollection getfeatures = featStore.getFeatures(filter);
+        count = getfeatures.size();
+
+        switch(count) {
+            case 0:    //if no feature exists then create feature for postgis database
+                //log.info("adding feature: " + id + " to db: " + postgisTableName);
+
+                //add feature to database
+                Transaction addTransaction = new DefaultTransaction("add");
+                featStore.setTransaction(addTransaction);
+                try {
+                    featStore.addFeatures(featcollection);
+                    addTransaction.commit();
+                } catch(Exception ex) {
+                    addTransaction.rollback();
+                    throw new GdfcException("Exception adding features: " + ex.getMessage(), ex);
+                } finally {
+                    addTransaction.close();
+                }
+
+                //log.info("added feature: " + id + " to table: " + postgisTableName);
+                break;
+
+            case 1://if feature is in table modify feature with updated info
+
+                //log.info("found feature id: " + id + " in db: " + postgisTableName);
+
+                // Get existing track's timestamp
+                Timestamp tsCurrent = getTimestampFromFeatureCollection(getfeatures);
+
+                if(tsCurrent == null) {
+                    throw new GdfcException("A feature exists in the DB with a null timestamp");
+                } else if(tsNew.before(tsCurrent)) {
+                    throw new GdfcException("A feature exists in the DB with a newer timestamp");
+                }
+
+                Transaction removeAddTransaction = new DefaultTransaction("remove_add");
+                featStore.setTransaction(removeAddTransaction);
+                try {
+                    featStore.removeFeatures(filter);
+                    featStore.addFeatures(featcollection);
+                    removeAddTransaction.commit();
+                } catch(Exception ex) {
+                    removeAddTransaction.rollback();
+                    throw new GdfcException("Exception during remove_add transaction: " + ex.getMessage(), ex);
+                } finally {
+                    removeAddTransaction.close();
+                }
+
+                //log.info("modified feature: " + id + " in table: " + postgisTableName);
+
+                break;
+
+            default:
+                throw new GdfcException(
+                        "More than one feature with same " + id_table_entry + " in DB, " + id_table_entry + " : " +
+                                id);
+        }
+    }
+
+
     /**
      * Logs the features to a log table, created by appending "_log" to the postgisTableName
      *
@@ -897,4 +1004,12 @@ public class GMLToDBProcessor implements Processor {
     public final void setLog4jPropertyFile(String log4jPropertyFile) {
         this.log4jPropertyFile = log4jPropertyFile;
     }
+
+    public final boolean isMultiFeature() {
+        return multiFeature;
+    }
+
+    public final void setMultiFeature(final boolean multiFeature) {
+        this.multiFeature = multiFeature;
+    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.camel.AggregationStrategy;
+import org.apache.camel.Exchange;
+import org.apache.log4j.Logger;
+
+/**
+ * Packs the featureMembers of many single track GML FeatureCollections into one FeatureCollection.
+ *
+ * <p>Used by the routes' aggregator, which bounds each batch by size and time and correlates on the feature type,
+ * so every collection in a batch has the same header. The header (everything before the first featureMember) and
+ * trailer (everything after the last) of the first collection are kept, and the featureMembers of each collection
+ * are appended between them. Works on the output of both the XSLT and native transformers, without parsing it.</p>
+ *
+ * <p>The geodatafeed-consumer has to be configured with multiFeature=true to accept the batched collections.</p>
+ */
+public class GMLBatchAggregationStrategy implements AggregationStrategy {
+
+    private static final Logger LOG = Logger.getLogger(GMLBatchAggregationStrategy.class);
+
+    /**
+     * Exchange property holding the batch being built
+     */
+    public static final String PROPERTY_BATCH = "GMLBatch";
+
+    /**
+     * Header set on the completed exchange to the number of featureMembers in it
+     */
+    public static final String HEADER_FEATURE_COUNT = "GMLFeatureCount";
+
+    private static final String MEMBER_START = "<gml:featureMember";
+    private static final String MEMBER_END = "</gml:featureMember>";
+
+    // Metrics
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong features = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    // Properties
+
+    /**
+     * Log the metrics after every this many batches, 0 to disable. Default: 1000
+     */
+    private long metricsLogInterval = 1000;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public GMLBatchAggregationStrategy() {
+    }
+
+    /**
+     * Appends the featureMembers of the new exchange to the batch
+     *
+     * @param oldExchange the exchange holding the batch, null for the first exchange of a batch
+     * @param newExchange the exchange with a single FeatureCollection body
+     * @return the exchange holding the batch
+     */
+    @Override
+    public Exchange aggregate(Exchange oldExchange, Exchange newExchange) {
+        String gml = bodyAsString(newExchange);
+
+        Exchange result = oldExchange == null ? newExchange : oldExchange;
+        Batch batch = result.getProperty(PROPERTY_BATCH, Batch.class);
+
+        int start = gml == null ? -1 : gml.indexOf(MEMBER_START);
+        int end = gml == null ? -1 : gml.lastIndexOf(MEMBER_END);
+        if(start < 0 || end < start) {
+            // Nothing to pack, but the first exchange still has to carry a batch for onCompletion
+            skipped.incrementAndGet();
+            LOG.warn("No featureMember in GML, not adding it to the batch");
+            if(batch == null) {
+                result.setProperty(PROPERTY_BATCH, new Batch(null, null));
+            }
+            return result;
+        }
+        end += MEMBER_END.length();
+        // Keep the indentation of each featureMember with it, so a batch reads like a single collection
+        while(start > 0 && Character.isWhitespace(gml.charAt(start - 1))) {
+            start--;
+        }
+
+        if(batch == null || batch.header == null) {
+            Batch first = new Batch(gml.substring(0, start), gml.substring(end));
+            result.setProperty(PROPERTY_BATCH, first);
+            batch = first;
+        }
+        batch.members.append(gml, start, end);
+        batch.count++;
+        return result;
+    }
+
+    /**
+     * Sets the body of the completed exchange to the batched FeatureCollection
+     *
+     * @param exchange the exchange holding the batch
+     */
+    @Override
+    public void onCompletion(Exchange exchange) {
+        Batch batch = (Batch) exchange.removeProperty(PROPERTY_BATCH);
+        if(batch == null) {
+            return;
+        }
+        if(batch.header == null) {
+            // Nothing usable arrived in the batch, stop rather than send an empty collection
+            exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+            return;
+        }
+
+        StringBuilder gml = new StringBuilder(batch.header.length() + batch.members.length()
+                + batch.trailer.length());
+        gml.append(batch.header).append(batch.members).append(batch.trailer);
+        exchange.getIn().setBody(gml.toString().getBytes(StandardCharsets.UTF_8));
+        exchange.getIn().setHeader(HEADER_FEATURE_COUNT, batch.count);
+
+        features.addAndGet(batch.count);
+        long count = batches.incrementAndGet();
+        if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+            logMetrics();
+        }
+    }
+
+    private static String bodyAsString(Exchange exchange) {
+        Object body = exchange.getIn().getBody();
+        if(body instanceof byte[]) {
+            return new String((byte[]) body, StandardCharsets.UTF_8);
+        }
+        return body instanceof String ? (String) body : exchange.getIn().getBody(String.class);
+    }
+
+    /**
+     * Logs the batch counts
+     */
+    public void logMetrics() {
+        long count = batches.get();
+        LOG.info("GMLBatchAggregationStrategy: batches=" + count + ", features=" + features.get() + ", skipped="
+                + skipped.get() + ", avgFeaturesPerBatch=" + String.format("%.1f",
+                count == 0 ? 0 : (double) features.get() / count));
+    }
+
+    /**
+     * The FeatureCollection being built
+     */
+    private static final class Batch {
+        private final String header;
+        private final String trailer;
+        private final StringBuilder members = new StringBuilder();
+        private int count;
+
+        private Batch(String header, String trailer) {
+            this.header = header;
+            this.trailer = trailer;
+        }
+    }
+
+    // Getters and Setters
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getFeatureCount() {
+        return features.get();
+    }
+
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public long getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(long metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
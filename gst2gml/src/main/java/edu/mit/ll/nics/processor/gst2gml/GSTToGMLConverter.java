@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.log4j.Logger;
+
+/**
+ * Converts GST messages to GML in plain Java, as a faster alternative to the gst2gml stylesheets.
+ *
+ * <p>A GSTTracker message only contributes the attributes of its Identity and Spatial_Info elements, so rather than
+ * running it through an XSLT engine the message is scanned with StAX until both have been read, and the feature
+ * written out directly. The output has the same semantics as gst2gml-air.xslt and gst2gml-ground.xslt: the prefixed
+ * id, the HTML description, 'dateTimeUTC' reformatted to ISO 8601, coordinates as lat,lon,0 with 0 standing in for a
+ * missing latitude or longitude, and empty values for missing attributes.</p>
+ */
+public class GSTToGMLConverter implements Processor {
+
+    private static final Logger LOG = Logger.getLogger(GSTToGMLConverter.class);
+
+    public static final String WFS_NAMESPACE = "http://www.opengis.net/wfs";
+    public static final String GML_NAMESPACE = "http://www.opengis.net/gml";
+    public static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    private static final String ROOT = "GSTTracker";
+    private static final String IDENTITY = "Identity";
+    private static final String SPATIAL_INFO = "Spatial_Info";
+
+    /**
+     * Thread safe once configured
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    // Metrics
+
+    private final AtomicLong conversions = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalConvertNanos = new AtomicLong();
+    private final AtomicLong maxConvertNanos = new AtomicLong();
+
+    // Properties
+
+    /**
+     * The NICS feature type written, e.g., avlxriair or avlxriground
+     */
+    private String typeName;
+
+    /**
+     * What the unit is called in the description, e.g., Aircraft or Vehicle
+     */
+    private String unitLabel;
+
+    /**
+     * Whether or not to include the speed in the description. The ground stylesheet leaves it out. Default: true
+     */
+    private boolean includeSpeedInDescription = true;
+
+    /**
+     * Prefix of the feature id, followed by the UnitID. Default: info:us.ca.calfire/rru:
+     */
+    private String idPrefix = "info:us.ca.calfire/rru:";
+
+    /**
+     * The NICS namespace URI. Default: http://mapserver.nics.ll.mit.edu/NICS
+     */
+    private String nicsNamespace = "http://mapserver.nics.ll.mit.edu/NICS";
+
+    /**
+     * The xsi:schemaLocation of the FeatureCollection. Defaults to the one in the stylesheets, for 'typeName'
+     */
+    private String schemaLocation;
+
+    /**
+     * Name of the coordinate reference system of the point. Default: EPSG:4326
+     */
+    private String srsName = "EPSG:4326";
+
+    /**
+     * Log the metrics after every this many conversions, 0 to disable. Default: 10000
+     */
+    private long metricsLogInterval = 10000;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public GSTToGMLConverter() {
+    }
+
+    public GSTToGMLConverter(String typeName, String unitLabel, boolean includeSpeedInDescription) {
+        this.typeName = typeName;
+        this.unitLabel = unitLabel;
+        this.includeSpeedInDescription = includeSpeedInDescription;
+        init();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Validates the properties. Called by Spring once properties have been set
+     */
+    public void init() {
+        if(typeName == null || typeName.isEmpty()) {
+            throw new IllegalArgumentException("GSTToGMLConverter requires a typeName");
+        }
+        if(unitLabel == null) {
+            unitLabel = "";
+        }
+        if(schemaLocation == null || schemaLocation.isEmpty()) {
+            schemaLocation = nicsNamespace + " http://129.55.46.83:8080/geoserver/NICS/wfs?service=WFS&version=1.0.0"
+                    + "&request=DescribeFeatureType&typeName=NICS%3A" + typeName + " " + WFS_NAMESPACE
+                    + " http://129.55.46.83:8080/geoserver/schemas/wfs/1.0.0/WFS-basic.xsd";
+        }
+    }
+
+    /**
+     * Converts the GST message in the body of the exchange to GML
+     *
+     * @param exchange the exchange with a GST message body
+     * @throws Exception when the message can't be parsed
+     */
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        Object body = exchange.getIn().getBody();
+
+        long start = System.nanoTime();
+        GSTTrack track;
+        try {
+            if(body instanceof String) {
+                track = parse(new StringReader((String) body));
+            } else if(body instanceof InputStream) {
+                track = parse((InputStream) body);
+            } else {
+                byte[] bytes = body instanceof byte[] ? (byte[]) body : exchange.getIn().getBody(byte[].class);
+                track = parse(new ByteArrayInputStream(bytes));
+            }
+            exchange.getIn().setBody(toGML(track).getBytes(StandardCharsets.UTF_8));
+        } catch(Exception e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads the track from a GST message
+     *
+     * @param in the message
+     * @return the track, with null fields for any attributes the message doesn't have
+     * @throws XMLStreamException when the message isn't well formed
+     */
+    public static GSTTrack parse(InputStream in) throws XMLStreamException {
+        return parse(INPUT_FACTORY.createXMLStreamReader(in));
+    }
+
+    /**
+     * Reads the track from a GST message
+     *
+     * @param in the message
+     * @return the track, with null fields for any attributes the message doesn't have
+     * @throws XMLStreamException when the message isn't well formed
+     */
+    public static GSTTrack parse(Reader in) throws XMLStreamException {
+        return parse(INPUT_FACTORY.createXMLStreamReader(in));
+    }
+
+    /**
+     * Reads the first Identity and Spatial_Info children of the GSTTracker root, stopping once both have been read
+     */
+    private static GSTTrack parse(XMLStreamReader reader) throws XMLStreamException {
+        GSTTrack track = new GSTTrack();
+        try {
+            boolean identity = false;
+            boolean spatialInfo = false;
+            int depth = 0;
+            boolean gstRoot = false;
+
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    continue;
+                } else if(event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                depth++;
+                String name = reader.getLocalName();
+                boolean noNamespace = reader.getNamespaceURI() == null || reader.getNamespaceURI().isEmpty();
+                if(depth == 1) {
+                    gstRoot = noNamespace && ROOT.equals(name);
+                    if(!gstRoot) {
+                        break;
+                    }
+                } else if(depth == 2 && noNamespace) {
+                    if(!identity && IDENTITY.equals(name)) {
+                        identity = true;
+                        track.setUnitId(attribute(reader, "UnitID"));
+                        track.setGroup(attribute(reader, "Group"));
+                        track.setSubGroup(attribute(reader, "SubGroup"));
+                    } else if(!spatialInfo && SPATIAL_INFO.equals(name)) {
+                        spatialInfo = true;
+                        track.setLatitude(attribute(reader, "Latitude"));
+                        track.setLongitude(attribute(reader, "Longitude"));
+                        track.setSpeed(attribute(reader, "Speed"));
+                        track.setCourse(attribute(reader, "Course"));
+                        track.setDateTimeUTC(attribute(reader, "dateTimeUTC"));
+                    }
+                    if(identity && spatialInfo) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return track;
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) {
+        return reader.getAttributeValue(null, name);
+    }
+
+    /**
+     * Writes the track as a FeatureCollection with a single featureMember
+     *
+     * @param track the track
+     * @return the GML
+     */
+    public String toGML(GSTTrack track) {
+        StringBuilder gml = new StringBuilder(1536);
+        appendCollectionStart(gml);
+        appendFeatureMember(gml, track);
+        appendCollectionEnd(gml);
+        return gml.toString();
+    }
+
+    public void appendCollectionStart(StringBuilder gml) {
+        gml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        gml.append("<wfs:FeatureCollection xmlns:wfs=\"").append(WFS_NAMESPACE)
+                .append("\" xmlns:xsi=\"").append(XSI_NAMESPACE)
+                .append("\" xmlns:gml=\"").append(GML_NAMESPACE)
+                .append("\" xmlns:NICS=\"").append(escape(nicsNamespace))
+                .append("\" xsi:schemaLocation=\"").append(escape(schemaLocation)).append("\">\n");
+    }
+
+    public void appendCollectionEnd(StringBuilder gml) {
+        gml.append("</wfs:FeatureCollection>\n");
+    }
+
+    public void appendFeatureMember(StringBuilder gml, GSTTrack track) {
+        String unitId = value(track.getUnitId());
+        String formattedDateTime = track.getFormattedDateTime();
+
+        StringBuilder description = new StringBuilder(256);
+        description.append("<br><b>").append(unitLabel).append("</b>: ").append(unitId).append("<br>");
+        description.append("<b>Group</b>: ").append(value(track.getGroup())).append("<br>");
+        description.append("<b>SubGroup</b>: ").append(value(track.getSubGroup())).append("<br>");
+        description.append("<b>Course</b>: ").append(value(track.getCourse())).append("<br>");
+        if(includeSpeedInDescription) {
+            description.append("<b>Speed</b>: ").append(value(track.getSpeed())).append("<br>");
+        }
+        description.append("<b>Updated</b>: ").append(formattedDateTime).append("<br>");
+
+        gml.append("    <gml:featureMember>\n");
+        gml.append("        <NICS:").append(typeName).append(">\n");
+        element(gml, "id", idPrefix + unitId);
+        element(gml, "name", unitId);
+        element(gml, "description", description.toString());
+        gml.append("            <NICS:geom>\n");
+        gml.append("                <gml:Point srsName=\"").append(escape(srsName)).append("\">\n");
+        gml.append("                    <gml:coordinates>").append(escape(coordinate(track.getLatitude())))
+                .append(',').append(escape(coordinate(track.getLongitude()))).append(",0</gml:coordinates>\n");
+        gml.append("                </gml:Point>\n");
+        gml.append("            </NICS:geom>\n");
+        element(gml, "speed", value(track.getSpeed()));
+        element(gml, "course", value(track.getCourse()));
+        element(gml, "timestamp", formattedDateTime);
+        gml.append("        </NICS:").append(typeName).append(">\n");
+        gml.append("    </gml:featureMember>\n");
+    }
+
+    private static void element(StringBuilder gml, String name, String value) {
+        gml.append("            <NICS:").append(name).append('>').append(escape(value)).append("</NICS:")
+                .append(name).append(">\n");
+    }
+
+    private static String value(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * The stylesheets use 0 in place of a missing or empty latitude or longitude
+     */
+    private static String coordinate(String value) {
+        return (value == null || value.isEmpty()) ? "0" : value;
+    }
+
+    /**
+     * Escapes text for use in element content or a double quoted attribute
+     */
+    static String escape(String value) {
+        int i = 0;
+        int length = value.length();
+        while(i < length) {
+            char c = value.charAt(i);
+            if(c == '<' || c == '>' || c == '&' || c == '"') {
+                break;
+            }
+            i++;
+        }
+        if(i == length) {
+            return value;
+        }
+
+        StringBuilder escaped = new StringBuilder(length + 32).append(value, 0, i);
+        for(; i < length; i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private void record(long nanos) {
+        long count = conversions.incrementAndGet();
+        totalConvertNanos.addAndGet(nanos);
+
+        long max = maxConvertNanos.get();
+        while(nanos > max && !maxConvertNanos.compareAndSet(max, nanos)) {
+            max = maxConvertNanos.get();
+        }
+
+        if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+            logMetrics();
+        }
+    }
+
+    /**
+     * Logs the conversion metrics
+     */
+    public void logMetrics() {
+        LOG.info("GSTToGMLConverter[" + typeName + "]: conversions=" + conversions.get() + ", failed=" + failed.get()
+                + ", avgMillis=" + String.format("%.3f", getAverageConvertMillis())
+                + ", maxMillis=" + String.format("%.3f", maxConvertNanos.get() / 1000000.0));
+    }
+
+    // Getters and Setters
+
+    public long getConversionCount() {
+        return conversions.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public double getAverageConvertMillis() {
+        long count = conversions.get();
+        return count == 0 ? 0 : totalConvertNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxConvertMillis() {
+        return maxConvertNanos.get() / 1000000.0;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public void setTypeName(String typeName) {
+        this.typeName = typeName;
+    }
+
+    public String getUnitLabel() {
+        return unitLabel;
+    }
+
+    public void setUnitLabel(String unitLabel) {
+        this.unitLabel = unitLabel;
+    }
+
+    public boolean isIncludeSpeedInDescription() {
+        return includeSpeedInDescription;
+    }
+
+    public void setIncludeSpeedInDescription(boolean includeSpeedInDescription) {
+        this.includeSpeedInDescription = includeSpeedInDescription;
+    }
+
+    public String getIdPrefix() {
+        return idPrefix;
+    }
+
+    public void setIdPrefix(String idPrefix) {
+        this.idPrefix = idPrefix;
+    }
+
+    public String getNicsNamespace() {
+        return nicsNamespace;
+    }
+
+    public void setNicsNamespace(String nicsNamespace) {
+        this.nicsNamespace = nicsNamespace;
+    }
+
+    public String getSchemaLocation() {
+        return schemaLocation;
+    }
+
+    public void setSchemaLocation(String schemaLocation) {
+        this.schemaLocation = schemaLocation;
+    }
+
+    public String getSrsName() {
+        return srsName;
+    }
+
+    public void setSrsName(String srsName) {
+        this.srsName = srsName;
+    }
+
+    public long getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(long metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+/**
+ * The fields of a GSTTracker message that are carried over to GML
+ */
+public class GSTTrack {
+
+    private String unitId;
+    private String group;
+    private String subGroup;
+    private String latitude;
+    private String longitude;
+    private String speed;
+    private String course;
+    private String dateTimeUTC;
+
+    public GSTTrack() {
+    }
+
+    /**
+     * Reformats the GST 'yyyy-MM-dd HH:mm:ss' time to 'yyyy-MM-ddTHH:mm:ssZ', the same way the stylesheets do,
+     * including their result when the time has no space in it
+     *
+     * @return the formatted time
+     */
+    public String getFormattedDateTime() {
+        String dateTime = dateTimeUTC == null ? "" : dateTimeUTC;
+        int space = dateTime.indexOf(' ');
+        if(space < 0) {
+            return "TZ";
+        }
+        return dateTime.substring(0, space) + 'T' + dateTime.substring(space + 1) + 'Z';
+    }
+
+    public String getUnitId() {
+        return unitId;
+    }
+
+    public void setUnitId(String unitId) {
+        this.unitId = unitId;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public String getSubGroup() {
+        return subGroup;
+    }
+
+    public void setSubGroup(String subGroup) {
+        this.subGroup = subGroup;
+    }
+
+    public String getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(String latitude) {
+        this.latitude = latitude;
+    }
+
+    public String getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(String longitude) {
+        this.longitude = longitude;
+    }
+
+    public String getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(String speed) {
+        this.speed = speed;
+    }
+
+    public String getCourse() {
+        return course;
+    }
+
+    public void setCourse(String course) {
+        this.course = course;
+    }
+
+    public String getDateTimeUTC() {
+        return dateTimeUTC;
+    }
+
+    public void setDateTimeUTC(String dateTimeUTC) {
+        this.dateTimeUTC = dateTimeUTC;
+    }
+
+    @Override
+    public String toString() {
+        return "GSTTrack [unitId=" + unitId + ", group=" + group + ", subGroup=" + subGroup + ", latitude=" + latitude
+                + ", longitude=" + longitude + ", speed=" + speed + ", course=" + course + ", dateTimeUTC="
+                + dateTimeUTC + "]";
+    }
+}
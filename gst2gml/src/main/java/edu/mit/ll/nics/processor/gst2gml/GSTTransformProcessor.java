@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.log4j.Logger;
+
+/**
+ * Transforms GST messages to GML with an XSLT stylesheet compiled once at startup.
+ *
+ * <p>The stylesheet is compiled into {@link Templates} in {@link #init()}, and each consuming thread keeps its own
+ * {@link Transformer} from them, so routes can run with concurrent consumers without recompiling the stylesheet or
+ * sharing a Transformer. The message is read straight from its bytes and the result written straight to bytes,
+ * without round tripping through Strings.</p>
+ */
+public class GSTTransformProcessor implements Processor {
+
+    private static final Logger LOG = Logger.getLogger(GSTTransformProcessor.class);
+
+    /**
+     * Saxon, for the XSLT 2.0 stylesheets
+     */
+    public static final String SAXON_FACTORY = "net.sf.saxon.TransformerFactoryImpl";
+
+    private Templates templates;
+
+    private final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+    // Metrics
+
+    private final AtomicLong transforms = new AtomicLong();
+    private final AtomicLong transformerReuses = new AtomicLong();
+    private final AtomicLong transformerCreates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalTransformNanos = new AtomicLong();
+    private final AtomicLong maxTransformNanos = new AtomicLong();
+
+    // Properties
+
+    /**
+     * Path to the XSLT stylesheet
+     */
+    private String stylesheet;
+
+    /**
+     * The TransformerFactory implementation to compile the stylesheet with. Falls back to the JAXP default if it
+     * isn't on the classpath. Default: Saxon
+     */
+    private String transformerFactoryClass = SAXON_FACTORY;
+
+    /**
+     * Log the metrics after every this many transforms, 0 to disable. Default: 10000
+     */
+    private long metricsLogInterval = 10000;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public GSTTransformProcessor() {
+    }
+
+    /**
+     * Compiles the stylesheet. Called by Spring once properties have been set
+     *
+     * @throws TransformerConfigurationException when the stylesheet doesn't compile
+     */
+    public void init() throws TransformerConfigurationException {
+        File file = new File(stylesheet);
+        if(!file.isFile()) {
+            throw new IllegalArgumentException("GST stylesheet not found: " + file.getAbsolutePath());
+        }
+
+        TransformerFactory factory = createFactory();
+        templates = factory.newTemplates(new StreamSource(file));
+
+        LOG.info("Compiled GST stylesheet " + stylesheet + " with " + factory.getClass().getName());
+    }
+
+    private TransformerFactory createFactory() {
+        if(transformerFactoryClass != null && !transformerFactoryClass.isEmpty()) {
+            try {
+                return TransformerFactory.newInstance(transformerFactoryClass, getClass().getClassLoader());
+            } catch(TransformerFactoryConfigurationError e) {
+                LOG.warn("TransformerFactory " + transformerFactoryClass + " not available, using the JAXP default: "
+                        + e.getMessage());
+            }
+        }
+        return TransformerFactory.newInstance();
+    }
+
+    /**
+     * Transforms the GST message in the body of the exchange to GML
+     *
+     * @param exchange the exchange with a GST message body
+     * @throws Exception when the message can't be transformed
+     */
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        Object body = exchange.getIn().getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+
+        long start = System.nanoTime();
+        try {
+            Transformer transformer = transformers.get();
+            if(transformer == null) {
+                transformer = templates.newTransformer();
+                transformers.set(transformer);
+                transformerCreates.incrementAndGet();
+            } else {
+                transformer.reset();
+                transformerReuses.incrementAndGet();
+            }
+
+            transformer.transform(toSource(body, exchange), new StreamResult(out));
+        } catch(Exception e) {
+            failed.incrementAndGet();
+            // Don't reuse a transformer that failed part way through
+            transformers.remove();
+            throw e;
+        } finally {
+            record(System.nanoTime() - start);
+        }
+
+        exchange.getIn().setBody(out.toByteArray());
+    }
+
+    private static Source toSource(Object body, Exchange exchange) {
+        if(body instanceof byte[]) {
+            return new StreamSource(new ByteArrayInputStream((byte[]) body));
+        } else if(body instanceof InputStream) {
+            return new StreamSource((InputStream) body);
+        } else if(body instanceof String) {
+            return new StreamSource(new StringReader((String) body));
+        }
+        return new StreamSource(new ByteArrayInputStream(exchange.getIn().getBody(byte[].class)));
+    }
+
+    private void record(long nanos) {
+        long count = transforms.incrementAndGet();
+        totalTransformNanos.addAndGet(nanos);
+
+        long max = maxTransformNanos.get();
+        while(nanos > max && !maxTransformNanos.compareAndSet(max, nanos)) {
+            max = maxTransformNanos.get();
+        }
+
+        if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+            logMetrics();
+        }
+    }
+
+    /**
+     * Logs the transform metrics
+     */
+    public void logMetrics() {
+        LOG.info("GSTTransformProcessor[" + stylesheet + "]: transforms=" + transforms.get() + ", failed="
+                + failed.get() + ", transformerHitRate=" + String.format("%.3f", getTransformerHitRate())
+                + ", avgMillis=" + String.format("%.3f", getAverageTransformMillis())
+                + ", maxMillis=" + String.format("%.3f", maxTransformNanos.get() / 1000000.0));
+    }
+
+    // Getters and Setters
+
+    public long getTransformCount() {
+        return transforms.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getTransformerCreateCount() {
+        return transformerCreates.get();
+    }
+
+    /**
+     * @return the fraction of transforms that reused a thread's Transformer, rather than creating one
+     */
+    public double getTransformerHitRate() {
+        long hits = transformerReuses.get();
+        long total = hits + transformerCreates.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public double getAverageTransformMillis() {
+        long count = transforms.get();
+        return count == 0 ? 0 : totalTransformNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxTransformMillis() {
+        return maxTransformNanos.get() / 1000000.0;
+    }
+
+    public String getStylesheet() {
+        return stylesheet;
+    }
+
+    public void setStylesheet(String stylesheet) {
+        this.stylesheet = stylesheet;
+    }
+
+    public String getTransformerFactoryClass() {
+        return transformerFactoryClass;
+    }
+
+    public void setTransformerFactoryClass(String transformerFactoryClass) {
+        this.transformerFactoryClass = transformerFactoryClass;
+    }
+
+    public long getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(long metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
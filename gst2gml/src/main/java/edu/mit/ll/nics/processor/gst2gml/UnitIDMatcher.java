@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches unit IDs made of one or more of a set of prefixes followed by one or more digits, e.g., HT12 or AA3.
+ *
+ * <p>Equivalent to the regex '((P1)+|(P2)+|...)+[0-9]+' over the whole ID, without the backtracking: the prefixes
+ * are compiled into a table indexed by their first character, and the ID is walked once, tracking every position a
+ * run of prefixes can end at.</p>
+ */
+public class UnitIDMatcher {
+
+    /**
+     * The prefixes of aircraft unit IDs in the XRI feed
+     */
+    public static final String DEFAULT_AIRCRAFT_PREFIXES = "H,HT,AA,AT,LP";
+
+    /**
+     * Prefixes, indexed by their first character
+     */
+    private final String[][] prefixesByFirstChar = new String[128][];
+
+    /**
+     * @param prefixes comma delimited list of ASCII prefixes
+     */
+    public UnitIDMatcher(String prefixes) {
+        List<List<String>> byFirstChar = new ArrayList<List<String>>(128);
+        for(int i = 0; i < 128; i++) {
+            byFirstChar.add(null);
+        }
+
+        boolean any = false;
+        for(String prefix : prefixes.split(",")) {
+            prefix = prefix.trim();
+            if(prefix.isEmpty()) {
+                continue;
+            }
+            for(int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                if(c >= 128 || (c >= '0' && c <= '9')) {
+                    throw new IllegalArgumentException("Unit ID prefixes must be ASCII non-digits: " + prefix);
+                }
+            }
+
+            List<String> list = byFirstChar.get(prefix.charAt(0));
+            if(list == null) {
+                list = new ArrayList<String>(2);
+                byFirstChar.set(prefix.charAt(0), list);
+            }
+            if(!list.contains(prefix)) {
+                list.add(prefix);
+            }
+            any = true;
+        }
+
+        if(!any) {
+            throw new IllegalArgumentException("No unit ID prefixes in: " + prefixes);
+        }
+
+        for(int i = 0; i < 128; i++) {
+            if(byFirstChar.get(i) != null) {
+                prefixesByFirstChar[i] = byFirstChar.get(i).toArray(new String[0]);
+            }
+        }
+    }
+
+    /**
+     * @param unitId the unit ID, may be null
+     * @return true if the whole ID is one or more prefixes followed by one or more digits
+     */
+    public boolean matches(CharSequence unitId) {
+        if(unitId == null) {
+            return false;
+        }
+
+        int length = unitId.length();
+        int digits = length;
+        while(digits > 0 && isDigit(unitId.charAt(digits - 1))) {
+            digits--;
+        }
+        // digits is now where the trailing run of digits starts, which needs at least one prefix before it
+        if(digits == length || digits == 0) {
+            return false;
+        }
+
+        // reachable[i]: a run of prefixes covers unitId[0, i)
+        boolean[] reachable = new boolean[digits + 1];
+        reachable[0] = true;
+        for(int i = 0; i < digits; i++) {
+            if(!reachable[i]) {
+                continue;
+            }
+            char c = unitId.charAt(i);
+            String[] candidates = c < 128 ? prefixesByFirstChar[c] : null;
+            if(candidates == null) {
+                continue;
+            }
+            for(String prefix : candidates) {
+                int end = i + prefix.length();
+                if(end <= digits && regionMatches(unitId, i, prefix)) {
+                    reachable[end] = true;
+                }
+            }
+        }
+        return reachable[digits];
+    }
+
+    private static boolean regionMatches(CharSequence s, int offset, String prefix) {
+        for(int i = 1; i < prefix.length(); i++) {
+            if(s.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.log4j.Logger;
+
+/**
+ * Classifies XRI GST messages as aircraft or ground, and transforms them to GML, in a single pass.
+ *
+ * <p>Replaces routing the XRI feed with a regex over the whole message body followed by a broker hop to gst2gml,
+ * which then parsed the message again. The message is parsed once with {@link GSTToGMLConverter#parse}, the UnitID
+ * is classified with a {@link UnitIDMatcher} compiled from 'aircraftPrefixes', and the track is written out with
+ * the air or ground converter. The class is set in the {@link #HEADER_CLASS} header for the route to send the GML
+ * on to the air or ground output.</p>
+ *
+ * <p>With 'transform' off the message is only classified, by scanning it for the UnitID attribute, and passed on
+ * unchanged.</p>
+ */
+public class XRIIngestProcessor implements Processor {
+
+    private static final Logger LOG = Logger.getLogger(XRIIngestProcessor.class);
+
+    /**
+     * Header set to {@link #CLASS_AIR} or {@link #CLASS_GROUND}
+     */
+    public static final String HEADER_CLASS = "XRIClass";
+
+    /**
+     * Header set to the UnitID of the message
+     */
+    public static final String HEADER_UNIT_ID = "XRIUnitID";
+
+    public static final String CLASS_AIR = "air";
+    public static final String CLASS_GROUND = "ground";
+
+    private static final byte[] UNIT_ID_ATTRIBUTE = "UnitID".getBytes(StandardCharsets.US_ASCII);
+
+    private UnitIDMatcher matcher;
+
+    // Metrics
+
+    private final AtomicLong air = new AtomicLong();
+    private final AtomicLong ground = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    // Properties
+
+    /**
+     * Comma delimited prefixes of aircraft UnitIDs. Default: H,HT,AA,AT,LP
+     */
+    private String aircraftPrefixes = UnitIDMatcher.DEFAULT_AIRCRAFT_PREFIXES;
+
+    /**
+     * Whether or not to transform the message to GML, otherwise it's only classified. Default: true
+     */
+    private boolean transform = true;
+
+    /**
+     * Converter for aircraft tracks
+     */
+    private GSTToGMLConverter airConverter;
+
+    /**
+     * Converter for ground tracks
+     */
+    private GSTToGMLConverter groundConverter;
+
+    /**
+     * Log the metrics after every this many messages, 0 to disable. Default: 10000
+     */
+    private long metricsLogInterval = 10000;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public XRIIngestProcessor() {
+    }
+
+    /**
+     * Compiles the aircraft prefixes. Called by Spring once properties have been set
+     */
+    public void init() {
+        matcher = new UnitIDMatcher(aircraftPrefixes);
+        if(transform && (airConverter == null || groundConverter == null)) {
+            throw new IllegalArgumentException("XRIIngestProcessor requires an airConverter and groundConverter "
+                    + "when transform is enabled");
+        }
+        LOG.info("XRI ingest with aircraft prefixes " + aircraftPrefixes + ", transform: " + transform);
+    }
+
+    /**
+     * Classifies, and optionally transforms, the GST message in the body of the exchange
+     *
+     * @param exchange the exchange with a GST message body
+     * @throws Exception when the message can't be parsed
+     */
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        long start = System.nanoTime();
+        try {
+            Object body = exchange.getIn().getBody();
+            byte[] bytes = body instanceof byte[] ? (byte[]) body : body instanceof String
+                    ? ((String) body).getBytes(StandardCharsets.UTF_8) : exchange.getIn().getBody(byte[].class);
+
+            String unitId;
+            boolean aircraft;
+            if(transform) {
+                GSTTrack track = GSTToGMLConverter.parse(new ByteArrayInputStream(bytes));
+                unitId = track.getUnitId();
+                aircraft = matcher.matches(unitId);
+                GSTToGMLConverter converter = aircraft ? airConverter : groundConverter;
+                exchange.getIn().setBody(converter.toGML(track).getBytes(StandardCharsets.UTF_8));
+            } else {
+                unitId = scanUnitId(bytes);
+                aircraft = matcher.matches(unitId);
+            }
+
+            (aircraft ? air : ground).incrementAndGet();
+            exchange.getIn().setHeader(HEADER_CLASS, aircraft ? CLASS_AIR : CLASS_GROUND);
+            if(unitId != null) {
+                exchange.getIn().setHeader(HEADER_UNIT_ID, unitId);
+            }
+        } catch(Exception e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            totalNanos.addAndGet(System.nanoTime() - start);
+            long count = air.get() + ground.get() + failed.get();
+            if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+                logMetrics();
+            }
+        }
+    }
+
+    /**
+     * Finds the value of the first UnitID attribute in the message, without parsing it
+     *
+     * @param message the message bytes
+     * @return the UnitID, or null if the message doesn't have one
+     */
+    public static String scanUnitId(byte[] message) {
+        int last = message.length - UNIT_ID_ATTRIBUTE.length;
+        outer:
+        for(int i = 1; i <= last; i++) {
+            if(message[i] != 'U') {
+                continue;
+            }
+            for(int j = 1; j < UNIT_ID_ATTRIBUTE.length; j++) {
+                if(message[i + j] != UNIT_ID_ATTRIBUTE[j]) {
+                    continue outer;
+                }
+            }
+            // An attribute name starts after whitespace
+            if(!isWhitespace(message[i - 1])) {
+                continue;
+            }
+
+            int p = i + UNIT_ID_ATTRIBUTE.length;
+            while(p < message.length && isWhitespace(message[p])) {
+                p++;
+            }
+            if(p >= message.length || message[p] != '=') {
+                continue;
+            }
+            p++;
+            while(p < message.length && isWhitespace(message[p])) {
+                p++;
+            }
+            if(p >= message.length || (message[p] != '"' && message[p] != '\'')) {
+                continue;
+            }
+
+            byte quote = message[p];
+            int valueStart = p + 1;
+            int valueEnd = valueStart;
+            while(valueEnd < message.length && message[valueEnd] != quote) {
+                valueEnd++;
+            }
+            if(valueEnd >= message.length) {
+                return null;
+            }
+            return new String(message, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Logs the per class counts
+     */
+    public void logMetrics() {
+        long count = air.get() + ground.get() + failed.get();
+        LOG.info("XRIIngestProcessor: air=" + air.get() + ", ground=" + ground.get() + ", failed=" + failed.get()
+                + ", avgMillis=" + String.format("%.3f", count == 0 ? 0 : totalNanos.get() / 1000000.0 / count));
+    }
+
+    // Getters and Setters
+
+    public long getAirCount() {
+        return air.get();
+    }
+
+    public long getGroundCount() {
+        return ground.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public String getAircraftPrefixes() {
+        return aircraftPrefixes;
+    }
+
+    public void setAircraftPrefixes(String aircraftPrefixes) {
+        this.aircraftPrefixes = aircraftPrefixes;
+    }
+
+    public boolean isTransform() {
+        return transform;
+    }
+
+    public void setTransform(boolean transform) {
+        this.transform = transform;
+    }
+
+    public GSTToGMLConverter getAirConverter() {
+        return airConverter;
+    }
+
+    public void setAirConverter(GSTToGMLConverter airConverter) {
+        this.airConverter = airConverter;
+    }
+
+    public GSTToGMLConverter getGroundConverter() {
+        return groundConverter;
+    }
+
+    public void setGroundConverter(GSTToGMLConverter groundConverter) {
+        this.groundConverter = groundConverter;
+    }
+
+    public long getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(long metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.gst2gml;
+
+import edu.mit.ll.nics.processor.gst2gml.GMLBatchAggregationStrategy;
+import edu.mit.ll.nics.processor.gst2gml.GSTToGMLConverter;
+import edu.mit.ll.nics.processor.gst2gml.GSTTrack;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link GMLBatchAggregationStrategy}
+ */
+public class GMLBatchAggregationStrategyTest {
+
+    private static final String GST = "<GSTTracker Type=\"GST Open Interface\" Format=\"6\">"
+            + "<Identity GSTID=\"11\" UnitID=\"%s\" Group=\"RVCFire\" SubGroup=\"Chief\" Symbol=\"41\" />"
+            + "<Spatial_Info Latitude=\"33.454267\" Longitude=\"-117.084382\" Speed=\"0\" Course=\"116\" "
+            + "dateTimeUTC=\"2012-10-25 10:50:54\" /></GSTTracker>";
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    @Test(testName = "TestBatchMatchesOneCollection")
+    public void testBatchMatchesOneCollection() throws Exception {
+        GSTToGMLConverter converter = new GSTToGMLConverter("avlxriair", "Aircraft", true);
+        GMLBatchAggregationStrategy strategy = new GMLBatchAggregationStrategy();
+
+        String[] unitIds = {"H1", "B15A", "AT44"};
+        StringBuilder expected = new StringBuilder();
+        converter.appendCollectionStart(expected);
+
+        Exchange batch = null;
+        for(String unitId : unitIds) {
+            GSTTrack track = GSTToGMLConverter.parse(new StringReader(String.format(GST, unitId)));
+            converter.appendFeatureMember(expected, track);
+            batch = strategy.aggregate(batch, exchange(converter.toGML(track).getBytes(StandardCharsets.UTF_8)));
+        }
+        converter.appendCollectionEnd(expected);
+        strategy.onCompletion(batch);
+
+        Assert.assertEquals(new String((byte[]) batch.getIn().getBody(), StandardCharsets.UTF_8),
+                expected.toString());
+        Assert.assertEquals(batch.getIn().getHeader(GMLBatchAggregationStrategy.HEADER_FEATURE_COUNT),
+                unitIds.length);
+        Assert.assertNull(batch.getProperty(GMLBatchAggregationStrategy.PROPERTY_BATCH));
+        Assert.assertEquals(strategy.getBatchCount(), 1);
+        Assert.assertEquals(strategy.getFeatureCount(), unitIds.length);
+    }
+
+    @Test(testName = "TestBatchWithoutFeaturesIsStopped")
+    public void testBatchWithoutFeaturesIsStopped() {
+        GMLBatchAggregationStrategy strategy = new GMLBatchAggregationStrategy();
+
+        Exchange batch = strategy.aggregate(null, exchange("<wfs:FeatureCollection/>"));
+        strategy.onCompletion(batch);
+
+        Assert.assertEquals(batch.getProperty(Exchange.ROUTE_STOP), Boolean.TRUE);
+        Assert.assertEquals(strategy.getSkippedCount(), 1);
+        Assert.assertEquals(strategy.getBatchCount(), 0);
+    }
+
+    private Exchange exchange(Object body) {
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody(body);
+        return exchange;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.gst2gml;
+
+import edu.mit.ll.nics.processor.gst2gml.GSTToGMLConverter;
+import edu.mit.ll.nics.processor.gst2gml.GSTTransformProcessor;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+
+/**
+ * Tests the {@link GSTToGMLConverter} against golden files produced by the gst2gml stylesheets
+ */
+public class GSTToGMLConverterTest {
+
+    private static final String[] SAMPLES = {"samplegst", "samplegst-edge"};
+
+    @Test(testName = "TestMatchesGoldenFiles")
+    public void testMatchesGoldenFiles() throws Exception {
+        for(String sample : SAMPLES) {
+            assertSameGML(convert(air(), resource("/" + sample + ".xml")),
+                    resource("/golden/" + sample + "-air.xml"), sample + " air");
+            assertSameGML(convert(ground(), resource("/" + sample + ".xml")),
+                    resource("/golden/" + sample + "-ground.xml"), sample + " ground");
+        }
+    }
+
+    @Test(testName = "TestMatchesStylesheets")
+    public void testMatchesStylesheets() throws Exception {
+        GSTTransformProcessor airXslt = xslt("src/main/config/gst2gml-air.xslt");
+        GSTTransformProcessor groundXslt = xslt("src/main/config/gst2gml-ground.xslt");
+
+        for(String sample : SAMPLES) {
+            String gst = resource("/" + sample + ".xml");
+            assertSameGML(convert(air(), gst), convert(airXslt, gst), sample + " air");
+            assertSameGML(convert(ground(), gst), convert(groundXslt, gst), sample + " ground");
+        }
+    }
+
+    @Test(testName = "TestNotGSTTracker")
+    public void testNotGSTTracker() throws Exception {
+        String gml = convert(air(), "<Other><Identity UnitID=\"B15A\"/></Other>");
+        Assert.assertTrue(gml.contains("<NICS:id>info:us.ca.calfire/rru:</NICS:id>"), gml);
+        Assert.assertTrue(gml.contains("<gml:coordinates>0,0,0</gml:coordinates>"), gml);
+    }
+
+    private static GSTToGMLConverter air() {
+        GSTToGMLConverter converter = new GSTToGMLConverter("avlxriair", "Aircraft", true);
+        converter.setMetricsLogInterval(0);
+        return converter;
+    }
+
+    private static GSTToGMLConverter ground() {
+        GSTToGMLConverter converter = new GSTToGMLConverter("avlxriground", "Vehicle", false);
+        converter.setMetricsLogInterval(0);
+        return converter;
+    }
+
+    private static GSTTransformProcessor xslt(String stylesheet) throws Exception {
+        GSTTransformProcessor processor = new GSTTransformProcessor();
+        processor.setStylesheet(stylesheet);
+        processor.setMetricsLogInterval(0);
+        processor.init();
+        return processor;
+    }
+
+    private static String convert(Processor processor, String gst) throws Exception {
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getIn().setBody(gst.getBytes(StandardCharsets.UTF_8));
+        processor.process(exchange);
+        return new String((byte[]) exchange.getIn().getBody(), StandardCharsets.UTF_8);
+    }
+
+    private String resource(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream(name);
+        Assert.assertNotNull(in, name + " not on the test classpath");
+        try(Scanner scanner = new Scanner(in, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    /**
+     * Compares the GML as XML infosets, ignoring comments and whitespace between elements
+     */
+    private static void assertSameGML(String actual, String expected, String message) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setIgnoringComments(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+
+        Document actualDocument = builder.parse(new ByteArrayInputStream(actual.getBytes(StandardCharsets.UTF_8)));
+        Document expectedDocument = builder.parse(new ByteArrayInputStream(expected.getBytes(StandardCharsets.UTF_8)));
+        stripWhitespace(actualDocument);
+        stripWhitespace(expectedDocument);
+
+        Assert.assertTrue(actualDocument.getDocumentElement().isEqualNode(expectedDocument.getDocumentElement()),
+                message + ", expected:\n" + expected + "\nbut was:\n" + actual);
+    }
+
+    private static void stripWhitespace(Node node) {
+        Node child = node.getFirstChild();
+        while(child != null) {
+            Node next = child.getNextSibling();
+            if(child.getNodeType() == Node.TEXT_NODE && child.getNodeValue().trim().isEmpty()) {
+                node.removeChild(child);
+            } else {
+                stripWhitespace(child);
+            }
+            child = next;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.gst2gml;
+
+import edu.mit.ll.nics.processor.gst2gml.GSTTransformProcessor;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link GSTTransformProcessor} with the gst2gml stylesheets
+ */
+public class GSTTransformProcessorTest {
+
+    private String sample;
+
+    @BeforeClass
+    public void loadSample() {
+        InputStream in = getClass().getResourceAsStream("/samplegst.xml");
+        Assert.assertNotNull(in, "samplegst.xml not on the test classpath");
+        try(Scanner scanner = new Scanner(in, "UTF-8")) {
+            sample = scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    @Test(testName = "TestAirTransform")
+    public void testAirTransform() throws Exception {
+        GSTTransformProcessor processor = newProcessor("src/main/config/gst2gml-air.xslt");
+
+        String gml = transform(processor, sample.getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(gml.contains("<NICS:avlxriair>"), gml);
+        Assert.assertTrue(gml.contains("<NICS:id>info:us.ca.calfire/rru:B15A</NICS:id>"), gml);
+        Assert.assertTrue(gml.contains("33.454267,-117.084382,0"), gml);
+        Assert.assertTrue(gml.contains("<NICS:timestamp>2012-10-25T10:50:54Z</NICS:timestamp>"), gml);
+    }
+
+    @Test(testName = "TestGroundTransformReusesTransformer")
+    public void testGroundTransformReusesTransformer() throws Exception {
+        GSTTransformProcessor processor = newProcessor("src/main/config/gst2gml-ground.xslt");
+
+        String first = transform(processor, sample);
+        Assert.assertTrue(first.contains("<NICS:avlxriground>"), first);
+        for(int i = 0; i < 9; i++) {
+            Assert.assertEquals(transform(processor, sample), first);
+        }
+
+        Assert.assertEquals(processor.getTransformCount(), 10L);
+        Assert.assertEquals(processor.getTransformerCreateCount(), 1L);
+        Assert.assertEquals(processor.getTransformerHitRate(), 0.9, 0.0001);
+    }
+
+    @Test(testName = "TestConcurrentTransforms")
+    public void testConcurrentTransforms() throws Exception {
+        final GSTTransformProcessor processor = newProcessor("src/main/config/gst2gml-air.xslt");
+        final String expected = transform(processor, sample);
+        final int threads = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for(int t = 0; t < threads; t++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int mismatches = 0;
+                    for(int i = 0; i < 250; i++) {
+                        if(!expected.equals(transform(processor, sample.getBytes(StandardCharsets.UTF_8)))) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }
+            }));
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        for(Future<Integer> result : results) {
+            Assert.assertEquals(result.get().intValue(), 0);
+        }
+        Assert.assertEquals(processor.getFailedCount(), 0L);
+        Assert.assertTrue(processor.getTransformerCreateCount() <= threads + 1);
+    }
+
+    private GSTTransformProcessor newProcessor(String stylesheet) throws Exception {
+        GSTTransformProcessor processor = new GSTTransformProcessor();
+        processor.setStylesheet(stylesheet);
+        processor.setMetricsLogInterval(0);
+        processor.init();
+        return processor;
+    }
+
+    private static String transform(GSTTransformProcessor processor, Object body) throws Exception {
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getIn().setBody(body);
+        processor.process(exchange);
+        return new String((byte[]) exchange.getIn().getBody(), StandardCharsets.UTF_8);
+    }
+}
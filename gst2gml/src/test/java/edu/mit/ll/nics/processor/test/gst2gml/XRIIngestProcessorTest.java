@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.gst2gml;
+
+import edu.mit.ll.nics.processor.gst2gml.GSTToGMLConverter;
+import edu.mit.ll.nics.processor.gst2gml.UnitIDMatcher;
+import edu.mit.ll.nics.processor.gst2gml.XRIIngestProcessor;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link XRIIngestProcessor} and {@link UnitIDMatcher}
+ */
+public class XRIIngestProcessorTest {
+
+    /**
+     * The UnitID part of the regex the xri-splitter route classified aircraft with
+     */
+    private static final Pattern SPLITTER_REGEX = Pattern.compile("((H)+|(HT)+|(AA)+|(AT)+|(LP)+)+[0-9]+");
+
+    private static final String GST = "<GSTTracker Type=\"GST Open Interface\" Format=\"6\">"
+            + "<Identity GSTID=\"11\" UnitID=\"%s\" Group=\"RVCFire\" SubGroup=\"Chief\" Symbol=\"41\" />"
+            + "<Spatial_Info Latitude=\"33.454267\" Longitude=\"-117.084382\" Speed=\"0\" Course=\"116\" "
+            + "dateTimeUTC=\"2012-10-25 10:50:54\" /></GSTTracker>";
+
+    @Test(testName = "TestMatcherAgreesWithSplitterRegex")
+    public void testMatcherAgreesWithSplitterRegex() {
+        UnitIDMatcher matcher = new UnitIDMatcher(UnitIDMatcher.DEFAULT_AIRCRAFT_PREFIXES);
+
+        String[] known = {"H1", "HT12", "AA3", "AT44", "LP7", "HHT9", "HTAA10", "B15A", "E31", "H", "12", "HX1",
+                "H1A", "AAA1", "T1", "", "HT", "LPH0", "ha1"};
+        for(String id : known) {
+            Assert.assertEquals(matcher.matches(id), SPLITTER_REGEX.matcher(id).matches(), id);
+        }
+        Assert.assertFalse(matcher.matches(null));
+
+        String alphabet = "HTALPB01";
+        Random random = new Random(42);
+        for(int i = 0; i < 100000; i++) {
+            StringBuilder id = new StringBuilder();
+            int length = random.nextInt(8);
+            for(int j = 0; j < length; j++) {
+                id.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            Assert.assertEquals(matcher.matches(id), SPLITTER_REGEX.matcher(id).matches(), id.toString());
+        }
+    }
+
+    @Test(testName = "TestScanUnitId")
+    public void testScanUnitId() {
+        Assert.assertEquals(scan(String.format(GST, "HT12")), "HT12");
+        Assert.assertEquals(scan("<Identity\n\tUnitID = 'AA3' />"), "AA3");
+        Assert.assertNull(scan("<Identity XUnitID=\"AA3\" />"));
+        Assert.assertNull(scan("<Identity UnitID=\"AA3"));
+        Assert.assertNull(scan("<GSTTracker/>"));
+    }
+
+    @Test(testName = "TestIngestClassifiesAndTransforms")
+    public void testIngestClassifiesAndTransforms() throws Exception {
+        GSTToGMLConverter air = new GSTToGMLConverter("avlxriair", "Aircraft", true);
+        GSTToGMLConverter ground = new GSTToGMLConverter("avlxriground", "Vehicle", false);
+        XRIIngestProcessor processor = new XRIIngestProcessor();
+        processor.setAirConverter(air);
+        processor.setGroundConverter(ground);
+        processor.setMetricsLogInterval(0);
+        processor.init();
+
+        Exchange aircraft = ingest(processor, String.format(GST, "HT12"));
+        Assert.assertEquals(aircraft.getIn().getHeader(XRIIngestProcessor.HEADER_CLASS), XRIIngestProcessor.CLASS_AIR);
+        Assert.assertEquals(aircraft.getIn().getHeader(XRIIngestProcessor.HEADER_UNIT_ID), "HT12");
+        Assert.assertEquals(body(aircraft),
+                air.toGML(GSTToGMLConverter.parse(new StringReader(String.format(GST, "HT12")))));
+
+        Exchange vehicle = ingest(processor, String.format(GST, "B15A"));
+        Assert.assertEquals(vehicle.getIn().getHeader(XRIIngestProcessor.HEADER_CLASS),
+                XRIIngestProcessor.CLASS_GROUND);
+        Assert.assertTrue(body(vehicle).contains("<NICS:avlxriground>"), body(vehicle));
+
+        Assert.assertEquals(processor.getAirCount(), 1L);
+        Assert.assertEquals(processor.getGroundCount(), 1L);
+    }
+
+    @Test(testName = "TestClassifyOnly")
+    public void testClassifyOnly() throws Exception {
+        XRIIngestProcessor processor = new XRIIngestProcessor();
+        processor.setTransform(false);
+        processor.setMetricsLogInterval(0);
+        processor.init();
+
+        String gst = String.format(GST, "LP7");
+        Exchange exchange = ingest(processor, gst);
+        Assert.assertEquals(exchange.getIn().getHeader(XRIIngestProcessor.HEADER_CLASS), XRIIngestProcessor.CLASS_AIR);
+        Assert.assertEquals(body(exchange), gst);
+    }
+
+    private static String scan(String message) {
+        return XRIIngestProcessor.scanUnitId(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Exchange ingest(XRIIngestProcessor processor, String gst) throws Exception {
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getIn().setBody(gst.getBytes(StandardCharsets.UTF_8));
+        processor.process(exchange);
+        return exchange;
+    }
+
+    private static String body(Exchange exchange) {
+        return new String((byte[]) exchange.getIn().getBody(), StandardCharsets.UTF_8);
+    }
+}
@@ -34,6 +34,7 @@
 package edu.mit.ll.nics.processor.jsonpliconsumer;
 
 import java.util.Iterator;
+import java.util.List;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -103,6 +104,67 @@ public class JSONPLIEntry {
      * @return
      */
     public String toXML(String includeFields, boolean format) {
+        StringBuilder stringBuilder = new StringBuilder();
+        appendCollectionStart(stringBuilder, format);
+        appendFeatureMember(stringBuilder, format);
+        appendCollectionEnd(stringBuilder, format);
+
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("\nGML: \n" + stringBuilder.toString() + "\n");
+        }
+
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Converts the given entries into a single wfs:FeatureCollection, with a gml:featureMember per entry, so
+     * the namespace and schemaLocation header is only sent once for the whole batch
+     *
+     * @param entries the entries to include, expected to share the same typeName
+     * @param format  Set to true to enable formatting
+     *
+     * @return the FeatureCollection
+     */
+    public static String toFeatureCollectionXML(List<JSONPLIEntry> entries, boolean format) {
+        StringBuilder stringBuilder = new StringBuilder(entries.size() * 1024);
+        appendCollectionStart(stringBuilder, format);
+        for(JSONPLIEntry entry : entries) {
+            entry.appendFeatureMember(stringBuilder, format);
+        }
+        appendCollectionEnd(stringBuilder, format);
+
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Appends the XML declaration and the opening wfs:FeatureCollection element
+     */
+    private static void appendCollectionStart(StringBuilder stringBuilder, boolean format) {
+        final String BR = format ? "\n" : "";
+
+        stringBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + BR);
+        stringBuilder.append("<wfs:FeatureCollection xsi:schemaLocation=\"");
+        stringBuilder.append(nicsSchemaLocationURI.replaceAll("&", "&amp;") + " ");
+        stringBuilder.append(wfsServiceURI.replaceAll("&", "&amp;") + " http://www.opengis.net/wfs  ");
+        stringBuilder.append(wfsSchemasURI + "\" ");
+        stringBuilder
+                .append("xmlns:gml=\"http://www.opengis.net/gml\" xmlns:xsi=\"http://www.w3" +
+                        ".org/2001/XMLSchema-instance\" ");
+        stringBuilder.append("xmlns:NICS=\"" + nicsSchemaLocationURI + "\" xmlns:wfs=\"http://www.opengis.net/wfs\">");
+    }
+
+    /**
+     * Appends the closing wfs:FeatureCollection element
+     */
+    private static void appendCollectionEnd(StringBuilder stringBuilder, boolean format) {
+        final String BR = format ? "\n" : "";
+        stringBuilder.append("</wfs:FeatureCollection>" + BR);
+    }
+
+    /**
+     * Appends this entry as a gml:featureMember
+     */
+    private void appendFeatureMember(StringBuilder stringBuilder, boolean format) {
         final String TAB = format ? "\t" : "";
         final String BR = format ? "\n" : "";
 
@@ -116,18 +178,6 @@ public class JSONPLIEntry {
         final String bc = "&lt;/b&gt;";
         final String br = "&lt;br/&gt;";
 
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + BR);
-        stringBuilder.append("<wfs:FeatureCollection xsi:schemaLocation=\"");
-        stringBuilder.append(nicsSchemaLocationURI.replaceAll("&", "&amp;") + " ");
-        stringBuilder.append(wfsServiceURI.replaceAll("&", "&amp;") + " http://www.opengis.net/wfs  ");
-        stringBuilder.append(wfsSchemasURI + "\" ");
-        stringBuilder
-                .append("xmlns:gml=\"http://www.opengis.net/gml\" xmlns:xsi=\"http://www.w3" +
-                        ".org/2001/XMLSchema-instance\" ");
-        stringBuilder.append("xmlns:NICS=\"" + nicsSchemaLocationURI + "\" xmlns:wfs=\"http://www.opengis.net/wfs\">");
-        LOG.debug("amp== " + wfsServiceURI);
-
         stringBuilder.append("<gml:featureMember>");
         stringBuilder.append(ltn + typeName);
         stringBuilder.append(gtc);
@@ -191,11 +241,6 @@ public class JSONPLIEntry {
         stringBuilder.append(ltnc + "version" + gtc);
         stringBuilder.append(ltnc + typeName + gtc);
         stringBuilder.append(ltc + "gml:featureMember" + gtc);
-        stringBuilder.append(ltc + "wfs:FeatureCollection" + gtc);
-
-        LOG.info("\nGML: \n" + stringBuilder.toString() + "\n");
-
-        return stringBuilder.toString();
     }
 
     @Override
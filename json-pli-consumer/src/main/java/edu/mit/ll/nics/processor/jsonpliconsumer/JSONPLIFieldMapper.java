@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.jsonpliconsumer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Compiled mapping of incoming JSON PLI keys onto {@link JSONPLIEntry} fields.
+ *
+ * <p>The mapping is read from a configuration string once, at startup, into a lowercase key to {@link Field} dispatch
+ * table. Each record then costs a single map lookup per key, instead of walking a chain of equalsIgnoreCase
+ * comparisons, and new vendor formats can be onboarded by adding aliases to the properties file.</p>
+ *
+ * <p>Mapping format is a comma delimited list of <code>jsonKey:field</code> pairs, e.g.:
+ * <code>unit_name:unitName,current_lat:latitude,current_lon:longitude</code>. Valid field names are the names of the
+ * {@link Field} values, case insensitive.</p>
+ */
+public class JSONPLIFieldMapper {
+
+    private static final Logger LOG = Logger.getLogger(JSONPLIFieldMapper.class);
+
+    /**
+     * The mapping used when none is configured. Matches the keys in our NICS Guidance for PLI document, plus the
+     * Ventura specific keys
+     */
+    public static final String DEFAULT_MAPPINGS = "id:id,name:name,unit_name:unitName,current_lat:latitude," +
+            "current_lon:longitude,description:description,point:point,srsName:srsName,coordinates:coordinates," +
+            "speed:speed,course:course,extended:extended,timestamp:timestamp,version:version";
+
+    /**
+     * Coordinate order of a 'point' value as sent by our NICS JSON PLI sources
+     */
+    public static final String LON_LAT = "lon,lat";
+
+    /**
+     * Coordinate order expected by the geodatafeed-consumer
+     */
+    public static final String LAT_LON = "lat,lon";
+
+    /**
+     * The {@link JSONPLIEntry} fields a JSON key can be mapped onto. Each knows how to apply a value to the record
+     * being built, so the hot path is a plain virtual call rather than reflection.
+     */
+    public enum Field {
+        ID {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setId(value);
+            }
+        },
+        NAME {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setName(value);
+            }
+        },
+        UNITNAME {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setName(value);
+                record.unit = value;
+            }
+        },
+        LATITUDE {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.lat = value;
+            }
+        },
+        LONGITUDE {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.lon = value;
+            }
+        },
+        DESCRIPTION {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setDescription(value);
+            }
+        },
+        POINT {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                String coords = null;
+                if(value != null) {
+                    int comma = value.indexOf(',');
+                    int end = comma == -1 ? -1 : value.indexOf(',', comma + 1);
+                    String first = comma == -1 ? null : value.substring(0, comma).trim();
+                    String second = comma == -1 ? null
+                            : value.substring(comma + 1, end == -1 ? value.length() : end).trim();
+                    if(isCoordinate(first) && isCoordinate(second)) {
+                        coords = mapper.pointLonLat ? second + "," + first : first + "," + second;
+                    } else {
+                        record.setInvalid(key, value);
+                    }
+                }
+                record.entry.setCoordinates(coords);
+            }
+        },
+        SRSNAME {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setSrsName(value);
+            }
+        },
+        COORDINATES {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setCoordinates(value);
+            }
+        },
+        SPEED {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setSpeed(mapper.convertSpeed(value));
+            }
+        },
+        COURSE {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setCourse(value);
+            }
+        },
+        EXTENDED {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setExtended(value);
+            }
+        },
+        TIMESTAMP {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setTimestamp(value);
+            }
+        },
+        VERSION {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+                record.entry.setVersion(value);
+            }
+        },
+        IGNORE {
+            @Override
+            void apply(JSONPLIFieldMapper mapper, Record record, String key, String value) {
+            }
+        };
+
+        abstract void apply(JSONPLIFieldMapper mapper, Record record, String key, String value);
+
+        /**
+         * @return whether or not the value is a number, as both parts of a 'point' must be
+         */
+        static boolean isCoordinate(String value) {
+            if(value == null || value.isEmpty()) {
+                return false;
+            }
+            try {
+                Double.parseDouble(value);
+                return true;
+            } catch(NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Per message state collected while mapping the keys of a single JSON PLI object
+     */
+    public static class Record {
+
+        private final JSONPLIEntry entry;
+
+        private String lat;
+
+        private String lon;
+
+        private String unit;
+
+        private StringBuilder invalidDataInfo;
+
+        public Record(JSONPLIEntry entry) {
+            this.entry = entry;
+        }
+
+        public JSONPLIEntry getEntry() {
+            return entry;
+        }
+
+        public String getLat() {
+            return lat;
+        }
+
+        public String getLon() {
+            return lon;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Flags the record as invalid, due to the given key and value
+         *
+         * @param key the offending key, or a description of the values
+         * @param value the offending value
+         */
+        public void setInvalid(String key, String value) {
+            if(invalidDataInfo == null) {
+                invalidDataInfo = new StringBuilder("Invalid Data:\n");
+            }
+            invalidDataInfo.append(key).append(": ").append(value).append("\n");
+        }
+
+        public boolean isInvalid() {
+            return invalidDataInfo != null;
+        }
+
+        public String getInvalidDataInfo() {
+            return invalidDataInfo == null ? "" : invalidDataInfo.toString();
+        }
+    }
+
+    /**
+     * Lowercase JSON key to field dispatch table, built by {@link #compile()}
+     */
+    private Map<String, Field> dispatch = Collections.emptyMap();
+
+    private boolean pointLonLat = true;
+
+    // Properties
+
+    /**
+     * Comma delimited list of jsonKey:field pairs. Default: {@link #DEFAULT_MAPPINGS}
+     */
+    private String mappings = DEFAULT_MAPPINGS;
+
+    /**
+     * Order of the coordinates in a 'point' value, either {@link #LON_LAT} or {@link #LAT_LON}. Default: lon,lat
+     */
+    private String pointOrder = LON_LAT;
+
+    /**
+     * Factor the incoming speed is multiplied by, for sources not reporting in the units the feed layer expects.
+     * Default: 1.0, no conversion
+     */
+    private double speedConversionFactor = 1.0;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public JSONPLIFieldMapper() {
+    }
+
+    /**
+     * Builds the dispatch table from the configured properties. Called by Spring once properties have been set, but
+     * may be called again if they're changed.
+     *
+     * @throws IllegalArgumentException if a mapping entry is malformed, or names an unknown field
+     */
+    public void compile() {
+        Map<String, Field> table = new HashMap<String, Field>();
+
+        String toParse = (mappings == null || mappings.trim().isEmpty()) ? DEFAULT_MAPPINGS : mappings;
+        for(String pair : toParse.split(",")) {
+            String trimmed = pair.trim();
+            if(trimmed.isEmpty()) {
+                continue;
+            }
+
+            int sep = trimmed.lastIndexOf(':');
+            if(sep <= 0 || sep == trimmed.length() - 1) {
+                throw new IllegalArgumentException("Invalid field mapping, expected jsonKey:field but got: " + pair);
+            }
+
+            String key = trimmed.substring(0, sep).trim().toLowerCase(Locale.US);
+            String fieldName = trimmed.substring(sep + 1).trim().toUpperCase(Locale.US);
+            Field field;
+            try {
+                field = Field.valueOf(fieldName);
+            } catch(IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown field '" + fieldName + "' in field mapping: " + pair, e);
+            }
+
+            table.put(key, field);
+        }
+
+        String order = (pointOrder == null || pointOrder.trim().isEmpty()) ? LON_LAT : pointOrder.replace(" ", "");
+        if(LAT_LON.equalsIgnoreCase(order)) {
+            pointLonLat = false;
+        } else if(LON_LAT.equalsIgnoreCase(order)) {
+            pointLonLat = true;
+        } else {
+            throw new IllegalArgumentException("Invalid pointOrder '" + pointOrder + "', expected '" + LON_LAT +
+                    "' or '" + LAT_LON + "'");
+        }
+
+        dispatch = table;
+        LOG.info("Compiled " + table.size() + " JSON PLI field mappings, point order: " + order +
+                ", speed conversion factor: " + speedConversionFactor);
+    }
+
+    /**
+     * Looks up the field the given JSON key maps to
+     *
+     * @param key a key from the incoming JSON object
+     * @return the mapped Field, or null if the key isn't mapped
+     */
+    public Field lookup(String key) {
+        if(key == null || key.isEmpty()) {
+            return null;
+        }
+        return dispatch.get(key.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Applies the value for the given key onto the record, if the key is mapped
+     *
+     * @param record the record being built
+     * @param key the JSON key
+     * @param value the value of the key
+     * @return true if the key was mapped, false otherwise
+     */
+    public boolean apply(Record record, String key, String value) {
+        Field field = lookup(key);
+        if(field == null) {
+            return false;
+        }
+
+        field.apply(this, record, key, value);
+        return true;
+    }
+
+    /**
+     * Converts the incoming speed with the {@link #speedConversionFactor}, and makes sure the result is a
+     * double, as the feed layers expect
+     *
+     * @param value the incoming speed
+     * @return the converted speed
+     */
+    String convertSpeed(String value) {
+        if(value == null || value.isEmpty()) {
+            return value;
+        }
+
+        if(speedConversionFactor != 1.0) {
+            try {
+                return Double.toString(Double.parseDouble(value) * speedConversionFactor);
+            } catch(NumberFormatException e) {
+                LOG.warn("Unable to convert non-numeric speed: " + value);
+                return value;
+            }
+        }
+
+        // TODO: Hack to make speed a double
+        if(!value.contains(".")) {
+            return value + ".0";
+        }
+
+        return value;
+    }
+
+    public String getMappings() {
+        return mappings;
+    }
+
+    public void setMappings(String mappings) {
+        this.mappings = mappings;
+    }
+
+    public String getPointOrder() {
+        return pointOrder;
+    }
+
+    public void setPointOrder(String pointOrder) {
+        this.pointOrder = pointOrder;
+    }
+
+    public double getSpeedConversionFactor() {
+        return speedConversionFactor;
+    }
+
+    public void setSpeedConversionFactor(double speedConversionFactor) {
+        this.speedConversionFactor = speedConversionFactor;
+    }
+}
@@ -33,16 +33,14 @@
 
 package edu.mit.ll.nics.processor.jsonpliconsumer;
 
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Iterator;
-import java.util.Locale;
-import java.util.TimeZone;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.ProducerTemplate;
+import org.apache.camel.Service;
+import org.apache.camel.spi.ShutdownPrepared;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.json.JSONException;
@@ -58,8 +56,10 @@ import org.json.JSONObject;
  * "Extended":{"Organization":"WESTCOV","Incident":null,"Role":null},
  * "Timestamp":"2014-04-01T08:20:25","Version":"0.0.1"}
  *
+ * <p>As a step of the route, it's told when Camel shuts the route down, and stops the 'publisher' then, once the
+ * route's consumers have stopped but while the publisher's producer can still send what's queued.</p>
  */
-public class JSONPLIProcessor implements Processor {
+public class JSONPLIProcessor implements Processor, Service, ShutdownPrepared {
 
     /**
      * Logger
@@ -81,10 +81,6 @@ public class JSONPLIProcessor implements Processor {
      */
     private static ProducerTemplate producer;
 
-    private static String TIMESTAMP_PATTERN = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-
-    private static SimpleDateFormat SDF = new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.US);
-
     private static String sourceFileEncoding = "UTF-16";
     private String nicsSchemaLocationURI;
     private String log4jPropertyFile;
@@ -100,6 +96,27 @@ public class JSONPLIProcessor implements Processor {
 
     private OCFAProcessor ocfaProcessor;
 
+    /**
+     * Maps the keys of incoming JSON PLI onto the PLI entry. If not set, the default NICS JSON PLI mapping is used
+     */
+    private JSONPLIFieldMapper fieldMapper;
+
+    /**
+     * Shared timestamp formatter. If not set, one is created from the 'useSpecifiedTimezone' and 'timezoneString'
+     * properties
+     */
+    private PLITimestampFormatter timestampFormatter;
+
+    /**
+     * Asynchronous publisher of GML to the geodatafeedConsumer endpoint. If not set, messages are sent synchronously
+     */
+    private PLIPublisher publisher;
+
+    /**
+     * Store of what's already been sent, used to skip unchanged tracks. If not set, every track is sent
+     */
+    private PLIStateStore stateStore;
+
     private boolean valid = false;
 
     /**
@@ -129,6 +146,15 @@ public class JSONPLIProcessor implements Processor {
 
         validateProcessor();
 
+        if(fieldMapper == null) {
+            fieldMapper = new JSONPLIFieldMapper();
+            fieldMapper.compile();
+        }
+
+        if(timestampFormatter == null) {
+            timestampFormatter = new PLITimestampFormatter(useSpecifiedTimezone, timezoneString);
+        }
+
         LOG.info("\n!!! Finished " + JSONPLIProcessor.class.getSimpleName() + " initialization!!!\n");
         LOG.info("\n!!! using geodatafeedConsumer endpoint: " + this.geodatafeedConsumer + "\n\n");
     }
@@ -178,19 +204,7 @@ public class JSONPLIProcessor implements Processor {
             }
 
             // Sample current time
-            Date date = new Date();
-            SDF.setTimeZone(TimeZone.getTimeZone("UTC"));
-            String timestamp = SDF.format(date);
-
-            // Initialize a bit of state to protect against assumed data,
-            // such as always having lat and lon (want both or none)            
-            boolean haveLat = false, haveLon = false;
-
-
-            // Enable skipping messages that do not have a valid data set
-            boolean invalidData = false;
-            String invalidDataInfo = "Invalid Data:\n";
-
+            String timestamp = timestampFormatter.now();
 
             // Create a new object for the new 
             JSONPLIEntry pliEntry = new JSONPLIEntry();
@@ -198,11 +212,12 @@ public class JSONPLIProcessor implements Processor {
             // Create defaults for necessary information items
             pliEntry.setSrsName(srsName);  // default reference system               
 
+            // Collects the state, such as lat and lon, that spans multiple keys (want both or none)
+            JSONPLIFieldMapper.Record record = new JSONPLIFieldMapper.Record(pliEntry);
+
             Iterator itr = pliObj.keys();
-            String lat = null, lon = null, unit = null;
             while(itr.hasNext()) {
 
-                /** ====== REPLACE WITH Ventura PARAMS inc timestamp */
                 String element = (String) itr.next();
                 String value;
                 LOG.debug("Reading element key: " + element);
@@ -220,63 +235,11 @@ public class JSONPLIProcessor implements Processor {
 
                 LOG.debug("Element value: " + value);
 
-                if("id".equalsIgnoreCase(element)) {
-                    pliEntry.setId(value);
-                } else if("name".equalsIgnoreCase(element)) {
-                    pliEntry.setName(value);
-                } else if("unit_name".equalsIgnoreCase(element)) { // Ventura Specific
-                    pliEntry.setName(value);
-                    unit = value;
-                } else if("current_lat".equalsIgnoreCase(element)) { // Ventura Specific
-                    lat = value;
-                } else if("current_lon".equalsIgnoreCase(element)) { // Ventura Specific
-                    lon = value;
-                } else if("description".equalsIgnoreCase(element)) {
-                    pliEntry.setDescription(value);
-                } else if("point".equalsIgnoreCase(element)) {
-                    // HACK to flip lon/lat to lat/lon
-                    String coords = null;
-                    if(value != null) {
-                        String[] parts = value.split(",");
-                        if(parts.length >= 2) {
-                            coords = parts[1] + "," + parts[0];
-                        } else {
-                            invalidData = true;
-                            invalidDataInfo += element + ": " + value + "\n";
-                        }
-                    }
-                    pliEntry.setCoordinates(coords);
-                    //venturaEntry.setCoordinates(value);
-                } else if("srsName".equalsIgnoreCase(element)) {
-                    pliEntry.setSrsName(value);
-                } else if("coordinates".equalsIgnoreCase(element)) {
-                    pliEntry.setCoordinates(value);
-                } else if("speed".equalsIgnoreCase(element)) {
-                    // TODO: Hack to make speed a double
-                    if(value != null && !value.isEmpty() && !value.contains(".")) {
-                        value = value + ".0";
-                    }
-                    pliEntry.setSpeed(value);
-                } else if("course".equalsIgnoreCase(element)) {
-                    pliEntry.setCourse(value);
-                } else if("extended".equalsIgnoreCase(element)) {
-                    pliEntry.setExtended(value);
-                } else if("timestamp".equalsIgnoreCase(element)) {
-
-                    //DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"); //.parse(value);
-                    // Workaround for if sender isn't giving us time in UTC
-                    //if(useSpecifiedTimezone && timezoneString != null && !timezoneString.isEmpty()) {
-
-                    //	dateFormat.setTimeZone(TimeZone.getTimeZone(timezoneString));
-                    //}
-                    //Date date = dateFormat.parse(value);
-                    //pliEntry.setTimestamp(date.toGMTString()); // TODO: stop using deprecated toGMT and format to UTC
-                    pliEntry.setTimestamp(value);
-                } else if("version".equalsIgnoreCase(element)) {
-                    pliEntry.setVersion(value);
-                } // end if
+                fieldMapper.apply(record, element, value);
             } // end while
 
+            String lat = record.getLat(), lon = record.getLon(), unit = record.getUnit();
+
             boolean ventura = false; // TODO: make this configurable
             if(ventura) {
                 // TODO: ventura specific
@@ -288,8 +251,7 @@ public class JSONPLIProcessor implements Processor {
                 //String coordinates = lon + "," + lat;
                 String coordinates = lat + "," + lon; // geodatafeed-consumer wants it backward?
                 if(lon == null || lat == null) {
-                    invalidData = true;
-                    invalidDataInfo += "lon,lat:" + lon + "," + lat + "\n";
+                    record.setInvalid("lon,lat", lon + "," + lat);
                 }
                 pliEntry.setCoordinates(coordinates);
 
@@ -309,6 +271,9 @@ public class JSONPLIProcessor implements Processor {
                     pliEntry.setName(getOrgPrependedName(pliEntry.getId(), pliEntry.getName()));
                 }
 
+                // Convert the source's local time to UTC if so configured
+                pliEntry.setTimestamp(timestampFormatter.normalize(pliEntry.getTimestamp()));
+
                 // Process Description. the PLIEntry toXML method handles appending
                 // extended data
                 if(pliEntry.getDescription() == null) {
@@ -326,16 +291,27 @@ public class JSONPLIProcessor implements Processor {
             pliEntry.setWfsServiceURI(wfsServiceURI);
             pliEntry.setWfsSchemasURI(wfsSchemasURI);
 
-            if(!invalidData) {
-                String gmlString = pliEntry.toXML(false);
-                LOG.debug("\n\n!!!Sending GML: \n" + gmlString + "\n\n");
-                sendToEndpoint(geodatafeedConsumer, pliEntry.toXML(false));
+            if(!record.isInvalid()) {
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("\n\n!!!Sending GML: \n" + pliEntry.toXML(false) + "\n\n");
+                }
+                if(stateStore != null && !stateStore.shouldSend(pliEntry)) {
+                    if(LOG.isDebugEnabled()) {
+                        LOG.debug("Track unchanged since last sent, skipping: " + pliEntry.getId());
+                    }
+                } else if(publisher != null) {
+                    publisher.publish(exchange.getContext(), pliEntry);
+                } else if(!sendToEndpoint(geodatafeedConsumer, pliEntry.toXML(false)) && stateStore != null) {
+                    stateStore.unsent(pliEntry);
+                }
             } else {
-                LOG.warn("\nNOT sending track due to invalid data being included: " + invalidDataInfo);
+                LOG.warn("\nNOT sending track due to invalid data being included: " + record.getInvalidDataInfo());
             }
 
         } catch(Exception e) {
             LOG.error("Caught unhandled exception in process(): " + e.getMessage(), e);
+            // Fails the exchange, so the poller fetches the feed again rather than keeping its validators
+            exchange.setException(e);
         }
     }
 
@@ -564,4 +540,62 @@ public class JSONPLIProcessor implements Processor {
     public void setOcfaProcessor(OCFAProcessor ocfaProcessor) {
         this.ocfaProcessor = ocfaProcessor;
     }
+
+    public JSONPLIFieldMapper getFieldMapper() {
+        return fieldMapper;
+    }
+
+    public void setFieldMapper(JSONPLIFieldMapper fieldMapper) {
+        this.fieldMapper = fieldMapper;
+    }
+
+    public PLITimestampFormatter getTimestampFormatter() {
+        return timestampFormatter;
+    }
+
+    public void setTimestampFormatter(PLITimestampFormatter timestampFormatter) {
+        this.timestampFormatter = timestampFormatter;
+    }
+
+    public PLIPublisher getPublisher() {
+        return publisher;
+    }
+
+    public void setPublisher(PLIPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Nothing to start, the route starts its processors as services
+     */
+    @Override
+    public void start() {
+    }
+
+    /**
+     * Nothing to stop, the publisher is stopped by {@link #prepareShutdown(boolean, boolean)}
+     */
+    @Override
+    public void stop() {
+    }
+
+    /**
+     * Stops the publisher, publishing what's left in its queue, when the route is shut down rather than suspended.
+     * Called by Camel's shutdown strategy once the route's consumers have stopped, and before the endpoints and
+     * producers are, which have all been stopped by the time Spring calls the publisher's destroy-method
+     */
+    @Override
+    public void prepareShutdown(boolean suspendOnly, boolean forced) {
+        if(!suspendOnly && publisher != null) {
+            publisher.stop();
+        }
+    }
+
+    public PLIStateStore getStateStore() {
+        return stateStore;
+    }
+
+    public void setStateStore(PLIStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
 }
@@ -29,9 +29,6 @@
  */
 package edu.mit.ll.nics.processor.jsonpliconsumer;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
@@ -92,12 +89,31 @@ public class OCFAProcessor implements Processor {
     private boolean prependOrgToName;
     private String orgName;
 
+    /**
+     * Shared timestamp formatter. If not set, one is created from the 'useSpecifiedTimezone' and 'timezoneString'
+     * properties
+     */
+    private PLITimestampFormatter timestampFormatter;
+
+    /**
+     * Asynchronous publisher of GML to the geodatafeedConsumer endpoint. If not set, messages are sent synchronously
+     */
+    private PLIPublisher publisher;
+
+    /**
+     * Store of what's already been sent, used to skip unchanged tracks. If not set, every track is sent
+     */
+    private PLIStateStore stateStore;
 
     /**
      * Called by Spring once properties have been set
      */
     public void init() {
         log = Logger.getLogger(OCFAProcessor.class);
+
+        if(timestampFormatter == null) {
+            timestampFormatter = new PLITimestampFormatter(useSpecifiedTimezone, timezoneString);
+        }
     }
 
     @Override
@@ -155,14 +171,9 @@ public class OCFAProcessor implements Processor {
 
             pliEntry.setSpeed(jsonObj.optInt(SPEED) + "");
 
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            SimpleDateFormat sdfUtc = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-            sdfUtc.setTimeZone(TimeZone.getTimeZone("UTC"));
-            sdf.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
-            Date date = null;
             try {
-                date = sdf.parse(jsonObj.optString(TIME_STRING));
-                pliEntry.setTimestamp(sdfUtc.format(date));
+                pliEntry.setTimestamp(timestampFormatter.toUtc(jsonObj.optString(TIME_STRING),
+                        PLITimestampFormatter.SPACE_LOCAL));
             } catch(Exception e) {
                 log.error("Exception parsing timestamp for ID " +
                         pliEntry.getId() + ": " + e.getMessage(), e);
@@ -205,13 +216,29 @@ public class OCFAProcessor implements Processor {
             pliEntry.setWfsServiceURI(wfsServiceURI);
             pliEntry.setWfsSchemasURI(wfsSchemasURI);
 
-            log.info("\n====\n" + pliEntry.toXML(true) + "\n====\n");
+            if(log.isDebugEnabled()) {
+                log.debug("\n====\n" + pliEntry.toXML(true) + "\n====\n");
+            }
+
+            if(stateStore != null && !stateStore.shouldSend(pliEntry)) {
+                if(log.isDebugEnabled()) {
+                    log.debug("Vehicle unchanged since last sent, skipping: " + pliEntry.getId());
+                }
+                continue;
+            }
+
+            if(publisher != null) {
+                publisher.publish(exchange.getContext(), pliEntry);
+                continue;
+            }
 
             if(producer == null) {
                 initProducer(exchange.getContext());
             }
 
-            sendToEndpoint(geodatafeedConsumer, pliEntry.toXML(false));
+            if(!sendToEndpoint(geodatafeedConsumer, pliEntry.toXML(false)) && stateStore != null) {
+                stateStore.unsent(pliEntry);
+            }
 
         }
     }
@@ -345,4 +372,27 @@ public class OCFAProcessor implements Processor {
         this.orgName = orgName;
     }
 
+    public PLITimestampFormatter getTimestampFormatter() {
+        return timestampFormatter;
+    }
+
+    public void setTimestampFormatter(PLITimestampFormatter timestampFormatter) {
+        this.timestampFormatter = timestampFormatter;
+    }
+
+    public PLIPublisher getPublisher() {
+        return publisher;
+    }
+
+    public void setPublisher(PLIPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    public PLIStateStore getStateStore() {
+        return stateStore;
+    }
+
+    public void setStateStore(PLIStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
 }
@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.jsonpliconsumer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.log4j.Logger;
+
+/**
+ * Asynchronous, batching publisher of PLI entries to the geodatafeed endpoint.
+ *
+ * <p>Processors hand entries off to a bounded queue and return immediately, so a poll of thousands of vehicles no
+ * longer waits on a broker round trip per vehicle. A single worker thread drains the queue in batches of up to
+ * 'batchSize' entries. In multi feature mode each batch is sent as one wfs:FeatureCollection per typeName with a
+ * gml:featureMember per entry, otherwise each entry is sent as its own FeatureCollection as before.</p>
+ *
+ * <p>Sends on the worker thread are synchronous. With 'confirms' enabled, publisherAcknowledgements is added to a
+ * rabbitmq endpoint, so each send waits on the broker's publisher confirm: a nacked or timed out message surfaces
+ * here as a failed send, and is counted as such.</p>
+ *
+ * <p>On stop, the worker publishes what's left in the queue for up to 'drainTimeoutMillis' before it's interrupted.
+ * Entries still queued at that point, and entries handed over after stop, are counted as dropped. The route's
+ * {@link JSONPLIProcessor} stops the publisher during Camel's shutdown, while its producer can still send; the
+ * Spring destroy-method only stops a publisher that wasn't part of a route, after Camel has already stopped.</p>
+ *
+ * <p>Entries that are dropped or fail to send are handed back to the 'stateStore', if set, so their vehicles aren't
+ * suppressed as unchanged on the next poll.</p>
+ */
+public class PLIPublisher {
+
+    private static final Logger LOG = Logger.getLogger(PLIPublisher.class);
+
+    /**
+     * Entries waiting to be published
+     */
+    private BlockingQueue<JSONPLIEntry> queue;
+
+    /**
+     * Producer for sending messages to the endpoint, owned by the worker thread
+     */
+    private volatile ProducerTemplate producer;
+
+    /**
+     * The endpoint actually sent to, the configured endpoint plus any publisher confirm options
+     */
+    private String target;
+
+    private Thread worker;
+
+    private volatile boolean running = false;
+
+    /**
+     * Set once the drain on stop has timed out, telling the worker to give up on the rest of the queue
+     */
+    private volatile boolean abandoned = false;
+
+    // Metrics
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong totalPublishNanos = new AtomicLong();
+    private final AtomicLong maxPublishNanos = new AtomicLong();
+
+    // Properties
+
+    /**
+     * The endpoint to publish GML to
+     */
+    private String endpoint;
+
+    /**
+     * Maximum number of entries waiting to be published. Default: 10000
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * Maximum number of entries drained from the queue per publish cycle. Default: 500
+     */
+    private int batchSize = 500;
+
+    /**
+     * Whether or not to pack a batch into a single FeatureCollection per typeName. The geodatafeed-consumer must
+     * accept multi feature collections for this to be enabled. Default: false
+     */
+    private boolean multiFeature = false;
+
+    /**
+     * Milliseconds to wait for space on a full queue before dropping the entry. Default: 1000
+     */
+    private long offerTimeoutMillis = 1000;
+
+    /**
+     * Log the metrics after every this many publish cycles, 0 to disable. Default: 100
+     */
+    private int metricsLogInterval = 100;
+
+    /**
+     * Store of what's already been sent, told about entries that never made it. Optional
+     */
+    private PLIStateStore stateStore;
+
+    /**
+     * Whether or not to wait on a publisher confirm for every message sent to a rabbitmq endpoint. Default: true
+     */
+    private boolean confirms = true;
+
+    /**
+     * Milliseconds to wait on a publisher confirm before counting the send as failed. Default: 10000
+     */
+    private long confirmTimeoutMillis = 10000;
+
+    /**
+     * Milliseconds to keep publishing the queue for on stop, before dropping what's left. Default: 30000
+     */
+    private long drainTimeoutMillis = 30000;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public PLIPublisher() {
+    }
+
+    /**
+     * Creates the queue and starts the worker thread. Called by Spring once properties have been set
+     */
+    public synchronized void init() {
+        if(running) {
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<JSONPLIEntry>(queueCapacity);
+        target = confirms ? withConfirms(endpoint) : endpoint;
+        abandoned = false;
+        running = true;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publishLoop();
+            }
+        }, "pli-publisher");
+        worker.setDaemon(true);
+        worker.start();
+
+        LOG.info("Started PLI publisher to endpoint: " + target + ", queueCapacity: " + queueCapacity +
+                ", batchSize: " + batchSize + ", multiFeature: " + multiFeature);
+    }
+
+    /**
+     * Adds the publisher confirm options to a rabbitmq endpoint that doesn't already set them
+     *
+     * @param uri the configured endpoint
+     * @return the endpoint to send to
+     */
+    String withConfirms(String uri) {
+        if(uri == null || !uri.startsWith("rabbitmq:")) {
+            LOG.warn("Publisher confirms are only supported on rabbitmq endpoints, not: " + uri);
+            return uri;
+        }
+
+        if(uri.contains("publisherAcknowledgements=")) {
+            return uri;
+        }
+
+        return uri + (uri.contains("?") ? "&" : "?") + "publisherAcknowledgements=true" +
+                "&publisherAcknowledgementsTimeout=" + confirmTimeoutMillis;
+    }
+
+    /**
+     * Stops the worker thread, publishing what's left in the queue for up to 'drainTimeoutMillis' first. Whatever
+     * couldn't be published in that time is dropped. Called by the {@link JSONPLIProcessor} on Camel's shutdown, and
+     * by Spring, where it does nothing if the publisher has already been stopped
+     */
+    public void stop() {
+        Thread thread;
+        synchronized(this) {
+            if(worker == null) {
+                return;
+            }
+            running = false;
+            thread = worker;
+            worker = null;
+        }
+
+        try {
+            thread.join(drainTimeoutMillis);
+            if(thread.isAlive()) {
+                LOG.warn("Timed out after " + drainTimeoutMillis + "ms publishing the queue on stop, abandoning " +
+                        getQueueDepth() + " queued entries");
+                abandoned = true;
+                thread.interrupt();
+                thread.join(1000);
+            }
+        } catch(InterruptedException e) {
+            abandoned = true;
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        if(queue != null) {
+            List<JSONPLIEntry> remaining = new ArrayList<JSONPLIEntry>();
+            queue.drainTo(remaining);
+            if(!remaining.isEmpty()) {
+                long count = dropped.addAndGet(remaining.size());
+                unsent(remaining);
+                LOG.error("Dropped " + remaining.size() + " entries left in the queue on stop (" + count +
+                        " dropped total)");
+            }
+        }
+
+        logMetrics();
+    }
+
+    /**
+     * Queues the entry for publishing. Blocks for up to 'offerTimeoutMillis' if the queue is full, after which the
+     * entry is dropped. Entries handed over when the publisher isn't running are dropped straight away.
+     *
+     * @param context the camel context, used to create the producer on first use
+     * @param entry   the entry to publish
+     * @return true if the entry was queued, false if it was dropped
+     */
+    public boolean publish(CamelContext context, JSONPLIEntry entry) {
+        if(!running) {
+            long count = dropped.incrementAndGet();
+            unsent(Collections.singletonList(entry));
+            LOG.warn("Publisher not running, dropped entry with ID: " + entry.getId() + " (" + count +
+                    " dropped total)");
+            return false;
+        }
+
+        if(producer == null && context != null) {
+            initProducer(context);
+        }
+
+        try {
+            if(queue.offer(entry, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                queued.incrementAndGet();
+                return true;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long count = dropped.incrementAndGet();
+        unsent(Collections.singletonList(entry));
+        LOG.warn("Publish queue full, dropped entry with ID: " + entry.getId() + " (" + count + " dropped total)");
+        return false;
+    }
+
+    private synchronized void initProducer(CamelContext context) {
+        if(producer == null) {
+            producer = context.createProducerTemplate();
+        }
+    }
+
+    /**
+     * Drains and publishes batches until stopped, then publishes whatever is left
+     */
+    private void publishLoop() {
+        List<JSONPLIEntry> batch = new ArrayList<JSONPLIEntry>(batchSize);
+        long cycles = 0;
+
+        while(!abandoned && (running || !queue.isEmpty())) {
+            try {
+                if(running) {
+                    JSONPLIEntry first = queue.poll(1, TimeUnit.SECONDS);
+                    if(first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+            } catch(InterruptedException e) {
+                // Only interrupted once the drain on stop has been abandoned
+                continue;
+            }
+
+            if(batch.isEmpty()) {
+                continue;
+            }
+
+            try {
+                publishBatch(batch);
+            } catch(Exception e) {
+                LOG.error("Caught unhandled exception publishing batch of " + batch.size() + ": " + e.getMessage(), e);
+            }
+            batch.clear();
+
+            cycles++;
+            if(metricsLogInterval > 0 && cycles % metricsLogInterval == 0) {
+                logMetrics();
+            }
+        }
+    }
+
+    private void publishBatch(List<JSONPLIEntry> batch) {
+        if(!multiFeature) {
+            for(JSONPLIEntry entry : batch) {
+                send(entry.toXML(false), Collections.singletonList(entry));
+            }
+            return;
+        }
+
+        // The feature type is the table the geodatafeed-consumer persists to, so only group like types
+        Map<String, List<JSONPLIEntry>> byType = new LinkedHashMap<String, List<JSONPLIEntry>>();
+        for(JSONPLIEntry entry : batch) {
+            List<JSONPLIEntry> entries = byType.get(entry.getTypeName());
+            if(entries == null) {
+                entries = new ArrayList<JSONPLIEntry>();
+                byType.put(entry.getTypeName(), entries);
+            }
+            entries.add(entry);
+        }
+
+        for(List<JSONPLIEntry> entries : byType.values()) {
+            send(JSONPLIEntry.toFeatureCollectionXML(entries, false), entries);
+        }
+    }
+
+    private void send(String message, List<JSONPLIEntry> entries) {
+        long start = System.nanoTime();
+        try {
+            sendBody(message);
+            published.addAndGet(entries.size());
+            messagesSent.incrementAndGet();
+        } catch(Exception e) {
+            failed.addAndGet(entries.size());
+            unsent(entries);
+            LOG.error("Caught unhandled exception while sending message with producer to endpoint: "
+                    + target + "\nError: " + e.getMessage(), e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            sends.incrementAndGet();
+            totalPublishNanos.addAndGet(elapsed);
+            long max;
+            while(elapsed > (max = maxPublishNanos.get())) {
+                if(maxPublishNanos.compareAndSet(max, elapsed)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void unsent(List<JSONPLIEntry> entries) {
+        if(stateStore != null) {
+            for(JSONPLIEntry entry : entries) {
+                stateStore.unsent(entry);
+            }
+        }
+    }
+
+    /**
+     * Sends a single message to the endpoint, on the worker thread. With confirms enabled this only returns once the
+     * broker has confirmed the message
+     *
+     * @param message the GML to send
+     * @throws Exception if the send fails, or the message is nacked or not confirmed in time
+     */
+    protected void sendBody(String message) throws Exception {
+        if(producer == null) {
+            throw new IllegalStateException("No producer initialized");
+        }
+        producer.sendBody(target, message);
+    }
+
+    /**
+     * Logs the current queue depth and publish metrics
+     */
+    public void logMetrics() {
+        LOG.info("PLI publisher metrics: queueDepth=" + getQueueDepth() + ", queued=" + queued.get() +
+                ", published=" + published.get() + ", messagesSent=" + messagesSent.get() +
+                ", failed=" + failed.get() + ", dropped=" + dropped.get() +
+                ", avgPublishMillis=" + getAveragePublishMillis() +
+                ", maxPublishMillis=" + (maxPublishNanos.get() / 1000000.0));
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getMessagesSentCount() {
+        return messagesSent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public double getAveragePublishMillis() {
+        long count = sends.get();
+        return count == 0 ? 0 : (totalPublishNanos.get() / (double) count) / 1000000.0;
+    }
+
+    public String getTargetEndpoint() {
+        return target;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isMultiFeature() {
+        return multiFeature;
+    }
+
+    public void setMultiFeature(boolean multiFeature) {
+        this.multiFeature = multiFeature;
+    }
+
+    public long getOfferTimeoutMillis() {
+        return offerTimeoutMillis;
+    }
+
+    public void setOfferTimeoutMillis(long offerTimeoutMillis) {
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(int metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+
+    public boolean isConfirms() {
+        return confirms;
+    }
+
+    public void setConfirms(boolean confirms) {
+        this.confirms = confirms;
+    }
+
+    public long getConfirmTimeoutMillis() {
+        return confirmTimeoutMillis;
+    }
+
+    public void setConfirmTimeoutMillis(long confirmTimeoutMillis) {
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+    }
+
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    public PLIStateStore getStateStore() {
+        return stateStore;
+    }
+
+    public void setStateStore(PLIStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.jsonpliconsumer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.apache.log4j.Logger;
+
+/**
+ * Polls an http(s) PLI source with conditional requests.
+ *
+ * <p>The ETag and Last-Modified validators of the last full response are kept per source URL and sent back as
+ * If-None-Match and If-Modified-Since. When the source answers 304 Not Modified the route is stopped, so the
+ * processors downstream never see an unchanged feed. The poller asks for gzip or deflate encoding, and inflates the
+ * response while it's being read rather than buffering the compressed body first.</p>
+ *
+ * <p>A full response's validators are only kept, and persisted, once the route has processed its body. If the route
+ * fails, or the process dies first, the next poll fetches the feed again rather than being told it's unchanged.</p>
+ *
+ * <p>Sources that aren't http(s) are passed through to their Camel endpoint unchanged.</p>
+ */
+public class PLISourcePoller implements Processor {
+
+    private static final Logger LOG = Logger.getLogger(PLISourcePoller.class);
+
+    /**
+     * Header set on the exchange with the HTTP status of the poll
+     */
+    public static final String HEADER_STATUS = "PLISourceStatus";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Validators of the last full response, keyed by source URL
+     */
+    private final Map<String, SourceState> sourceStates = new ConcurrentHashMap<String, SourceState>();
+
+    /**
+     * Whether or not the source is polled over http(s), otherwise it's sent to as a Camel endpoint
+     */
+    private boolean http;
+
+    /**
+     * Producer for non http(s) sources
+     */
+    private volatile ProducerTemplate producer;
+
+    // Metrics
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong bytesDecoded = new AtomicLong();
+
+    // Properties
+
+    /**
+     * The http(s) URL of the PLI source
+     */
+    private String sourceURL;
+
+    /**
+     * Whether or not to send If-None-Match/If-Modified-Since. Default: true
+     */
+    private boolean conditional = true;
+
+    /**
+     * Whether or not to ask for a gzip or deflate encoded response. Default: true
+     */
+    private boolean compression = true;
+
+    /**
+     * Milliseconds to wait on connecting to the source. Default: 10000
+     */
+    private int connectTimeoutMillis = 10000;
+
+    /**
+     * Milliseconds to wait on reading from the source. Default: 30000
+     */
+    private int readTimeoutMillis = 30000;
+
+    /**
+     * Persists the validators across restarts, optional
+     */
+    private PLIStateStore stateStore;
+
+    /**
+     * Log the metrics after every this many polls, 0 to disable. Default: 60
+     */
+    private int metricsLogInterval = 60;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public PLISourcePoller() {
+    }
+
+    /**
+     * Validates the source URL. Called by Spring once properties have been set
+     */
+    public void init() {
+        if(sourceURL == null || sourceURL.isEmpty()) {
+            throw new IllegalArgumentException("PLISourcePoller requires a sourceURL");
+        }
+
+        http = sourceURL.startsWith("http://") || sourceURL.startsWith("https://");
+        if(!http) {
+            LOG.info("PLI source is not http(s), conditional polling disabled: " + sourceURL);
+        } else if(stateStore != null && stateStore.getCursor(sourceURL) != null) {
+            sourceStates.put(sourceURL, stateStore.getCursor(sourceURL));
+        }
+    }
+
+    /**
+     * Polls the source, setting the decoded response as the body of the exchange. If the source hasn't changed since
+     * the last poll the route is stopped instead.
+     *
+     * @param exchange the timer exchange
+     * @throws Exception when the source can't be read, or responds with an error
+     */
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        if(!http) {
+            if(producer == null) {
+                producer = exchange.getContext().createProducerTemplate();
+            }
+            producer.send(sourceURL, exchange);
+            return;
+        }
+
+        polls.incrementAndGet();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(sourceURL).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setUseCaches(false);
+
+        SourceState state = sourceStates.get(sourceURL);
+        if(conditional && state != null) {
+            if(state.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", state.getETag());
+            }
+            if(state.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", state.getLastModified());
+            }
+        }
+        if(compression) {
+            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            exchange.getIn().setHeader(HEADER_STATUS, status);
+
+            if(status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified.incrementAndGet();
+                exchange.getIn().setBody(null);
+                exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("PLI source not modified, skipping: " + sourceURL);
+                }
+                return;
+            }
+
+            if(status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("PLI source " + sourceURL + " responded with HTTP " + status);
+            }
+
+            exchange.getIn().setBody(readBody(connection));
+
+            String eTag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            final SourceState updated = (eTag != null || lastModified != null)
+                    ? new SourceState(eTag, lastModified) : null;
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onComplete(Exchange completed) {
+                    saveState(updated);
+                }
+            });
+        } catch(IOException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            connection.disconnect();
+            if(metricsLogInterval > 0 && polls.get() % metricsLogInterval == 0) {
+                logMetrics();
+            }
+        }
+    }
+
+    /**
+     * Keeps the validators of a full response whose body has been processed, to send on the next poll
+     *
+     * @param updated the response's validators, null if it had none
+     */
+    private void saveState(SourceState updated) {
+        if(updated != null) {
+            sourceStates.put(sourceURL, updated);
+        } else {
+            sourceStates.remove(sourceURL);
+        }
+        if(stateStore != null) {
+            stateStore.putCursor(sourceURL, updated);
+        }
+    }
+
+    /**
+     * Reads the response body, inflating it as it's read if the source encoded it
+     *
+     * @param connection the connection to read from
+     * @return the decoded body
+     * @throws IOException when reading fails
+     */
+    private String readBody(HttpURLConnection connection) throws IOException {
+        CountingInputStream wire = new CountingInputStream(connection.getInputStream());
+        String encoding = connection.getContentEncoding();
+
+        InputStream in = wire;
+        if(encoding != null) {
+            encoding = encoding.trim().toLowerCase();
+            if("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+                in = new GZIPInputStream(wire, BUFFER_SIZE);
+            } else if("deflate".equals(encoding)) {
+                in = new InflaterInputStream(wire, new Inflater(), BUFFER_SIZE);
+            }
+        }
+
+        CountingInputStream decoded = new CountingInputStream(in);
+        StringBuilder body = new StringBuilder(Math.max(connection.getContentLength(), BUFFER_SIZE));
+        try(Reader reader = new InputStreamReader(decoded, charsetOf(connection.getContentType()))) {
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        } finally {
+            bytesTransferred.addAndGet(wire.getCount());
+            bytesDecoded.addAndGet(decoded.getCount());
+        }
+
+        return body.toString();
+    }
+
+    /**
+     * Gets the charset named in a Content-Type header
+     *
+     * @param contentType the Content-Type, may be null
+     * @return the named charset, or UTF-8 if there isn't a supported one
+     */
+    private static Charset charsetOf(String contentType) {
+        if(contentType != null) {
+            for(String param : contentType.split(";")) {
+                param = param.trim();
+                if(param.toLowerCase().startsWith("charset=")) {
+                    String name = param.substring("charset=".length()).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch(Exception e) {
+                        LOG.warn("Unsupported charset '" + name + "', reading PLI source as UTF-8");
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Logs the poll metrics
+     */
+    public void logMetrics() {
+        LOG.info("PLISourcePoller: polls=" + polls.get() + ", notModified=" + notModified.get()
+                + ", failed=" + failed.get() + ", bytesTransferred=" + bytesTransferred.get()
+                + ", bytesDecoded=" + bytesDecoded.get());
+    }
+
+    /**
+     * Validators of the last full response from a source
+     */
+    public static final class SourceState {
+
+        private final String eTag;
+        private final String lastModified;
+
+        public SourceState(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if(read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    // Getters and Setters
+
+    public Map<String, SourceState> getSourceStates() {
+        return sourceStates;
+    }
+
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
+    public String getSourceURL() {
+        return sourceURL;
+    }
+
+    public void setSourceURL(String sourceURL) {
+        this.sourceURL = sourceURL;
+    }
+
+    public boolean isConditional() {
+        return conditional;
+    }
+
+    public void setConditional(boolean conditional) {
+        this.conditional = conditional;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public PLIStateStore getStateStore() {
+        return stateStore;
+    }
+
+    public void setStateStore(PLIStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(int metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
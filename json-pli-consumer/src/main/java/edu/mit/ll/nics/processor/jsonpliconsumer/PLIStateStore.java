@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.jsonpliconsumer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Small persisted store of what's already been sent, so a restarted consumer picks up where it left off.
+ *
+ * <p>Holds a fingerprint of the last entry sent per vehicle ID, and the conditional request validators per source
+ * URL. Processors check {@link #shouldSend(JSONPLIEntry)} before publishing, so a vehicle that hasn't changed since
+ * its last send isn't sent again, including across restarts, rather than every vehicle being resent to PostGIS on
+ * the first poll. An entry that then fails to send, or is dropped by the publisher, is handed back through
+ * {@link #unsent(JSONPLIEntry)} so its vehicle isn't suppressed on the next poll.</p>
+ *
+ * <p>The store is checkpointed to 'file' every 'checkpointIntervalSeconds' when it has changed, and on shutdown. A
+ * checkpoint is a complete snapshot written to a temporary file and renamed over the previous one, so a crash mid
+ * write leaves the last good checkpoint in place. Each checkpoint compacts the store first, expiring vehicles that
+ * haven't been seen in 'maxAgeMinutes' and then the least recently seen beyond 'maxVehicles'.</p>
+ */
+public class PLIStateStore {
+
+    private static final Logger LOG = Logger.getLogger(PLIStateStore.class);
+
+    private static final int MAGIC = 0x504c4953;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Last sent state, keyed by vehicle ID
+     */
+    private final Map<String, VehicleState> vehicles = new ConcurrentHashMap<String, VehicleState>();
+
+    /**
+     * Conditional request validators, keyed by source URL
+     */
+    private final Map<String, PLISourcePoller.SourceState> cursors =
+            new ConcurrentHashMap<String, PLISourcePoller.SourceState>();
+
+    private volatile boolean dirty = false;
+
+    private ScheduledExecutorService scheduler;
+
+    // Metrics
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong unsent = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    // Properties
+
+    /**
+     * The file to checkpoint to. If not set the store is kept in memory only
+     */
+    private String file;
+
+    /**
+     * Maximum number of vehicles kept. Default: 50000
+     */
+    private int maxVehicles = 50000;
+
+    /**
+     * Minutes after which a vehicle that hasn't been seen is expired. Default: 1440
+     */
+    private long maxAgeMinutes = 1440;
+
+    /**
+     * Seconds between checkpoints, 0 to only checkpoint on shutdown. Default: 60
+     */
+    private long checkpointIntervalSeconds = 60;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public PLIStateStore() {
+    }
+
+    /**
+     * Loads the last checkpoint and schedules checkpointing. Called by Spring once properties have been set
+     */
+    public synchronized void init() {
+        if(scheduler != null) {
+            return;
+        }
+
+        if(file != null && !file.isEmpty()) {
+            load();
+
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "pli-state-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            if(checkpointIntervalSeconds > 0) {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(dirty) {
+                            checkpoint();
+                        }
+                    }
+                }, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+            }
+        } else {
+            LOG.info("No state file set, PLI state will not survive a restart");
+        }
+    }
+
+    /**
+     * Stops checkpointing, and writes a final checkpoint. Called by Spring on shutdown
+     */
+    public synchronized void stop() {
+        if(scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+            checkpoint();
+        }
+
+        LOG.info("PLIStateStore: vehicles=" + vehicles.size() + ", sent=" + sent.get() + ", suppressed="
+                + suppressed.get() + ", unsent=" + unsent.get() + ", expired=" + expired.get());
+    }
+
+    /**
+     * Records the entry as sent unless it's unchanged since the last time its vehicle was sent
+     *
+     * @param entry the entry about to be published
+     * @return true if the entry should be sent, false if the same entry was already sent
+     */
+    public boolean shouldSend(JSONPLIEntry entry) {
+        if(entry.getId() == null) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        long fingerprint = fingerprint(entry);
+        VehicleState previous = vehicles.put(entry.getId(), new VehicleState(fingerprint, now));
+        dirty = true;
+
+        if(previous != null && previous.getFingerprint() == fingerprint) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+
+        sent.incrementAndGet();
+        if(vehicles.size() > maxVehicles + maxVehicles / 10) {
+            compact(now);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the entry recorded by {@link #shouldSend(JSONPLIEntry)} after it failed to send or was dropped, so the
+     * vehicle is sent again on the next poll even if it hasn't changed. Does nothing if a newer entry for the vehicle
+     * has been recorded since
+     *
+     * @param entry the entry that wasn't sent
+     */
+    public void unsent(JSONPLIEntry entry) {
+        if(entry.getId() == null) {
+            return;
+        }
+
+        VehicleState state = vehicles.get(entry.getId());
+        if(state != null && state.getFingerprint() == fingerprint(entry) && vehicles.remove(entry.getId(), state)) {
+            unsent.incrementAndGet();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Hashes the fields of the entry that are sent downstream, with 64 bit FNV-1a
+     *
+     * @param entry the entry to fingerprint
+     * @return the fingerprint
+     */
+    static long fingerprint(JSONPLIEntry entry) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, entry.getTypeName());
+        hash = hash(hash, entry.getName());
+        hash = hash(hash, entry.getDescription());
+        hash = hash(hash, entry.getCoordinates());
+        hash = hash(hash, entry.getSpeed());
+        hash = hash(hash, entry.getCourse());
+        hash = hash(hash, entry.getTimestamp());
+        hash = hash(hash, entry.getExtended());
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if(value != null) {
+            for(int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            }
+        }
+        // Field separator, so "ab","c" and "a","bc" differ
+        return (hash ^ 0x1f) * FNV_PRIME;
+    }
+
+    /**
+     * Gets the stored conditional request validators for a source
+     *
+     * @param sourceURL the source URL
+     * @return the validators, or null if there aren't any
+     */
+    public PLISourcePoller.SourceState getCursor(String sourceURL) {
+        return cursors.get(sourceURL);
+    }
+
+    /**
+     * Stores the conditional request validators for a source
+     *
+     * @param sourceURL the source URL
+     * @param state     the validators, or null to clear them
+     */
+    public void putCursor(String sourceURL, PLISourcePoller.SourceState state) {
+        if(state == null) {
+            cursors.remove(sourceURL);
+        } else {
+            cursors.put(sourceURL, state);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Expires vehicles older than 'maxAgeMinutes', then the least recently seen beyond 'maxVehicles'
+     *
+     * @param now the current time in milliseconds
+     */
+    synchronized void compact(long now) {
+        long cutoff = now - TimeUnit.MINUTES.toMillis(maxAgeMinutes);
+        List<Map.Entry<String, VehicleState>> live = new ArrayList<Map.Entry<String, VehicleState>>(vehicles.size());
+        for(Map.Entry<String, VehicleState> vehicle : vehicles.entrySet()) {
+            if(vehicle.getValue().getLastSeen() < cutoff) {
+                if(vehicles.remove(vehicle.getKey(), vehicle.getValue())) {
+                    expired.incrementAndGet();
+                }
+            } else {
+                live.add(vehicle);
+            }
+        }
+
+        if(live.size() > maxVehicles) {
+            Collections.sort(live, new Comparator<Map.Entry<String, VehicleState>>() {
+                @Override
+                public int compare(Map.Entry<String, VehicleState> a, Map.Entry<String, VehicleState> b) {
+                    return Long.compare(a.getValue().getLastSeen(), b.getValue().getLastSeen());
+                }
+            });
+            for(int i = 0; i < live.size() - maxVehicles; i++) {
+                if(vehicles.remove(live.get(i).getKey(), live.get(i).getValue())) {
+                    expired.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compacts the store and writes it to 'file'
+     *
+     * @return true if the checkpoint was written
+     */
+    public synchronized boolean checkpoint() {
+        if(file == null || file.isEmpty()) {
+            return false;
+        }
+
+        dirty = false;
+        compact(System.currentTimeMillis());
+
+        Path target = Paths.get(file);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            if(target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+
+                List<Map.Entry<String, PLISourcePoller.SourceState>> cursorEntries =
+                        new ArrayList<Map.Entry<String, PLISourcePoller.SourceState>>(cursors.entrySet());
+                out.writeInt(cursorEntries.size());
+                for(Map.Entry<String, PLISourcePoller.SourceState> cursor : cursorEntries) {
+                    writeString(out, cursor.getKey());
+                    writeString(out, cursor.getValue().getETag());
+                    writeString(out, cursor.getValue().getLastModified());
+                }
+
+                List<Map.Entry<String, VehicleState>> vehicleEntries =
+                        new ArrayList<Map.Entry<String, VehicleState>>(vehicles.entrySet());
+                out.writeInt(vehicleEntries.size());
+                for(Map.Entry<String, VehicleState> vehicle : vehicleEntries) {
+                    writeString(out, vehicle.getKey());
+                    out.writeLong(vehicle.getValue().getFingerprint());
+                    out.writeLong(vehicle.getValue().getLastSeen());
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(IOException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("Checkpointed " + vehicles.size() + " vehicles and " + cursors.size() + " sources to "
+                        + file);
+            }
+            return true;
+        } catch(IOException e) {
+            dirty = true;
+            LOG.error("Failed to checkpoint PLI state to " + file + ": " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the last checkpoint from 'file', starting empty if there isn't a readable one
+     */
+    private void load() {
+        Path path = Paths.get(file);
+        if(!Files.exists(path)) {
+            LOG.info("No PLI state checkpoint at " + file + ", starting cold");
+            return;
+        }
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.warn("Unrecognized PLI state checkpoint at " + file + ", starting cold");
+                return;
+            }
+
+            int cursorCount = in.readInt();
+            for(int i = 0; i < cursorCount; i++) {
+                String sourceURL = readString(in);
+                cursors.put(sourceURL, new PLISourcePoller.SourceState(readString(in), readString(in)));
+            }
+
+            int vehicleCount = in.readInt();
+            for(int i = 0; i < vehicleCount; i++) {
+                String id = readString(in);
+                vehicles.put(id, new VehicleState(in.readLong(), in.readLong()));
+            }
+
+            compact(System.currentTimeMillis());
+            LOG.info("Loaded PLI state checkpoint with " + vehicles.size() + " vehicles and " + cursors.size()
+                    + " sources from " + file);
+        } catch(IOException e) {
+            vehicles.clear();
+            cursors.clear();
+            LOG.warn("Failed to load PLI state checkpoint from " + file + ", starting cold: " + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fingerprint and last seen time of the last entry sent for a vehicle
+     */
+    private static final class VehicleState {
+
+        private final long fingerprint;
+        private final long lastSeen;
+
+        VehicleState(long fingerprint, long lastSeen) {
+            this.fingerprint = fingerprint;
+            this.lastSeen = lastSeen;
+        }
+
+        long getFingerprint() {
+            return fingerprint;
+        }
+
+        long getLastSeen() {
+            return lastSeen;
+        }
+    }
+
+    // Getters and Setters
+
+    public int getVehicleCount() {
+        return vehicles.size();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    public long getUnsentCount() {
+        return unsent.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public int getMaxVehicles() {
+        return maxVehicles;
+    }
+
+    public void setMaxVehicles(int maxVehicles) {
+        this.maxVehicles = maxVehicles;
+    }
+
+    public long getMaxAgeMinutes() {
+        return maxAgeMinutes;
+    }
+
+    public void setMaxAgeMinutes(long maxAgeMinutes) {
+        this.maxAgeMinutes = maxAgeMinutes;
+    }
+
+    public long getCheckpointIntervalSeconds() {
+        return checkpointIntervalSeconds;
+    }
+
+    public void setCheckpointIntervalSeconds(long checkpointIntervalSeconds) {
+        this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+    }
+}
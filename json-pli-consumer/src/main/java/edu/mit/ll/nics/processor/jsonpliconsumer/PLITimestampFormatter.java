@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.jsonpliconsumer;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import org.apache.log4j.Logger;
+
+/**
+ * Shared, thread safe timestamp formatting for the JSON PLI processors.
+ *
+ * <p>Built on the immutable java.time formatters, so a single instance can be shared across processors and concurrent
+ * consumers, unlike SimpleDateFormat. Timestamps from sources that don't report in UTC are interpreted in the zone
+ * configured by the 'useSpecifiedTimezone' and 'timezoneString' properties.</p>
+ */
+public class PLITimestampFormatter {
+
+    private static final Logger LOG = Logger.getLogger(PLITimestampFormatter.class);
+
+    /**
+     * The timestamp pattern expected by the geodatafeed-consumer
+     */
+    public static final String UTC_PATTERN = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    /**
+     * Formats instants to the {@link #UTC_PATTERN}
+     */
+    public static final DateTimeFormatter UTC_FORMATTER =
+            DateTimeFormatter.ofPattern(UTC_PATTERN, Locale.US).withZone(ZoneOffset.UTC);
+
+    /**
+     * Local timestamp pattern used by NICS JSON PLI, without any zone information
+     */
+    public static final DateTimeFormatter ISO_LOCAL = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+
+    /**
+     * Local timestamp pattern used by the OCFA feed's LastUpdatedDateTimeAsString
+     */
+    public static final DateTimeFormatter SPACE_LOCAL = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    /**
+     * The last formatted current second. Replaced as a whole, so readers always see a matching second and string
+     */
+    private volatile CachedSecond cachedNow = new CachedSecond(Long.MIN_VALUE, null);
+
+    /**
+     * The zone timestamps without zone information are interpreted in
+     */
+    private ZoneId sourceZone = ZoneOffset.UTC;
+
+    // Properties
+
+    /**
+     * Whether or not to interpret timestamps relative to the zone in 'timezoneString'
+     */
+    private boolean useSpecifiedTimezone;
+
+    /**
+     * Java time zone ID, e.g., America/Los_Angeles. Only used if 'useSpecifiedTimezone' is true
+     */
+    private String timezoneString;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public PLITimestampFormatter() {
+    }
+
+    /**
+     * Convenience constructor, initializes the source zone from the given properties
+     *
+     * @param useSpecifiedTimezone whether or not to use the timezoneString
+     * @param timezoneString       the Java time zone ID of the source
+     */
+    public PLITimestampFormatter(boolean useSpecifiedTimezone, String timezoneString) {
+        this.useSpecifiedTimezone = useSpecifiedTimezone;
+        this.timezoneString = timezoneString;
+        init();
+    }
+
+    /**
+     * Resolves the source zone. Called by Spring once properties have been set
+     */
+    public void init() {
+        ZoneId zone = ZoneOffset.UTC;
+        if(useSpecifiedTimezone && timezoneString != null && !timezoneString.trim().isEmpty()) {
+            try {
+                zone = ZoneId.of(timezoneString.trim());
+            } catch(DateTimeException e) {
+                LOG.error("Invalid timezoneString '" + timezoneString + "', falling back to UTC: " + e.getMessage());
+            }
+        }
+
+        sourceZone = zone;
+        LOG.info("Interpreting source timestamps without zone information as: " + sourceZone);
+    }
+
+    /**
+     * Returns the current time formatted to the {@link #UTC_PATTERN}. The string is only formatted once per second,
+     * no matter how many messages ask for it.
+     *
+     * @return the current time, in UTC
+     */
+    public String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    /**
+     * Formats the given epoch milliseconds to the {@link #UTC_PATTERN}, reusing the cached string if it falls in the
+     * same second as the previous call.
+     *
+     * @param epochMillis milliseconds since the epoch
+     * @return the formatted time, in UTC
+     */
+    public String format(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000L);
+        CachedSecond cached = cachedNow;
+        if(cached.second == second) {
+            return cached.formatted;
+        }
+
+        String formatted = UTC_FORMATTER.format(Instant.ofEpochSecond(second));
+        cachedNow = new CachedSecond(second, formatted);
+        return formatted;
+    }
+
+    /**
+     * Converts a timestamp without zone information, as sent by the source, to the {@link #UTC_PATTERN}
+     *
+     * @param timestamp the source's local timestamp
+     * @param pattern   the pattern the source timestamp is in
+     * @return the timestamp in UTC
+     *
+     * @throws DateTimeParseException if the timestamp doesn't match the pattern
+     */
+    public String toUtc(String timestamp, DateTimeFormatter pattern) {
+        LocalDateTime local = LocalDateTime.parse(timestamp, pattern);
+        return UTC_FORMATTER.format(local.atZone(sourceZone));
+    }
+
+    /**
+     * Normalizes a NICS JSON PLI timestamp. Timestamps that include zone information are passed through untouched,
+     * while local timestamps are converted from the source zone to UTC if 'useSpecifiedTimezone' is set.
+     *
+     * @param timestamp the incoming timestamp
+     * @return the normalized timestamp, or the original value if it couldn't be parsed
+     */
+    public String normalize(String timestamp) {
+        if(!useSpecifiedTimezone || timestamp == null || timestamp.length() != 19) {
+            return timestamp;
+        }
+
+        try {
+            return toUtc(timestamp, ISO_LOCAL);
+        } catch(DateTimeParseException e) {
+            LOG.debug("Passing through unparseable timestamp: " + timestamp);
+            return timestamp;
+        }
+    }
+
+    public ZoneId getSourceZone() {
+        return sourceZone;
+    }
+
+    public boolean isUseSpecifiedTimezone() {
+        return useSpecifiedTimezone;
+    }
+
+    public void setUseSpecifiedTimezone(boolean useSpecifiedTimezone) {
+        this.useSpecifiedTimezone = useSpecifiedTimezone;
+    }
+
+    public String getTimezoneString() {
+        return timezoneString;
+    }
+
+    public void setTimezoneString(String timezoneString) {
+        this.timezoneString = timezoneString;
+    }
+
+    /**
+     * An epoch second, and its formatted string
+     */
+    private static final class CachedSecond {
+        private final long second;
+        private final String formatted;
+
+        private CachedSecond(long second, String formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.jsonpliconsumer;
+
+import edu.mit.ll.nics.processor.jsonpliconsumer.JSONPLIEntry;
+import edu.mit.ll.nics.processor.jsonpliconsumer.JSONPLIFieldMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link JSONPLIFieldMapper} against the if/else key chain it replaced in the JSONPLIProcessor
+ */
+public class JSONPLIFieldMapperTest {
+
+    /**
+     * Key and value pairs run through both the default mapping and the old key chain, which must agree on each
+     */
+    private static final String[][] KEY_CHAIN_CASES = {
+            {"id", "T-101"},
+            {"ID", "T-101"},
+            {"name", "Engine 12"},
+            {"Name", ""},
+            {"unit_name", "VNC-E12"},
+            {"current_lat", "34.27"},
+            {"current_lon", "-119.23"},
+            {"description", "Type 1 engine"},
+            {"point", "-119.23,34.27"},
+            {"POINT", "-119.23,34.27,120.0"},
+            {"point", "-119.23"},
+            {"point", ""},
+            {"srsName", "EPSG:4326"},
+            {"srsname", "EPSG:4326"},
+            {"coordinates", "34.27,-119.23"},
+            {"speed", "12"},
+            {"speed", "12.5"},
+            {"speed", ""},
+            {"course", "270"},
+            {"extended", "{\"status\":\"enroute\"}"},
+            {"timestamp", "2021-03-04T05:06:07Z"},
+            {"version", "2"},
+            {"unmapped", "ignored"}
+    };
+
+    /**
+     * Tests that every key handled by the old key chain is mapped to the same entry fields by the default mapping
+     */
+    @Test(testName = "TestDefaultMappingMatchesKeyChain")
+    public void testDefaultMappingMatchesKeyChain() {
+        JSONPLIFieldMapper mapper = new JSONPLIFieldMapper();
+        mapper.compile();
+
+        for(String[] c : KEY_CHAIN_CASES) {
+            JSONPLIFieldMapper.Record record = new JSONPLIFieldMapper.Record(new JSONPLIEntry());
+            mapper.apply(record, c[0], c[1]);
+
+            KeyChain expected = new KeyChain();
+            expected.apply(c[0], c[1]);
+
+            String label = c[0] + "=" + c[1];
+            assertEntry(label, record.getEntry(), expected.entry);
+            Assert.assertEquals(record.getLat(), expected.lat, label);
+            Assert.assertEquals(record.getLon(), expected.lon, label);
+            Assert.assertEquals(record.getUnit(), expected.unit, label);
+            Assert.assertEquals(record.isInvalid(), expected.invalid, label);
+        }
+    }
+
+    /**
+     * Tests that a point is only accepted when both of its coordinates are numbers
+     */
+    @Test(testName = "TestPointValidation")
+    public void testPointValidation() {
+        JSONPLIFieldMapper mapper = new JSONPLIFieldMapper();
+        mapper.compile();
+
+        assertPoint(mapper, "1,2", "2,1");
+        assertPoint(mapper, "1,2,3", "2,1");
+        assertPoint(mapper, " 1 , 2 ", "2,1");
+
+        // The old chain flipped these to ",1" and "1,", and sent them on
+        assertPoint(mapper, "1,", null);
+        assertPoint(mapper, ",1", null);
+        assertPoint(mapper, "1", null);
+        assertPoint(mapper, "a,b", null);
+        assertPoint(mapper, "1,b", null);
+    }
+
+    /**
+     * Tests that a lat,lon point order passes the point through unflipped
+     */
+    @Test(testName = "TestLatLonPointOrder")
+    public void testLatLonPointOrder() {
+        JSONPLIFieldMapper mapper = new JSONPLIFieldMapper();
+        mapper.setPointOrder(" lat, lon ");
+        mapper.compile();
+
+        assertPoint(mapper, "34.27,-119.23", "34.27,-119.23");
+        assertPoint(mapper, "34.27,", null);
+    }
+
+    /**
+     * Tests that an unset point order defaults to lon,lat rather than failing to compile
+     */
+    @Test(testName = "TestUnsetPointOrder")
+    public void testUnsetPointOrder() {
+        JSONPLIFieldMapper mapper = new JSONPLIFieldMapper();
+        mapper.setPointOrder(null);
+        mapper.compile();
+        assertPoint(mapper, "1,2", "2,1");
+
+        mapper.setPointOrder("");
+        mapper.compile();
+        assertPoint(mapper, "1,2", "2,1");
+    }
+
+    /**
+     * Tests that a malformed mapping or point order is rejected when compiled
+     */
+    @Test(testName = "TestInvalidConfiguration")
+    public void testInvalidConfiguration() {
+        JSONPLIFieldMapper mapper = new JSONPLIFieldMapper();
+        mapper.setMappings("id:nosuchfield");
+        assertCompileFails(mapper);
+
+        mapper.setMappings("id");
+        assertCompileFails(mapper);
+
+        mapper.setMappings(JSONPLIFieldMapper.DEFAULT_MAPPINGS);
+        mapper.setPointOrder("x,y");
+        assertCompileFails(mapper);
+    }
+
+    /**
+     * Tests that a custom mapping replaces the default keys
+     */
+    @Test(testName = "TestCustomMapping")
+    public void testCustomMapping() {
+        JSONPLIFieldMapper mapper = new JSONPLIFieldMapper();
+        mapper.setMappings("callsign:name, heading:course, id:ignore");
+        mapper.compile();
+
+        JSONPLIFieldMapper.Record record = new JSONPLIFieldMapper.Record(new JSONPLIEntry());
+        Assert.assertTrue(mapper.apply(record, "CallSign", "E12"));
+        Assert.assertTrue(mapper.apply(record, "heading", "90"));
+        Assert.assertTrue(mapper.apply(record, "id", "T-101"));
+        Assert.assertFalse(mapper.apply(record, "name", "unused"));
+
+        Assert.assertEquals(record.getEntry().getName(), "E12");
+        Assert.assertEquals(record.getEntry().getCourse(), "90");
+        Assert.assertNull(record.getEntry().getId());
+    }
+
+    private static void assertPoint(JSONPLIFieldMapper mapper, String point, String expected) {
+        JSONPLIFieldMapper.Record record = new JSONPLIFieldMapper.Record(new JSONPLIEntry());
+        mapper.apply(record, "point", point);
+        Assert.assertEquals(record.getEntry().getCoordinates(), expected, point);
+        Assert.assertEquals(record.isInvalid(), expected == null, point);
+    }
+
+    private static void assertCompileFails(JSONPLIFieldMapper mapper) {
+        try {
+            mapper.compile();
+            Assert.fail("Expected compile to fail for mappings: " + mapper.getMappings() + ", point order: " +
+                    mapper.getPointOrder());
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertEntry(String label, JSONPLIEntry actual, JSONPLIEntry expected) {
+        Assert.assertEquals(actual.getId(), expected.getId(), label);
+        Assert.assertEquals(actual.getName(), expected.getName(), label);
+        Assert.assertEquals(actual.getDescription(), expected.getDescription(), label);
+        Assert.assertEquals(actual.getSrsName(), expected.getSrsName(), label);
+        Assert.assertEquals(actual.getCoordinates(), expected.getCoordinates(), label);
+        Assert.assertEquals(actual.getSpeed(), expected.getSpeed(), label);
+        Assert.assertEquals(actual.getCourse(), expected.getCourse(), label);
+        Assert.assertEquals(actual.getExtended(), expected.getExtended(), label);
+        Assert.assertEquals(actual.getTimestamp(), expected.getTimestamp(), label);
+        Assert.assertEquals(actual.getVersion(), expected.getVersion(), label);
+    }
+
+    /**
+     * The key chain the JSONPLIProcessor used before the field mapper, kept as the reference for the default mapping
+     */
+    private static class KeyChain {
+        private final JSONPLIEntry entry = new JSONPLIEntry();
+        private String lat;
+        private String lon;
+        private String unit;
+        private boolean invalid;
+
+        private void apply(String element, String value) {
+            if("id".equalsIgnoreCase(element)) {
+                entry.setId(value);
+            } else if("name".equalsIgnoreCase(element)) {
+                entry.setName(value);
+            } else if("unit_name".equalsIgnoreCase(element)) {
+                entry.setName(value);
+                unit = value;
+            } else if("current_lat".equalsIgnoreCase(element)) {
+                lat = value;
+            } else if("current_lon".equalsIgnoreCase(element)) {
+                lon = value;
+            } else if("description".equalsIgnoreCase(element)) {
+                entry.setDescription(value);
+            } else if("point".equalsIgnoreCase(element)) {
+                String coords = null;
+                if(value != null) {
+                    String[] parts = value.split(",");
+                    if(parts.length >= 2) {
+                        coords = parts[1] + "," + parts[0];
+                    } else {
+                        invalid = true;
+                    }
+                }
+                entry.setCoordinates(coords);
+            } else if("srsName".equalsIgnoreCase(element)) {
+                entry.setSrsName(value);
+            } else if("coordinates".equalsIgnoreCase(element)) {
+                entry.setCoordinates(value);
+            } else if("speed".equalsIgnoreCase(element)) {
+                if(value != null && !value.isEmpty() && !value.contains(".")) {
+                    value = value + ".0";
+                }
+                entry.setSpeed(value);
+            } else if("course".equalsIgnoreCase(element)) {
+                entry.setCourse(value);
+            } else if("extended".equalsIgnoreCase(element)) {
+                entry.setExtended(value);
+            } else if("timestamp".equalsIgnoreCase(element)) {
+                entry.setTimestamp(value);
+            } else if("version".equalsIgnoreCase(element)) {
+                entry.setVersion(value);
+            }
+        }
+    }
+}
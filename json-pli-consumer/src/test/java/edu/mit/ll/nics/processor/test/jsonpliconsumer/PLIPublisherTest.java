@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.jsonpliconsumer;
+
+import edu.mit.ll.nics.processor.jsonpliconsumer.JSONPLIEntry;
+import edu.mit.ll.nics.processor.jsonpliconsumer.JSONPLIProcessor;
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLIPublisher;
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLIStateStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link PLIPublisher}, with the broker replaced by a recording sender
+ */
+public class PLIPublisherTest {
+
+    private RecordingPublisher publisher;
+
+    @AfterMethod
+    public void stopPublisher() {
+        if(publisher != null) {
+            publisher.release();
+            publisher.stop();
+            publisher = null;
+        }
+    }
+
+    /**
+     * Tests that in multi feature mode a batch is sent as one FeatureCollection per typeName
+     */
+    @Test(testName = "TestMultiFeatureGroupsByType")
+    public void testMultiFeatureGroupsByType() throws Exception {
+        publisher = createPublisher(true, 500, 100);
+        publishBlocked("first");
+
+        Assert.assertTrue(publisher.publish(null, entry("e1", "engines")));
+        Assert.assertTrue(publisher.publish(null, entry("h1", "helicopters")));
+        Assert.assertTrue(publisher.publish(null, entry("e2", "engines")));
+        publisher.release();
+        publisher.stop();
+
+        List<String> messages = publisher.getMessages();
+        Assert.assertEquals(messages.size(), 3);
+        Assert.assertEquals(featureMembers(messages.get(1)), 2);
+        Assert.assertTrue(messages.get(1).contains("<NICS:engines>"));
+        Assert.assertTrue(messages.get(1).contains("e1") && messages.get(1).contains("e2"));
+        Assert.assertEquals(featureMembers(messages.get(2)), 1);
+        Assert.assertTrue(messages.get(2).contains("<NICS:helicopters>"));
+
+        Assert.assertEquals(publisher.getPublishedCount(), 4L);
+        Assert.assertEquals(publisher.getMessagesSentCount(), 3L);
+        Assert.assertEquals(publisher.getDroppedCount(), 0L);
+    }
+
+    /**
+     * Tests that a batch never holds more than 'batchSize' entries
+     */
+    @Test(testName = "TestBatchSize")
+    public void testBatchSize() throws Exception {
+        publisher = createPublisher(true, 2, 100);
+        publishBlocked("first");
+
+        for(int i = 0; i < 5; i++) {
+            Assert.assertTrue(publisher.publish(null, entry("e" + i, "engines")));
+        }
+        publisher.release();
+        publisher.stop();
+
+        List<String> messages = publisher.getMessages();
+        Assert.assertEquals(messages.size(), 4);
+        Assert.assertEquals(featureMembers(messages.get(1)), 2);
+        Assert.assertEquals(featureMembers(messages.get(2)), 2);
+        Assert.assertEquals(featureMembers(messages.get(3)), 1);
+        Assert.assertEquals(publisher.getPublishedCount(), 6L);
+    }
+
+    /**
+     * Tests that without multi feature mode each entry is sent as its own FeatureCollection
+     */
+    @Test(testName = "TestSingleFeature")
+    public void testSingleFeature() throws Exception {
+        publisher = createPublisher(false, 500, 100);
+        publishBlocked("first");
+
+        Assert.assertTrue(publisher.publish(null, entry("e1", "engines")));
+        Assert.assertTrue(publisher.publish(null, entry("e2", "engines")));
+        publisher.release();
+        publisher.stop();
+
+        List<String> messages = publisher.getMessages();
+        Assert.assertEquals(messages.size(), 3);
+        for(String message : messages) {
+            Assert.assertEquals(featureMembers(message), 1);
+        }
+        Assert.assertEquals(publisher.getMessagesSentCount(), 3L);
+    }
+
+    /**
+     * Tests that an entry is dropped and counted once the queue has been full for 'offerTimeoutMillis'
+     */
+    @Test(testName = "TestQueueFull")
+    public void testQueueFull() throws Exception {
+        publisher = createPublisher(false, 500, 2);
+        publishBlocked("first");
+
+        Assert.assertTrue(publisher.publish(null, entry("e1", "engines")));
+        Assert.assertTrue(publisher.publish(null, entry("e2", "engines")));
+        Assert.assertEquals(publisher.getQueueDepth(), 2);
+
+        Assert.assertFalse(publisher.publish(null, entry("e3", "engines")));
+        Assert.assertEquals(publisher.getDroppedCount(), 1L);
+        Assert.assertEquals(publisher.getQueuedCount(), 3L);
+
+        publisher.release();
+        publisher.stop();
+        Assert.assertEquals(publisher.getPublishedCount(), 3L);
+        Assert.assertEquals(publisher.getDroppedCount(), 1L);
+    }
+
+    /**
+     * Tests that a failed send, such as a nacked publisher confirm, is counted per feature
+     */
+    @Test(testName = "TestFailedSend")
+    public void testFailedSend() throws Exception {
+        publisher = createPublisher(true, 500, 100);
+        publisher.fail = true;
+        publisher.release();
+
+        Assert.assertTrue(publisher.publish(null, entry("e1", "engines")));
+        publisher.stop();
+
+        Assert.assertEquals(publisher.getFailedCount(), 1L);
+        Assert.assertEquals(publisher.getPublishedCount(), 0L);
+    }
+
+    /**
+     * Tests that dropped and failed entries are handed back to the state store, so they aren't suppressed next poll
+     */
+    @Test(testName = "TestUnsentEntriesHandedBack")
+    public void testUnsentEntriesHandedBack() throws Exception {
+        PLIStateStore store = new PLIStateStore();
+        store.init();
+
+        publisher = createPublisher(false, 500, 1);
+        publisher.setStateStore(store);
+        JSONPLIEntry first = entry("first", "engines");
+        Assert.assertTrue(store.shouldSend(first));
+        Assert.assertTrue(publisher.publish(null, first));
+        Assert.assertTrue(publisher.sending.await(5, TimeUnit.SECONDS));
+
+        JSONPLIEntry queued = entry("queued", "engines");
+        JSONPLIEntry full = entry("full", "engines");
+        Assert.assertTrue(store.shouldSend(queued));
+        Assert.assertTrue(store.shouldSend(full));
+        Assert.assertTrue(publisher.publish(null, queued));
+        Assert.assertFalse(publisher.publish(null, full));
+
+        publisher.fail = true;
+        publisher.release();
+        publisher.stop();
+
+        JSONPLIEntry late = entry("late", "engines");
+        Assert.assertTrue(store.shouldSend(late));
+        Assert.assertFalse(publisher.publish(null, late));
+
+        Assert.assertEquals(store.getUnsentCount(), 4L);
+        Assert.assertTrue(store.shouldSend(entry("first", "engines")));
+        Assert.assertTrue(store.shouldSend(entry("queued", "engines")));
+        Assert.assertTrue(store.shouldSend(entry("full", "engines")));
+        Assert.assertTrue(store.shouldSend(entry("late", "engines")));
+        store.stop();
+    }
+
+    /**
+     * Tests that stop publishes what's queued, and that entries handed over afterwards are dropped and counted
+     */
+    @Test(testName = "TestStopDrainsQueue")
+    public void testStopDrainsQueue() throws Exception {
+        publisher = createPublisher(false, 500, 100);
+        publishBlocked("first");
+        for(int i = 0; i < 10; i++) {
+            publisher.publish(null, entry("e" + i, "engines"));
+        }
+
+        publisher.release();
+        publisher.stop();
+        Assert.assertEquals(publisher.getPublishedCount(), 11L);
+        Assert.assertEquals(publisher.getQueueDepth(), 0);
+        Assert.assertFalse(publisher.interrupted);
+
+        Assert.assertFalse(publisher.publish(null, entry("late", "engines")));
+        Assert.assertEquals(publisher.getDroppedCount(), 1L);
+    }
+
+    /**
+     * Tests that stopping the CamelContext publishes what's still queued, through the context's own producer, before
+     * the context's endpoints are stopped
+     */
+    @Test(testName = "TestCamelShutdownDrainsQueue")
+    public void testCamelShutdownDrainsQueue() throws Exception {
+        PLIPublisher slow = new PLIPublisher() {
+            @Override
+            protected void sendBody(String message) throws Exception {
+                Thread.sleep(5);
+                super.sendBody(message);
+            }
+        };
+        slow.setEndpoint("mock:gml");
+        slow.setConfirms(false);
+        slow.setBatchSize(1);
+        slow.setMetricsLogInterval(0);
+        slow.init();
+
+        final JSONPLIProcessor processor = new JSONPLIProcessor();
+        processor.setPublisher(slow);
+        CamelContext context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:pli").process(processor);
+            }
+        });
+        context.start();
+        MockEndpoint gml = context.getEndpoint("mock:gml", MockEndpoint.class);
+
+        try {
+            for(int i = 0; i < 100; i++) {
+                Assert.assertTrue(slow.publish(context, entry("e" + i, "engines")));
+            }
+            Assert.assertTrue(slow.getQueueDepth() > 0, "Everything was published before the context was stopped");
+        } finally {
+            context.stop();
+        }
+
+        Assert.assertEquals(gml.getReceivedCounter(), 100);
+        Assert.assertEquals(slow.getPublishedCount(), 100L);
+        Assert.assertEquals(slow.getFailedCount(), 0L);
+        Assert.assertEquals(slow.getDroppedCount(), 0L);
+
+        // Spring's destroy-method afterwards has nothing left to do
+        slow.stop();
+        Assert.assertEquals(slow.getDroppedCount(), 0L);
+    }
+
+    /**
+     * Tests that stop gives up on a stuck send after 'drainTimeoutMillis', and counts what was still queued as dropped
+     */
+    @Test(testName = "TestStopDrainTimeout")
+    public void testStopDrainTimeout() throws Exception {
+        publisher = createPublisher(false, 500, 100);
+        publisher.setDrainTimeoutMillis(200);
+        publishBlocked("first");
+        publisher.publish(null, entry("e1", "engines"));
+        publisher.publish(null, entry("e2", "engines"));
+
+        long start = System.nanoTime();
+        publisher.stop();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue(elapsedMillis < 5000, "stop took " + elapsedMillis + "ms");
+        Assert.assertTrue(publisher.interrupted);
+        Assert.assertEquals(publisher.getDroppedCount(), 2L);
+        Assert.assertEquals(publisher.getFailedCount(), 1L);
+        Assert.assertEquals(publisher.getQueueDepth(), 0);
+    }
+
+    /**
+     * Tests that publisher confirms are added to a rabbitmq endpoint, and only to one
+     */
+    @Test(testName = "TestConfirmsEndpoint")
+    public void testConfirmsEndpoint() {
+        Assert.assertEquals(targetEndpoint("rabbitmq://host:5672?routingKey=pli", true),
+                "rabbitmq://host:5672?routingKey=pli&publisherAcknowledgements=true" +
+                        "&publisherAcknowledgementsTimeout=10000");
+        Assert.assertEquals(targetEndpoint("rabbitmq://host:5672", true),
+                "rabbitmq://host:5672?publisherAcknowledgements=true&publisherAcknowledgementsTimeout=10000");
+        Assert.assertEquals(targetEndpoint("rabbitmq://host?publisherAcknowledgements=false", true),
+                "rabbitmq://host?publisherAcknowledgements=false");
+        Assert.assertEquals(targetEndpoint("rabbitmq://host:5672?routingKey=pli", false),
+                "rabbitmq://host:5672?routingKey=pli");
+        Assert.assertEquals(targetEndpoint("file://outGml", true), "file://outGml");
+    }
+
+    private static String targetEndpoint(String endpoint, boolean confirms) {
+        PLIPublisher publisher = new PLIPublisher();
+        publisher.setEndpoint(endpoint);
+        publisher.setConfirms(confirms);
+        publisher.init();
+        try {
+            return publisher.getTargetEndpoint();
+        } finally {
+            publisher.stop();
+        }
+    }
+
+    private RecordingPublisher createPublisher(boolean multiFeature, int batchSize, int queueCapacity) {
+        RecordingPublisher recording = new RecordingPublisher();
+        recording.setEndpoint("mock:gml");
+        recording.setConfirms(false);
+        recording.setMultiFeature(multiFeature);
+        recording.setBatchSize(batchSize);
+        recording.setQueueCapacity(queueCapacity);
+        recording.setOfferTimeoutMillis(50);
+        recording.setMetricsLogInterval(0);
+        recording.init();
+        return recording;
+    }
+
+    /**
+     * Publishes an entry and waits for the worker to block on sending it, so following entries are queued up
+     */
+    private void publishBlocked(String id) throws InterruptedException {
+        Assert.assertTrue(publisher.publish(null, entry(id, "engines")));
+        Assert.assertTrue(publisher.sending.await(5, TimeUnit.SECONDS), "Worker never sent the first entry");
+    }
+
+    private static JSONPLIEntry entry(String id, String typeName) {
+        JSONPLIEntry entry = new JSONPLIEntry();
+        entry.setNicsSchemaLocationURI("http://nics/schema");
+        entry.setWfsServiceURI("http://nics/wfs");
+        entry.setWfsSchemasURI("http://nics/wfs/schemas");
+        entry.setId(id);
+        entry.setName(id);
+        entry.setTypeName(typeName);
+        entry.setSrsName("EPSG:4326");
+        entry.setCoordinates("34.27,-119.23");
+        return entry;
+    }
+
+    private static int featureMembers(String message) {
+        int count = 0;
+        int index = 0;
+        while((index = message.indexOf("<gml:featureMember>", index)) != -1) {
+            count++;
+            index++;
+        }
+        return count;
+    }
+
+    /**
+     * Records messages instead of sending them. The first send blocks until released
+     */
+    private static class RecordingPublisher extends PLIPublisher {
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private volatile boolean fail = false;
+        private volatile boolean interrupted = false;
+
+        @Override
+        protected void sendBody(String message) throws Exception {
+            sending.countDown();
+            try {
+                released.await();
+            } catch(InterruptedException e) {
+                interrupted = true;
+                throw e;
+            }
+
+            if(fail) {
+                throw new IllegalStateException("Nacked");
+            }
+            messages.add(message);
+        }
+
+        private void release() {
+            released.countDown();
+        }
+
+        private List<String> getMessages() {
+            synchronized(messages) {
+                return new ArrayList<String>(messages);
+            }
+        }
+    }
+}
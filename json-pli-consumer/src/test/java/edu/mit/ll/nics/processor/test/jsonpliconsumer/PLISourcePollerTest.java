@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.jsonpliconsumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLISourcePoller;
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLIStateStore;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spi.Synchronization;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link PLISourcePoller} against a local stub PLI source
+ */
+public class PLISourcePollerTest {
+
+    private static final Logger LOG = Logger.getLogger(PLISourcePollerTest.class);
+
+    private static final String ETAG = "\"pli-1\"";
+    private static final String LAST_MODIFIED = "Wed, 16 Jul 2014 20:17:17 GMT";
+
+    private HttpServer server;
+    private byte[] json;
+    private byte[] gzippedJson;
+    private final AtomicLong bytesServed = new AtomicLong();
+    private volatile String ifNoneMatch;
+    private volatile String ifModifiedSince;
+    private String url;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        StringBuilder feed = new StringBuilder("[");
+        for(int i = 0; i < 2000; i++) {
+            feed.append(i == 0 ? "" : ",").append("{\"id\":\"OCFA-").append(i)
+                    .append("\",\"name\":\"E").append(i).append("\",\"current_lat\":33.7,\"current_lon\":-117.8,")
+                    .append("\"timestamp\":\"2014-07-16 13:17:17\"}");
+        }
+        json = feed.append("]").toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(json);
+        }
+        gzippedJson = bytes.toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/pli", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange http) throws IOException {
+                ifNoneMatch = http.getRequestHeaders().getFirst("If-None-Match");
+                ifModifiedSince = http.getRequestHeaders().getFirst("If-Modified-Since");
+                if(ETAG.equals(http.getRequestHeaders().getFirst("If-None-Match"))
+                        || LAST_MODIFIED.equals(http.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                    http.sendResponseHeaders(304, -1);
+                    http.close();
+                    return;
+                }
+
+                String acceptEncoding = http.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = json;
+                if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    body = gzippedJson;
+                    http.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                http.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                http.getResponseHeaders().set("ETag", ETAG);
+                http.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                // Counted before writing, so it's visible once the poller has read the response
+                bytesServed.addAndGet(body.length);
+                http.sendResponseHeaders(200, body.length);
+                try(OutputStream out = http.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/pli";
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeMethod
+    public void resetServed() {
+        bytesServed.set(0);
+    }
+
+    @Test(testName = "TestConditionalPollShortCircuits")
+    public void testConditionalPollShortCircuits() throws Exception {
+        PLISourcePoller poller = newPoller(true, true);
+
+        Exchange first = poll(poller);
+        Assert.assertEquals(first.getIn().getHeader(PLISourcePoller.HEADER_STATUS), 200);
+        Assert.assertEquals(first.getIn().getBody(String.class), new String(json, StandardCharsets.UTF_8));
+        Assert.assertNull(first.getProperty(Exchange.ROUTE_STOP));
+        Assert.assertEquals(poller.getSourceStates().get(url).getETag(), ETAG);
+
+        for(int i = 0; i < 10; i++) {
+            Exchange unchanged = poll(poller);
+            Assert.assertEquals(unchanged.getIn().getHeader(PLISourcePoller.HEADER_STATUS), 304);
+            Assert.assertNull(unchanged.getIn().getBody());
+            Assert.assertEquals(unchanged.getProperty(Exchange.ROUTE_STOP), Boolean.TRUE);
+        }
+
+        Assert.assertEquals(poller.getNotModifiedCount(), 10);
+        Assert.assertEquals(bytesServed.get(), gzippedJson.length);
+    }
+
+    @Test(testName = "TestCompressedTransfer")
+    public void testCompressedTransfer() throws Exception {
+        PLISourcePoller poller = newPoller(false, true);
+
+        Exchange exchange = poll(poller);
+        Assert.assertEquals(exchange.getIn().getBody(String.class), new String(json, StandardCharsets.UTF_8));
+        Assert.assertEquals(poller.getBytesTransferred(), gzippedJson.length);
+        Assert.assertEquals(poller.getBytesDecoded(), json.length);
+        Assert.assertTrue(poller.getBytesTransferred() * 5 < poller.getBytesDecoded(),
+                "Expected the gzipped feed to be well under a fifth of its decoded size");
+    }
+
+    @Test(testName = "TestUnchangedPollsSendValidators")
+    public void testUnchangedPollsSendValidators() throws Exception {
+        final int pollCount = 50;
+
+        PLISourcePoller unconditional = newPoller(false, false);
+        poll(unconditional);
+        bytesServed.set(0);
+        for(int i = 0; i < pollCount; i++) {
+            Exchange exchange = poll(unconditional);
+            Assert.assertNull(ifNoneMatch);
+            Assert.assertNull(ifModifiedSince);
+            Assert.assertEquals(exchange.getIn().getHeader(PLISourcePoller.HEADER_STATUS), 200);
+            Assert.assertNull(exchange.getProperty(Exchange.ROUTE_STOP));
+        }
+        long unconditionalBytes = bytesServed.getAndSet(0);
+
+        PLISourcePoller conditional = newPoller(true, true);
+        poll(conditional);
+        Assert.assertNull(ifNoneMatch, "The first poll has no validators to send");
+        bytesServed.set(0);
+        for(int i = 0; i < pollCount; i++) {
+            Exchange exchange = poll(conditional);
+            Assert.assertEquals(ifNoneMatch, ETAG);
+            Assert.assertEquals(ifModifiedSince, LAST_MODIFIED);
+            Assert.assertEquals(exchange.getIn().getHeader(PLISourcePoller.HEADER_STATUS), 304);
+            Assert.assertEquals(exchange.getProperty(Exchange.ROUTE_STOP), Boolean.TRUE,
+                    "A 304 must stop the route, so the unchanged feed isn't processed");
+            Assert.assertNull(exchange.getIn().getBody());
+        }
+        long conditionalBytes = bytesServed.get();
+
+        Assert.assertEquals(unconditionalBytes, (long) pollCount * json.length);
+        Assert.assertEquals(conditionalBytes, 0L);
+        Assert.assertEquals(conditional.getNotModifiedCount(), pollCount);
+        LOG.info(pollCount + " unchanged polls, unconditional: " + unconditionalBytes + " bytes, conditional: " +
+                conditionalBytes + " bytes");
+    }
+
+    @Test(testName = "TestValidatorsKeptOnceProcessed")
+    public void testValidatorsKeptOnceProcessed() throws Exception {
+        PLIStateStore store = new PLIStateStore();
+        PLISourcePoller poller = newPoller(true, true);
+        poller.setStateStore(store);
+
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        poller.process(exchange);
+        Assert.assertNull(poller.getSourceStates().get(url), "Validators kept before the body was processed");
+        Assert.assertNull(store.getCursor(url), "Validators persisted before the body was processed");
+
+        Exchange failed = poll(poller, false);
+        Assert.assertEquals(failed.getIn().getHeader(PLISourcePoller.HEADER_STATUS), 200);
+        Assert.assertNull(poller.getSourceStates().get(url));
+
+        Exchange retried = poll(poller);
+        Assert.assertNull(ifNoneMatch, "A failed route must not have its validators sent");
+        Assert.assertEquals(retried.getIn().getHeader(PLISourcePoller.HEADER_STATUS), 200);
+        Assert.assertEquals(poller.getSourceStates().get(url).getETag(), ETAG);
+        Assert.assertEquals(store.getCursor(url).getETag(), ETAG);
+
+        Assert.assertEquals(poll(poller).getIn().getHeader(PLISourcePoller.HEADER_STATUS), 304);
+    }
+
+    private PLISourcePoller newPoller(boolean conditional, boolean compression) {
+        PLISourcePoller poller = new PLISourcePoller();
+        poller.setSourceURL(url);
+        poller.setConditional(conditional);
+        poller.setCompression(compression);
+        poller.setMetricsLogInterval(0);
+        poller.init();
+        return poller;
+    }
+
+    private Exchange poll(PLISourcePoller poller) throws Exception {
+        return poll(poller, true);
+    }
+
+    /**
+     * Polls, then completes the exchange as the route would once the rest of it has succeeded or failed
+     */
+    private Exchange poll(PLISourcePoller poller, boolean processed) throws Exception {
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        poller.process(exchange);
+        List<Synchronization> completions = exchange.handoverCompletions();
+        if(completions != null) {
+            for(Synchronization completion : completions) {
+                if(processed) {
+                    completion.onComplete(exchange);
+                } else {
+                    completion.onFailure(exchange);
+                }
+            }
+        }
+        return exchange;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.jsonpliconsumer;
+
+import edu.mit.ll.nics.processor.jsonpliconsumer.JSONPLIEntry;
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLISourcePoller;
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLIStateStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link PLIStateStore}
+ */
+public class PLIStateStoreTest {
+
+    private Path directory;
+    private String file;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("pli-state");
+        file = new File(directory.toFile(), "json-pli-consumer.state").getPath();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if(files != null) {
+            for(File f : files) {
+                Files.delete(f.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test(testName = "TestUnchangedEntriesSuppressed")
+    public void testUnchangedEntriesSuppressed() {
+        PLIStateStore store = newStore(null, 100);
+
+        Assert.assertTrue(store.shouldSend(entry("OCFA-1", "33.7,-117.8", "2014-07-16T20:17:17Z")));
+        Assert.assertFalse(store.shouldSend(entry("OCFA-1", "33.7,-117.8", "2014-07-16T20:17:17Z")));
+        Assert.assertTrue(store.shouldSend(entry("OCFA-1", "33.8,-117.8", "2014-07-16T20:18:17Z")));
+        Assert.assertTrue(store.shouldSend(entry("OCFA-2", "33.8,-117.8", "2014-07-16T20:18:17Z")));
+
+        Assert.assertEquals(store.getSentCount(), 3L);
+        Assert.assertEquals(store.getSuppressedCount(), 1L);
+    }
+
+    @Test(testName = "TestUnsentEntryNotSuppressed")
+    public void testUnsentEntryNotSuppressed() {
+        PLIStateStore store = newStore(null, 100);
+
+        JSONPLIEntry dropped = entry("OCFA-1", "33.7,-117.8", "2014-07-16T20:17:17Z");
+        Assert.assertTrue(store.shouldSend(dropped));
+        store.unsent(dropped);
+        Assert.assertEquals(store.getUnsentCount(), 1L);
+        Assert.assertTrue(store.shouldSend(entry("OCFA-1", "33.7,-117.8", "2014-07-16T20:17:17Z")),
+                "A vehicle whose last entry was never sent must not be suppressed");
+
+        // A newer entry recorded since isn't undone by the older one failing
+        JSONPLIEntry older = entry("OCFA-2", "33.7,-117.8", "2014-07-16T20:17:17Z");
+        Assert.assertTrue(store.shouldSend(older));
+        Assert.assertTrue(store.shouldSend(entry("OCFA-2", "33.8,-117.8", "2014-07-16T20:18:17Z")));
+        store.unsent(older);
+        Assert.assertEquals(store.getUnsentCount(), 1L);
+        Assert.assertFalse(store.shouldSend(entry("OCFA-2", "33.8,-117.8", "2014-07-16T20:18:17Z")));
+    }
+
+    @Test(testName = "TestRestartWarm")
+    public void testRestartWarm() {
+        PLIStateStore store = newStore(file, 1000);
+        for(int i = 0; i < 500; i++) {
+            Assert.assertTrue(store.shouldSend(entry("OCFA-" + i, "33.7,-117.8", "2014-07-16T20:17:17Z")));
+        }
+        store.putCursor("http://pli/source", new PLISourcePoller.SourceState("\"pli-1\"", null));
+        store.stop();
+
+        PLIStateStore restarted = newStore(file, 1000);
+        Assert.assertEquals(restarted.getVehicleCount(), 500);
+        Assert.assertEquals(restarted.getCursor("http://pli/source").getETag(), "\"pli-1\"");
+        Assert.assertNull(restarted.getCursor("http://pli/source").getLastModified());
+
+        // The first poll after the restart only sends what changed
+        int sent = 0;
+        for(int i = 0; i < 500; i++) {
+            String timestamp = (i % 50 == 0) ? "2014-07-16T20:18:17Z" : "2014-07-16T20:17:17Z";
+            if(restarted.shouldSend(entry("OCFA-" + i, "33.7,-117.8", timestamp))) {
+                sent++;
+            }
+        }
+        Assert.assertEquals(sent, 10);
+        restarted.stop();
+    }
+
+    @Test(testName = "TestCompactionBoundsSize")
+    public void testCompactionBoundsSize() {
+        PLIStateStore store = newStore(file, 100);
+        for(int i = 0; i < 1000; i++) {
+            store.shouldSend(entry("OCFA-" + i, "33.7,-117.8", "2014-07-16T20:17:17Z"));
+        }
+        Assert.assertTrue(store.getVehicleCount() <= 110, "Expected inline compaction, got " + store.getVehicleCount());
+
+        Assert.assertTrue(store.checkpoint());
+        Assert.assertEquals(store.getVehicleCount(), 100);
+        store.stop();
+
+        Assert.assertEquals(newStore(file, 100).getVehicleCount(), 100);
+    }
+
+    @Test(testName = "TestCorruptCheckpointStartsCold")
+    public void testCorruptCheckpointStartsCold() throws IOException {
+        Files.write(new File(file).toPath(), new byte[] {1, 2, 3});
+
+        PLIStateStore store = newStore(file, 100);
+        Assert.assertEquals(store.getVehicleCount(), 0);
+        Assert.assertTrue(store.shouldSend(entry("OCFA-1", "33.7,-117.8", "2014-07-16T20:17:17Z")));
+        store.stop();
+    }
+
+    private PLIStateStore newStore(String file, int maxVehicles) {
+        PLIStateStore store = new PLIStateStore();
+        store.setFile(file);
+        store.setMaxVehicles(maxVehicles);
+        store.setCheckpointIntervalSeconds(0);
+        store.init();
+        return store;
+    }
+
+    private JSONPLIEntry entry(String id, String coordinates, String timestamp) {
+        JSONPLIEntry entry = new JSONPLIEntry();
+        entry.setId(id);
+        entry.setTypeName("ca_corona");
+        entry.setName(id);
+        entry.setCoordinates(coordinates);
+        entry.setTimestamp(timestamp);
+        return entry;
+    }
+}
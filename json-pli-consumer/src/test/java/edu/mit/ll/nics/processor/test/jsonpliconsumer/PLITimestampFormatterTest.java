@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.jsonpliconsumer;
+
+import edu.mit.ll.nics.processor.jsonpliconsumer.PLITimestampFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the {@link PLITimestampFormatter}
+ */
+public class PLITimestampFormatterTest {
+
+    @Test(testName = "TestToUtcFromSourceZone")
+    public void testToUtcFromSourceZone() {
+        PLITimestampFormatter formatter = new PLITimestampFormatter(true, "America/Los_Angeles");
+
+        Assert.assertEquals(formatter.toUtc("2014-07-16 13:17:17", PLITimestampFormatter.SPACE_LOCAL),
+                "2014-07-16T20:17:17Z");
+        Assert.assertEquals(formatter.normalize("2014-06-09T17:22:41"), "2014-06-10T00:22:41Z");
+    }
+
+    @Test(testName = "TestNormalizeWithoutSpecifiedTimezone")
+    public void testNormalizeWithoutSpecifiedTimezone() {
+        PLITimestampFormatter formatter = new PLITimestampFormatter(false, "America/Los_Angeles");
+
+        Assert.assertEquals(formatter.normalize("2014-06-09T17:22:41"), "2014-06-09T17:22:41");
+        Assert.assertEquals(formatter.toUtc("2014-07-16 13:17:17", PLITimestampFormatter.SPACE_LOCAL),
+                "2014-07-16T13:17:17Z");
+    }
+
+    @Test(testName = "TestFormatCachesSecond")
+    public void testFormatCachesSecond() {
+        PLITimestampFormatter formatter = new PLITimestampFormatter(false, null);
+
+        String first = formatter.format(1405516637000L);
+        Assert.assertEquals(first, "2014-07-16T13:17:17Z");
+        Assert.assertSame(formatter.format(1405516637999L), first);
+        Assert.assertEquals(formatter.format(1405516638000L), "2014-07-16T13:17:18Z");
+    }
+
+    @Test(testName = "TestConcurrentFormatting")
+    public void testConcurrentFormatting() throws Exception {
+        final PLITimestampFormatter formatter = new PLITimestampFormatter(true, "America/Los_Angeles");
+        final int threads = 8;
+        final int iterations = 20000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for(int t = 0; t < threads; t++) {
+            final int offset = t;
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int mismatches = 0;
+                    for(int i = 0; i < iterations; i++) {
+                        // Each thread walks its own seconds, so the shared cache is constantly replaced
+                        long second = 1405516637L + ((i + offset) % 120);
+                        String expected = PLITimestampFormatter.UTC_FORMATTER
+                                .format(java.time.Instant.ofEpochSecond(second));
+                        if(!expected.equals(formatter.format(second * 1000L + (i % 1000)))) {
+                            mismatches++;
+                        }
+                        if(!"2014-07-16T20:17:17Z".equals(formatter.toUtc("2014-07-16 13:17:17",
+                                PLITimestampFormatter.SPACE_LOCAL))) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }
+            }));
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        for(Future<Integer> result : results) {
+            Assert.assertEquals(result.get().intValue(), 0);
+        }
+    }
+}
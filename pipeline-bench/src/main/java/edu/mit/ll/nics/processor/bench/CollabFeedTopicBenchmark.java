@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import edu.mit.ll.nics.processor.collab.feed.CollabFeedTopic;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.log4j.Logger;
+
+/**
+ * Compares the cpu time collab-feed-manager's {@link CollabFeedTopic} and the regular expression it replaced, compiled
+ * for each message as it was, take to classify the same routing keys, mostly feature messages.
+ *
+ * <p>Run in the bench directory with
+ * 'mvn package exec:exec -Dbench.main=edu.mit.ll.nics.processor.bench.CollabFeedTopicBenchmark'. The number of
+ * routing keys per run can be given as the first argument.</p>
+ */
+public class CollabFeedTopicBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(CollabFeedTopicBenchmark.class);
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!threads.isCurrentThreadCpuTimeSupported()) {
+            LOG.error("Thread cpu time isn't supported by this JVM, not benchmarking");
+            return;
+        }
+
+        // 90% feature messages across 1000 rooms, the rest new rooms and other incident messages
+        Random random = new Random(42);
+        String[] topics = new String[count];
+        for(int i = 0; i < count; i++) {
+            int percent = random.nextInt(100);
+            if(percent < 90) {
+                topics[i] = "iweb.NICS.collabroom." + random.nextInt(1000) + ".feature";
+            } else if(percent < 95) {
+                topics[i] = "iweb.NICS.incident." + random.nextInt(100) + ".newcollabroom";
+            } else {
+                topics[i] = "iweb.NICS.incident." + random.nextInt(100) + ".update";
+            }
+        }
+
+        // Warm up both, then measure, checking they agree so neither is optimized away
+        long sum = classify(topics) + regex(topics);
+        long start = threads.getCurrentThreadCpuTime();
+        long classified = classify(topics);
+        long classifyCpu = threads.getCurrentThreadCpuTime() - start;
+        start = threads.getCurrentThreadCpuTime();
+        long matched = regex(topics);
+        long regexCpu = threads.getCurrentThreadCpuTime() - start;
+        if(classified != matched) {
+            LOG.error("CollabFeedTopic and the regular expression disagree, " + classified + " != " + matched);
+        }
+
+        LOG.info(String.format("collab feed routing of %d keys: CollabFeedTopic %.1fns/key cpu, regular " +
+                        "expression %.1fns/key cpu, %.1fx (%d)", count, classifyCpu / (double) count,
+                regexCpu / (double) count, classifyCpu == 0 ? 0.0 : regexCpu / (double) classifyCpu, sum));
+    }
+
+    /**
+     * @return the sum of the feature messages' room ids plus the number of new room messages
+     */
+    private static long classify(String[] topics) {
+        long sum = 0;
+        for(String topic : topics) {
+            CollabFeedTopic route = CollabFeedTopic.parse(topic);
+            if(route.getType() == CollabFeedTopic.Type.FEATURE) {
+                sum += route.getCollabroomId();
+            } else if(route.getType() == CollabFeedTopic.Type.NEW_ROOM) {
+                sum++;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * The same sum, classified as CollabFeedSync did before CollabFeedTopic
+     */
+    private static long regex(String[] topics) {
+        long sum = 0;
+        for(String topic : topics) {
+            if(topic.indexOf("feature") != -1) {
+                Pattern p = Pattern.compile("collabroom.([0-9]*)");
+                Matcher m = p.matcher(topic);
+                if(m.find()) {
+                    sum += Integer.parseInt(m.group(1));
+                }
+            } else if(topic.indexOf("newcollabroom") != -1) {
+                sum++;
+            }
+        }
+        return sum;
+    }
+}
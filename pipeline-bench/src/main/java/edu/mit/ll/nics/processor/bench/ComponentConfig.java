@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.log4j.Logger;
+
+/**
+ * Points a component's properties file at the benchmark's broker and endpoints.
+ *
+ * <p>The benchmark properties hold overrides as '&lt;component&gt;.&lt;key&gt;=value'. Lines of
+ * 'config/&lt;component&gt;.properties' setting an overridden key are replaced, keys the file doesn't have are
+ * appended, and everything else, comments and line endings included, is left alone. Tokens in the values are
+ * replaced first, e.g., '@PORT@' with the embedded broker's port.</p>
+ */
+public class ComponentConfig {
+
+    private static final Logger LOG = Logger.getLogger(ComponentConfig.class);
+
+    private final File configDirectory;
+
+    private final Map<String, String> tokens = new LinkedHashMap<>();
+
+    /**
+     * @param configDirectory the directory holding the components' properties files
+     */
+    public ComponentConfig(File configDirectory) {
+        this.configDirectory = configDirectory;
+    }
+
+    /**
+     * Adds a token to replace in the override values
+     *
+     * @param token the token, e.g., @PORT@
+     * @param value what to replace it with
+     */
+    public void token(String token, String value) {
+        tokens.put(token, value);
+    }
+
+    /**
+     * Collects the overrides of a component from the benchmark properties
+     *
+     * @param properties the benchmark properties
+     * @param component  the component, the prefix of its override keys
+     * @return the overrides, keyed by the component's own property names, with the tokens replaced
+     */
+    public Map<String, String> overrides(Properties properties, String component) {
+        String prefix = component + ".";
+        Map<String, String> overrides = new LinkedHashMap<>();
+        for(String name : properties.stringPropertyNames()) {
+            if(name.startsWith(prefix)) {
+                overrides.put(name.substring(prefix.length()), resolve(properties.getProperty(name)));
+            }
+        }
+        return overrides;
+    }
+
+    /**
+     * Rewrites 'config/&lt;component&gt;.properties' with the component's overrides
+     *
+     * @param properties the benchmark properties
+     * @param component  the component
+     * @throws IOException when the file can't be read or written
+     */
+    public void apply(Properties properties, String component) throws IOException {
+        File file = new File(configDirectory, component + ".properties");
+        String original = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Files.write(file.toPath(), rewrite(original, overrides(properties, component)).getBytes(
+                StandardCharsets.UTF_8));
+        LOG.info("Pointed " + file + " at the benchmark");
+    }
+
+    /**
+     * Replaces, or appends, the overridden keys of a properties file
+     *
+     * @param original  the contents of the file
+     * @param overrides the overrides
+     * @return the new contents
+     */
+    public static String rewrite(String original, Map<String, String> overrides) {
+        String newline = original.contains("\r\n") ? "\r\n" : "\n";
+        Map<String, String> remaining = new LinkedHashMap<>(overrides);
+
+        List<String> lines = new ArrayList<>();
+        for(String line : original.split("\r?\n", -1)) {
+            String key = key(line);
+            if(key != null && overrides.containsKey(key)) {
+                // Later duplicates of the key are dropped, as Properties would ignore all but the last anyway
+                if(remaining.containsKey(key)) {
+                    lines.add(key + "=" + remaining.remove(key));
+                }
+            } else {
+                lines.add(line);
+            }
+        }
+
+        // Keep the trailing newline, if any, after the appended keys
+        boolean trailingNewline = !lines.isEmpty() && lines.get(lines.size() - 1).isEmpty();
+        if(trailingNewline) {
+            lines.remove(lines.size() - 1);
+        }
+        for(Map.Entry<String, String> entry : remaining.entrySet()) {
+            lines.add(entry.getKey() + "=" + entry.getValue());
+        }
+        if(trailingNewline) {
+            lines.add("");
+        }
+        return String.join(newline, lines);
+    }
+
+    private static String key(String line) {
+        String trimmed = line.trim();
+        if(trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("!")) {
+            return null;
+        }
+        int end = 0;
+        while(end < trimmed.length() && "=: \t".indexOf(trimmed.charAt(end)) < 0) {
+            end++;
+        }
+        return trimmed.substring(0, end);
+    }
+
+    /**
+     * Replaces the tokens in a value, in the order they were added
+     *
+     * @param value the value
+     * @return the value with the tokens replaced
+     */
+    public String resolve(String value) {
+        for(Map.Entry<String, String> token : tokens.entrySet()) {
+            value = value.replace(token.getKey(), token.getValue());
+        }
+        return value;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.apache.qpid.server.SystemLauncher;
+import org.apache.qpid.server.model.Broker;
+import org.apache.qpid.server.model.Queue;
+import org.apache.qpid.server.model.VirtualHost;
+import org.apache.qpid.server.model.VirtualHostNode;
+
+/**
+ * An in-memory Qpid Broker-J, speaking AMQP 0-9-1, standing in for RabbitMQ.
+ *
+ * <p>Has a single virtual host, and a guest/guest user, so the components' rabbitmq endpoints only need their
+ * address pointed at it. Nothing is persisted, the broker's work directory is removed on {@link #stop}.</p>
+ */
+public class EmbeddedBroker {
+
+    private static final Logger LOG = Logger.getLogger(EmbeddedBroker.class);
+
+    private static final String INITIAL_CONFIGURATION = "/embedded-broker.json";
+
+    private final SystemLauncher launcher = new SystemLauncher();
+
+    private int port;
+    private File workDirectory;
+
+    /**
+     * @param port the AMQP port, 0 for any free port
+     */
+    public EmbeddedBroker(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts the broker
+     *
+     * @throws Exception when the broker fails to start
+     */
+    public void start() throws Exception {
+        if(port == 0) {
+            port = freePort();
+        }
+        workDirectory = Files.createTempDirectory("embedded-broker").toFile();
+
+        URL configuration = EmbeddedBroker.class.getResource(INITIAL_CONFIGURATION);
+        if(configuration == null) {
+            throw new IllegalStateException("No " + INITIAL_CONFIGURATION + " on the classpath");
+        }
+
+        Map<String, String> context = new HashMap<>();
+        context.put("qpid.amqp_port", String.valueOf(port));
+        context.put("qpid.work_dir", workDirectory.getAbsolutePath());
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation", configuration.toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", context);
+
+        launcher.startup(attributes);
+        LOG.info("Embedded AMQP broker listening on port " + port);
+    }
+
+    /**
+     * Stops the broker and removes its work directory
+     */
+    public void stop() {
+        launcher.shutdown();
+        if(workDirectory != null) {
+            delete(workDirectory);
+        }
+        LOG.info("Embedded AMQP broker stopped");
+    }
+
+    /**
+     * @return the AMQP port the broker listens on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the number of messages removed from a queue, which for a consumer that doesn't auto ack is the number it
+     * has acknowledged
+     *
+     * @param queue the name of the queue
+     * @return the messages dequeued so far, 0 if the queue hasn't been declared
+     */
+    public long getDequeuedMessages(String queue) {
+        Broker<?> broker = launcher.getSystemConfig().getContainer(Broker.class);
+        for(VirtualHostNode<?> node : broker.getVirtualHostNodes()) {
+            VirtualHost<?> virtualHost = node.getVirtualHost();
+            Queue<?> found = virtualHost == null ? null : virtualHost.getChildByName(Queue.class, queue);
+            if(found != null) {
+                return found.getTotalDequeuedMessages();
+            }
+        }
+        return 0;
+    }
+
+    static int freePort() throws IOException {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        if(!file.delete()) {
+            LOG.warn("Couldn't remove " + file);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import edu.mit.ll.nics.processor.execution.DownstreamLimiter;
+import edu.mit.ll.nics.processor.execution.ExecutionMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Compares processor-execution's thread models on messages that block on their downstream, e.g., an SMTP send or
+ * em-api call: a fixed pool of platform threads, and a virtual thread per message, each bounded by a
+ * {@link DownstreamLimiter} of the same limit, so only the thread model differs.
+ *
+ * <p>Run in the bench directory with
+ * 'mvn package exec:exec -Dbench.main=edu.mit.ll.nics.processor.bench.ExecutionModeBenchmark'. The number of
+ * messages per run and the milliseconds each blocks for can be given as the first and second arguments. The virtual
+ * runs need Java 21 or later, and are skipped otherwise.</p>
+ */
+public class ExecutionModeBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(ExecutionModeBenchmark.class);
+
+    /**
+     * Concurrency limits compared, each the platform pool's size and both limiters' permits
+     */
+    private static final int[] LIMITS = {10, 50};
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long blockMillis = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        boolean virtual = ExecutionMode.virtualThreadsAvailable();
+        if(!virtual) {
+            LOG.info("Virtual threads aren't available on Java " + System.getProperty("java.version")
+                    + ", only running the platform thread pools");
+        }
+
+        // Warm up, then measure
+        run(ExecutionMode.PLATFORM, LIMITS[0], messages, blockMillis);
+        for(int limit : LIMITS) {
+            double platform = run(ExecutionMode.PLATFORM, limit, messages, blockMillis);
+            if(virtual) {
+                double virtualRate = run(ExecutionMode.VIRTUAL, limit, messages, blockMillis);
+                LOG.info(String.format("%d messages blocking %dms, limit %d: platform %.0f msg/s, virtual " +
+                        "%.0f msg/s", messages, blockMillis, limit, platform, virtualRate));
+            } else {
+                LOG.info(String.format("%d messages blocking %dms, limit %d: platform %.0f msg/s", messages,
+                        blockMillis, limit, platform));
+            }
+        }
+    }
+
+    /**
+     * @return messages per second
+     */
+    private static double run(ExecutionMode mode, int limit, int messages, long blockMillis) throws Exception {
+        DownstreamLimiter limiter = new DownstreamLimiter(mode.name().toLowerCase(), limit);
+        ExecutorService executor = mode.newExecutor("bench-" + mode.name().toLowerCase(), limit);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(messages);
+            long start = System.nanoTime();
+            for(int i = 0; i < messages; i++) {
+                results.add(executor.submit(() -> limiter.call(() -> {
+                    Thread.sleep(blockMillis);
+                    return null;
+                })));
+            }
+            for(Future<Void> result : results) {
+                result.get(10, TimeUnit.MINUTES);
+            }
+            return messages / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
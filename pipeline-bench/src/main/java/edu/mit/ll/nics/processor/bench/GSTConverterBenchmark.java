@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import edu.mit.ll.nics.processor.gst2gml.GSTToGMLConverter;
+import edu.mit.ll.nics.processor.gst2gml.GSTTransformProcessor;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.log4j.Logger;
+
+/**
+ * Compares the cpu time gst2gml's {@link GSTToGMLConverter} and its air stylesheet take to convert the same
+ * {@link SyntheticTraffic} GST messages.
+ *
+ * <p>Run in the bench directory, where 'config' holds gst2gml's stylesheets, with
+ * 'mvn package exec:exec -Dbench.main=edu.mit.ll.nics.processor.bench.GSTConverterBenchmark'. The number of
+ * messages per run can be given as the first argument.</p>
+ */
+public class GSTConverterBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(GSTConverterBenchmark.class);
+
+    private static final String AIR_STYLESHEET = "config/gst2gml-air.xslt";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!threads.isCurrentThreadCpuTimeSupported()) {
+            LOG.error("Thread cpu time isn't supported by this JVM, not benchmarking");
+            return;
+        }
+
+        GSTToGMLConverter converter = new GSTToGMLConverter("avlxriair", "Aircraft", true);
+        converter.setMetricsLogInterval(0);
+        converter.init();
+
+        GSTTransformProcessor xslt = new GSTTransformProcessor();
+        xslt.setStylesheet(AIR_STYLESHEET);
+        xslt.setMetricsLogInterval(0);
+        xslt.init();
+
+        SyntheticTraffic traffic = new SyntheticTraffic(1000);
+        byte[][] messages = new byte[count][];
+        for(int i = 0; i < count; i++) {
+            messages[i] = traffic.gst(traffic.nextSequence(), true).getBytes(StandardCharsets.UTF_8);
+        }
+
+        CamelContext context = new DefaultCamelContext();
+
+        // Warm up both, then measure
+        cpu(threads, context, converter, messages);
+        cpu(threads, context, xslt, messages);
+        long nativeCpu = cpu(threads, context, converter, messages);
+        long xsltCpu = cpu(threads, context, xslt, messages);
+
+        LOG.info(String.format("gst2gml conversion of %d messages: native %.1fus/message cpu, stylesheet " +
+                        "%.1fus/message cpu, %.1fx", count, nativeCpu / 1000.0 / count, xsltCpu / 1000.0 / count,
+                nativeCpu == 0 ? 0.0 : xsltCpu / (double) nativeCpu));
+    }
+
+    private static long cpu(ThreadMXBean threads, CamelContext context, Processor processor, byte[][] messages)
+            throws Exception {
+        long start = threads.getCurrentThreadCpuTime();
+        for(byte[] message : messages) {
+            Exchange exchange = new DefaultExchange(context);
+            exchange.getIn().setBody(message);
+            processor.process(exchange);
+        }
+        return threads.getCurrentThreadCpuTime() - start;
+    }
+}
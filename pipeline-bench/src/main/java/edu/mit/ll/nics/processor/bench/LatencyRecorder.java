@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+/**
+ * Records the end to end latency of synthetic tracks, from when they're sent to when their GML arrives.
+ *
+ * <p>Each synthetic track carries a sequence number, as {@link #token}, in a field the components copy into the
+ * GML description. The recorder is the processor of a route on the GML topic, and matches every token in each
+ * message, so batched FeatureCollections are counted per feature.</p>
+ */
+public class LatencyRecorder implements Processor {
+
+    private static final Pattern TOKEN = Pattern.compile("benchseq-(\\d+)");
+
+    private final ConcurrentHashMap<Long, Long> sent = new ConcurrentHashMap<>();
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+
+    private long[] latencies = new long[1024];
+    private int count = 0;
+    private long firstSentNanos = Long.MAX_VALUE;
+    private long lastReceivedNanos = 0;
+
+    /**
+     * @param sequence the sequence number of a track
+     * @return the token identifying the track in its GML
+     */
+    public static String token(long sequence) {
+        return "benchseq-" + sequence;
+    }
+
+    /**
+     * Records a track as sent now
+     *
+     * @param sequence the sequence number of the track
+     */
+    public void sent(long sequence) {
+        long now = System.nanoTime();
+        sent.put(sequence, now);
+        synchronized(this) {
+            firstSentNanos = Math.min(firstSentNanos, now);
+        }
+    }
+
+    @Override
+    public void process(Exchange exchange) {
+        long now = System.nanoTime();
+        messages.incrementAndGet();
+
+        String body = exchange.getIn().getBody(String.class);
+        if(body == null) {
+            return;
+        }
+        Matcher matcher = TOKEN.matcher(body);
+        while(matcher.find()) {
+            Long sentNanos = sent.remove(Long.parseLong(matcher.group(1)));
+            if(sentNanos == null) {
+                unmatched.incrementAndGet();
+            } else {
+                record(now, now - sentNanos);
+            }
+        }
+    }
+
+    private synchronized void record(long now, long latency) {
+        if(count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latency;
+        lastReceivedNanos = Math.max(lastReceivedNanos, now);
+        notifyAll();
+    }
+
+    /**
+     * Waits for a number of tracks to have arrived
+     *
+     * @param expected      the number of tracks
+     * @param timeoutMillis the longest to wait
+     * @return whether they all arrived
+     * @throws InterruptedException when interrupted
+     */
+    public synchronized boolean await(long expected, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(count < expected) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Clears the recorded tracks, for the next stage
+     */
+    public synchronized void reset() {
+        sent.clear();
+        messages.set(0);
+        unmatched.set(0);
+        count = 0;
+        firstSentNanos = Long.MAX_VALUE;
+        lastReceivedNanos = 0;
+    }
+
+    /**
+     * @return the number of GML messages received
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * @return the number of tracks received
+     */
+    public synchronized int getTrackCount() {
+        return count;
+    }
+
+    /**
+     * @return the time the last track was received, from System.nanoTime
+     */
+    public synchronized long getLastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    /**
+     * Summarizes the tracks received so far
+     *
+     * @param stage the name of the stage
+     * @return throughput and latency percentiles
+     */
+    public synchronized String report(String stage) {
+        if(count == 0) {
+            return stage + ": no tracks received, " + sent.size() + " outstanding";
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        double seconds = (lastReceivedNanos - firstSentNanos) / 1e9;
+        return String.format("%s: %d tracks in %d GML messages over %.2fs, %.0f tracks/s, latency ms p50=%.1f "
+                        + "p95=%.1f p99=%.1f max=%.1f, %d outstanding, %d unmatched", stage, count, messages.get(),
+                seconds, count / seconds, millis(sorted, 0.50), millis(sorted, 0.95), millis(sorted, 0.99),
+                TimeUnit.NANOSECONDS.toMicros(sorted[count - 1]) / 1000.0, sent.size(), unmatched.get());
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]) / 1000.0;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.log4j.Logger;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+/**
+ * Runs the feed components end to end against an {@link EmbeddedBroker}, with {@link SyntheticTraffic}, and reports
+ * throughput and latency per stage.
+ *
+ * <p>The components are loaded from their own Spring configs in 'config/spring', with their properties files pointed
+ * at the embedded broker by {@link ComponentConfig}, so what's measured is the routes, processors and consumer
+ * profiles as deployed. A sink route on the GML routing key records when each track arrives with a
+ * {@link LatencyRecorder}. The stages, each enabled in 'pipeline-bench.properties':</p>
+ * <ul>
+ *     <li>xri: GST published to gst2gml's air and ground keys, measured to the GML key</li>
+ *     <li>json: json-pli-consumer polling a synthetic OCFA source served over HTTP, measured to the GML key</li>
+ *     <li>gml: GML published to geodatafeed-consumer, measured to the last message it has acknowledged, which it
+ *     does once the message has been persisted or rejected</li>
+ * </ul>
+ *
+ * <p>Run in a directory with the components' configs under 'config', which 'mvn package exec:exec' sets up. The
+ * properties can be overridden with -D&lt;name&gt;=&lt;value&gt;, or in a properties file given as the first
+ * argument.</p>
+ */
+public class PipelineBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(PipelineBenchmark.class);
+
+    private static final String PROPERTIES = "/pipeline-bench.properties";
+
+    private static final String GST2GML = "gst2gml";
+    private static final String JSON_PLI_CONSUMER = "json-pli-consumer";
+    private static final String GEODATAFEED_CONSUMER = "geodatafeed-consumer";
+
+    private static final String AIR_ROUTING_KEY = "extFeeds.pli.xri.gst.air";
+    private static final String GROUND_ROUTING_KEY = "extFeeds.pli.xri.gst.ground";
+
+    private final Properties properties;
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    private final List<ConfigurableApplicationContext> components = new ArrayList<>();
+
+    private final List<String> reports = new ArrayList<>();
+
+    private EmbeddedBroker broker;
+    private HttpServer pliSource;
+    private CamelContext sink;
+    private ProducerTemplate template;
+
+    private String publishEndpoint;
+
+    /**
+     * GML messages published on the GML key so far, which geodatafeed-consumer has to get through
+     */
+    private long gmlMessages = 0;
+
+    public PipelineBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        try(InputStream in = PipelineBenchmark.class.getResourceAsStream(PROPERTIES)) {
+            properties.load(in);
+        }
+        if(args.length > 0) {
+            try(InputStream in = new FileInputStream(args[0])) {
+                properties.load(in);
+            }
+        }
+        for(String name : System.getProperties().stringPropertyNames()) {
+            if(name.startsWith("bench.") || name.startsWith(GST2GML + ".")
+                    || name.startsWith(JSON_PLI_CONSUMER + ".") || name.startsWith(GEODATAFEED_CONSUMER + ".")) {
+                properties.setProperty(name, System.getProperty(name));
+            }
+        }
+
+        PipelineBenchmark benchmark = new PipelineBenchmark(properties);
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.stop();
+        }
+        for(String report : benchmark.reports) {
+            System.out.println(report);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts the broker, source and sink, and runs each enabled stage in turn
+     *
+     * @throws Exception when something fails to start
+     */
+    public void run() throws Exception {
+        broker = new EmbeddedBroker(intProperty("bench.broker.port"));
+        broker.start();
+        startPliSource();
+
+        ComponentConfig config = new ComponentConfig(new File("config"));
+        config.token("@CONSUME@", properties.getProperty("bench.consume"));
+        config.token("@PUBLISH@", properties.getProperty("bench.publish"));
+        config.token("@PORT@", String.valueOf(broker.getPort()));
+        config.token("@HTTP_PORT@", String.valueOf(pliSource.getAddress().getPort()));
+        config.token("@GEODATAFEED_QUEUE@", properties.getProperty("bench.geodatafeed.queue"));
+        config.apply(properties, GST2GML);
+        config.apply(properties, JSON_PLI_CONSUMER);
+        config.apply(properties, GEODATAFEED_CONSUMER);
+
+        String consumeEndpoint = config.resolve("@CONSUME@");
+        publishEndpoint = config.resolve("@PUBLISH@");
+        startSink(consumeEndpoint + "&queue=bench.sink&routingKey=" + properties.getProperty("bench.gmlRoutingKey"));
+
+        boolean geodatafeed = booleanProperty("bench.geodatafeed.enabled");
+        if(geodatafeed) {
+            // Started first, so its queue is bound before any GML is published
+            components.add(load(GEODATAFEED_CONSUMER));
+        }
+        if(booleanProperty("bench.xri.enabled")) {
+            runXriStage();
+        }
+        if(booleanProperty("bench.json.enabled")) {
+            runJsonStage();
+        }
+        if(geodatafeed) {
+            runGmlStage();
+        }
+    }
+
+    /**
+     * Stops everything that was started, components first
+     */
+    public void stop() {
+        for(int i = components.size() - 1; i >= 0; i--) {
+            try {
+                components.get(i).close();
+            } catch(Exception e) {
+                LOG.error("Failed to close a component", e);
+            }
+        }
+        components.clear();
+        try {
+            if(template != null) {
+                template.stop();
+            }
+            if(sink != null) {
+                sink.stop();
+            }
+        } catch(Exception e) {
+            LOG.error("Failed to stop the sink", e);
+        }
+        if(pliSource != null) {
+            pliSource.stop(0);
+        }
+        if(broker != null) {
+            broker.stop();
+        }
+    }
+
+    private void runXriStage() throws Exception {
+        components.add(load(GST2GML));
+
+        int messages = intProperty("bench.xri.messages");
+        int rate = intProperty("bench.xri.ratePerSecond");
+        SyntheticTraffic traffic = new SyntheticTraffic(intProperty("bench.xri.vehicles"));
+        String air = publishEndpoint + "&routingKey=" + AIR_ROUTING_KEY;
+        String ground = publishEndpoint + "&routingKey=" + GROUND_ROUTING_KEY;
+
+        recorder.reset();
+        long start = System.nanoTime();
+        for(int i = 0; i < messages; i++) {
+            if(rate > 0) {
+                pace(start + TimeUnit.SECONDS.toNanos(i) / rate);
+            }
+            long seq = traffic.nextSequence();
+            boolean aircraft = seq % 2 == 0;
+            String gst = traffic.gst(seq, aircraft);
+            recorder.sent(seq);
+            template.sendBody(aircraft ? air : ground, gst);
+        }
+        double publishSeconds = (System.nanoTime() - start) / 1e9;
+        reports.add(String.format("xri: published %d GST messages in %.2fs, %.0f msg/s", messages, publishSeconds,
+                messages / publishSeconds));
+
+        awaitStage("xri", messages);
+    }
+
+    private void runJsonStage() throws Exception {
+        recorder.reset();
+        components.add(load(JSON_PLI_CONSUMER));
+        awaitStage("json", (long) intProperty("bench.json.vehicles") * intProperty("bench.json.polls"));
+    }
+
+    private void runGmlStage() throws Exception {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(intProperty("bench.timeoutSeconds"));
+        if(!awaitPersisted(gmlMessages, timeoutMillis)) {
+            reports.add("gml: geodatafeed-consumer didn't get through the earlier stages' GML, skipped");
+            return;
+        }
+
+        int messages = intProperty("bench.gml.messages");
+        SyntheticTraffic traffic = new SyntheticTraffic(intProperty("bench.xri.vehicles"));
+        String destination = publishEndpoint + "&routingKey=" + properties.getProperty("bench.gmlRoutingKey");
+        long persisted = gmlMessages;
+
+        recorder.reset();
+        long start = System.nanoTime();
+        for(int i = 0; i < messages; i++) {
+            long seq = traffic.nextSequence();
+            String gml = traffic.gml(seq);
+            recorder.sent(seq);
+            template.sendBody(destination, gml);
+        }
+        awaitStage("gml", messages);
+
+        boolean drained = awaitPersisted(persisted + messages, timeoutMillis);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long finished = persisted();
+        reports.add(String.format("gml: geodatafeed-consumer got through %d of %d GML messages in %.2fs, %.0f msg/s%s",
+                finished - persisted, messages, seconds, (finished - persisted) / seconds,
+                drained ? "" : ", timed out"));
+    }
+
+    private void awaitStage(String stage, long tracks) throws InterruptedException {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(intProperty("bench.timeoutSeconds"));
+        if(!recorder.await(tracks, timeoutMillis)) {
+            LOG.warn(stage + " stage timed out after " + timeoutMillis + "ms with " + recorder.getTrackCount() + " of "
+                    + tracks + " tracks received");
+        }
+        reports.add(recorder.report(stage));
+        LOG.info(recorder.report(stage));
+        gmlMessages += recorder.getMessageCount();
+    }
+
+    /**
+     * @return the GML messages geodatafeed-consumer has acknowledged on its queue
+     */
+    private long persisted() {
+        return broker.getDequeuedMessages(properties.getProperty("bench.geodatafeed.queue"));
+    }
+
+    private boolean awaitPersisted(long messages, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(persisted() < messages) {
+            if(System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void pace(long nanos) throws InterruptedException {
+        long wait = nanos - System.nanoTime();
+        if(wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Serves bench.json.polls polls of fresh OCFA tracks, and an empty array after that
+     */
+    private void startPliSource() throws IOException {
+        SyntheticTraffic traffic = new SyntheticTraffic(intProperty("bench.json.vehicles"));
+        int polls = intProperty("bench.json.polls");
+        AtomicInteger served = new AtomicInteger();
+
+        pliSource = HttpServer.create(new InetSocketAddress("localhost", intProperty("bench.http.port")), 0);
+        pliSource.createContext("/pli", exchange -> {
+            String json = served.getAndIncrement() < polls ? traffic.ocfaJson(recorder) : "[]";
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        pliSource.start();
+    }
+
+    private void startSink(final String endpoint) throws Exception {
+        sink = new DefaultCamelContext();
+        sink.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from(endpoint).routeId("benchSink").process(recorder);
+            }
+        });
+        sink.start();
+        template = sink.createProducerTemplate();
+    }
+
+    private static ConfigurableApplicationContext load(String component) {
+        LOG.info("Starting " + component);
+        return new FileSystemXmlApplicationContext("config/spring/" + component + ".xml");
+    }
+
+    private int intProperty(String name) {
+        return Integer.parseInt(properties.getProperty(name).trim());
+    }
+
+    private boolean booleanProperty(String name) {
+        return Boolean.parseBoolean(properties.getProperty(name).trim());
+    }
+}
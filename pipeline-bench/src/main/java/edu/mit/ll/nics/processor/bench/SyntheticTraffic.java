@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.bench;
+
+import edu.mit.ll.nics.processor.gst2gml.GSTToGMLConverter;
+import java.io.StringReader;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Generates synthetic XRI, JSON and GML tracks, each carrying a {@link LatencyRecorder#token} for its sequence
+ * number.
+ *
+ * <p>Vehicles move along a short line from a fixed origin, and each track is stamped with the current time, so
+ * consecutive tracks of a vehicle are never identical and aren't skipped as unchanged, or too old, downstream.</p>
+ */
+public class SyntheticTraffic {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss",
+            Locale.US);
+
+    private static final double ORIGIN_LATITUDE = 33.454267;
+    private static final double ORIGIN_LONGITUDE = -117.084382;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final GSTToGMLConverter gmlConverter = new GSTToGMLConverter("avlxriair", "Aircraft", true);
+
+    private final int vehicles;
+
+    /**
+     * @param vehicles the number of distinct vehicles tracks cycle through
+     */
+    public SyntheticTraffic(int vehicles) {
+        this.vehicles = Math.max(1, vehicles);
+        gmlConverter.init();
+    }
+
+    /**
+     * @return the sequence number of the next track
+     */
+    public long nextSequence() {
+        return sequence.getAndIncrement();
+    }
+
+    /**
+     * Writes a GST message, from an aircraft (UnitID H&lt;n&gt;) or a ground vehicle (UnitID E&lt;n&gt;), carrying
+     * the token in its Group
+     *
+     * @param seq      the sequence number of the track
+     * @param aircraft whether the unit is an aircraft
+     * @return the GST XML
+     */
+    public String gst(long seq, boolean aircraft) {
+        int vehicle = vehicle(seq);
+        return "<GSTTracker Type=\"GST Open Interface\" Format=\"6\">\n"
+                + "\t<Identity GSTID=\"" + vehicle + "\" UnitID=\"" + (aircraft ? "H" : "E") + vehicle
+                + "\" Group=\"" + LatencyRecorder.token(seq) + ";\" SubGroup=\"Bench\" Symbol=\"41\" />\n"
+                + "\t<Spatial_Info Latitude=\"" + latitude(seq) + "\" Longitude=\"" + longitude(seq)
+                + "\" Speed=\"" + (seq % 120) + "\" Course=\"" + (seq % 360) + "\" dateTimeUTC=\"" + now() + "\" />\n"
+                + "</GSTTracker>";
+    }
+
+    /**
+     * Writes a GML FeatureCollection, as gst2gml would, for an aircraft track
+     *
+     * @param seq the sequence number of the track
+     * @return the GML
+     * @throws XMLStreamException never, the GST is well formed
+     */
+    public String gml(long seq) throws XMLStreamException {
+        return gmlConverter.toGML(GSTToGMLConverter.parse(new StringReader(gst(seq, true))));
+    }
+
+    /**
+     * Writes an OCFA style JSON array with one track per vehicle, for json-pli-consumer's OCFAProcessor
+     *
+     * @param recorder records each track as sent, may be null
+     * @return the JSON
+     */
+    public String ocfaJson(LatencyRecorder recorder) {
+        String timestamp = now();
+        StringBuilder json = new StringBuilder(vehicles * 256).append('[');
+        for(int i = 0; i < vehicles; i++) {
+            long seq = nextSequence();
+            if(i > 0) {
+                json.append(',');
+            }
+            json.append("{\"FleetId\":\"B").append(i)
+                    .append("\",\"Description\":\"").append(LatencyRecorder.token(seq))
+                    .append("\",\"LastUpdatedDateTimeAsString\":\"").append(timestamp)
+                    .append("\",\"Latitude\":").append(latitude(seq))
+                    .append(",\"Longitude\":").append(longitude(seq))
+                    .append(",\"Heading\":").append(seq % 360)
+                    .append(",\"Speed\":").append(seq % 80)
+                    .append(",\"Battalion\":\"1\",\"CallNumber\":\"\",\"Division\":\"\",\"Station\":\"\"")
+                    .append(",\"Status\":\"Bench\",\"UnitId\":\"B").append(i).append("\"}");
+            if(recorder != null) {
+                recorder.sent(seq);
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    private int vehicle(long seq) {
+        return (int) (seq % vehicles);
+    }
+
+    private static String latitude(long seq) {
+        return String.format(Locale.US, "%.6f", ORIGIN_LATITUDE + (seq % 1000) * 0.0001);
+    }
+
+    private static String longitude(long seq) {
+        return String.format(Locale.US, "%.6f", ORIGIN_LONGITUDE + (seq % 1000) * 0.0001);
+    }
+
+    private static String now() {
+        return TIMESTAMP.format(ZonedDateTime.now(ZoneOffset.UTC));
+    }
+}
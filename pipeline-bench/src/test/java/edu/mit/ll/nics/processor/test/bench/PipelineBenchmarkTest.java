@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.bench;
+
+import edu.mit.ll.nics.processor.bench.ComponentConfig;
+import edu.mit.ll.nics.processor.bench.LatencyRecorder;
+import edu.mit.ll.nics.processor.bench.SyntheticTraffic;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests the pieces of the pipeline benchmark that don't need a broker
+ */
+public class PipelineBenchmarkTest {
+
+    @Test(testName = "TestComponentConfigRewrite")
+    public void testComponentConfigRewrite() {
+        ComponentConfig config = new ComponentConfig(new File("config"));
+        config.token("@PUBLISH@", "rabbitmq:nics.bench?addresses=localhost:@PORT@");
+        config.token("@PORT@", "5673");
+
+        Properties properties = new Properties();
+        properties.setProperty("gst2gml.geodatafeed", "@PUBLISH@&routingKey=gml");
+        properties.setProperty("gst2gml.added", "value");
+        properties.setProperty("other.geodatafeed", "ignored");
+        Map<String, String> overrides = config.overrides(properties, "gst2gml");
+        Assert.assertEquals(overrides.get("geodatafeed"), "rabbitmq:nics.bench?addresses=localhost:5673&routingKey=gml");
+        Assert.assertEquals(overrides.size(), 2);
+
+        String original = "# comment\r\ngeodatafeed=rabbitmq://localhost:5672\r\nkept = 1\r\ngeodatafeed = duplicate\r\n";
+        Map<String, String> ordered = new LinkedHashMap<>();
+        ordered.put("geodatafeed", "bench");
+        ordered.put("added", "value");
+        Assert.assertEquals(ComponentConfig.rewrite(original, ordered),
+                "# comment\r\ngeodatafeed=bench\r\nkept = 1\r\nadded=value\r\n");
+    }
+
+    @Test(testName = "TestLatencyRecorder")
+    public void testLatencyRecorder() throws Exception {
+        SyntheticTraffic traffic = new SyntheticTraffic(10);
+        LatencyRecorder recorder = new LatencyRecorder();
+
+        StringBuilder batch = new StringBuilder();
+        for(int i = 0; i < 3; i++) {
+            long seq = traffic.nextSequence();
+            recorder.sent(seq);
+            batch.append(traffic.gml(seq));
+        }
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getIn().setBody(batch.toString());
+        recorder.process(exchange);
+
+        Assert.assertTrue(recorder.await(3, 1000));
+        Assert.assertEquals(recorder.getMessageCount(), 1);
+        Assert.assertTrue(recorder.report("test").startsWith("test: 3 tracks in 1 GML messages"),
+                recorder.report("test"));
+
+        // A track that was never sent, or arrives twice, isn't counted
+        recorder.process(exchange);
+        Assert.assertEquals(recorder.getTrackCount(), 3);
+        Assert.assertTrue(recorder.report("test").endsWith("0 outstanding, 3 unmatched"), recorder.report("test"));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.execution;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Bounds the number of concurrent calls to one downstream system, e.g., the database, the SMTP server, em-api or
+ * GeoServer.
+ *
+ * <p>With route processing on virtual threads, the number of messages in flight is no longer capped by a pool
+ * size, so each blocking call to a downstream goes through its limiter. Callers beyond maxConcurrent wait up to
+ * acquireTimeoutMillis for a permit, and are then rejected, rather than piling up on a downstream that can't keep
+ * up. Whether a rejected message is redelivered depends on where the limiter runs, see {@link LimitedProcessor}.
+ * The limiter works the same way on platform threads, where it's a no-op as long as maxConcurrent is at least the
+ * pool size.</p>
+ */
+public class DownstreamLimiter {
+
+    private static final Logger LOG = Logger.getLogger(DownstreamLimiter.class);
+
+    private Semaphore permits;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger maxInUse = new AtomicInteger();
+
+    // Properties
+
+    /**
+     * Name of the downstream, used in logging
+     */
+    private String name = "downstream";
+
+    /**
+     * Maximum number of concurrent calls. Default: 10
+     */
+    private int maxConcurrent = 10;
+
+    /**
+     * Milliseconds a call waits for a permit before it's rejected, 0 to wait indefinitely. Default: 30000
+     */
+    private long acquireTimeoutMillis = 30000;
+
+    /**
+     * Log the limiter's metrics every this many calls, 0 to disable. Default: 0
+     */
+    private int metricsLogInterval = 0;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public DownstreamLimiter() {
+    }
+
+    /**
+     * @param name name of the downstream
+     * @param maxConcurrent maximum number of concurrent calls
+     */
+    public DownstreamLimiter(String name, int maxConcurrent) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        init();
+    }
+
+    /**
+     * Creates the permits. Called by Spring once properties have been set
+     *
+     * @throws IllegalArgumentException when maxConcurrent isn't positive
+     */
+    public void init() {
+        if(maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent for " + name + " must be at least 1");
+        }
+        permits = new Semaphore(maxConcurrent, true);
+        LOG.info("Limiting " + name + " to " + maxConcurrent + " concurrent calls");
+    }
+
+    /**
+     * Runs the call once a permit is available
+     *
+     * @param call the blocking call to the downstream
+     * @param <T> result type of the call
+     * @return the call's result
+     * @throws RejectedExecutionException when no permit became available within acquireTimeoutMillis
+     * @throws InterruptedException when interrupted waiting for a permit
+     * @throws Exception thrown by the call
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        acquire();
+        try {
+            return call.call();
+        } finally {
+            release();
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        long count = calls.incrementAndGet();
+        if(!permits.tryAcquire()) {
+            waited.incrementAndGet();
+            long start = System.nanoTime();
+            boolean acquired;
+            if(acquireTimeoutMillis > 0) {
+                acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                permits.acquire();
+                acquired = true;
+            }
+            waitNanos.addAndGet(System.nanoTime() - start);
+            if(!acquired) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("No " + name + " permit available within "
+                        + acquireTimeoutMillis + "ms, " + maxConcurrent + " calls in progress");
+            }
+        }
+        int current = inUse.incrementAndGet();
+        int max;
+        while(current > (max = maxInUse.get()) && !maxInUse.compareAndSet(max, current)) {
+            // Retry until the maximum is at least current
+        }
+        if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+            LOG.info(summarize());
+        }
+    }
+
+    private void release() {
+        inUse.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * @return one line with the limiter's metrics, for logging
+     */
+    public String summarize() {
+        long waits = waited.get();
+        return name + " limiter: calls=" + calls.get() + ", inUse=" + inUse.get() + ", maxInUse=" + maxInUse.get()
+                + "/" + maxConcurrent + ", waited=" + waits + ", rejected=" + rejected.get() + ", avgWaitMs="
+                + (waits == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.get() / waits));
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getWaited() {
+        return waited.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getMaxInUse() {
+        return maxInUse.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(int metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
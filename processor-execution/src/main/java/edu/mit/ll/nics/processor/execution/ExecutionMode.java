@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.execution;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * How route processing threads are created.
+ *
+ * <p>PLATFORM is the current thread model, a bounded pool of platform threads per consumer, seda queue or
+ * threads() block. VIRTUAL creates a virtual thread per task, so a processor blocked on REST, SMTP or JDBC doesn't
+ * hold a platform thread, and concurrency towards each downstream is bounded by a {@link DownstreamLimiter} rather
+ * than by pool sizes. The processors are built for Java 8, so virtual threads are looked up reflectively, and on a
+ * runtime without them (before Java 21) VIRTUAL falls back to PLATFORM with a warning.</p>
+ */
+public enum ExecutionMode {
+
+    PLATFORM,
+    VIRTUAL;
+
+    private static final Logger LOG = Logger.getLogger(ExecutionMode.class);
+
+    /**
+     * Parses a mode name, case insensitive
+     *
+     * @param name platform or virtual, null or empty for platform
+     * @return the mode
+     * @throws IllegalArgumentException when the name isn't a mode
+     */
+    public static ExecutionMode parse(String name) {
+        if(name == null || name.trim().isEmpty()) {
+            return PLATFORM;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown execution mode '" + name + "', expected platform or virtual");
+        }
+    }
+
+    /**
+     * The mode actually used on this runtime, PLATFORM when VIRTUAL is requested but virtual threads aren't
+     * available
+     *
+     * @return the effective mode
+     */
+    public ExecutionMode effective() {
+        if(this == VIRTUAL && !virtualThreadsAvailable()) {
+            LOG.warn("Virtual threads aren't available on Java " + System.getProperty("java.version")
+                    + ", using platform threads");
+            return PLATFORM;
+        }
+        return this;
+    }
+
+    /**
+     * Creates an executor for blocking tasks
+     *
+     * @param name prefix of the thread names
+     * @param platformThreads size of the fixed pool in PLATFORM mode, ignored in VIRTUAL mode
+     * @return a virtual thread per task executor in VIRTUAL mode, a fixed pool otherwise
+     */
+    public ExecutorService newExecutor(String name, int platformThreads) {
+        if(effective() == VIRTUAL) {
+            return newVirtualThreadPerTaskExecutor(name);
+        }
+        return Executors.newFixedThreadPool(platformThreads, new NamedThreadFactory(name));
+    }
+
+    /**
+     * @return true when the runtime has Thread.ofVirtual() and it isn't a preview feature that's disabled
+     */
+    public static boolean virtualThreadsAvailable() {
+        return VirtualThreads.FACTORY_BUILDER != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task
+     *
+     * @param name prefix of the thread names
+     * @return the executor
+     * @throws UnsupportedOperationException when virtual threads aren't available
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        if(!virtualThreadsAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads aren't available on Java "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            builder = VirtualThreads.NAME.invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) VirtualThreads.FACTORY_BUILDER.invoke(builder);
+            return (ExecutorService) VirtualThreads.PER_TASK.invoke(null, factory);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * The reflective handles on the virtual thread API, all null when it isn't available
+     */
+    private static final class VirtualThreads {
+
+        static final Method OF_VIRTUAL;
+        static final Method NAME;
+        static final Method FACTORY_BUILDER;
+        static final Method PER_TASK;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method factory = null;
+            Method perTask = null;
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                // Throws on Java 19 and 20 unless --enable-preview is set
+                factory.invoke(ofVirtual.invoke(null));
+            } catch(ReflectiveOperationException | RuntimeException | LinkageError e) {
+                factory = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY_BUILDER = factory;
+            PER_TASK = perTask;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.execution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.camel.spi.ThreadPoolFactory;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.log4j.Logger;
+
+/**
+ * Camel thread pool factory that creates route processing threads according to an {@link ExecutionMode}.
+ *
+ * <p>Declared as a bean in a component's Spring XML, the camelContext picks it up and uses it for every thread
+ * pool Camel creates: the rabbitmq consumer executors, seda consumers, threads() blocks and aggregators. In
+ * 'platform' mode the pools are the same as Camel's own. In 'virtual' mode each pool becomes a virtual thread per
+ * task executor, pool sizes no longer cap concurrency, and a {@link DownstreamLimiter} around each blocking
+ * processor bounds the calls made to the database, SMTP server, em-api or GeoServer instead. Scheduled pools,
+ * used by timers and background housekeeping, stay on platform threads in both modes.</p>
+ */
+public class ExecutionThreadPoolFactory implements ThreadPoolFactory {
+
+    private static final Logger LOG = Logger.getLogger(ExecutionThreadPoolFactory.class);
+
+    private final AtomicInteger virtualPools = new AtomicInteger();
+
+    private ExecutionMode effectiveMode = ExecutionMode.PLATFORM;
+
+    // Properties
+
+    /**
+     * Execution mode, platform or virtual. Default: platform
+     */
+    private String mode = ExecutionMode.PLATFORM.name().toLowerCase();
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public ExecutionThreadPoolFactory() {
+    }
+
+    /**
+     * Resolves the mode on this runtime. Called by Spring once properties have been set
+     *
+     * @throws IllegalArgumentException when the mode isn't platform or virtual
+     */
+    public void init() {
+        ExecutionMode requested = ExecutionMode.parse(mode);
+        effectiveMode = requested.effective();
+        LOG.info("Route processing runs on " + effectiveMode.name().toLowerCase() + " threads"
+                + (requested != effectiveMode ? " (" + mode + " requested)" : ""));
+    }
+
+    /**
+     * @return the mode used on this runtime, which is platform when virtual was requested but isn't available
+     */
+    public ExecutionMode getEffectiveMode() {
+        return effectiveMode;
+    }
+
+    @Override
+    public ExecutorService newCachedThreadPool(ThreadFactory threadFactory) {
+        if(effectiveMode == ExecutionMode.VIRTUAL) {
+            return newVirtualPool();
+        }
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    @Override
+    public ExecutorService newThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
+        return newThreadPool(profile.getPoolSize(), profile.getMaxPoolSize(), profile.getKeepAliveTime(),
+                profile.getTimeUnit(), profile.getMaxQueueSize(), profile.getAllowCoreThreadTimeOut(),
+                profile.getRejectedExecutionHandler(), threadFactory);
+    }
+
+    /**
+     * Creates a pool with the given sizing in platform mode, or a virtual thread per task executor in virtual mode
+     *
+     * @param corePoolSize the core pool size
+     * @param maxPoolSize the maximum pool size
+     * @param keepAliveTime how long idle threads above the core size are kept
+     * @param timeUnit unit of keepAliveTime
+     * @param maxQueueSize the task queue capacity, 0 for a direct hand off, negative for unbounded
+     * @param allowCoreThreadTimeOut whether or not idle core threads time out
+     * @param rejectedExecutionHandler handles tasks rejected by a full pool, null to abort them
+     * @param threadFactory creates the platform threads
+     * @return the executor
+     */
+    public ExecutorService newThreadPool(int corePoolSize, int maxPoolSize, long keepAliveTime, TimeUnit timeUnit,
+                                         int maxQueueSize, boolean allowCoreThreadTimeOut,
+                                         RejectedExecutionHandler rejectedExecutionHandler,
+                                         ThreadFactory threadFactory) {
+        if(effectiveMode == ExecutionMode.VIRTUAL) {
+            return newVirtualPool();
+        }
+        if(maxPoolSize < corePoolSize) {
+            maxPoolSize = corePoolSize;
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveTime, timeUnit,
+                maxQueueSize == 0 ? new SynchronousQueue<Runnable>()
+                        : maxQueueSize < 0 ? new LinkedBlockingQueue<Runnable>()
+                        : new LinkedBlockingQueue<Runnable>(maxQueueSize),
+                threadFactory);
+        pool.allowCoreThreadTimeOut(allowCoreThreadTimeOut && keepAliveTime > 0);
+        if(rejectedExecutionHandler != null) {
+            pool.setRejectedExecutionHandler(rejectedExecutionHandler);
+        }
+        return pool;
+    }
+
+    @Override
+    public ScheduledExecutorService newScheduledThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(profile.getPoolSize(), threadFactory);
+        pool.setRemoveOnCancelPolicy(true);
+        if(profile.getRejectedExecutionHandler() != null) {
+            pool.setRejectedExecutionHandler(profile.getRejectedExecutionHandler());
+        }
+        return pool;
+    }
+
+    private ExecutorService newVirtualPool() {
+        return ExecutionMode.newVirtualThreadPerTaskExecutor("camel-virtual-" + virtualPools.incrementAndGet());
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.execution;
+
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.rabbitmq.RabbitMQConstants;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a processor that blocks on a downstream system within that downstream's {@link DownstreamLimiter}.
+ *
+ * <p>Used in the Spring XML in place of the processor it wraps, e.g., &lt;process ref="limitedEmailConsumer"
+ * /&gt;, so the processor itself is unchanged.</p>
+ *
+ * <p>A message the limiter rejects is logged, and fails the exchange. It's only redelivered when the route consumes
+ * it straight from a rabbitmq endpoint with autoAck=false: the rejected message is marked to be requeued, rather
+ * than dropped by the broker, as other failed messages are. Anywhere else, e.g., after a seda stage, the message
+ * has already been acked and is lost, so set the limiter's acquireTimeoutMillis to 0 there, holding the stage up
+ * instead.</p>
+ */
+public class LimitedProcessor implements Processor {
+
+    private static final Logger LOG = Logger.getLogger(LimitedProcessor.class);
+
+    // Properties
+
+    /**
+     * The processor that makes the blocking calls
+     */
+    private Processor processor;
+
+    /**
+     * The limiter of the downstream the processor calls
+     */
+    private DownstreamLimiter limiter;
+
+    /**
+     * Whether the broker requeues a message the limiter rejects, rather than dropping it. Default: true
+     */
+    private boolean requeueRejected = true;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public LimitedProcessor() {
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        try {
+            limiter.call(() -> {
+                processor.process(exchange);
+                return null;
+            });
+        } catch(RejectedExecutionException e) {
+            LOG.warn(e.getMessage() + (requeueRejected ? ", requeueing: " : ", rejecting: ")
+                    + exchange.getIn().getBody(String.class));
+            if(requeueRejected) {
+                exchange.getIn().setHeader(RabbitMQConstants.REQUEUE, true);
+            }
+            throw e;
+        }
+    }
+
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    public void setProcessor(Processor processor) {
+        this.processor = processor;
+    }
+
+    public DownstreamLimiter getLimiter() {
+        return limiter;
+    }
+
+    public void setLimiter(DownstreamLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public boolean isRequeueRejected() {
+        return requeueRejected;
+    }
+
+    public void setRequeueRejected(boolean requeueRejected) {
+        this.requeueRejected = requeueRejected;
+    }
+}
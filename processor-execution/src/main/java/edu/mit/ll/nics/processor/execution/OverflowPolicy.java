@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.execution;
+
+/**
+ * What a full {@link StageQueue} does with another message
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Block the producing stage, e.g., the broker consumer thread, until there's room. The broker then stops
+     * delivering once the consumer's prefetch is used up. A message still waiting after the queue's
+     * blockTimeoutMillis is rejected, failing the producing route, and a message consumed from rabbitmq is then
+     * dropped by the broker, not redelivered
+     */
+    BLOCK,
+
+    /**
+     * Drop the oldest queued message to make room, for feeds where only the latest update matters
+     */
+    DROP_OLDEST,
+
+    /**
+     * Write the message to the spill directory, and read it back once the queue has drained. Spilled messages
+     * survive a restart
+     */
+    SPILL;
+
+    /**
+     * Parses a policy name, case insensitive, with - or _ between words
+     *
+     * @param name block, drop-oldest or spill, null or empty for block
+     * @return the policy
+     * @throws IllegalArgumentException when the name isn't a policy
+     */
+    public static OverflowPolicy parse(String name) {
+        if(name == null || name.trim().isEmpty()) {
+            return BLOCK;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown overflow policy '" + name
+                    + "', expected block, drop-oldest or spill");
+        }
+    }
+}
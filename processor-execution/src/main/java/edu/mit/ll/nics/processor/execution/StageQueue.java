@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.execution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.camel.CamelContext;
+import org.apache.camel.CamelContextAware;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded queue between two stages of a route, e.g., between consuming from the broker and persisting to the
+ * database.
+ *
+ * <p>Declared as a bean and referenced from a seda endpoint with queue=#beanId, so the stage before the queue
+ * hands messages off and returns to its own work, while the stage after it runs at the pace of its downstream.
+ * When the queue is full the {@link OverflowPolicy} applies, whatever the seda endpoint's own blockWhenFull or
+ * discardWhenFull options say. A {@link StageProcessor} around the next stage's processor adds its latency to the
+ * queue's metrics, which are the queue depth, the messages dropped, spilled and rejected, and the time messages
+ * waited in the queue.</p>
+ *
+ * <p>The stage before the queue is done with a message once it's queued, so a message consumed from the broker is
+ * acked then, and the messages held in memory, up to capacity of them, are lost if the process dies. Where that's
+ * not acceptable, hand off to the next stage with a direct endpoint instead, so the message is only acked once it
+ * has been processed.</p>
+ *
+ * <p>With the spill policy, messages are written to &lt;spillDirectory&gt;/&lt;name&gt; with their body and
+ * serializable headers, and read back in order once the messages held in memory have been taken. Spilled messages
+ * are reloaded on startup.</p>
+ */
+public class StageQueue extends AbstractQueue<Exchange> implements BlockingQueue<Exchange>, CamelContextAware {
+
+    private static final Logger LOG = Logger.getLogger(StageQueue.class);
+
+    /**
+     * Exchange property holding the time, in epoch milliseconds, a message was queued
+     */
+    public static final String ENQUEUED_PROPERTY = "NicsStageEnqueued";
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final ArrayDeque<Exchange> memory = new ArrayDeque<>();
+    private final ArrayDeque<File> spilled = new ArrayDeque<>();
+    private long spillSequence;
+    private File spillDir;
+    private int maxDepth;
+
+    private OverflowPolicy policy = OverflowPolicy.BLOCK;
+
+    private CamelContext camelContext;
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilledTotal = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitMillis = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong processNanos = new AtomicLong();
+    private final AtomicLong maxProcessNanos = new AtomicLong();
+
+    // Properties
+
+    /**
+     * Name of the stage after the queue, used in logging and as the spill subdirectory
+     */
+    private String name = "stage";
+
+    /**
+     * Maximum number of messages held in memory. Default: 1000
+     */
+    private int capacity = 1000;
+
+    /**
+     * What to do with a message when the queue is full, block, drop-oldest or spill. Default: block
+     */
+    private String overflowPolicy = OverflowPolicy.BLOCK.name().toLowerCase();
+
+    /**
+     * Milliseconds the block policy waits for room before the message is rejected, 0 to wait indefinitely.
+     * Default: 30000
+     */
+    private long blockTimeoutMillis = 30000;
+
+    /**
+     * Directory the spill policy writes messages to. Default: spill
+     */
+    private String spillDirectory = "spill";
+
+    /**
+     * Log the stage's metrics every this many processed messages, 0 to disable. Default: 0
+     */
+    private int metricsLogInterval = 0;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public StageQueue() {
+    }
+
+    /**
+     * Parses the policy and, for the spill policy, reloads messages spilled before a restart. Called by Spring
+     * once properties have been set
+     *
+     * @throws IllegalArgumentException when the capacity isn't positive or the policy is unknown
+     * @throws IOException when the spill directory can't be created
+     */
+    public void init() throws IOException {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity of stage " + name + " must be at least 1");
+        }
+        policy = OverflowPolicy.parse(overflowPolicy);
+        if(policy == OverflowPolicy.SPILL) {
+            spillDir = new File(spillDirectory, name);
+            if(!spillDir.isDirectory() && !spillDir.mkdirs()) {
+                throw new IOException("Failed to create spill directory " + spillDir.getAbsolutePath());
+            }
+            File[] files = spillDir.listFiles((dir, file) -> file.endsWith(SPILL_SUFFIX));
+            if(files != null && files.length > 0) {
+                // Names are zero padded sequence numbers, so sort in the order they were spilled
+                Arrays.sort(files);
+                spilled.addAll(Arrays.asList(files));
+                String last = files[files.length - 1].getName();
+                spillSequence = Long.parseLong(last.substring(0, last.length() - SPILL_SUFFIX.length())) + 1;
+                LOG.info("Stage " + name + " reloaded " + files.length + " spilled messages from "
+                        + spillDir.getAbsolutePath());
+            }
+        }
+        LOG.info("Stage " + name + " queue holds " + capacity + " messages, " + policy.name().toLowerCase()
+                + " when full");
+    }
+
+    // Producing side
+
+    @Override
+    public boolean offer(Exchange exchange) {
+        try {
+            return enqueue(exchange, blockTimeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis)
+                    : Long.MAX_VALUE);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean offer(Exchange exchange, long timeout, TimeUnit unit) throws InterruptedException {
+        return enqueue(exchange, unit.toNanos(timeout));
+    }
+
+    @Override
+    public void put(Exchange exchange) throws InterruptedException {
+        if(!enqueue(exchange, Long.MAX_VALUE)) {
+            throw new IllegalStateException("Stage " + name + " failed to queue the message");
+        }
+    }
+
+    private boolean enqueue(Exchange exchange, long timeoutNanos) throws InterruptedException {
+        if(exchange == null) {
+            throw new NullPointerException();
+        }
+        if(camelContext == null) {
+            camelContext = exchange.getContext();
+        }
+        exchange.setProperty(ENQUEUED_PROPERTY, System.currentTimeMillis());
+        offered.incrementAndGet();
+
+        lock.lockInterruptibly();
+        try {
+            switch(policy) {
+                case DROP_OLDEST:
+                    if(memory.size() >= capacity) {
+                        memory.poll();
+                        if(dropped.incrementAndGet() % 1000 == 1) {
+                            LOG.warn("Stage " + name + " is full, dropping its oldest messages, "
+                                    + dropped.get() + " dropped so far");
+                        }
+                    }
+                    memory.add(exchange);
+                    break;
+                case SPILL:
+                    // Once anything is spilled, later messages are too, so they're taken in order
+                    if(!spilled.isEmpty() || memory.size() >= capacity) {
+                        try {
+                            spill(exchange);
+                        } catch(IOException e) {
+                            rejected.incrementAndGet();
+                            LOG.error("Stage " + name + " failed to spill a message to "
+                                    + spillDir.getAbsolutePath(), e);
+                            return false;
+                        }
+                    } else {
+                        memory.add(exchange);
+                    }
+                    break;
+                default:
+                    long nanos = timeoutNanos;
+                    while(memory.size() >= capacity) {
+                        if(nanos <= 0) {
+                            rejected.incrementAndGet();
+                            LOG.warn("Stage " + name + " stayed full, rejecting the message");
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                    memory.add(exchange);
+                    break;
+            }
+            maxDepth = Math.max(maxDepth, depth());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Consuming side
+
+    @Override
+    public Exchange poll() {
+        lock.lock();
+        try {
+            return depth() == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Exchange exchange = null;
+            while(exchange == null) {
+                while(depth() == 0) {
+                    if(nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                exchange = dequeue();
+            }
+            return exchange;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Exchange exchange = null;
+            while(exchange == null) {
+                while(depth() == 0) {
+                    notEmpty.await();
+                }
+                exchange = dequeue();
+            }
+            return exchange;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Exchange peek() {
+        lock.lock();
+        try {
+            if(memory.isEmpty()) {
+                reload();
+            }
+            return memory.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message, with the lock held and depth() above 0
+     */
+    private Exchange dequeue() {
+        if(memory.isEmpty()) {
+            reload();
+        }
+        Exchange exchange = memory.poll();
+        if(exchange == null) {
+            // Every spilled message left was unreadable
+            return null;
+        }
+        notFull.signal();
+        taken.incrementAndGet();
+        Object enqueued = exchange.removeProperty(ENQUEUED_PROPERTY);
+        if(enqueued instanceof Long) {
+            waitMillis.addAndGet(System.currentTimeMillis() - (Long) enqueued);
+        }
+        return exchange;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Exchange> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Exchange> collection, int maxElements) {
+        int count = 0;
+        Exchange exchange;
+        while(count < maxElements && (exchange = poll()) != null) {
+            collection.add(exchange);
+            count++;
+        }
+        return count;
+    }
+
+    // Spilling
+
+    private void spill(Exchange exchange) throws IOException {
+        SpilledExchange spill = new SpilledExchange();
+        spill.pattern = exchange.getPattern() != null ? exchange.getPattern().name() : null;
+        spill.enqueued = (Long) exchange.getProperty(ENQUEUED_PROPERTY);
+        Object body = exchange.getIn().getBody();
+        if(body == null || body instanceof Serializable) {
+            spill.body = body;
+        } else {
+            spill.body = exchange.getIn().getBody(byte[].class);
+            if(spill.body == null) {
+                throw new IOException("Body of type " + body.getClass().getName() + " can't be spilled");
+            }
+        }
+        for(Map.Entry<String, Object> header : exchange.getIn().getHeaders().entrySet()) {
+            if(header.getValue() instanceof Serializable) {
+                spill.headers.put(header.getKey(), header.getValue());
+            }
+        }
+
+        File file = new File(spillDir, String.format("%019d", spillSequence) + SPILL_SUFFIX);
+        try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeObject(spill);
+        } catch(IOException e) {
+            file.delete();
+            throw e;
+        }
+        spillSequence++;
+        spilled.add(file);
+        spilledTotal.incrementAndGet();
+    }
+
+    /**
+     * Reads spilled messages back into memory, oldest first, with the lock held
+     */
+    private void reload() {
+        while(memory.size() < capacity && !spilled.isEmpty()) {
+            File file = spilled.poll();
+            try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                SpilledExchange spill = (SpilledExchange) in.readObject();
+                Exchange exchange = new DefaultExchange(camelContext);
+                if(spill.pattern != null) {
+                    exchange.setPattern(ExchangePattern.valueOf(spill.pattern));
+                }
+                exchange.getIn().setBody(spill.body);
+                exchange.getIn().getHeaders().putAll(spill.headers);
+                if(spill.enqueued != null) {
+                    exchange.setProperty(ENQUEUED_PROPERTY, spill.enqueued);
+                }
+                memory.add(exchange);
+            } catch(IOException | ClassNotFoundException | RuntimeException e) {
+                LOG.error("Stage " + name + " dropped unreadable spilled message " + file.getAbsolutePath(), e);
+            }
+            if(!file.delete()) {
+                LOG.warn("Failed to delete spilled message " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * A spilled message, its body and serializable headers
+     */
+    private static final class SpilledExchange implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String pattern;
+        private Long enqueued;
+        private Object body;
+        private final HashMap<String, Object> headers = new HashMap<>();
+    }
+
+    // Queue state
+
+    private int depth() {
+        return memory.size() + spilled.size();
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return depth();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        if(policy != OverflowPolicy.BLOCK) {
+            return Integer.MAX_VALUE;
+        }
+        lock.lock();
+        try {
+            return capacity - memory.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the messages held in memory, which doesn't include spilled messages
+     */
+    @Override
+    public Iterator<Exchange> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList<>(memory).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Metrics
+
+    /**
+     * Adds the time the stage after the queue took to process a message, called by {@link StageProcessor}
+     *
+     * @param nanos processing time in nanoseconds
+     */
+    public void recordProcessed(long nanos) {
+        long count = processed.incrementAndGet();
+        processNanos.addAndGet(nanos);
+        long max;
+        while(nanos > (max = maxProcessNanos.get()) && !maxProcessNanos.compareAndSet(max, nanos)) {
+            // Retry until the maximum is at least nanos
+        }
+        if(metricsLogInterval > 0 && count % metricsLogInterval == 0) {
+            LOG.info(summarize());
+        }
+    }
+
+    /**
+     * @return one line with the stage's metrics, for logging
+     */
+    public String summarize() {
+        int depth;
+        int spilledNow;
+        int max;
+        lock.lock();
+        try {
+            depth = depth();
+            spilledNow = spilled.size();
+            max = maxDepth;
+        } finally {
+            lock.unlock();
+        }
+        long takes = taken.get();
+        long count = processed.get();
+        return "Stage " + name + ": depth=" + depth + "/" + capacity + ", maxDepth=" + max + ", onDisk=" + spilledNow
+                + ", offered=" + offered.get() + ", dropped=" + dropped.get() + ", spilled=" + spilledTotal.get()
+                + ", rejected=" + rejected.get() + ", avgWaitMs=" + (takes == 0 ? 0 : waitMillis.get() / takes)
+                + ", avgProcessMs=" + (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(processNanos.get() / count))
+                + ", maxProcessMs=" + TimeUnit.NANOSECONDS.toMillis(maxProcessNanos.get());
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSpilled() {
+        return spilledTotal.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CamelContext getCamelContext() {
+        return camelContext;
+    }
+
+    @Override
+    public void setCamelContext(CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    public void setMetricsLogInterval(int metricsLogInterval) {
+        this.metricsLogInterval = metricsLogInterval;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.execution;
+
+import edu.mit.ll.nics.processor.execution.DownstreamLimiter;
+import edu.mit.ll.nics.processor.execution.ExecutionMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link ExecutionMode} and {@link DownstreamLimiter}. The thread models are compared by
+ * pipeline-bench's ExecutionModeBenchmark
+ */
+public class ExecutionModeTest {
+
+    private static final Logger LOG = Logger.getLogger(ExecutionModeTest.class);
+
+    @Test
+    public void testLimiterBoundsConcurrency() throws Exception {
+        DownstreamLimiter limiter = new DownstreamLimiter("db", 4);
+        ExecutorService executor = ExecutionMode.PLATFORM.newExecutor("limited", 16);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for(int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> limiter.call(() -> {
+                    Thread.sleep(2);
+                    return null;
+                })));
+            }
+            for(Future<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(limiter.getCalls(), 64);
+        Assert.assertTrue(limiter.getMaxInUse() <= 4, limiter.summarize());
+        Assert.assertEquals(limiter.getInUse(), 0);
+    }
+
+    @Test
+    public void testLimiterRejectsAfterTimeout() throws Exception {
+        DownstreamLimiter limiter = new DownstreamLimiter("smtp", 1);
+        limiter.setAcquireTimeoutMillis(50);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                limiter.call(() -> {
+                    holding.countDown();
+                    return release.await(10, TimeUnit.SECONDS);
+                });
+            } catch(Exception e) {
+                LOG.error("Holder failed", e);
+            }
+        });
+        holder.start();
+        Assert.assertTrue(holding.await(10, TimeUnit.SECONDS));
+        try {
+            limiter.call(() -> null);
+            Assert.fail("Expected the call to be rejected while the only permit is held");
+        } catch(RejectedExecutionException e) {
+            Assert.assertEquals(limiter.getRejected(), 1);
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+        Assert.assertEquals(limiter.call(() -> "sent"), "sent");
+    }
+
+    @Test
+    public void testVirtualFallsBackWithoutVirtualThreads() {
+        Assert.assertEquals(ExecutionMode.parse(null), ExecutionMode.PLATFORM);
+        Assert.assertEquals(ExecutionMode.parse(" Virtual "), ExecutionMode.VIRTUAL);
+        Assert.assertEquals(ExecutionMode.VIRTUAL.effective(), ExecutionMode.virtualThreadsAvailable()
+                ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.execution;
+
+import edu.mit.ll.nics.processor.execution.DownstreamLimiter;
+import edu.mit.ll.nics.processor.execution.LimitedProcessor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.rabbitmq.RabbitMQConstants;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link LimitedProcessor}
+ */
+public class LimitedProcessorTest {
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    @Test
+    public void testProcessesWithinLimit() throws Exception {
+        DownstreamLimiter limiter = limiter();
+        LimitedProcessor processor = processor(limiter, true);
+        Exchange exchange = message("first");
+
+        processor.process(exchange);
+        Assert.assertEquals(exchange.getIn().getHeader("processed"), "first");
+        Assert.assertNull(exchange.getIn().getHeader(RabbitMQConstants.REQUEUE));
+        Assert.assertEquals(limiter.getCalls(), 1);
+        Assert.assertEquals(limiter.getInUse(), 0);
+    }
+
+    @Test
+    public void testRejectedMessageRequeued() throws Exception {
+        DownstreamLimiter limiter = limiter();
+        Exchange exchange = rejected(limiter, processor(limiter, true));
+        Assert.assertEquals(exchange.getIn().getHeader(RabbitMQConstants.REQUEUE), Boolean.TRUE);
+        Assert.assertNull(exchange.getIn().getHeader("processed"));
+        Assert.assertEquals(limiter.getRejected(), 1);
+    }
+
+    @Test
+    public void testRejectedMessageNotRequeued() throws Exception {
+        DownstreamLimiter limiter = limiter();
+        Exchange exchange = rejected(limiter, processor(limiter, false));
+        Assert.assertNull(exchange.getIn().getHeader(RabbitMQConstants.REQUEUE));
+        Assert.assertEquals(limiter.getRejected(), 1);
+    }
+
+    /**
+     * Processes a message while the limiter's only permit is held, so it's rejected
+     */
+    private Exchange rejected(DownstreamLimiter limiter, LimitedProcessor processor) throws Exception {
+        Exchange exchange = message("second");
+        limiter.call(() -> {
+            try {
+                processor.process(exchange);
+                Assert.fail("Processed without a permit");
+            } catch(RejectedExecutionException e) {
+                // Expected
+            }
+            return null;
+        });
+        return exchange;
+    }
+
+    private DownstreamLimiter limiter() {
+        DownstreamLimiter limiter = new DownstreamLimiter("test", 1);
+        limiter.setAcquireTimeoutMillis(20);
+        return limiter;
+    }
+
+    private LimitedProcessor processor(DownstreamLimiter limiter, boolean requeueRejected) {
+        LimitedProcessor processor = new LimitedProcessor();
+        processor.setLimiter(limiter);
+        processor.setRequeueRejected(requeueRejected);
+        processor.setProcessor(exchange -> exchange.getIn().setHeader("processed", exchange.getIn().getBody()));
+        return processor;
+    }
+
+    private Exchange message(String body) {
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody(body);
+        return exchange;
+    }
+}
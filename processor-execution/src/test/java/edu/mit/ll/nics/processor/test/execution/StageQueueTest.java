@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.execution;
+
+import edu.mit.ll.nics.processor.execution.StageQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class StageQueueTest {
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    @Test
+    public void testBlockRejectsAfterTimeout() throws Exception {
+        StageQueue queue = queue("block", null);
+        queue.setBlockTimeoutMillis(20);
+        Assert.assertTrue(queue.offer(message(1)));
+        Assert.assertTrue(queue.offer(message(2)));
+        Assert.assertEquals(queue.remainingCapacity(), 0);
+        Assert.assertFalse(queue.offer(message(3)));
+        Assert.assertEquals(queue.getRejected(), 1);
+
+        Assert.assertEquals(body(queue.poll(1, TimeUnit.SECONDS)), 1);
+        Assert.assertTrue(queue.offer(message(3)));
+        Assert.assertEquals(queue.size(), 2);
+    }
+
+    @Test
+    public void testDropOldestKeepsNewest() throws Exception {
+        StageQueue queue = queue("drop-oldest", null);
+        for(int i = 1; i <= 5; i++) {
+            Assert.assertTrue(queue.offer(message(i)));
+        }
+        Assert.assertEquals(queue.getDropped(), 3);
+        Assert.assertEquals(body(queue.take()), 4);
+        Assert.assertEquals(body(queue.take()), 5);
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testSpillKeepsOrderAcrossRestart() throws Exception {
+        File dir = Files.createTempDirectory("stage-spill").toFile();
+        StageQueue queue = queue("spill", dir);
+        for(int i = 1; i <= 6; i++) {
+            Assert.assertTrue(queue.offer(message(i)));
+        }
+        Assert.assertEquals(queue.getSpilled(), 4);
+        Assert.assertEquals(queue.size(), 6);
+        Assert.assertEquals(body(queue.take()), 1);
+        Assert.assertEquals(body(queue.take()), 2);
+        Exchange third = queue.take();
+        Assert.assertEquals(body(third), 3);
+        Assert.assertEquals(third.getIn().getHeader("seq"), 3);
+
+        // 4 is in memory and lost, 5 and 6 are still on disk
+        StageQueue restarted = queue("spill", dir);
+        Assert.assertEquals(restarted.size(), 2);
+        Assert.assertTrue(restarted.offer(message(7)));
+        Assert.assertEquals(body(restarted.take()), 5);
+        Assert.assertEquals(body(restarted.take()), 6);
+        Assert.assertEquals(body(restarted.take()), 7);
+        Assert.assertEquals(new File(dir, "test").list().length, 0);
+    }
+
+    private StageQueue queue(String policy, File spillDirectory) throws IOException {
+        StageQueue queue = new StageQueue();
+        queue.setName("test");
+        queue.setCapacity(2);
+        queue.setOverflowPolicy(policy);
+        if(spillDirectory != null) {
+            queue.setSpillDirectory(spillDirectory.getAbsolutePath());
+        }
+        queue.setCamelContext(context);
+        queue.init();
+        return queue;
+    }
+
+    private Exchange message(int seq) {
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody("message " + seq);
+        exchange.getIn().setHeader("seq", seq);
+        return exchange;
+    }
+
+    private int body(Exchange exchange) {
+        return Integer.parseInt(exchange.getIn().getBody(String.class).substring("message ".length()));
+    }
+}
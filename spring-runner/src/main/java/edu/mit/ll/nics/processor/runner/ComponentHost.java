@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.runner;
+
+import edu.mit.ll.nics.processor.broker.BrokerProfiles;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.CamelContext;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+/**
+ * Hosts several components, e.g., gst2gml and json-pli-consumer, in one JVM.
+ *
+ * <p>Each component's Spring config, '&lt;configDirectory&gt;/&lt;component&gt;.xml', is loaded into a child context
+ * of the host's, once the host's has started. The components' beans and Camel contexts stay separate, while the
+ * host's beans are shared:</p>
+ * <ul>
+ *     <li>with a 'connectionFactory', every rabbitmq endpoint using a {{rabbitProfile:name}} shares one AMQP
+ *     connection, whose deliveries are processed on the host's thread budget</li>
+ *     <li>'camelMaxPoolSize' caps the default thread pool of every component's Camel contexts</li>
+ *     <li>each component's routes are counted by their own {@link ComponentMetrics}, logged every
+ *     'metricsLogIntervalSeconds' with the heap in use</li>
+ * </ul>
+ *
+ * <p>The components are stopped in reverse order when the host's context closes.</p>
+ */
+public class ComponentHost implements ApplicationContextAware, ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger LOG = Logger.getLogger(ComponentHost.class);
+
+    private static final String DEFAULT_CONFIG = "config/spring/host.xml";
+
+    /**
+     * Released once the host has stopped, ending main
+     */
+    private static final CountDownLatch stopped = new CountDownLatch(1);
+
+    private ApplicationContext hostContext;
+
+    private final Map<String, ConfigurableApplicationContext> started = new LinkedHashMap<>();
+
+    private final Map<String, ComponentMetrics> metrics = new LinkedHashMap<>();
+
+    private ScheduledExecutorService metricsLogger;
+
+    // Properties
+
+    /**
+     * Comma delimited components to host, in the order they're started
+     */
+    private String components = "";
+
+    /**
+     * Directory the components' Spring configs are in. Default: config/spring
+     */
+    private String configDirectory = "config/spring";
+
+    /**
+     * Connection shared by the components' rabbitmq endpoints. Optional, without it each endpoint has its own
+     */
+    private SharedConnectionFactory connectionFactory;
+
+    /**
+     * Name of the connectionFactory bean, as referenced from the endpoint URIs. Default: hostAmqpConnectionFactory
+     */
+    private String connectionFactoryName = "hostAmqpConnectionFactory";
+
+    /**
+     * Maximum size of each component's Camel default thread pool, 0 to leave them as configured
+     */
+    private int camelMaxPoolSize = 0;
+
+    /**
+     * Seconds between metrics logs, 0 to disable. Default: 60
+     */
+    private int metricsLogIntervalSeconds = 60;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public ComponentHost() {
+    }
+
+    /**
+     * Loads the host's Spring config, and runs until the JVM is shut down
+     *
+     * @param args the host's Spring config, default config/spring/host.xml
+     * @throws InterruptedException when interrupted while running
+     */
+    public static void main(String... args) throws InterruptedException {
+        String config = args.length > 0 ? args[0] : DEFAULT_CONFIG;
+        ConfigurableApplicationContext context = new FileSystemXmlApplicationContext(config);
+        context.registerShutdownHook();
+        stopped.await();
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.hostContext = applicationContext;
+    }
+
+    /**
+     * Starts the components once the host's own beans are ready
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if(event.getApplicationContext() != hostContext || !started.isEmpty()) {
+            return;
+        }
+
+        if(connectionFactory != null) {
+            // Picked up by every component's BrokerProfiles, so {{rabbitProfile:name}} endpoints share the connection
+            System.setProperty(BrokerProfiles.PREFIX + BrokerProfiles.DEFAULT_PROFILE + ".connectionFactory",
+                    "#" + connectionFactoryName);
+        }
+
+        for(String component : components.split(",")) {
+            component = component.trim();
+            if(component.isEmpty()) {
+                continue;
+            }
+            try {
+                start(component);
+            } catch(RuntimeException e) {
+                LOG.fatal("Failed to start " + component + ", stopping the host", e);
+                stop();
+                throw e;
+            }
+        }
+        LOG.info("Hosting " + started.keySet());
+
+        if(metricsLogIntervalSeconds > 0) {
+            metricsLogger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ComponentHostMetrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metricsLogger.scheduleAtFixedRate(this::logMetrics, metricsLogIntervalSeconds,
+                    metricsLogIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void start(String component) {
+        String config = new File(configDirectory, component + ".xml").getPath();
+        LOG.info("Starting " + component + " from " + config);
+
+        ComponentMetrics componentMetrics = new ComponentMetrics(component);
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(new String[]{config}, false,
+                hostContext);
+        context.setDisplayName(component);
+        context.addBeanFactoryPostProcessor(beanFactory -> beanFactory.addBeanPostProcessor(
+                new CamelContextConfigurer(componentMetrics, camelMaxPoolSize)));
+        context.refresh();
+
+        started.put(component, context);
+        metrics.put(component, componentMetrics);
+    }
+
+    /**
+     * Stops the components in reverse order, then closes the shared connection. Called by Spring on shutdown
+     */
+    public void stop() {
+        if(metricsLogger != null) {
+            metricsLogger.shutdownNow();
+        }
+
+        List<String> names = new ArrayList<>(started.keySet());
+        for(int i = names.size() - 1; i >= 0; i--) {
+            LOG.info("Stopping " + names.get(i));
+            try {
+                started.remove(names.get(i)).close();
+            } catch(RuntimeException e) {
+                LOG.error("Failed to stop " + names.get(i), e);
+            }
+        }
+
+        if(connectionFactory != null) {
+            connectionFactory.closeShared();
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Logs each component's metrics, the heap in use and the shared thread budget's activity
+     */
+    public void logMetrics() {
+        for(ComponentMetrics componentMetrics : metrics.values()) {
+            LOG.info(componentMetrics.summarize());
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder host = new StringBuilder("host: heap ")
+                .append((runtime.totalMemory() - runtime.freeMemory()) >> 20).append("MB used of ")
+                .append(runtime.maxMemory() >> 20).append("MB");
+        ExecutorService executor = connectionFactory == null ? null : connectionFactory.getExecutor();
+        if(executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            host.append(", shared threads ").append(pool.getActiveCount()).append(" active of ")
+                    .append(pool.getMaximumPoolSize()).append(", ").append(pool.getQueue().size()).append(" queued");
+        }
+        LOG.info(host);
+    }
+
+    /**
+     * Registers a component's metrics, and caps its thread pool, on each of its Camel contexts before they start
+     */
+    private static class CamelContextConfigurer implements BeanPostProcessor {
+
+        private final ComponentMetrics metrics;
+        private final int maxPoolSize;
+
+        CamelContextConfigurer(ComponentMetrics metrics, int maxPoolSize) {
+            this.metrics = metrics;
+            this.maxPoolSize = maxPoolSize;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            if(bean instanceof CamelContext) {
+                CamelContext camelContext = (CamelContext) bean;
+                camelContext.getManagementStrategy().addEventNotifier(metrics);
+                if(maxPoolSize > 0) {
+                    ThreadPoolProfile profile = camelContext.getExecutorServiceManager().getDefaultThreadPoolProfile();
+                    profile.setMaxPoolSize(maxPoolSize);
+                    profile.setPoolSize(Math.min(profile.getPoolSize(), maxPoolSize));
+                }
+            }
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            return bean;
+        }
+    }
+
+    // Getters and Setters
+
+    public Map<String, ComponentMetrics> getMetrics() {
+        return metrics;
+    }
+
+    public String getComponents() {
+        return components;
+    }
+
+    public void setComponents(String components) {
+        this.components = components;
+    }
+
+    public String getConfigDirectory() {
+        return configDirectory;
+    }
+
+    public void setConfigDirectory(String configDirectory) {
+        this.configDirectory = configDirectory;
+    }
+
+    public SharedConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public void setConnectionFactory(SharedConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public String getConnectionFactoryName() {
+        return connectionFactoryName;
+    }
+
+    public void setConnectionFactoryName(String connectionFactoryName) {
+        this.connectionFactoryName = connectionFactoryName;
+    }
+
+    public int getCamelMaxPoolSize() {
+        return camelMaxPoolSize;
+    }
+
+    public void setCamelMaxPoolSize(int camelMaxPoolSize) {
+        this.camelMaxPoolSize = camelMaxPoolSize;
+    }
+
+    public int getMetricsLogIntervalSeconds() {
+        return metricsLogIntervalSeconds;
+    }
+
+    public void setMetricsLogIntervalSeconds(int metricsLogIntervalSeconds) {
+        this.metricsLogIntervalSeconds = metricsLogIntervalSeconds;
+    }
+}
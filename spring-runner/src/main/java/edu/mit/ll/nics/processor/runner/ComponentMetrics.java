@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.runner;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCompletedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCreatedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeFailedEvent;
+import org.apache.camel.support.EventNotifierSupport;
+
+/**
+ * Counts the messages a hosted component's routes process, and how long they take.
+ *
+ * <p>Registered as an event notifier on each of the component's Camel contexts by the {@link ComponentHost}, so
+ * components that share a JVM can still be told apart. Only exchanges created by a route's consumer are counted,
+ * not those a processor creates to send on.</p>
+ */
+public class ComponentMetrics extends EventNotifierSupport {
+
+    private static final String CREATED_NANOS = "ComponentMetricsCreatedNanos";
+
+    private final String component;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong inflight = new AtomicLong();
+
+    private long lastCompleted = 0;
+    private long lastFailed = 0;
+
+    /**
+     * @param component the name of the component
+     */
+    public ComponentMetrics(String component) {
+        this.component = component;
+        setIgnoreCamelContextEvents(true);
+        setIgnoreRouteEvents(true);
+        setIgnoreServiceEvents(true);
+        setIgnoreExchangeSendingEvents(true);
+        setIgnoreExchangeSentEvents(true);
+        setIgnoreExchangeRedeliveryEvents(true);
+    }
+
+    @Override
+    public boolean isEnabled(CamelEvent event) {
+        return event instanceof ExchangeEvent && ((ExchangeEvent) event).getExchange().getFromRouteId() != null;
+    }
+
+    @Override
+    public void notify(CamelEvent event) {
+        Exchange exchange = ((ExchangeEvent) event).getExchange();
+        if(event instanceof ExchangeCreatedEvent) {
+            exchange.setProperty(CREATED_NANOS, System.nanoTime());
+            inflight.incrementAndGet();
+        } else if(event instanceof ExchangeCompletedEvent || event instanceof ExchangeFailedEvent) {
+            Long created = exchange.getProperty(CREATED_NANOS, Long.class);
+            if(created == null) {
+                return;
+            }
+            exchange.removeProperty(CREATED_NANOS);
+            inflight.decrementAndGet();
+
+            long nanos = System.nanoTime() - created;
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            if(event instanceof ExchangeFailedEvent) {
+                failed.increment();
+            } else {
+                completed.increment();
+            }
+        }
+    }
+
+    /**
+     * Summarizes the messages processed since the component started, and since the last summary
+     *
+     * @return the summary
+     */
+    public synchronized String summarize() {
+        long completedNow = completed.sum();
+        long failedNow = failed.sum();
+        long total = completedNow + failedNow;
+        double averageMillis = total == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / total) / 1000.0;
+        String summary = String.format("%s: %d completed (+%d), %d failed (+%d), %d in flight, average %.1fms, "
+                        + "max %.1fms", component, completedNow, completedNow - lastCompleted, failedNow,
+                failedNow - lastFailed, inflight.get(), averageMillis,
+                TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) / 1000.0);
+        lastCompleted = completedNow;
+        lastFailed = failedNow;
+        return summary;
+    }
+
+    public String getComponent() {
+        return component;
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getInflightCount() {
+        return inflight.get();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.runner;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import org.apache.camel.spring.Main;
+import org.apache.log4j.Logger;
+
+/**
+ * The Camel Spring Main of the fast start packaging, which reports how long the component took to start.
+ *
+ * <p>Started the same way as {@link Main}, e.g., '-fa config/spring/gst2gml.xml'. Once the Spring context, and the
+ * Camel contexts in it, have started, the JVM uptime is logged, and appended to the file named by the
+ * 'startup.reportFile' system property if set. With 'startup.exitAfterStart' set to true the component stops right
+ * after starting, for AppCDS training runs and startup measurements.</p>
+ */
+public class FastStartMain extends Main {
+
+    private static final Logger LOG = Logger.getLogger(FastStartMain.class);
+
+    /**
+     * System property naming a file to append the startup time, in milliseconds, to
+     */
+    public static final String REPORT_FILE = "startup.reportFile";
+
+    /**
+     * System property that, when true, stops the component once it has started
+     */
+    public static final String EXIT_AFTER_START = "startup.exitAfterStart";
+
+    public static void main(String... args) throws Exception {
+        FastStartMain main = new FastStartMain();
+        instance = main;
+        main.run(args);
+
+        if(Boolean.getBoolean(EXIT_AFTER_START)) {
+            System.exit(0);
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        LOG.info("Started " + System.getProperty("appName", "component") + " in " + uptime + "ms of JVM uptime");
+
+        String reportFile = System.getProperty(REPORT_FILE);
+        if(reportFile != null && !reportFile.isEmpty()) {
+            try(Writer writer = new FileWriter(reportFile, true)) {
+                writer.write(uptime + System.lineSeparator());
+            } catch(IOException e) {
+                LOG.error("Couldn't write the startup time to " + reportFile, e);
+            }
+        }
+
+        if(Boolean.getBoolean(EXIT_AFTER_START)) {
+            completed();
+        }
+    }
+}
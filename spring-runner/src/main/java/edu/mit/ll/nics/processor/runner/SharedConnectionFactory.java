@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.runner;
+
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
+
+/**
+ * A ConnectionFactory handing every rabbitmq endpoint of a {@link ComponentHost} the same AMQP connection.
+ *
+ * <p>The first endpoint to connect opens the connection, to the addresses in its URI, and later endpoints are handed
+ * the same one, each opening its own channels on it. Deliveries for all of them are dispatched on the host's shared
+ * 'executor', so it bounds how many messages the hosted components process at once. Endpoints closing the
+ * connection, when their route stops, only close their channels; the connection itself is closed by
+ * {@link #closeShared} when the host stops.</p>
+ */
+public class SharedConnectionFactory extends ConnectionFactory {
+
+    private static final Logger LOG = Logger.getLogger(SharedConnectionFactory.class);
+
+    private static final String CONNECTION_NAME = "nics-component-host";
+
+    private Connection shared;
+
+    private Connection handle;
+
+    // Properties
+
+    /**
+     * Executor deliveries on the shared connection are processed on. Default: the executor of the first endpoint to
+     * connect
+     */
+    private ExecutorService executor;
+
+    /**
+     * Default constructor, required by Spring
+     */
+    public SharedConnectionFactory() {
+    }
+
+    @Override
+    public synchronized Connection newConnection(ExecutorService endpointExecutor, AddressResolver addressResolver,
+            String clientProvidedName) throws IOException, TimeoutException {
+        if(shared == null) {
+            shared = open(executor != null ? executor : endpointExecutor, addressResolver, CONNECTION_NAME);
+            handle = unclosable(shared);
+            LOG.info("Opened the shared AMQP connection to " + shared.getAddress() + ":" + shared.getPort());
+        }
+        return handle;
+    }
+
+    /**
+     * Opens the connection to be shared
+     *
+     * @param executor executor its deliveries are processed on
+     * @param addressResolver addresses of the broker
+     * @param clientProvidedName name of the connection, as shown by the broker
+     * @return the connection
+     * @throws IOException when the connection can't be opened
+     * @throws TimeoutException when opening the connection times out
+     */
+    protected Connection open(ExecutorService executor, AddressResolver addressResolver, String clientProvidedName)
+            throws IOException, TimeoutException {
+        return super.newConnection(executor, addressResolver, clientProvidedName);
+    }
+
+    /**
+     * Closes the shared connection, once the hosted components have stopped
+     */
+    public synchronized void closeShared() {
+        if(shared == null) {
+            return;
+        }
+        try {
+            if(shared.isOpen()) {
+                shared.close();
+            }
+            LOG.info("Closed the shared AMQP connection");
+        } catch(IOException e) {
+            LOG.warn("Failed to close the shared AMQP connection: " + e.getMessage());
+        } finally {
+            shared = null;
+            handle = null;
+        }
+    }
+
+    /**
+     * Wraps the connection so close and abort leave it open for the other endpoints
+     */
+    private static Connection unclosable(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if(name.equals("close") || name.equals("abort")) {
+                        LOG.debug("Ignoring " + name + " of the shared AMQP connection by an endpoint");
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch(InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    // Getters and Setters
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+}
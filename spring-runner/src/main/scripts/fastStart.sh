@@ -0,0 +1,100 @@
+#
+# Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+# All rights reserved.
+#
+# Redistribution and use in source and binary forms, with or without
+# modification, are permitted provided that the following conditions are met:
+#
+# 1. Redistributions of source code must retain the above copyright notice, this
+# list of conditions and the following disclaimer.
+#
+# 2. Redistributions in binary form must reproduce the above copyright notice,
+# this list of conditions and the following disclaimer in the documentation
+# and/or other materials provided with the distribution.
+#
+# 3. Neither the name of the copyright holder nor the names of its contributors
+# may be used to endorse or promote products derived from this software without
+# specific prior written permission.
+#
+# THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+# AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+# IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+# DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+# FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+# DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+# SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+# CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+# OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+# OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+#
+
+# Runs a camel spring app from the fast start packaging: spring-runner.jar, with its dependencies listed in its
+# manifest, in place of scanning a directory of jars, and an AppCDS class-data archive once one has been trained.
+#
+#   fastStart.sh          runs the app, with the class-data archive if there is one
+#   fastStart.sh train    starts the app once to record the classes it loads into the class-data archive, then stops
+#
+# Set TRAIN_SECONDS to keep a training run going for that long, so classes loaded handling messages are archived
+# too. The archive has to be trained again whenever a jar in lib changes, or the JVM is upgraded; a stale archive
+# is ignored by the JVM, which then starts as it would without one. AppCDS needs Java 10 or later.
+
+NAME=${NAME:-"app"}
+CONFIG=${CONFIG:-"${NAME}.xml"}
+JAR=${JAR:-"./spring-runner.jar"}
+CDS_ARCHIVE=${CDS_ARCHIVE:-"./${NAME}.jsa"}
+TRAIN_SECONDS=${TRAIN_SECONDS:-0}
+JAVA_OPTS=${JAVA_OPTS:-"-Xmx512M -server"}
+MAIN=edu.mit.ll.nics.processor.runner.FastStartMain
+
+# Major version of the JVM, e.g., 8 for 1.8.0_292, 11 for 11.0.2
+JAVA_MAJOR=$(java -version 2>&1 | awk -F'"' '/version/ { split($2, v, "[.-]"); print (v[1] == "1") ? v[2] : v[1]; exit }')
+
+train() {
+    rm -f "${CDS_ARCHIVE}"
+    if [ "${TRAIN_SECONDS}" -gt 0 ]; then
+        RUN_FOR="-duration ${TRAIN_SECONDS}"
+    else
+        RUN_FOR=""
+        JAVA_OPTS="${JAVA_OPTS} -Dstartup.exitAfterStart=true"
+    fi
+
+    echo "--------training class-data archive for camel spring app: ${NAME} on $(date)"
+    if [ "${JAVA_MAJOR}" -ge 13 ]; then
+        java -DappName=${NAME} ${JAVA_OPTS} -XX:ArchiveClassesAtExit=${CDS_ARCHIVE} -cp "${JAR}" ${MAIN} -fa ${CONFIG} ${RUN_FOR}
+    elif [ "${JAVA_MAJOR}" -ge 10 ]; then
+        # Before 13 the archive is dumped in a separate step, from the list of classes the training run loaded
+        [ "${JAVA_MAJOR}" -eq 10 ] && JAVA_OPTS="${JAVA_OPTS} -XX:+UseAppCDS"
+        CLASS_LIST="${CDS_ARCHIVE%.jsa}.classlist"
+        java -DappName=${NAME} ${JAVA_OPTS} -XX:DumpLoadedClassList=${CLASS_LIST} -cp "${JAR}" ${MAIN} -fa ${CONFIG} ${RUN_FOR}
+        java ${JAVA_OPTS} -Xshare:dump -XX:SharedClassListFile=${CLASS_LIST} -XX:SharedArchiveFile=${CDS_ARCHIVE} -cp "${JAR}"
+    else
+        echo "AppCDS needs Java 10 or later, this is Java ${JAVA_MAJOR}. ${NAME} will start without a class-data archive"
+        return 1
+    fi
+    echo "--------trained ${CDS_ARCHIVE}"
+}
+
+run() {
+    CDS_OPTS=""
+    if [ -f "${CDS_ARCHIVE}" ] && [ "${JAVA_MAJOR}" -ge 10 ]; then
+        CDS_OPTS="-XX:SharedArchiveFile=${CDS_ARCHIVE} -Xshare:auto"
+        [ "${JAVA_MAJOR}" -eq 10 ] && CDS_OPTS="${CDS_OPTS} -XX:+UseAppCDS"
+    fi
+
+    echo "--------invoking camel spring app: ${NAME} on $(date)"
+    echo " $(pwd)"
+    echo "........spring config file: ${CONFIG}"
+    echo "........class-data archive: ${CDS_OPTS:-none}"
+    echo "-----------------------------------------------------------------"
+
+    exec java -DappName=${NAME} ${JAVA_OPTS} ${CDS_OPTS} -cp "${JAR}" ${MAIN} -fa ${CONFIG}
+}
+
+case "$1" in
+    train)
+        train
+        ;;
+    *)
+        run
+        ;;
+esac
@@ -0,0 +1,84 @@
+#
+# Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+# All rights reserved.
+#
+# Redistribution and use in source and binary forms, with or without
+# modification, are permitted provided that the following conditions are met:
+#
+# 1. Redistributions of source code must retain the above copyright notice, this
+# list of conditions and the following disclaimer.
+#
+# 2. Redistributions in binary form must reproduce the above copyright notice,
+# this list of conditions and the following disclaimer in the documentation
+# and/or other materials provided with the distribution.
+#
+# 3. Neither the name of the copyright holder nor the names of its contributors
+# may be used to endorse or promote products derived from this software without
+# specific prior written permission.
+#
+# THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+# AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+# IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+# DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+# FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+# DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+# SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+# CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+# OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+# OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+#
+
+# Measures the memory the components in config/host.properties take, run as
+#
+#   separate  each in its own JVM, the way runSpring.sh starts it, with SEPARATE_HEAP each
+#   host      all of them in one JVM, the way runHost.sh starts it, with HOST_HEAP
+#
+# Each JVM is given SETTLE seconds to start and take traffic, then its resident set size (RSS) and the heap it has
+# committed are sampled and it's stopped. Run it from the host's directory, with the components' broker and
+# database reachable and carrying their usual traffic, as an idle component takes far less than a busy one.
+
+LIBDIR=${LIBDIR:-"./lib"}
+SEPARATE_HEAP=${SEPARATE_HEAP:-"512M"}
+HOST_HEAP=${HOST_HEAP:-"768M"}
+SETTLE=${SETTLE:-120}
+
+COMPONENTS=$(grep '^host.components' config/host.properties | cut -d= -f2 | tr ',' ' ')
+
+# Prints "<rss MB> <committed heap MB>" of a running JVM, the heap being 0 before Java 9
+sample() {
+    RSS=$(ps -o rss= -p "$1" | tr -d ' ')
+    HEAP=$(jcmd "$1" GC.heap_info 2> /dev/null | awk '
+        { for (i = 1; i < NF; i++) if ($i == "total") { size = $(i + 1); sub(/K,?$/, "", size); sum += size } }
+        END { print int(sum / 1024) }')
+    echo "$((RSS / 1024)) ${HEAP:-0}"
+}
+
+# Starts a JVM with the given arguments, and prints its sample once it has settled
+measure() {
+    java "$@" > /dev/null 2>&1 &
+    PID=$!
+    sleep "${SETTLE}"
+    if ! kill -0 "${PID}" 2> /dev/null; then
+        echo "0 0"
+        return
+    fi
+    sample "${PID}"
+    kill "${PID}"
+    wait "${PID}" 2> /dev/null
+}
+
+echo "--------memory of components: ${COMPONENTS}, after ${SETTLE}s each, on $(date)"
+TOTAL_RSS=0
+TOTAL_HEAP=0
+for COMPONENT in ${COMPONENTS}; do
+    set -- $(measure -DappName=${COMPONENT} -Xmx${SEPARATE_HEAP} -server -cp "${LIBDIR}/*" \
+        org.apache.camel.spring.Main -fa config/spring/${COMPONENT}.xml)
+    printf "%-24s  rss %6d MB  heap %6d MB\n" "${COMPONENT}" "$1" "$2"
+    TOTAL_RSS=$((TOTAL_RSS + $1))
+    TOTAL_HEAP=$((TOTAL_HEAP + $2))
+done
+printf "%-24s  rss %6d MB  heap %6d MB\n" "separate" "${TOTAL_RSS}" "${TOTAL_HEAP}"
+
+set -- $(measure -DappName=host -Xmx${HOST_HEAP} -server -cp "${LIBDIR}/*" \
+    edu.mit.ll.nics.processor.runner.ComponentHost config/spring/host.xml)
+printf "%-24s  rss %6d MB  heap %6d MB\n" "host" "$1" "$2"
@@ -0,0 +1,79 @@
+#
+# Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+# All rights reserved.
+#
+# Redistribution and use in source and binary forms, with or without
+# modification, are permitted provided that the following conditions are met:
+#
+# 1. Redistributions of source code must retain the above copyright notice, this
+# list of conditions and the following disclaimer.
+#
+# 2. Redistributions in binary form must reproduce the above copyright notice,
+# this list of conditions and the following disclaimer in the documentation
+# and/or other materials provided with the distribution.
+#
+# 3. Neither the name of the copyright holder nor the names of its contributors
+# may be used to endorse or promote products derived from this software without
+# specific prior written permission.
+#
+# THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+# AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+# IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+# DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+# FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+# DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+# SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+# CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+# OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+# OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+#
+
+# Measures how long a camel spring app takes to start, from JVM start to its Camel contexts having started, as
+#
+#   classic   the way runSpring.sh starts it, with every jar in lib on a wildcard classpath
+#   jar       from spring-runner.jar, with the dependencies listed in its manifest
+#   jar+cds   the same with an AppCDS class-data archive, trained first if there isn't one
+#
+# Each is started RUNS times, stopping as soon as it has started. Run it from the fast start package directory,
+# with the app's broker and database reachable as they would be in production.
+
+NAME=${NAME:-"app"}
+CONFIG=${CONFIG:-"${NAME}.xml"}
+JAR=${JAR:-"./spring-runner.jar"}
+LIBDIR=${LIBDIR:-"./lib"}
+CDS_ARCHIVE=${CDS_ARCHIVE:-"./${NAME}.jsa"}
+RUNS=${RUNS:-5}
+JAVA_OPTS=${JAVA_OPTS:-"-Xmx512M -server"}
+MAIN=edu.mit.ll.nics.processor.runner.FastStartMain
+
+export NAME CONFIG JAR CDS_ARCHIVE JAVA_OPTS
+
+REPORT=$(mktemp)
+trap 'rm -f "${REPORT}"' EXIT
+
+measure() {
+    LABEL=$1
+    shift
+    : > "${REPORT}"
+    for i in $(seq 1 "${RUNS}"); do
+        java -DappName=${NAME} ${JAVA_OPTS} -Dstartup.exitAfterStart=true -Dstartup.reportFile=${REPORT} "$@" \
+            ${MAIN} -fa ${CONFIG} > /dev/null 2>&1
+    done
+    awk -v label="${LABEL}" -v runs="${RUNS}" '
+        { sum += $1; if (min == "" || $1 < min) min = $1; if ($1 > max) max = $1; n++ }
+        END {
+            if (n == 0) { printf "%-8s  no successful starts of %d\n", label, runs; exit }
+            printf "%-8s  %d of %d started  min %6d ms  avg %6d ms  max %6d ms\n", label, n, runs, min, sum / n, max
+        }' "${REPORT}"
+}
+
+if [ ! -f "${CDS_ARCHIVE}" ]; then
+    $(dirname "$0")/fastStart.sh train > /dev/null 2>&1 || echo "No class-data archive, jar+cds is the same as jar"
+fi
+
+echo "--------startup of camel spring app: ${NAME}, ${RUNS} runs each, on $(date)"
+measure classic -cp "${JAR}:${LIBDIR}/*"
+measure jar -cp "${JAR}"
+if [ -f "${CDS_ARCHIVE}" ]; then
+    measure jar+cds -XX:SharedArchiveFile=${CDS_ARCHIVE} -Xshare:auto -cp "${JAR}"
+fi
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.runner;
+
+import edu.mit.ll.nics.processor.runner.ComponentHost;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.GenericApplicationContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ComponentHostTest {
+
+    private static final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    private GenericApplicationContext hostContext;
+
+    @BeforeMethod
+    public void setUp() {
+        events.clear();
+        hostContext = new GenericApplicationContext();
+        hostContext.getBeanFactory().registerSingleton("hostValue", "shared");
+        hostContext.refresh();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        hostContext.close();
+    }
+
+    @Test(testName = "TestComponentsStartInChildContexts")
+    public void testComponentsStartInChildContexts() {
+        ComponentHost host = host("first, second");
+        host.onApplicationEvent(new ContextRefreshedEvent(hostContext));
+
+        Assert.assertEquals(events, Arrays.asList("start first with shared", "start second with shared"));
+        Assert.assertEquals(new ArrayList<>(host.getMetrics().keySet()), Arrays.asList("first", "second"));
+        Assert.assertFalse(hostContext.containsBean("component"), "A component's beans leaked into the host");
+        host.stop();
+    }
+
+    @Test(testName = "TestComponentsStopInReverseOrder")
+    public void testComponentsStopInReverseOrder() {
+        ComponentHost host = host("first,second");
+        host.onApplicationEvent(new ContextRefreshedEvent(hostContext));
+        events.clear();
+
+        host.stop();
+        Assert.assertEquals(events, Arrays.asList("stop second", "stop first"));
+
+        // Already stopped
+        host.stop();
+        Assert.assertEquals(events.size(), 2);
+    }
+
+    @Test(testName = "TestFailedStartStopsStartedComponents")
+    public void testFailedStartStopsStartedComponents() {
+        ComponentHost host = host("first,missing,second");
+        try {
+            host.onApplicationEvent(new ContextRefreshedEvent(hostContext));
+            Assert.fail("Started without the missing component's config");
+        } catch(RuntimeException e) {
+            // Expected
+        }
+        Assert.assertEquals(events, Arrays.asList("start first with shared", "stop first"));
+    }
+
+    @Test(testName = "TestStartsOnlyOnTheHostsRefresh")
+    public void testStartsOnlyOnTheHostsRefresh() {
+        ComponentHost host = host("first");
+        GenericApplicationContext other = new GenericApplicationContext();
+        other.refresh();
+        host.onApplicationEvent(new ContextRefreshedEvent(other));
+        Assert.assertTrue(events.isEmpty());
+        other.close();
+
+        host.onApplicationEvent(new ContextRefreshedEvent(hostContext));
+        host.onApplicationEvent(new ContextRefreshedEvent(hostContext));
+        Assert.assertEquals(events, Collections.singletonList("start first with shared"));
+        host.stop();
+    }
+
+    private ComponentHost host(String components) {
+        ComponentHost host = new ComponentHost();
+        host.setApplicationContext(hostContext);
+        host.setConfigDirectory("src/test/resources/component-host");
+        host.setComponents(components);
+        host.setMetricsLogIntervalSeconds(0);
+        return host;
+    }
+
+    /**
+     * Bean of the hosted components' configs, recording when it's started and stopped
+     */
+    public static class RecordingComponent {
+
+        private String name;
+        private String hostValue;
+
+        public void start() {
+            events.add("start " + name + " with " + hostValue);
+        }
+
+        public void stop() {
+            events.add("stop " + name);
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setHostValue(String hostValue) {
+            this.hostValue = hostValue;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.runner;
+
+import edu.mit.ll.nics.processor.runner.ComponentMetrics;
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.event.ExchangeCompletedEvent;
+import org.apache.camel.impl.event.ExchangeCreatedEvent;
+import org.apache.camel.impl.event.ExchangeFailedEvent;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.support.DefaultExchange;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ComponentMetricsTest {
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    @Test(testName = "TestCountsCompletedAndFailed")
+    public void testCountsCompletedAndFailed() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("gst2gml");
+        DefaultExchange first = exchange("route");
+        DefaultExchange second = exchange("route");
+        DefaultExchange third = exchange("route");
+
+        notify(metrics, new ExchangeCreatedEvent(first));
+        notify(metrics, new ExchangeCreatedEvent(second));
+        notify(metrics, new ExchangeCreatedEvent(third));
+        Assert.assertEquals(metrics.getInflightCount(), 3);
+
+        notify(metrics, new ExchangeCompletedEvent(first));
+        notify(metrics, new ExchangeFailedEvent(second));
+        Assert.assertEquals(metrics.getCompletedCount(), 1);
+        Assert.assertEquals(metrics.getFailedCount(), 1);
+        Assert.assertEquals(metrics.getInflightCount(), 1);
+
+        notify(metrics, new ExchangeCompletedEvent(third));
+        Assert.assertEquals(metrics.getCompletedCount(), 2);
+        Assert.assertEquals(metrics.getInflightCount(), 0);
+    }
+
+    @Test(testName = "TestIgnoresExchangesNotFromARoute")
+    public void testIgnoresExchangesNotFromARoute() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("gst2gml");
+        DefaultExchange sent = exchange(null);
+        Assert.assertFalse(metrics.isEnabled(new ExchangeCreatedEvent(sent)));
+        Assert.assertTrue(metrics.isEnabled(new ExchangeCreatedEvent(exchange("route"))));
+    }
+
+    @Test(testName = "TestCountsOnlyOnceEach")
+    public void testCountsOnlyOnceEach() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("gst2gml");
+
+        // Created before the metrics were registered
+        notify(metrics, new ExchangeCompletedEvent(exchange("route")));
+        Assert.assertEquals(metrics.getCompletedCount(), 0);
+        Assert.assertEquals(metrics.getInflightCount(), 0);
+
+        DefaultExchange exchange = exchange("route");
+        notify(metrics, new ExchangeCreatedEvent(exchange));
+        notify(metrics, new ExchangeFailedEvent(exchange));
+        notify(metrics, new ExchangeCompletedEvent(exchange));
+        Assert.assertEquals(metrics.getFailedCount(), 1);
+        Assert.assertEquals(metrics.getCompletedCount(), 0);
+        Assert.assertEquals(metrics.getInflightCount(), 0);
+    }
+
+    @Test(testName = "TestSummarizeSinceLastSummary")
+    public void testSummarizeSinceLastSummary() throws Exception {
+        ComponentMetrics metrics = new ComponentMetrics("gst2gml");
+        process(metrics, 2, false);
+        process(metrics, 1, true);
+        Assert.assertTrue(metrics.summarize().startsWith("gst2gml: 2 completed (+2), 1 failed (+1), 0 in flight"));
+
+        process(metrics, 1, false);
+        Assert.assertTrue(metrics.summarize().startsWith("gst2gml: 3 completed (+1), 1 failed (+0), 0 in flight"));
+    }
+
+    private void process(ComponentMetrics metrics, int count, boolean fail) throws Exception {
+        for(int i = 0; i < count; i++) {
+            DefaultExchange exchange = exchange("route");
+            notify(metrics, new ExchangeCreatedEvent(exchange));
+            notify(metrics, fail ? new ExchangeFailedEvent(exchange) : new ExchangeCompletedEvent(exchange));
+        }
+    }
+
+    private void notify(ComponentMetrics metrics, CamelEvent event) throws Exception {
+        if(metrics.isEnabled(event)) {
+            metrics.notify(event);
+        }
+    }
+
+    private DefaultExchange exchange(String fromRouteId) {
+        DefaultExchange exchange = new DefaultExchange(context);
+        exchange.setFromRouteId(fromRouteId);
+        return exchange;
+    }
+}
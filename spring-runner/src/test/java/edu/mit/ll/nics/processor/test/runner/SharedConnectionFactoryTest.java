@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.test.runner;
+
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Connection;
+import edu.mit.ll.nics.processor.runner.SharedConnectionFactory;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SharedConnectionFactoryTest {
+
+    @Test(testName = "TestEndpointsShareOneConnection")
+    public void testEndpointsShareOneConnection() throws Exception {
+        RecordingFactory factory = new RecordingFactory();
+        ExecutorService hostExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService endpointExecutor = Executors.newSingleThreadExecutor();
+        factory.setExecutor(hostExecutor);
+        try {
+            Connection first = factory.newConnection(endpointExecutor, null, "first");
+            Connection second = factory.newConnection(endpointExecutor, null, "second");
+
+            Assert.assertSame(first, second);
+            Assert.assertEquals(factory.opened.size(), 1);
+            Assert.assertSame(factory.executors.get(0), hostExecutor);
+        } finally {
+            hostExecutor.shutdown();
+            endpointExecutor.shutdown();
+        }
+    }
+
+    @Test(testName = "TestEndpointExecutorWithoutHostExecutor")
+    public void testEndpointExecutorWithoutHostExecutor() throws Exception {
+        RecordingFactory factory = new RecordingFactory();
+        ExecutorService endpointExecutor = Executors.newSingleThreadExecutor();
+        try {
+            factory.newConnection(endpointExecutor, null, "first");
+            Assert.assertSame(factory.executors.get(0), endpointExecutor);
+        } finally {
+            endpointExecutor.shutdown();
+        }
+    }
+
+    @Test(testName = "TestEndpointsCantCloseOrAbort")
+    public void testEndpointsCantCloseOrAbort() throws Exception {
+        RecordingFactory factory = new RecordingFactory();
+        Connection connection = factory.newConnection(null, null, "first");
+
+        connection.close();
+        connection.abort();
+        Assert.assertTrue(connection.isOpen());
+        Assert.assertEquals(connection.getPort(), 5672);
+
+        RecordingConnection opened = factory.opened.get(0);
+        Assert.assertTrue(opened.open);
+        Assert.assertTrue(opened.calls.isEmpty(), "An endpoint closed the shared connection: " + opened.calls);
+    }
+
+    @Test(testName = "TestCloseSharedClosesTheConnection")
+    public void testCloseSharedClosesTheConnection() throws Exception {
+        RecordingFactory factory = new RecordingFactory();
+        Connection first = factory.newConnection(null, null, "first");
+        factory.closeShared();
+
+        RecordingConnection opened = factory.opened.get(0);
+        Assert.assertFalse(opened.open);
+        Assert.assertEquals(opened.calls, Collections.singletonList("close"));
+
+        // Closing again is a no-op, and the next endpoint to connect opens a new one
+        factory.closeShared();
+        Assert.assertEquals(opened.calls.size(), 1);
+        Assert.assertNotSame(factory.newConnection(null, null, "second"), first);
+        Assert.assertEquals(factory.opened.size(), 2);
+    }
+
+    /**
+     * Opens recording connections rather than connecting to a broker
+     */
+    private static class RecordingFactory extends SharedConnectionFactory {
+
+        private final List<RecordingConnection> opened = new ArrayList<>();
+        private final List<ExecutorService> executors = new ArrayList<>();
+
+        @Override
+        protected Connection open(ExecutorService executor, AddressResolver addressResolver,
+                String clientProvidedName) {
+            RecordingConnection connection = new RecordingConnection();
+            opened.add(connection);
+            executors.add(executor);
+            return connection.proxy();
+        }
+    }
+
+    /**
+     * Records a connection being closed or aborted, answering the other methods the factory uses
+     */
+    private static class RecordingConnection {
+
+        private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean open = true;
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        String name = method.getName();
+                        switch(name) {
+                            case "isOpen":
+                                return open;
+                            case "close":
+                            case "abort":
+                                calls.add(name);
+                                open = false;
+                                return null;
+                            case "getAddress":
+                                return InetAddress.getLoopbackAddress();
+                            case "getPort":
+                                return 5672;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return "RecordingConnection";
+                            default:
+                                throw new UnsupportedOperationException(name);
+                        }
+                    });
+        }
+    }
+}